@@ -22,12 +22,18 @@ import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.os.AsyncTask;
 
+import com.isaacrf.epicbitmaprenderer.core.CachePolicy;
 import com.isaacrf.epicbitmaprenderer.core.EpicBitmapCache;
+import com.isaacrf.epicbitmaprenderer.core.EpicBitmapRenderer;
+import com.isaacrf.epicbitmaprenderer.core.SourceType;
 import com.isaacrf.epicbitmaprenderer.listeners.OnBitmapRenderFailed;
 import com.isaacrf.epicbitmaprenderer.listeners.OnBitmapRendered;
+import com.isaacrf.epicbitmaprenderer.transformations.Transformation;
+import com.isaacrf.epicbitmaprenderer.transformations.Transformations;
 
-import java.io.UnsupportedEncodingException;
-import java.net.URLEncoder;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.List;
 
 /**
  * AsyncTask to decode a Bitmap from file given its path. InSampleSize parameter is forced to the value specified.
@@ -38,6 +44,8 @@ public class AsyncDecodeFileForced extends AsyncTask<Void, Void, Bitmap> {
     private int inSampleSize;
     private Exception failException;
     private EpicBitmapCache epicBitmapCache;
+    private List<Transformation> transformations;
+    private CachePolicy cachePolicy;
     //endregion Fields
 
     //region Listeners
@@ -84,38 +92,77 @@ public class AsyncDecodeFileForced extends AsyncTask<Void, Void, Bitmap> {
     }
     //endregion Constructors
 
+    /**
+     * Sets a {@link Transformation} chain to apply to the rendered {@link Bitmap} on the worker thread, before caching and returning it.
+     *
+     * @param transformations Transformations to apply, in order. Null for none.
+     */
+    public void setTransformations(List<Transformation> transformations) {
+        this.transformations = transformations;
+    }
+
+    /**
+     * Sets the {@link CachePolicy} deciding which cache tiers this request reads and writes.
+     *
+     * @param cachePolicy {@link CachePolicy} to apply, or null to use the default of {@link EpicBitmapCache} for file sources.
+     */
+    public void setCachePolicy(CachePolicy cachePolicy) {
+        this.cachePolicy = cachePolicy;
+    }
+
     @Override
     protected Bitmap doInBackground(Void... params) {
         Bitmap decodedBitmap = null;
-        String pathEncoded = "";
 
-        //File path encoding into percent format, to use it as cache identifier (required to create a valid file name for disk cache)
-        try {
-            pathEncoded = URLEncoder.encode(path, "UTF-8");
-        } catch (UnsupportedEncodingException ignored) {
-        }
+        //Canonical file path, encoded into percent format, to use it as cache identifier (required to create a valid file name for disk cache)
+        String pathEncoded = epicBitmapCache != null ? epicBitmapCache.getCacheKey(path, SourceType.FILE) : "";
+
+        //Transformed bitmaps are cached under their own key, so cache hits skip both decoding and transforming
+        String cacheKey = Transformations.getCacheKey(pathEncoded, transformations);
+        CachePolicy policy = epicBitmapCache != null ? epicBitmapCache.getCachePolicy(SourceType.FILE, cachePolicy) : null;
 
         // Search bitmap on cache first if available
         if (!pathEncoded.isEmpty() && epicBitmapCache != null) {
-            decodedBitmap = epicBitmapCache.getBitmapFromCache(pathEncoded);
+            decodedBitmap = epicBitmapCache.getBitmapFromCache(cacheKey, 0, 0, policy);
+            epicBitmapCache.recordKeyLookup(path, pathEncoded, decodedBitmap != null);
+        }
+
+        // Answer with last failure straight away if source failed recently
+        if (decodedBitmap == null && !pathEncoded.isEmpty() && epicBitmapCache != null) {
+            failException = epicBitmapCache.getFailureCache().get(pathEncoded);
         }
 
         //If bitmap not found on cache, render it
-        if (decodedBitmap == null) {
+        if (decodedBitmap == null && failException == null) {
             // Decode bitmap with inSampleSize set
             try {
+                //decodeFile just returns null for missing files, fail as opening them would so the failure is remembered
+                if (!new File(path).exists()) {
+                    throw new FileNotFoundException(path);
+                }
+
                 final BitmapFactory.Options options = new BitmapFactory.Options();
                 options.inSampleSize = inSampleSize;
                 decodedBitmap = BitmapFactory.decodeFile(path, options);
+                decodedBitmap = Transformations.apply(decodedBitmap, transformations, EpicBitmapRenderer.getBitmapPool());
 
                 //Add bitmap to cache if bitmap was successfully rendered and cache is available
                 if (!pathEncoded.isEmpty() && decodedBitmap != null && epicBitmapCache != null) {
-                    epicBitmapCache.put(pathEncoded, decodedBitmap, options.outMimeType, 100);
+                    epicBitmapCache.put(cacheKey, decodedBitmap, options.outMimeType, 100, null, policy);
                 }
             } catch (Exception e) {
                 //Set failException for later launch fail callback on main thread
                 failException = e;
             }
+
+            //Remember failure to answer repeated requests without rendering source again
+            if (!pathEncoded.isEmpty() && epicBitmapCache != null) {
+                if (decodedBitmap != null) {
+                    epicBitmapCache.getFailureCache().remove(pathEncoded);
+                } else if (failException != null) {
+                    epicBitmapCache.getFailureCache().put(pathEncoded, failException);
+                }
+            }
         }
 
         return decodedBitmap;
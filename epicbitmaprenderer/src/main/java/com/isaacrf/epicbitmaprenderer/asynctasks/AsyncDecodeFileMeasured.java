@@ -22,13 +22,19 @@ import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.os.AsyncTask;
 
+import com.isaacrf.epicbitmaprenderer.core.CachePolicy;
 import com.isaacrf.epicbitmaprenderer.core.EpicBitmapCache;
 import com.isaacrf.epicbitmaprenderer.core.EpicBitmapRenderer;
+import com.isaacrf.epicbitmaprenderer.core.SourceType;
 import com.isaacrf.epicbitmaprenderer.listeners.OnBitmapRenderFailed;
 import com.isaacrf.epicbitmaprenderer.listeners.OnBitmapRendered;
+import com.isaacrf.epicbitmaprenderer.transformations.Transformation;
+import com.isaacrf.epicbitmaprenderer.transformations.Transformations;
+import com.isaacrf.epicbitmaprenderer.utils.BitmapDecoder;
 
-import java.io.UnsupportedEncodingException;
-import java.net.URLEncoder;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.List;
 
 /**
  * AsyncTask to decode a Bitmap from a file given its path and desired dimensions.
@@ -40,6 +46,8 @@ public class AsyncDecodeFileMeasured extends AsyncTask<Void, Void, Bitmap> {
     private int requiredHeight;
     private Exception failException;
     private EpicBitmapCache epicBitmapCache;
+    private List<Transformation> transformations;
+    private CachePolicy cachePolicy;
     //endregion Fields
 
     //region Listeners
@@ -90,30 +98,59 @@ public class AsyncDecodeFileMeasured extends AsyncTask<Void, Void, Bitmap> {
     }
     //endregion Constructors
 
+    /**
+     * Sets a {@link Transformation} chain to apply to the rendered {@link Bitmap} on the worker thread, before caching and returning it.
+     *
+     * @param transformations Transformations to apply, in order. Null for none.
+     */
+    public void setTransformations(List<Transformation> transformations) {
+        this.transformations = transformations;
+    }
+
+    /**
+     * Sets the {@link CachePolicy} deciding which cache tiers this request reads and writes.
+     *
+     * @param cachePolicy {@link CachePolicy} to apply, or null to use the default of {@link EpicBitmapCache} for file sources.
+     */
+    public void setCachePolicy(CachePolicy cachePolicy) {
+        this.cachePolicy = cachePolicy;
+    }
+
     @Override
     protected Bitmap doInBackground(Void... params) {
         Bitmap decodedBitmap = null;
         Boolean outOfMemoryError = true;
-        String pathEncoded = "";
 
-        //File path encoding into percent format, to use it as cache identifier (required to create a valid file name for disk cache)
-        try {
-            pathEncoded = URLEncoder.encode(path, "UTF-8");
-        } catch (UnsupportedEncodingException ignored) {
-        }
+        //Canonical file path, encoded into percent format, to use it as cache identifier (required to create a valid file name for disk cache)
+        String pathEncoded = epicBitmapCache != null ? epicBitmapCache.getCacheKey(path, SourceType.FILE) : "";
+
+        //Transformed bitmaps are cached under their own key, so cache hits skip both decoding and transforming
+        String cacheKey = Transformations.getCacheKey(pathEncoded, transformations);
+        CachePolicy policy = epicBitmapCache != null ? epicBitmapCache.getCachePolicy(SourceType.FILE, cachePolicy) : null;
 
         // Search bitmap on cache first if available
         if (!pathEncoded.isEmpty() && epicBitmapCache != null) {
-            decodedBitmap = epicBitmapCache.getBitmapFromCache(pathEncoded);
+            decodedBitmap = epicBitmapCache.getBitmapFromCache(cacheKey, requiredWidth, requiredHeight, policy);
+            epicBitmapCache.recordKeyLookup(path, pathEncoded, decodedBitmap != null);
+        }
+
+        // Answer with last failure straight away if source failed recently
+        if (decodedBitmap == null && !pathEncoded.isEmpty() && epicBitmapCache != null) {
+            failException = epicBitmapCache.getFailureCache().get(pathEncoded);
         }
 
         //If bitmap not found on cache, render it
-        if (decodedBitmap == null) {
+        if (decodedBitmap == null && failException == null) {
+            FileInputStream fileInputStream = null;
             try {
+                //Open file just once, every decode pass below reads from the same file descriptor
+                fileInputStream = new FileInputStream(path);
+
                 // First decode with inJustDecodeBounds=true (No memory allocation) to check dimensions
                 final BitmapFactory.Options options = new BitmapFactory.Options();
                 options.inJustDecodeBounds = true;
-                BitmapFactory.decodeFile(path, options);
+                options.inTempStorage = new byte[BitmapDecoder.DECODE_TEMP_STORAGE_SIZE];
+                BitmapDecoder.decodeFileDescriptorFromStart(fileInputStream, options);
 
                 // Calculate inSampleSize
                 options.inSampleSize = EpicBitmapRenderer.calculateInSampleSize(options, requiredWidth, requiredHeight);
@@ -122,11 +159,12 @@ public class AsyncDecodeFileMeasured extends AsyncTask<Void, Void, Bitmap> {
                 options.inJustDecodeBounds = false;
                 while (outOfMemoryError) {
                     try {
-                        decodedBitmap = BitmapFactory.decodeFile(path, options);
+                        decodedBitmap = BitmapDecoder.decodeFileDescriptorFromStart(fileInputStream, options);
+                        decodedBitmap = Transformations.apply(decodedBitmap, transformations, EpicBitmapRenderer.getBitmapPool());
 
                         //Add bitmap to cache if bitmap was successfully rendered and cache is available
                         if (!pathEncoded.isEmpty() && decodedBitmap != null && epicBitmapCache != null) {
-                            epicBitmapCache.put(pathEncoded, decodedBitmap, options.outMimeType, 100);
+                            epicBitmapCache.put(cacheKey, decodedBitmap, options.outMimeType, 100, null, policy);
                         }
 
                         outOfMemoryError = false;
@@ -144,6 +182,23 @@ public class AsyncDecodeFileMeasured extends AsyncTask<Void, Void, Bitmap> {
             } catch (Exception e) {
                 //Set failException for later launch fail callback on main thread
                 failException = e;
+            } finally {
+                //Close file
+                if (fileInputStream != null) {
+                    try {
+                        fileInputStream.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+
+            //Remember failure to answer repeated requests without rendering source again
+            if (!pathEncoded.isEmpty() && epicBitmapCache != null) {
+                if (decodedBitmap != null) {
+                    epicBitmapCache.getFailureCache().remove(pathEncoded);
+                } else if (failException != null) {
+                    epicBitmapCache.getFailureCache().put(pathEncoded, failException);
+                }
             }
         }
 
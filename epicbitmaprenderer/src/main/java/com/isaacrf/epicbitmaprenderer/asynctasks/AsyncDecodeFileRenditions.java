@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2016 Isaac R.F.
+ * http://isaacrf.com/works/epicbitmaprenderer
+ * https://github.com/isaacrf/EpicBitmapRenderer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.isaacrf.epicbitmaprenderer.asynctasks;
+
+import android.graphics.Bitmap;
+import android.os.AsyncTask;
+
+import com.isaacrf.epicbitmaprenderer.core.EpicBitmapCache;
+import com.isaacrf.epicbitmaprenderer.core.EpicBitmapRenderer;
+import com.isaacrf.epicbitmaprenderer.core.SourceType;
+import com.isaacrf.epicbitmaprenderer.listeners.OnBitmapRenderFailed;
+import com.isaacrf.epicbitmaprenderer.listeners.OnRenditionsRendered;
+
+/**
+ * AsyncTask to decode several size renditions of the image in a file given its path, decoding the file just once.
+ */
+public class AsyncDecodeFileRenditions extends AsyncTask<Void, Void, Bitmap[]> {
+    //region Fields
+    private String path;
+    private int[] sizes;
+    private Exception failException;
+    private EpicBitmapCache epicBitmapCache;
+    //endregion Fields
+
+    //region Listeners
+    private OnRenditionsRendered onRenditionsRendered;
+    private OnBitmapRenderFailed onBitmapRenderFailed;
+    //endregion Listeners
+
+    //region Constructors
+
+    /**
+     * All parameters constructor.
+     *
+     * @param path                 Physical path of File in the device storage.
+     * @param sizes                Maximum width and height, in pixels, of every rendition. Image aspect ratio is kept, and images smaller than a size are not upscaled.
+     * @param onRenditionsRendered Overwrite this callback to retrieve rendered {@link Bitmap} renditions once they're ready, in the same order as sizes.
+     * @param onBitmapRenderFailed Overwrite this callback to perform actions when image fails to render. Can be null.
+     * @param epicBitmapCache      Cache to check if renditions have already been rendered.
+     */
+    public AsyncDecodeFileRenditions(String path, int[] sizes,
+                                     OnRenditionsRendered onRenditionsRendered,
+                                     OnBitmapRenderFailed onBitmapRenderFailed,
+                                     EpicBitmapCache epicBitmapCache) {
+        this.path = path;
+        this.sizes = sizes;
+        this.onRenditionsRendered = onRenditionsRendered;
+        this.onBitmapRenderFailed = onBitmapRenderFailed;
+        this.epicBitmapCache = epicBitmapCache;
+    }
+
+    /**
+     * Basic constructor with just the required parameters.
+     *
+     * @param path                 Physical path of File in the device storage.
+     * @param sizes                Maximum width and height, in pixels, of every rendition. Image aspect ratio is kept, and images smaller than a size are not upscaled.
+     * @param onRenditionsRendered Overwrite this callback to retrieve rendered {@link Bitmap} renditions once they're ready, in the same order as sizes.
+     */
+    public AsyncDecodeFileRenditions(String path, int[] sizes,
+                                     OnRenditionsRendered onRenditionsRendered) {
+        this.path = path;
+        this.sizes = sizes;
+        this.onRenditionsRendered = onRenditionsRendered;
+        this.onBitmapRenderFailed = null;
+        this.epicBitmapCache = null;
+    }
+    //endregion Constructors
+
+    @Override
+    protected Bitmap[] doInBackground(Void... params) {
+        Bitmap[] renditions = null;
+
+        //Canonical file path, encoded into percent format, to use it as failure cache identifier
+        String pathEncoded = epicBitmapCache != null ? epicBitmapCache.getCacheKey(path, SourceType.FILE) : "";
+
+        // Answer with last failure straight away if source failed recently
+        if (!pathEncoded.isEmpty() && epicBitmapCache != null) {
+            failException = epicBitmapCache.getFailureCache().get(pathEncoded);
+        }
+
+        if (failException == null) {
+            try {
+                //Cached renditions are reused, and missing ones rendered from a single decode
+                renditions = EpicBitmapRenderer.renderRenditionsFromFile(path, sizes, epicBitmapCache);
+            } catch (Exception e) {
+                //Set failException for later launch fail callback on main thread
+                failException = e;
+            }
+
+            //Remember failure to answer repeated requests without rendering source again
+            if (!pathEncoded.isEmpty() && epicBitmapCache != null) {
+                if (renditions != null) {
+                    epicBitmapCache.getFailureCache().remove(pathEncoded);
+                } else if (failException != null) {
+                    epicBitmapCache.getFailureCache().put(pathEncoded, failException);
+                }
+            }
+        }
+
+        return renditions;
+    }
+
+    @Override
+    protected void onPostExecute(Bitmap[] renditions) {
+        if (renditions != null) {
+            if (onRenditionsRendered != null) {
+                //Call listener to return rendered renditions
+                onRenditionsRendered.onRenditionsRendered(renditions);
+            }
+        } else if (onBitmapRenderFailed != null && failException != null) {
+            //Call fail listener and send failException triggered
+            onBitmapRenderFailed.onBitmapRenderFailed(failException);
+        }
+    }
+}
@@ -25,9 +25,16 @@ import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.os.AsyncTask;
 
+import com.isaacrf.epicbitmaprenderer.core.CachePolicy;
 import com.isaacrf.epicbitmaprenderer.core.EpicBitmapCache;
+import com.isaacrf.epicbitmaprenderer.core.EpicBitmapRenderer;
+import com.isaacrf.epicbitmaprenderer.core.SourceType;
 import com.isaacrf.epicbitmaprenderer.listeners.OnBitmapRenderFailed;
 import com.isaacrf.epicbitmaprenderer.listeners.OnBitmapRendered;
+import com.isaacrf.epicbitmaprenderer.transformations.Transformation;
+import com.isaacrf.epicbitmaprenderer.transformations.Transformations;
+
+import java.util.List;
 
 /**
  * AsyncTask to decode a Bitmap from resource given its resource ID. InSampleSize parameter is forced to the value specified.
@@ -39,6 +46,8 @@ public class AsyncDecodeResForced extends AsyncTask<Void, Void, Bitmap> {
     private int inSampleSize;
     private Exception failException;
     private EpicBitmapCache epicBitmapCache;
+    private List<Transformation> transformations;
+    private CachePolicy cachePolicy;
     //endregion Fields
 
     //region Listeners
@@ -91,13 +100,33 @@ public class AsyncDecodeResForced extends AsyncTask<Void, Void, Bitmap> {
     }
     //endregion Constructors
 
+    /**
+     * Sets a {@link Transformation} chain to apply to the rendered {@link Bitmap} on the worker thread, before caching and returning it.
+     *
+     * @param transformations Transformations to apply, in order. Null for none.
+     */
+    public void setTransformations(List<Transformation> transformations) {
+        this.transformations = transformations;
+    }
+
+    /**
+     * Sets the {@link CachePolicy} deciding which cache tiers this request reads and writes.
+     *
+     * @param cachePolicy {@link CachePolicy} to apply, or null to use the default of {@link EpicBitmapCache} for resource sources.
+     */
+    public void setCachePolicy(CachePolicy cachePolicy) {
+        this.cachePolicy = cachePolicy;
+    }
+
     @Override
     protected Bitmap doInBackground(Void... params) {
         Bitmap decodedBitmap = null;
+        String cacheKey = Transformations.getCacheKey(String.valueOf(resourceId), transformations);
+        CachePolicy policy = epicBitmapCache != null ? epicBitmapCache.getCachePolicy(SourceType.RESOURCE, cachePolicy) : null;
 
         // Search bitmap on cache first if available
         if (epicBitmapCache != null) {
-            decodedBitmap = epicBitmapCache.getBitmapFromCache(String.valueOf(resourceId));
+            decodedBitmap = epicBitmapCache.getBitmapFromCache(cacheKey, 0, 0, policy);
         }
 
         //If bitmap not found on cache, render it
@@ -107,10 +136,11 @@ public class AsyncDecodeResForced extends AsyncTask<Void, Void, Bitmap> {
                 final BitmapFactory.Options options = new BitmapFactory.Options();
                 options.inSampleSize = inSampleSize;
                 decodedBitmap = BitmapFactory.decodeResource(resources, resourceId, options);
+                decodedBitmap = Transformations.apply(decodedBitmap, transformations, EpicBitmapRenderer.getBitmapPool());
 
                 //Add bitmap to cache if bitmap was successfully rendered and cache is available
                 if (decodedBitmap != null && epicBitmapCache != null) {
-                    epicBitmapCache.put(String.valueOf(resourceId), decodedBitmap, options.outMimeType, 100);
+                    epicBitmapCache.put(cacheKey, decodedBitmap, options.outMimeType, 100, null, policy);
                 }
             } catch (Exception e) {
                 //Set failException for later launch fail callback on main thread
@@ -22,16 +22,25 @@ import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.os.AsyncTask;
 
+import com.isaacrf.epicbitmaprenderer.core.CachePolicy;
 import com.isaacrf.epicbitmaprenderer.core.EpicBitmapCache;
+import com.isaacrf.epicbitmaprenderer.core.EpicBitmapRenderer;
+import com.isaacrf.epicbitmaprenderer.core.SourceType;
 import com.isaacrf.epicbitmaprenderer.listeners.OnBitmapRenderFailed;
 import com.isaacrf.epicbitmaprenderer.listeners.OnBitmapRendered;
+import com.isaacrf.epicbitmaprenderer.network.BitmapTransport;
+import com.isaacrf.epicbitmaprenderer.network.HttpCacheMetadata;
+import com.isaacrf.epicbitmaprenderer.network.ResumableDownload;
+import com.isaacrf.epicbitmaprenderer.network.TransportResponse;
+import com.isaacrf.epicbitmaprenderer.transformations.Transformation;
+import com.isaacrf.epicbitmaprenderer.transformations.Transformations;
+import com.isaacrf.epicbitmaprenderer.utils.BitmapDecoder;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.UnsupportedEncodingException;
-import java.net.URL;
-import java.net.URLConnection;
-import java.net.URLEncoder;
+import java.util.List;
 
 /**
  * AsyncTask to decode a Bitmap from a url. InSampleSize parameter is forced to the value specified.
@@ -42,6 +51,9 @@ public class AsyncDecodeUrlForced extends AsyncTask<Void, Void, Bitmap> {
     private int inSampleSize;
     private Exception failException;
     private EpicBitmapCache epicBitmapCache;
+    private List<Transformation> transformations;
+    private CachePolicy cachePolicy;
+    private BitmapTransport urlTransport;
     //endregion Fields
 
     //region Listeners
@@ -69,6 +81,7 @@ public class AsyncDecodeUrlForced extends AsyncTask<Void, Void, Bitmap> {
         this.onBitmapRendered = onBitmapRendered;
         this.onBitmapRenderFailed = onBitmapRenderFailed;
         this.epicBitmapCache = epicBitmapCache;
+        this.urlTransport = EpicBitmapRenderer.getUrlTransport();
     }
 
     /**
@@ -85,42 +98,133 @@ public class AsyncDecodeUrlForced extends AsyncTask<Void, Void, Bitmap> {
         this.onBitmapRendered = onBitmapRendered;
         this.onBitmapRenderFailed = null;
         this.epicBitmapCache = null;
+        this.urlTransport = EpicBitmapRenderer.getUrlTransport();
     }
     //endregion Constructors
 
+    /**
+     * Sets a {@link Transformation} chain to apply to the rendered {@link Bitmap} on the worker thread, before caching and returning it.
+     *
+     * @param transformations Transformations to apply, in order. Null for none.
+     */
+    public void setTransformations(List<Transformation> transformations) {
+        this.transformations = transformations;
+    }
+
+    /**
+     * Sets the {@link CachePolicy} deciding which cache tiers this request reads and writes.
+     *
+     * @param cachePolicy {@link CachePolicy} to apply, or null to use the default of {@link EpicBitmapCache} for url sources.
+     */
+    public void setCachePolicy(CachePolicy cachePolicy) {
+        this.cachePolicy = cachePolicy;
+    }
+
     @Override
     protected Bitmap doInBackground(Void... params) {
         Bitmap decodedBitmap = null;
         Boolean outOfMemoryError = true;
         InputStream urlInputStream = null;
-        String urlEncoded = "";
+        HttpCacheMetadata cachedMetadata = null;
 
-        //URL encoding into percent format, to use it as cache identifier (required to create a valid file name for disk cache)
-        try {
-            urlEncoded = URLEncoder.encode(url, "UTF-8");
-        } catch (UnsupportedEncodingException ignored) {
-        }
+        //Canonical URL, encoded into percent format, to use it as cache identifier (required to create a valid file name for disk cache)
+        String urlEncoded = epicBitmapCache != null ? epicBitmapCache.getCacheKey(url, SourceType.URL) : "";
+
+        //Transformed bitmaps are cached under their own key, so cache hits skip both decoding and transforming
+        String cacheKey = Transformations.getCacheKey(urlEncoded, transformations);
+        CachePolicy policy = epicBitmapCache != null ? epicBitmapCache.getCachePolicy(SourceType.URL, cachePolicy) : null;
 
-        // Search bitmap on cache first if available
+        // Search bitmap on cache first if available, memory first. Disk cache copy is only used while fresh and not
+        // expired, others are revalidated below
         if (!urlEncoded.isEmpty() && epicBitmapCache != null) {
-            decodedBitmap = epicBitmapCache.getBitmapFromCache(urlEncoded);
+            decodedBitmap = policy.readsMemory() ? epicBitmapCache.getBitmapFromMemCache(cacheKey) : null;
+
+            if (decodedBitmap == null && policy.readsDisk()) {
+                cachedMetadata = HttpCacheMetadata.parse(epicBitmapCache.getMetadataFromDiskCache(cacheKey));
+                if (cachedMetadata == null || (cachedMetadata.isFresh(System.currentTimeMillis())
+                        && !epicBitmapCache.isExpiredOnDiskCache(cacheKey))) {
+                    decodedBitmap = epicBitmapCache.getBitmapFromCache(cacheKey, 0, 0, policy);
+                }
+            }
+            epicBitmapCache.recordKeyLookup(url, urlEncoded, decodedBitmap != null);
+        }
+
+        // Answer with last failure straight away if source failed recently
+        if (decodedBitmap == null && !urlEncoded.isEmpty() && epicBitmapCache != null) {
+            failException = epicBitmapCache.getFailureCache().get(urlEncoded);
         }
 
         //If bitmap not found on cache, render it
-        if (decodedBitmap == null) {
+        if (decodedBitmap == null && failException == null) {
+            ResumableDownload download = null;
+            if (!urlEncoded.isEmpty() && epicBitmapCache != null && policy.writesDisk()) {
+                File partialFile = epicBitmapCache.getPartialDownloadFile(urlEncoded);
+                if (partialFile != null) {
+                    download = ResumableDownload.acquire(urlTransport, url, partialFile);
+                }
+            }
+
             try {
-                //Open connection to Url
-                urlInputStream = getUrlConnectionInputStream(url);
+                TransportResponse response;
+                if (download != null) {
+                    //Download image to disk cache staging area first, so an interrupted download is resumed next time
+                    response = download.download(cachedMetadata);
+                } else {
+                    //Open connection to Url, conditional if there is a stale copy on disk cache to revalidate
+                    response = openUrl(url, cachedMetadata);
+                }
+
+                if (response != null && cachedMetadata != null && response.isNotModified()) {
+                    //Stored copy is still valid, just refresh its metadata instead of downloading image again. Metadata
+                    //is refreshed first, as it renews the disk cache expiry too, so an expired copy can be read again
+                    if (policy.writesDisk()) {
+                        epicBitmapCache.updateDiskCacheMetadata(cacheKey,
+                                cachedMetadata.refresh(response, System.currentTimeMillis()).toString());
+                    }
+                    decodedBitmap = epicBitmapCache.getBitmapFromCache(cacheKey, 0, 0, policy);
+                    response.close();
+
+                    //Request image again unconditionally if stored copy was removed meanwhile
+                    if (decodedBitmap != null) {
+                        response = null;
+                    } else {
+                        response = download != null ? download.download(null) : openUrl(url, null);
+                    }
+                }
+
+                if (response != null && download != null) {
+                    HttpCacheMetadata receivedMetadata = HttpCacheMetadata.fromResponse(response, System.currentTimeMillis());
+
+                    //Whole image is on disk now, decode it straight from its file descriptor
+                    final BitmapFactory.Options options = new BitmapFactory.Options();
+                    options.inSampleSize = inSampleSize;
+                    FileInputStream fileInputStream = download.openFile();
+                    try {
+                        decodedBitmap = BitmapDecoder.decodeSampledBitmapFromFileDescriptor(fileInputStream, options, 0, 0);
+                        decodedBitmap = Transformations.apply(decodedBitmap, transformations, EpicBitmapRenderer.getBitmapPool());
+                    } finally {
+                        fileInputStream.close();
+                    }
+                    download.complete();
+
+                    //Add bitmap to cache if bitmap was successfully rendered
+                    if (decodedBitmap != null) {
+                        epicBitmapCache.put(cacheKey, decodedBitmap, options.outMimeType, 100, receivedMetadata.toString(), policy);
+                    }
+                } else if (response != null) {
+                    urlInputStream = response.getInputStream();
+                    HttpCacheMetadata receivedMetadata = HttpCacheMetadata.fromResponse(response, System.currentTimeMillis());
 
-                if (urlInputStream != null) {
                     // Decode bitmap with inSampleSize set
                     final BitmapFactory.Options options = new BitmapFactory.Options();
                     options.inSampleSize = inSampleSize;
                     decodedBitmap = BitmapFactory.decodeStream(urlInputStream, null, options);
+                    decodedBitmap = Transformations.apply(decodedBitmap, transformations, EpicBitmapRenderer.getBitmapPool());
 
                     //Add bitmap to cache if bitmap was successfully rendered and cache is available
                     if (!urlEncoded.isEmpty() && decodedBitmap != null && epicBitmapCache != null) {
-                        epicBitmapCache.put(urlEncoded, decodedBitmap, options.outMimeType, 100);
+                        epicBitmapCache.put(cacheKey, decodedBitmap, options.outMimeType, 100,
+                                receivedMetadata.toString(), policy);
                     }
                 }
 
@@ -135,6 +239,19 @@ public class AsyncDecodeUrlForced extends AsyncTask<Void, Void, Bitmap> {
                     } catch (IOException ignored) {
                     }
                 }
+                //Keep partially downloaded data to resume it next time
+                if (download != null) {
+                    download.release();
+                }
+            }
+
+            //Remember failure to answer repeated requests without rendering source again
+            if (!urlEncoded.isEmpty() && epicBitmapCache != null) {
+                if (decodedBitmap != null) {
+                    epicBitmapCache.getFailureCache().remove(urlEncoded);
+                } else if (failException != null) {
+                    epicBitmapCache.getFailureCache().put(urlEncoded, failException);
+                }
             }
         }
 
@@ -155,27 +272,35 @@ public class AsyncDecodeUrlForced extends AsyncTask<Void, Void, Bitmap> {
     }
 
     /**
-     * Gets an {@link InputStream} from a given Url
+     * Requests a given Url through the {@link BitmapTransport} in use.
      *
-     * @param url Url from which InputStream should be obtained
-     * @return {@link InputStream} object connected to Url
+     * @param url            Url to request.
+     * @param cachedMetadata Metadata of a stale copy of the image stored on disk cache, to make the request conditional
+     *                       (If-None-Match / If-Modified-Since). Null to make an unconditional request.
+     * @return {@link TransportResponse} object, or null if request failed.
      */
-    protected InputStream getUrlConnectionInputStream(String url) {
-        URL urlFeed;
-        URLConnection urlConnection;
-        InputStream inputStream = null;
+    protected TransportResponse openUrl(String url, HttpCacheMetadata cachedMetadata) {
+        TransportResponse response = null;
 
         try {
-            urlFeed = new URL(url);
-            urlConnection = urlFeed.openConnection();
-            urlConnection.setUseCaches(true);
-
-            inputStream = urlConnection.getInputStream();
+            response = urlTransport.open(url, cachedMetadata, 0, null);
         } catch (Exception e) {
             //Set failException for later launch fail callback on main thread
             failException = e;
         }
 
-        return inputStream;
+        return response;
+    }
+
+    /**
+     * Gets an {@link InputStream} from a given Url
+     *
+     * @param url Url from which InputStream should be obtained
+     * @return {@link InputStream} object connected to Url
+     */
+    protected InputStream getUrlConnectionInputStream(String url) {
+        TransportResponse response = openUrl(url, null);
+
+        return response != null ? response.getInputStream() : null;
     }
 }
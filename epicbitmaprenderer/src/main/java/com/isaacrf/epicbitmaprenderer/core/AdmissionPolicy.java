@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2016 Isaac R.F.
+ * http://isaacrf.com/works/epicbitmaprenderer
+ * https://github.com/isaacrf/EpicBitmapRenderer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.isaacrf.epicbitmaprenderer.core;
+
+/**
+ * <p>
+ * Policy deciding whether a new {@link android.graphics.Bitmap} is worth being admitted into {@link BitmapMemoryCache},
+ * e.g. to keep a single huge bitmap from flushing every thumbnail on screen. Rejected bitmaps are still returned to
+ * the caller and written to disk cache, they are just not kept in memory.
+ * </p>
+ * <p>
+ * Policies are only called while holding the cache lock, so they don't need to be thread safe as long as they are
+ * used by a single cache.
+ * </p>
+ */
+public interface AdmissionPolicy {
+
+    /**
+     * Records an access to a key, for policies estimating how often keys are used. Called on lookups only, so
+     * a miss and the insertion following it count as a single access.
+     *
+     * @param key ID of the bitmap accessed.
+     */
+    void recordAccess(String key);
+
+    /**
+     * Decides whether a new entry is admitted into cache.
+     *
+     * @param key       ID of the candidate bitmap.
+     * @param entrySize Bytes accounted for the candidate entry.
+     * @param victimKey ID of the entry that would be evicted first to make room for it, or null if there is room already.
+     * @param maxSize   Maximum number of bytes held by the cache.
+     * @return True to admit the candidate, False to reject it.
+     */
+    boolean admit(String key, long entrySize, String victimKey, long maxSize);
+}
@@ -0,0 +1,385 @@
+/*
+ * Copyright (C) 2016 Isaac R.F.
+ * http://isaacrf.com/works/epicbitmaprenderer
+ * https://github.com/isaacrf/EpicBitmapRenderer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.isaacrf.epicbitmaprenderer.core;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * Default {@link MemoryCache} of {@link EpicBitmapCache}: a least recently used cache of {@link Bitmap} objects bounded by the bytes
+ * they actually hold on the heap, and optionally by a number of entries.
+ * </p>
+ * <p>
+ * Every entry is accounted as the bytes allocated for its pixels (including unused space of reused buffers, when
+ * the platform reports it) plus a fixed overhead for the key, the entry and the {@link Bitmap} object itself, so
+ * tiny bitmaps are never accounted as free.
+ * </p>
+ * <p>
+ * New entries are only kept if its {@link AdmissionPolicy} admits them. By default, a {@link SizeAdmissionPolicy}
+ * rejects bitmaps larger than a quarter of the cache.
+ * </p>
+ */
+public class BitmapMemoryCache implements MemoryCache {
+    //region Constants
+    /**
+     * Approximate heap used by every entry besides pixel data: map entry, key and {@link Bitmap} object.
+     */
+    public static final long ENTRY_OVERHEAD = 128;
+    /**
+     * Max entry count value meaning entries are only bounded by size.
+     */
+    public static final int UNLIMITED_ENTRIES = 0;
+    //endregion Constants
+
+    //region Fields
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(0, 0.75f, true);
+    private long maxSize;
+    private int maxEntries;
+    private long size;
+    private AdmissionPolicy admissionPolicy = new SizeAdmissionPolicy();
+    private int hitCount;
+    private int missCount;
+    private int putCount;
+    private int evictionCount;
+    private int rejectionCount;
+    //endregion Fields
+
+    //region Constructors
+
+    /**
+     * Basic constructor, bounded by size only.
+     *
+     * @param maxSize Maximum number of bytes held by cached entries.
+     */
+    public BitmapMemoryCache(long maxSize) {
+        this(maxSize, UNLIMITED_ENTRIES);
+    }
+
+    /**
+     * All parameters constructor.
+     *
+     * @param maxSize    Maximum number of bytes held by cached entries.
+     * @param maxEntries Maximum number of cached entries, or {@link #UNLIMITED_ENTRIES}.
+     */
+    public BitmapMemoryCache(long maxSize, int maxEntries) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        if (maxEntries < 0) {
+            throw new IllegalArgumentException("maxEntries < 0");
+        }
+        this.maxSize = maxSize;
+        this.maxEntries = maxEntries;
+    }
+    //endregion Constructors
+
+    //region Cache handling methods
+
+    /**
+     * Gets a cached {@link Bitmap}, making it the most recently used one.
+     *
+     * @param key ID of the {@link Bitmap}.
+     * @return Cached {@link Bitmap}, or null if not found.
+     */
+    @Override
+    public synchronized Bitmap get(String key) {
+        if (admissionPolicy != null) {
+            admissionPolicy.recordAccess(key);
+        }
+
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            hitCount++;
+            return entry.bitmap;
+        }
+        missCount++;
+        return null;
+    }
+
+    @Override
+    public synchronized boolean contains(String key) {
+        return entries.containsKey(key);
+    }
+
+    /**
+     * Caches a {@link Bitmap}, evicting least recently used entries if limits are exceeded. A bitmap larger than the
+     * whole cache, or rejected by the {@link AdmissionPolicy}, is not cached, and any previous value for the key is dropped.
+     *
+     * @param key    ID of the {@link Bitmap}.
+     * @param bitmap {@link Bitmap} to cache.
+     * @return Previous {@link Bitmap} cached for the key, or null if none.
+     */
+    @Override
+    public synchronized Bitmap put(String key, Bitmap bitmap) {
+        if (key == null || bitmap == null) {
+            throw new NullPointerException("key == null || bitmap == null");
+        }
+
+        putCount++;
+        long entrySize = sizeOf(key, bitmap);
+        Entry previous = entries.remove(key);
+        if (previous != null) {
+            size -= previous.size;
+        }
+
+        if (entrySize <= maxSize && isAdmitted(key, entrySize)) {
+            entries.put(key, new Entry(bitmap, entrySize));
+            size += entrySize;
+            trimToLimits(maxSize, maxEntries);
+        }
+
+        return previous != null ? previous.bitmap : null;
+    }
+
+    /**
+     * Removes a cached {@link Bitmap}.
+     *
+     * @param key ID of the {@link Bitmap}.
+     * @return Removed {@link Bitmap}, or null if not found.
+     */
+    @Override
+    public synchronized Bitmap remove(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            size -= entry.size;
+            return entry.bitmap;
+        }
+        return null;
+    }
+
+    /**
+     * Evicts least recently used entries until cache holds no more than the bytes specified.
+     *
+     * @param maxSize Maximum number of bytes to keep.
+     */
+    @Override
+    public synchronized void trimToSize(long maxSize) {
+        trimToLimits(maxSize, maxEntries);
+    }
+
+    /**
+     * Evicts every entry. They are not counted in {@link #evictionCount()}.
+     */
+    @Override
+    public synchronized void evictAll() {
+        entries.clear();
+        size = 0;
+    }
+
+    /**
+     * Changes cache limits, evicting least recently used entries if needed.
+     *
+     * @param maxSize    Maximum number of bytes held by cached entries.
+     * @param maxEntries Maximum number of cached entries, or {@link #UNLIMITED_ENTRIES}.
+     */
+    public synchronized void resize(long maxSize, int maxEntries) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        if (maxEntries < 0) {
+            throw new IllegalArgumentException("maxEntries < 0");
+        }
+        this.maxSize = maxSize;
+        this.maxEntries = maxEntries;
+        trimToLimits(maxSize, maxEntries);
+    }
+
+    /**
+     * Sets the policy deciding whether new entries are admitted into cache.
+     *
+     * @param admissionPolicy {@link AdmissionPolicy} to use, or null to admit every entry that fits in cache.
+     */
+    public synchronized void setAdmissionPolicy(AdmissionPolicy admissionPolicy) {
+        this.admissionPolicy = admissionPolicy;
+    }
+    //endregion Cache handling methods
+
+    //region Getters
+
+    /**
+     * @return Number of bytes held by cached entries, including their overhead.
+     */
+    @Override
+    public synchronized long size() {
+        return size;
+    }
+
+    /**
+     * @return Maximum number of bytes held by cached entries.
+     */
+    @Override
+    public synchronized long maxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return Number of cached entries.
+     */
+    @Override
+    public synchronized int entryCount() {
+        return entries.size();
+    }
+
+    /**
+     * @return Maximum number of cached entries, or {@link #UNLIMITED_ENTRIES}.
+     */
+    public synchronized int maxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * @return Number of times {@link #get(String)} found the bitmap requested.
+     */
+    @Override
+    public synchronized int hitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return Number of times {@link #get(String)} didn't find the bitmap requested.
+     */
+    @Override
+    public synchronized int missCount() {
+        return missCount;
+    }
+
+    /**
+     * @return Number of times {@link #put(String, Bitmap)} was called.
+     */
+    public synchronized int putCount() {
+        return putCount;
+    }
+
+    /**
+     * @return Number of entries evicted to honor cache limits.
+     */
+    @Override
+    public synchronized int evictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * @return Number of entries not cached because the {@link AdmissionPolicy} rejected them.
+     */
+    public synchronized int rejectionCount() {
+        return rejectionCount;
+    }
+
+    /**
+     * @return {@link AdmissionPolicy} in use, or null if every entry that fits is admitted.
+     */
+    public synchronized AdmissionPolicy getAdmissionPolicy() {
+        return admissionPolicy;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "BitmapMemoryCache[size=" + size + ",maxSize=" + maxSize + ",entries=" + entries.size()
+                + ",maxEntries=" + maxEntries + ",hits=" + hitCount + ",misses=" + missCount + ",rejections=" + rejectionCount + "]";
+    }
+    //endregion Getters
+
+    //region Helper methods
+
+    /**
+     * Computes the heap bytes accounted for an entry. Override to account entries differently.
+     *
+     * @param key    ID of the {@link Bitmap}.
+     * @param bitmap Cached {@link Bitmap}.
+     * @return Bytes accounted for the entry.
+     */
+    protected long sizeOf(String key, Bitmap bitmap) {
+        return getBitmapByteCount(bitmap) + ENTRY_OVERHEAD + 2L * key.length();
+    }
+
+    /**
+     * Gets the bytes allocated to store the pixels of a {@link Bitmap}. On KitKat and newer, it includes the unused
+     * space of a larger buffer reused to decode it.
+     *
+     * @param bitmap {@link Bitmap} to measure.
+     * @return Bytes allocated for its pixels.
+     */
+    public static long getBitmapByteCount(Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return bitmap.getAllocationByteCount();
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB_MR1) {
+            return bitmap.getByteCount();
+        }
+        return (long) bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+    /**
+     * Asks the {@link AdmissionPolicy} whether a new entry is admitted, telling it which entry would be evicted first
+     * to make room for it, if any.
+     */
+    private boolean isAdmitted(String key, long entrySize) {
+        if (admissionPolicy == null) {
+            return true;
+        }
+
+        String victimKey = null;
+        if (size + entrySize > maxSize || (maxEntries != UNLIMITED_ENTRIES && entries.size() >= maxEntries)) {
+            Iterator<String> keys = entries.keySet().iterator();
+            victimKey = keys.hasNext() ? keys.next() : null;
+        }
+
+        if (admissionPolicy.admit(key, entrySize, victimKey, maxSize)) {
+            return true;
+        }
+        rejectionCount++;
+        return false;
+    }
+
+    /**
+     * Evicts least recently used entries until both size and entry count are within limits.
+     */
+    private void trimToLimits(long maxSize, int maxEntries) {
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext() && (size > maxSize
+                || (maxEntries != UNLIMITED_ENTRIES && entries.size() > maxEntries))) {
+            Entry evicted = iterator.next().getValue();
+            iterator.remove();
+            size -= evicted.size;
+            evictionCount++;
+        }
+    }
+    //endregion Helper methods
+
+    //region Helper classes
+
+    /**
+     * Cached {@link Bitmap} along with the bytes accounted for it when it was cached.
+     */
+    private static class Entry {
+        private final Bitmap bitmap;
+        private final long size;
+
+        private Entry(Bitmap bitmap, long size) {
+            this.bitmap = bitmap;
+            this.size = size;
+        }
+    }
+    //endregion Helper classes
+}
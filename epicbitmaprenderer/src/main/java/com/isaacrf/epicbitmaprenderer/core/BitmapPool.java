@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2016 Isaac R.F.
+ * http://isaacrf.com/works/epicbitmaprenderer
+ * https://github.com/isaacrf/EpicBitmapRenderer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.isaacrf.epicbitmaprenderer.core;
+
+import android.graphics.Bitmap;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * <p>
+ * Bounded pool of mutable {@link Bitmap} objects no longer in use (e.g. intermediate results of a
+ * {@link com.isaacrf.epicbitmaprenderer.transformations.Transformation} chain), so new bitmaps of the same
+ * dimensions and config can reuse their memory instead of allocating it again.
+ * </p>
+ * <p>
+ * When pool is full, least recently pooled bitmaps are recycled.
+ * </p>
+ */
+public class BitmapPool {
+    //region Fields
+    private final LinkedList<Bitmap> bitmaps = new LinkedList<Bitmap>();
+    private final long maxSize;
+    private long size;
+    private int hitCount;
+    private int missCount;
+    //endregion Fields
+
+    //region Constructors
+
+    /**
+     * Basic constructor, uses 1/32th of the available memory for the pool.
+     */
+    public BitmapPool() {
+        this(Runtime.getRuntime().maxMemory() / 32);
+    }
+
+    /**
+     * All parameters constructor.
+     *
+     * @param maxSize Maximum number of bytes of the bitmaps kept in pool.
+     */
+    public BitmapPool(long maxSize) {
+        this.maxSize = maxSize;
+    }
+    //endregion Constructors
+
+    //region Pool handling methods
+
+    /**
+     * Gets a cleared (fully transparent) mutable {@link Bitmap} of the dimensions and config specified, reusing a pooled one if available.
+     *
+     * @param width  Width of the bitmap, in pixels.
+     * @param height Height of the bitmap, in pixels.
+     * @param config {@link Bitmap.Config} of the bitmap. Null for ARGB_8888.
+     * @return Mutable {@link Bitmap}, removed from pool if it was pooled.
+     */
+    public Bitmap get(int width, int height, Bitmap.Config config) {
+        if (config == null) {
+            config = Bitmap.Config.ARGB_8888;
+        }
+
+        Bitmap reused = null;
+        synchronized (this) {
+            Iterator<Bitmap> iterator = bitmaps.iterator();
+            while (iterator.hasNext()) {
+                Bitmap bitmap = iterator.next();
+                if (bitmap.getWidth() == width && bitmap.getHeight() == height && bitmap.getConfig() == config) {
+                    iterator.remove();
+                    size -= sizeOf(bitmap);
+                    reused = bitmap;
+                    break;
+                }
+            }
+
+            if (reused != null) {
+                hitCount++;
+            } else {
+                missCount++;
+            }
+        }
+
+        if (reused != null) {
+            reused.eraseColor(0);
+            return reused;
+        }
+        return Bitmap.createBitmap(width, height, config);
+    }
+
+    /**
+     * Returns a {@link Bitmap} no longer in use to the pool. Caller must not use it anymore. Immutable bitmaps, or
+     * bitmaps larger than the whole pool, are recycled straight away.
+     *
+     * @param bitmap {@link Bitmap} to pool.
+     */
+    public void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            return;
+        }
+
+        long bitmapSize = sizeOf(bitmap);
+        if (!bitmap.isMutable() || bitmapSize > maxSize) {
+            bitmap.recycle();
+            return;
+        }
+
+        synchronized (this) {
+            bitmaps.addLast(bitmap);
+            size += bitmapSize;
+            trimToSize(maxSize);
+        }
+    }
+
+    /**
+     * Recycles every pooled {@link Bitmap}.
+     */
+    public synchronized void clear() {
+        trimToSize(0);
+    }
+    //endregion Pool handling methods
+
+    //region Getters
+
+    /**
+     * @return Number of bytes of the bitmaps currently pooled.
+     */
+    public synchronized long size() {
+        return size;
+    }
+
+    /**
+     * @return Maximum number of bytes of the bitmaps kept in pool.
+     */
+    public long maxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return Number of times {@link #get(int, int, Bitmap.Config)} reused a pooled bitmap.
+     */
+    public synchronized int hitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return Number of times {@link #get(int, int, Bitmap.Config)} had to allocate a new bitmap.
+     */
+    public synchronized int missCount() {
+        return missCount;
+    }
+    //endregion Getters
+
+    //region Helper methods
+
+    /**
+     * Recycles least recently pooled bitmaps until pool size is below the limit specified.
+     */
+    private void trimToSize(long limit) {
+        while (size > limit && !bitmaps.isEmpty()) {
+            Bitmap evicted = bitmaps.removeFirst();
+            size -= sizeOf(evicted);
+            evicted.recycle();
+        }
+    }
+
+    private static long sizeOf(Bitmap bitmap) {
+        return (long) bitmap.getRowBytes() * bitmap.getHeight();
+    }
+    //endregion Helper methods
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2016 Isaac R.F.
+ * http://isaacrf.com/works/epicbitmaprenderer
+ * https://github.com/isaacrf/EpicBitmapRenderer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.isaacrf.epicbitmaprenderer.core;
+
+/**
+ * Decides which tiers of {@link EpicBitmapCache} a render request reads from and writes to. A policy can be set per
+ * request, or per {@link SourceType} through {@link EpicBitmapCache#setDefaultCachePolicy(SourceType, CachePolicy)}.
+ */
+public enum CachePolicy {
+    /**
+     * Reads and writes both memory and disk cache.
+     */
+    MEMORY_AND_DISK(true, true, true, true),
+    /**
+     * Reads and writes memory cache only, e.g. for resources already stored compressed inside the APK.
+     */
+    MEMORY_ONLY(true, true, false, false),
+    /**
+     * Reads and writes disk cache only, e.g. for big images seldom shown, not worth memory cache space.
+     */
+    DISK_ONLY(false, false, true, true),
+    /**
+     * Bypasses both tiers: the source is always rendered and its result is never stored.
+     */
+    NO_STORE(false, false, false, false),
+    /**
+     * Reads both tiers but never stores new results, e.g. to show cached images without disturbing cache contents.
+     */
+    READ_ONLY(true, false, true, false);
+
+    //region Fields
+    private final boolean readsMemory;
+    private final boolean writesMemory;
+    private final boolean readsDisk;
+    private final boolean writesDisk;
+    //endregion Fields
+
+    CachePolicy(boolean readsMemory, boolean writesMemory, boolean readsDisk, boolean writesDisk) {
+        this.readsMemory = readsMemory;
+        this.writesMemory = writesMemory;
+        this.readsDisk = readsDisk;
+        this.writesDisk = writesDisk;
+    }
+
+    /**
+     * @return True if bitmaps are looked up on memory cache.
+     */
+    public boolean readsMemory() {
+        return readsMemory;
+    }
+
+    /**
+     * @return True if rendered bitmaps, and disk hits promoted, are stored on memory cache.
+     */
+    public boolean writesMemory() {
+        return writesMemory;
+    }
+
+    /**
+     * @return True if bitmaps and their metadata are looked up on disk cache.
+     */
+    public boolean readsDisk() {
+        return readsDisk;
+    }
+
+    /**
+     * @return True if rendered bitmaps, their metadata and partial downloads are stored on disk cache.
+     */
+    public boolean writesDisk() {
+        return writesDisk;
+    }
+}
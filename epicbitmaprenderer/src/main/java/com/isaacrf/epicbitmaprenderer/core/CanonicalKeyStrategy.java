@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2016 Isaac R.F.
+ * http://isaacrf.com/works/epicbitmaprenderer
+ * https://github.com/isaacrf/EpicBitmapRenderer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.isaacrf.epicbitmaprenderer.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>
+ * {@link KeyStrategy} canonicalizing urls, so trivially different urls of the same image share cache entries. File
+ * and resource sources are left as is.
+ * </p>
+ * <ul>
+ * <li>Scheme and host are lower cased, fragments and default ports (80 for http, 443 for https) are dropped.</li>
+ * <li>http and https urls are considered the same image, if enabled.</li>
+ * <li>Hosts are replaced by their aliases, e.g. every CDN hostname by a single one.</li>
+ * <li>Query parameters given, e.g. cache-busting "t" or tracking "utm_source", are stripped.</li>
+ * <li>Query parameters are sorted, if enabled, so their order doesn't matter.</li>
+ * </ul>
+ * <p>
+ * Urls that can't be parsed are left as is. This class is immutable, so it is thread safe.
+ * </p>
+ */
+public class CanonicalKeyStrategy implements KeyStrategy {
+    //region Constants
+    /**
+     * Query parameters stripped by the basic constructor: common cache-busting and tracking parameters.
+     */
+    public static final List<String> DEFAULT_STRIPPED_PARAMS = Collections.unmodifiableList(Arrays.asList(
+            "t", "ts", "_", "cb", "cachebuster", "utm_source", "utm_medium", "utm_campaign", "utm_term", "utm_content"));
+    //endregion Constants
+
+    //region Fields
+    private final Set<String> strippedParams;
+    private final boolean sortQuery;
+    private final boolean ignoreScheme;
+    private final Map<String, String> hostAliases;
+    //endregion Fields
+
+    //region Constructors
+
+    /**
+     * Basic constructor, strips {@link #DEFAULT_STRIPPED_PARAMS}, sorts the query and considers http and https urls
+     * the same image, with no host aliases.
+     */
+    public CanonicalKeyStrategy() {
+        this(DEFAULT_STRIPPED_PARAMS, true, true, Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * All parameters constructor.
+     *
+     * @param strippedParams Names of query parameters to strip, case sensitive.
+     * @param sortQuery      True to sort query parameters.
+     * @param ignoreScheme   True to consider http and https urls the same image.
+     * @param hostAliases    Hosts mapped to the host they are an alias of, e.g. "cdn2.example.com" to "cdn.example.com".
+     */
+    public CanonicalKeyStrategy(Collection<String> strippedParams, boolean sortQuery, boolean ignoreScheme,
+                                Map<String, String> hostAliases) {
+        this.strippedParams = Collections.unmodifiableSet(new HashSet<String>(strippedParams));
+        this.sortQuery = sortQuery;
+        this.ignoreScheme = ignoreScheme;
+        Map<String, String> aliases = new HashMap<String, String>();
+        for (Map.Entry<String, String> alias : hostAliases.entrySet()) {
+            aliases.put(alias.getKey().toLowerCase(Locale.US), alias.getValue().toLowerCase(Locale.US));
+        }
+        this.hostAliases = Collections.unmodifiableMap(aliases);
+    }
+    //endregion Constructors
+
+    @Override
+    public String canonicalize(String source, SourceType sourceType) {
+        if (sourceType != SourceType.URL) {
+            return source;
+        }
+
+        int schemeEnd = source.indexOf("://");
+        if (schemeEnd <= 0) {
+            return source;
+        }
+
+        //Fragments are never sent to the server
+        int fragmentStart = source.indexOf('#');
+        String url = fragmentStart >= 0 ? source.substring(0, fragmentStart) : source;
+
+        int authorityStart = schemeEnd + 3;
+        int pathStart = indexOfAny(url, "/?", authorityStart);
+        int queryStart = url.indexOf('?', authorityStart);
+        String scheme = url.substring(0, schemeEnd).toLowerCase(Locale.US);
+        String authority = url.substring(authorityStart, pathStart >= 0 ? pathStart : url.length());
+        String path = pathStart >= 0 ? url.substring(pathStart, queryStart >= 0 ? queryStart : url.length()) : "";
+        String query = queryStart >= 0 ? url.substring(queryStart + 1) : "";
+
+        //Default port depends on the scheme requested, so it is dropped before http is replaced
+        String canonicalAuthority = canonicalizeAuthority(authority, scheme);
+        if (ignoreScheme && scheme.equals("http")) {
+            scheme = "https";
+        }
+
+        StringBuilder canonical = new StringBuilder(url.length());
+        canonical.append(scheme).append("://").append(canonicalAuthority).append(path);
+        String canonicalQuery = canonicalizeQuery(query);
+        if (!canonicalQuery.isEmpty()) {
+            canonical.append('?').append(canonicalQuery);
+        }
+        return canonical.toString();
+    }
+
+    private String canonicalizeAuthority(String authority, String scheme) {
+        int userInfoEnd = authority.lastIndexOf('@');
+        String userInfo = userInfoEnd >= 0 ? authority.substring(0, userInfoEnd + 1) : "";
+        String hostAndPort = authority.substring(userInfoEnd + 1).toLowerCase(Locale.US);
+
+        //Default ports are the same as no port (IPv6 hosts end with ']')
+        int portStart = hostAndPort.lastIndexOf(':');
+        String host = hostAndPort;
+        String port = "";
+        if (portStart > hostAndPort.lastIndexOf(']')) {
+            host = hostAndPort.substring(0, portStart);
+            port = hostAndPort.substring(portStart);
+            if (port.equals(":") || port.equals(getDefaultPort(scheme))) {
+                port = "";
+            }
+        }
+
+        String alias = hostAliases.get(host);
+        return userInfo + (alias != null ? alias : host) + port;
+    }
+
+    /**
+     * @return Default port of a scheme, prefixed by ':', or null if unknown.
+     */
+    private static String getDefaultPort(String scheme) {
+        if (scheme.equals("http")) {
+            return ":80";
+        } else if (scheme.equals("https")) {
+            return ":443";
+        }
+        return null;
+    }
+
+    private String canonicalizeQuery(String query) {
+        if (query.isEmpty()) {
+            return query;
+        }
+
+        List<String> params = new ArrayList<String>();
+        for (String param : query.split("&")) {
+            int nameEnd = param.indexOf('=');
+            String name = nameEnd >= 0 ? param.substring(0, nameEnd) : param;
+            if (!param.isEmpty() && !strippedParams.contains(name)) {
+                params.add(param);
+            }
+        }
+        if (sortQuery) {
+            Collections.sort(params);
+        }
+
+        StringBuilder canonical = new StringBuilder(query.length());
+        for (String param : params) {
+            if (canonical.length() > 0) {
+                canonical.append('&');
+            }
+            canonical.append(param);
+        }
+        return canonical.toString();
+    }
+
+    private static int indexOfAny(String string, String chars, int fromIndex) {
+        for (int i = fromIndex; i < string.length(); i++) {
+            if (chars.indexOf(string.charAt(i)) >= 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    //region Getters
+
+    /**
+     * @return Names of query parameters stripped.
+     */
+    public Set<String> getStrippedParams() {
+        return strippedParams;
+    }
+
+    /**
+     * @return True if query parameters are sorted.
+     */
+    public boolean isSortQuery() {
+        return sortQuery;
+    }
+
+    /**
+     * @return True if http and https urls are considered the same image.
+     */
+    public boolean isIgnoreScheme() {
+        return ignoreScheme;
+    }
+
+    /**
+     * @return Hosts mapped to the host they are an alias of.
+     */
+    public Map<String, String> getHostAliases() {
+        return hostAliases;
+    }
+    //endregion Getters
+}
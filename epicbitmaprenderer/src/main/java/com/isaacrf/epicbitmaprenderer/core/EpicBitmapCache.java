@@ -22,49 +22,100 @@ import android.content.Context;
 import android.graphics.Bitmap;
 import android.os.AsyncTask;
 import android.os.Environment;
-import android.support.v4.util.LruCache;
 
 import com.isaacrf.epicbitmaprenderer.utils.DiskLruCache;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * An epic Bitmap cache to store data on both memory and disk cache. This class auto manages caches concurrency, size and exposes methods for handling.
  */
 public class EpicBitmapCache {
     //region Cache objects
-    private LruCache<String, Bitmap> mMemoryCache;
+    private final MemoryCache mMemoryCache;
     private DiskLruCache mDiskLruCache;
+    private final FailureCache mFailureCache = new FailureCache();
+    private volatile PromotionPolicy mPromotionPolicy = new PromotionPolicy();
+    private final Map<SourceType, CachePolicy> mDefaultCachePolicies = new EnumMap<SourceType, CachePolicy>(SourceType.class);
+    private volatile KeyStrategy mKeyStrategy;
     //endregion Cache objects
 
+    //region Key stats
+    /**
+     * Maximum number of sources remembered as looked up, to tell whether they would have hit without canonicalization.
+     */
+    public static final int MAX_TRACKED_SOURCES = 1024;
+    private final LinkedHashMap<String, Boolean> mLookedUpSources = new LinkedHashMap<String, Boolean>(0, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > MAX_TRACKED_SOURCES;
+        }
+    };
+    private int mCanonicalizedLookupCount;
+    private int mCanonicalizationHitCount;
+    //endregion Key stats
+
     //region Config. fields
     private final Object mDiskCacheLock = new Object();
     private boolean mDiskCacheStarting = true;
+    private volatile long mDiskCacheTimeToLive = 0; // Entries never expire
+    //Optional disk cache modes, guarded by mDiskCacheLock and applied when disk cache is opened
+    private DiskLruCache.Layout mDiskCacheLayout = DiskLruCache.Layout.FLAT;
+    private boolean mDiskCacheRecencyCheckpointing = false;
+    private DiskLruCache.Durability mDiskCacheDurability = DiskLruCache.Durability.FLUSH_PER_OPERATION;
+    private long mDiskCacheGroupCommitInterval = DiskLruCache.DEFAULT_GROUP_COMMIT_INTERVAL;
+    private float mDiskCacheEvictionHighWatermark = DiskLruCache.DEFAULT_EVICTION_HIGH_WATERMARK;
+    private float mDiskCacheEvictionLowWatermark = DiskLruCache.DEFAULT_EVICTION_LOW_WATERMARK;
+    private long mDiskCacheSegmentValueMaxSize = 0; // Segment storage disabled
+    private boolean mDiskCacheContentDeduplication = false;
     private static final int DISK_CACHE_SIZE = 1024 * 1024 * 10; // 10MB
+    private static final int DISK_CACHE_APP_VERSION = 1;
+    private static final int DISK_CACHE_VALUE_COUNT = 2; // Bitmap and its metadata
     private static final String DISK_CACHE_SUBDIR = "images";
     //endregion Config. fields
 
     /**
-     * Basic constructor, builds the memory cache automatically.
+     * Basic constructor, builds the memory cache automatically, using 1/8th of the available memory.
      */
     public EpicBitmapCache() {
         // Get max available VM memory, exceeding this amount will throw an
-        // OutOfMemory exception. Stored in kilobytes as LruCache takes an
-        // int in its constructor.
-        final int maxMemory = (int) (Runtime.getRuntime().maxMemory() / 1024);
-        // Use 1/8th of the available memory for this memory cache.
-        final int cacheSize = maxMemory / 8;
-
-        //Initialize the memory cache
-        mMemoryCache = new LruCache<String, Bitmap>(cacheSize) {
-            @Override
-            protected int sizeOf(String key, Bitmap bitmap) {
-                // The cache size will be measured in kilobytes rather than
-                // number of items.
-                return (bitmap.getRowBytes() * bitmap.getHeight()) / 1024;
-            }
-        };
+        // OutOfMemory exception. Use 1/8th of the available memory for this memory cache.
+        this(Runtime.getRuntime().maxMemory() / 8, BitmapMemoryCache.UNLIMITED_ENTRIES);
+    }
+
+    /**
+     * All parameters constructor.
+     *
+     * @param memoryCacheSize       Maximum number of bytes held by memory cache, accounting pixel data plus a fixed per-entry overhead.
+     * @param maxMemoryCacheEntries Maximum number of bitmaps kept on memory cache, or {@link BitmapMemoryCache#UNLIMITED_ENTRIES}.
+     */
+    public EpicBitmapCache(long memoryCacheSize, int maxMemoryCacheEntries) {
+        //Initialize the memory cache, measured in bytes
+        this(new BitmapMemoryCache(memoryCacheSize, maxMemoryCacheEntries));
+    }
+
+    /**
+     * Constructor selecting the memory cache implementation, e.g. a {@link WTinyLfuMemoryCache} for scan resistance.
+     *
+     * @param memoryCache {@link MemoryCache} to use as memory tier.
+     */
+    public EpicBitmapCache(MemoryCache memoryCache) {
+        mMemoryCache = memoryCache;
+
+        //Resources are already stored compressed inside the APK, re-encoding them to disk would only evict downloaded images
+        mDefaultCachePolicies.put(SourceType.RESOURCE, CachePolicy.MEMORY_ONLY);
+        mDefaultCachePolicies.put(SourceType.FILE, CachePolicy.MEMORY_AND_DISK);
+        mDefaultCachePolicies.put(SourceType.URL, CachePolicy.MEMORY_AND_DISK);
     }
 
     //TODO: Find a way to automatically get the context (if possible) and move this piece of code to constructor, to avoid requesting user to explicitly call methods and pass context as argument
@@ -80,6 +131,293 @@ public class EpicBitmapCache {
         new InitDiskCacheTask().execute(cacheDir);
     }
 
+    /**
+     * Gets the negative cache remembering sources that recently failed to render, to check or reset failures and read its hit counts.
+     *
+     * @return {@link FailureCache} in use.
+     */
+    public FailureCache getFailureCache() {
+        return mFailureCache;
+    }
+
+    /**
+     * Gets the memory tier, to read its size in bytes, entry count and hit counts.
+     *
+     * @return {@link MemoryCache} in use.
+     */
+    public MemoryCache getMemoryCache() {
+        return mMemoryCache;
+    }
+
+    /**
+     * Gets the policy promoting disk cache hits into memory cache, to read its disk hit and promotion counts.
+     *
+     * @return {@link PromotionPolicy} in use, or null if disk hits are never promoted.
+     */
+    public PromotionPolicy getPromotionPolicy() {
+        return mPromotionPolicy;
+    }
+
+    /**
+     * Sets the policy promoting disk cache hits into memory cache.
+     *
+     * @param promotionPolicy {@link PromotionPolicy} to use, or null to never promote disk hits.
+     */
+    public void setPromotionPolicy(PromotionPolicy promotionPolicy) {
+        mPromotionPolicy = promotionPolicy;
+    }
+
+    /**
+     * Gets the time bitmaps stored on disk cache live before they expire.
+     *
+     * @return Time to live in milliseconds, or 0 if they never expire.
+     */
+    public long getDiskCacheTimeToLive() {
+        return mDiskCacheTimeToLive;
+    }
+
+    /**
+     * Sets the time bitmaps stored on disk cache live before they expire, e.g. a day for avatars changing daily.
+     * Expired bitmaps are rendered again, or revalidated with their HTTP validators if downloaded from an url, and
+     * their space is reclaimed in the background before evicting any live bitmap. Bitmaps already stored keep their
+     * expiry, and revalidated ones get a new one.
+     *
+     * @param timeToLive Time to live in milliseconds, or 0 for bitmaps to never expire.
+     */
+    public void setDiskCacheTimeToLive(long timeToLive) {
+        if (timeToLive < 0) {
+            throw new IllegalArgumentException("timeToLive < 0");
+        }
+
+        synchronized (mDiskCacheLock) {
+            mDiskCacheTimeToLive = timeToLive;
+            if (mDiskLruCache != null) {
+                mDiskLruCache.setDefaultTimeToLive(timeToLive);
+            }
+        }
+    }
+
+    /**
+     * Sets how value files are laid out on disk cache, e.g. {@link DiskLruCache.Layout#FAN_OUT} for caches holding
+     * thousands of bitmaps. Caches stored in another layout are moved on open. Must be called before
+     * {@link #initDiskCache(Context)}, defaults to {@link DiskLruCache.Layout#FLAT}.
+     *
+     * @param layout {@link DiskLruCache.Layout} to open disk cache with.
+     */
+    public void setDiskCacheLayout(DiskLruCache.Layout layout) {
+        if (layout == null) {
+            throw new NullPointerException("layout == null");
+        }
+
+        synchronized (mDiskCacheLock) {
+            mDiskCacheLayout = layout;
+        }
+    }
+
+    /**
+     * Sets whether disk cache hits are persisted by periodic recency checkpoints instead of one journal record each,
+     * keeping reads write-free. Must be called before {@link #initDiskCache(Context)}, disabled by default.
+     *
+     * @param enabled True to persist recency by checkpoints.
+     */
+    public void setDiskCacheRecencyCheckpointing(boolean enabled) {
+        synchronized (mDiskCacheLock) {
+            mDiskCacheRecencyCheckpointing = enabled;
+        }
+    }
+
+    /**
+     * Sets how disk cache journal records are made durable, e.g. {@link DiskLruCache.Durability#GROUP_COMMIT} to
+     * batch journal writes of concurrent renders. Must be called before {@link #initDiskCache(Context)}, defaults to
+     * {@link DiskLruCache.Durability#FLUSH_PER_OPERATION}.
+     *
+     * @param durability          {@link DiskLruCache.Durability} mode.
+     * @param groupCommitInterval Maximum time, in milliseconds, records wait for a group commit. Ignored on other modes.
+     */
+    public void setDiskCacheDurability(DiskLruCache.Durability durability, long groupCommitInterval) {
+        if (durability == null) {
+            throw new NullPointerException("durability == null");
+        }
+        if (groupCommitInterval <= 0) {
+            throw new IllegalArgumentException("groupCommitInterval <= 0");
+        }
+
+        synchronized (mDiskCacheLock) {
+            mDiskCacheDurability = durability;
+            mDiskCacheGroupCommitInterval = groupCommitInterval;
+        }
+    }
+
+    /**
+     * Sets the disk cache eviction watermarks, as fractions of its maximum size, to evict in larger batches once
+     * full, e.g. 1.0 and 0.8. Must be called before {@link #initDiskCache(Context)}, by default disk cache is just
+     * trimmed to its maximum size.
+     *
+     * @param highWatermark Fraction of the maximum size that wakes the evictor, greater than 0.
+     * @param lowWatermark  Fraction of the maximum size the evictor goes down to, between 0 and highWatermark.
+     */
+    public void setDiskCacheEvictionWatermarks(float highWatermark, float lowWatermark) {
+        if (highWatermark <= 0 || lowWatermark < 0 || lowWatermark > highWatermark) {
+            throw new IllegalArgumentException("expected 0 <= lowWatermark <= highWatermark, 0 < highWatermark");
+        }
+
+        synchronized (mDiskCacheLock) {
+            mDiskCacheEvictionHighWatermark = highWatermark;
+            mDiskCacheEvictionLowWatermark = lowWatermark;
+        }
+    }
+
+    /**
+     * Sets the maximum size of disk cache values packed into shared segment files instead of a file each, e.g. 16KB
+     * for thumbnails. Must be called before {@link #initDiskCache(Context)}, disabled by default.
+     *
+     * @param maxValueSize Maximum value size in bytes, less than {@link DiskLruCache#SEGMENT_SIZE}. 0 to disable.
+     */
+    public void setDiskCacheSegmentStorage(long maxValueSize) {
+        if (maxValueSize < 0 || maxValueSize >= DiskLruCache.SEGMENT_SIZE) {
+            throw new IllegalArgumentException("expected 0 <= maxValueSize < " + DiskLruCache.SEGMENT_SIZE);
+        }
+
+        synchronized (mDiskCacheLock) {
+            mDiskCacheSegmentValueMaxSize = maxValueSize;
+        }
+    }
+
+    /**
+     * Sets whether bitmaps stored on disk cache are deduplicated by content, storing images reached through several
+     * urls just once. Must be called before {@link #initDiskCache(Context)}, disabled by default.
+     *
+     * @param enabled True to deduplicate values by content.
+     */
+    public void setDiskCacheContentDeduplication(boolean enabled) {
+        synchronized (mDiskCacheLock) {
+            mDiskCacheContentDeduplication = enabled;
+        }
+    }
+
+    /**
+     * Gets the strategy canonicalizing sources before they are used as cache keys.
+     *
+     * @return {@link KeyStrategy} in use, or null if sources are used as they are.
+     */
+    public KeyStrategy getKeyStrategy() {
+        return mKeyStrategy;
+    }
+
+    /**
+     * Sets the strategy canonicalizing sources before they are used as cache keys, e.g. a {@link CanonicalKeyStrategy}
+     * so urls differing just on query parameter order or cache-busting parameters share cache entries. Entries already
+     * cached under other keys are not found by the new strategy until cached again.
+     *
+     * @param keyStrategy {@link KeyStrategy} to use, or null to use sources as they are.
+     */
+    public void setKeyStrategy(KeyStrategy keyStrategy) {
+        mKeyStrategy = keyStrategy;
+    }
+
+    /**
+     * Gets the cache key of a source: its canonical form, as the {@link KeyStrategy} in use says, URL encoded into
+     * percent format (required to create a valid file name for disk cache).
+     *
+     * @param source     Url or file path requested.
+     * @param sourceType Kind of source.
+     * @return Cache key of source, or an empty {@link String} if it could not be encoded.
+     */
+    public String getCacheKey(String source, SourceType sourceType) {
+        KeyStrategy keyStrategy = mKeyStrategy;
+        return encodeKey(keyStrategy != null ? keyStrategy.canonicalize(source, sourceType) : source);
+    }
+
+    private static String encodeKey(String source) {
+        try {
+            return URLEncoder.encode(source, "UTF-8");
+        } catch (UnsupportedEncodingException ignored) {
+            return "";
+        }
+    }
+
+    /**
+     * Records the result of a cache lookup for key stats. Lookups whose key was changed by canonicalization are
+     * counted, and their hits are counted as turned from a miss if the source itself wasn't looked up recently, so
+     * it couldn't have been cached under its own key.
+     *
+     * @param source   Url or file path requested.
+     * @param cacheKey Cache key looked up, from {@link #getCacheKey(String, SourceType)}.
+     * @param hit      True if the lookup found the bitmap on cache.
+     */
+    public void recordKeyLookup(String source, String cacheKey, boolean hit) {
+        String sourceKey = encodeKey(source);
+        if (sourceKey.equals(cacheKey)) {
+            return;
+        }
+
+        synchronized (mLookedUpSources) {
+            mCanonicalizedLookupCount++;
+            if (mLookedUpSources.put(sourceKey, Boolean.TRUE) == null && hit) {
+                mCanonicalizationHitCount++;
+            }
+        }
+    }
+
+    /**
+     * @return Number of cache lookups whose key was changed by canonicalization.
+     */
+    public int canonicalizedLookupCount() {
+        synchronized (mLookedUpSources) {
+            return mCanonicalizedLookupCount;
+        }
+    }
+
+    /**
+     * @return Number of cache lookups which hit just thanks to canonicalization, estimated as hits of sources not
+     * looked up among the last {@link #MAX_TRACKED_SOURCES} ones.
+     */
+    public int canonicalizationHitCount() {
+        synchronized (mLookedUpSources) {
+            return mCanonicalizationHitCount;
+        }
+    }
+
+    /**
+     * Gets the {@link CachePolicy} used by requests of a given source type which don't set their own.
+     *
+     * @param sourceType Kind of source.
+     * @return Default {@link CachePolicy} for that source type.
+     */
+    public CachePolicy getDefaultCachePolicy(SourceType sourceType) {
+        synchronized (mDefaultCachePolicies) {
+            return mDefaultCachePolicies.get(sourceType);
+        }
+    }
+
+    /**
+     * Sets the {@link CachePolicy} used by requests of a given source type which don't set their own. By default,
+     * resources are kept on memory cache only, and files and urls on both memory and disk cache.
+     *
+     * @param sourceType  Kind of source.
+     * @param cachePolicy Default {@link CachePolicy} for that source type.
+     */
+    public void setDefaultCachePolicy(SourceType sourceType, CachePolicy cachePolicy) {
+        if (cachePolicy == null) {
+            throw new IllegalArgumentException("cachePolicy == null");
+        }
+
+        synchronized (mDefaultCachePolicies) {
+            mDefaultCachePolicies.put(sourceType, cachePolicy);
+        }
+    }
+
+    /**
+     * Resolves the {@link CachePolicy} of a request, falling back to the default of its source type.
+     *
+     * @param sourceType  Kind of source being rendered.
+     * @param cachePolicy {@link CachePolicy} set on the request, or null to use the source type default.
+     * @return {@link CachePolicy} to apply.
+     */
+    public CachePolicy getCachePolicy(SourceType sourceType, CachePolicy cachePolicy) {
+        return cachePolicy != null ? cachePolicy : getDefaultCachePolicy(sourceType);
+    }
+
     //region Cache handling methods
 
     /**
@@ -89,17 +427,53 @@ public class EpicBitmapCache {
      * @param bitmap                {@link Bitmap} to be stored.
      * @param inDiskCompressFormat  Format to compress the image (JPEG, PNG, etc.) to store on disk cache.
      * @param inDiskCompressQuality Compress quality percentage of the image, from 0 to 100, to store on disk cache.
+     * @param diskMetadata          Metadata to store on disk cache along with the {@link Bitmap} (e.g. HTTP validators). Can be null.
      */
-    public void put(String key, Bitmap bitmap, Bitmap.CompressFormat inDiskCompressFormat, int inDiskCompressQuality) {
+    public void put(String key, Bitmap bitmap, Bitmap.CompressFormat inDiskCompressFormat, int inDiskCompressQuality,
+                    String diskMetadata) {
+        put(key, bitmap, inDiskCompressFormat, inDiskCompressQuality, diskMetadata, CachePolicy.MEMORY_AND_DISK);
+    }
+
+    /**
+     * Adds or updates a {@link Bitmap} to the cache tiers a {@link CachePolicy} writes to, compressed in format and
+     * quality specified when stored on disk cache, identified by a key.
+     *
+     * @param key                   ID of the {@link Bitmap} to retrieve it later.
+     * @param bitmap                {@link Bitmap} to be stored.
+     * @param inDiskCompressFormat  Format to compress the image (JPEG, PNG, etc.) to store on disk cache.
+     * @param inDiskCompressQuality Compress quality percentage of the image, from 0 to 100, to store on disk cache.
+     * @param diskMetadata          Metadata to store on disk cache along with the {@link Bitmap} (e.g. HTTP validators). Can be null.
+     * @param cachePolicy           {@link CachePolicy} deciding which tiers are written.
+     */
+    public void put(String key, Bitmap bitmap, Bitmap.CompressFormat inDiskCompressFormat, int inDiskCompressQuality,
+                    String diskMetadata, CachePolicy cachePolicy) {
         // Add to memory cache
-        mMemoryCache.put(key, bitmap);
+        if (cachePolicy.writesMemory()) {
+            mMemoryCache.put(key, bitmap);
+        }
 
         // Also add to disk cache
-        synchronized (mDiskCacheLock) {
-            mDiskLruCache.put(key, bitmap, inDiskCompressFormat, inDiskCompressQuality);
+        if (cachePolicy.writesDisk()) {
+            synchronized (mDiskCacheLock) {
+                if (mDiskLruCache != null) {
+                    mDiskLruCache.put(key, bitmap, inDiskCompressFormat, inDiskCompressQuality, diskMetadata);
+                }
+            }
         }
     }
 
+    /**
+     * Adds or updates a {@link Bitmap} to Memory and Disk cache compressed in format and quality specified, identified by a key.
+     *
+     * @param key                   ID of the {@link Bitmap} to retrieve it later.
+     * @param bitmap                {@link Bitmap} to be stored.
+     * @param inDiskCompressFormat  Format to compress the image (JPEG, PNG, etc.) to store on disk cache.
+     * @param inDiskCompressQuality Compress quality percentage of the image, from 0 to 100, to store on disk cache.
+     */
+    public void put(String key, Bitmap bitmap, Bitmap.CompressFormat inDiskCompressFormat, int inDiskCompressQuality) {
+        put(key, bitmap, inDiskCompressFormat, inDiskCompressQuality, null);
+    }
+
     /**
      * Adds or updates a {@link Bitmap} to Memory and Disk cache compressed in format and quality specified, identified by a key.
      *
@@ -107,25 +481,43 @@ public class EpicBitmapCache {
      * @param bitmap                {@link Bitmap} to be stored.
      * @param outMimeType           Image's mime type (usually in form 'image/format', e.g. 'image/png'), to automatically obtain the compress format to store on disk cache.
      * @param inDiskCompressQuality Compress quality percentage of the image, from 0 to 100, to store on disk cache.
+     * @param diskMetadata          Metadata to store on disk cache along with the {@link Bitmap} (e.g. HTTP validators). Can be null.
      * @throws IllegalArgumentException In case Mime Type specified is not image.
      */
-    public void put(String key, Bitmap bitmap, String outMimeType, int inDiskCompressQuality)
+    public void put(String key, Bitmap bitmap, String outMimeType, int inDiskCompressQuality, String diskMetadata)
             throws IllegalArgumentException {
-        Bitmap.CompressFormat inDiskCompressFormat;
-        String[] parts = outMimeType.split("/");
+        put(key, bitmap, getCompressFormat(outMimeType), inDiskCompressQuality, diskMetadata);
+    }
 
-        //Mime type should be "image"
-        if (parts[0].equals("image")) {
-            if (parts[1].contains("jpeg")) {
-                inDiskCompressFormat = Bitmap.CompressFormat.JPEG;
-            } else {
-                inDiskCompressFormat = Bitmap.CompressFormat.PNG;
-            }
+    /**
+     * Adds or updates a {@link Bitmap} to the cache tiers a {@link CachePolicy} writes to, compressed in format and
+     * quality specified when stored on disk cache, identified by a key.
+     *
+     * @param key                   ID of the {@link Bitmap} to retrieve it later.
+     * @param bitmap                {@link Bitmap} to be stored.
+     * @param outMimeType           Image's mime type (usually in form 'image/format', e.g. 'image/png'), to automatically obtain the compress format to store on disk cache.
+     * @param inDiskCompressQuality Compress quality percentage of the image, from 0 to 100, to store on disk cache.
+     * @param diskMetadata          Metadata to store on disk cache along with the {@link Bitmap} (e.g. HTTP validators). Can be null.
+     * @param cachePolicy           {@link CachePolicy} deciding which tiers are written.
+     * @throws IllegalArgumentException In case Mime Type specified is not image.
+     */
+    public void put(String key, Bitmap bitmap, String outMimeType, int inDiskCompressQuality, String diskMetadata,
+                    CachePolicy cachePolicy) throws IllegalArgumentException {
+        put(key, bitmap, getCompressFormat(outMimeType), inDiskCompressQuality, diskMetadata, cachePolicy);
+    }
 
-            put(key, bitmap, inDiskCompressFormat, inDiskCompressQuality);
-        } else {
-            throw new IllegalArgumentException("Incorrect Mime Type. Expected image, found " + parts[0]);
-        }
+    /**
+     * Adds or updates a {@link Bitmap} to Memory and Disk cache compressed in format and quality specified, identified by a key.
+     *
+     * @param key                   ID of the {@link Bitmap} to retrieve it later.
+     * @param bitmap                {@link Bitmap} to be stored.
+     * @param outMimeType           Image's mime type (usually in form 'image/format', e.g. 'image/png'), to automatically obtain the compress format to store on disk cache.
+     * @param inDiskCompressQuality Compress quality percentage of the image, from 0 to 100, to store on disk cache.
+     * @throws IllegalArgumentException In case Mime Type specified is not image.
+     */
+    public void put(String key, Bitmap bitmap, String outMimeType, int inDiskCompressQuality)
+            throws IllegalArgumentException {
+        put(key, bitmap, outMimeType, inDiskCompressQuality, null);
     }
 
     /**
@@ -142,6 +534,53 @@ public class EpicBitmapCache {
         put(key, bitmap, Bitmap.CompressFormat.JPEG, 100);
     }
 
+    /**
+     * Adds or updates several {@link Bitmap} objects to Memory and Disk cache in one batch (e.g. the renditions of the same
+     * image), compressed in format and quality specified. Disk cache entries are committed together.
+     *
+     * @param bitmaps               {@link Bitmap} objects to be stored, mapped by their IDs.
+     * @param outMimeType           Images' mime type (usually in form 'image/format', e.g. 'image/png'), to automatically obtain the compress format to store on disk cache.
+     * @param inDiskCompressQuality Compress quality percentage of the images, from 0 to 100, to store on disk cache.
+     * @param diskMetadata          Metadata to store on disk cache along with every {@link Bitmap}. Can be null.
+     * @throws IllegalArgumentException In case Mime Type specified is not image.
+     */
+    public void putAll(Map<String, Bitmap> bitmaps, String outMimeType, int inDiskCompressQuality, String diskMetadata)
+            throws IllegalArgumentException {
+        putAll(bitmaps, outMimeType, inDiskCompressQuality, diskMetadata, CachePolicy.MEMORY_AND_DISK);
+    }
+
+    /**
+     * Adds or updates several {@link Bitmap} objects in one batch to the cache tiers a {@link CachePolicy} writes to,
+     * compressed in format and quality specified when stored on disk cache. Disk cache entries are committed together.
+     *
+     * @param bitmaps               {@link Bitmap} objects to be stored, mapped by their IDs.
+     * @param outMimeType           Images' mime type (usually in form 'image/format', e.g. 'image/png'), to automatically obtain the compress format to store on disk cache.
+     * @param inDiskCompressQuality Compress quality percentage of the images, from 0 to 100, to store on disk cache.
+     * @param diskMetadata          Metadata to store on disk cache along with every {@link Bitmap}. Can be null.
+     * @param cachePolicy           {@link CachePolicy} deciding which tiers are written.
+     * @throws IllegalArgumentException In case Mime Type specified is not image.
+     */
+    public void putAll(Map<String, Bitmap> bitmaps, String outMimeType, int inDiskCompressQuality, String diskMetadata,
+                       CachePolicy cachePolicy) throws IllegalArgumentException {
+        Bitmap.CompressFormat inDiskCompressFormat = getCompressFormat(outMimeType);
+
+        // Add to memory cache
+        if (cachePolicy.writesMemory()) {
+            for (Map.Entry<String, Bitmap> bitmap : bitmaps.entrySet()) {
+                mMemoryCache.put(bitmap.getKey(), bitmap.getValue());
+            }
+        }
+
+        // Also add to disk cache
+        if (cachePolicy.writesDisk()) {
+            synchronized (mDiskCacheLock) {
+                if (mDiskLruCache != null) {
+                    mDiskLruCache.putAll(bitmaps, inDiskCompressFormat, inDiskCompressQuality, diskMetadata);
+                }
+            }
+        }
+    }
+
     /**
      * Removes an entry from memory and disk cache.
      *
@@ -156,6 +595,122 @@ public class EpicBitmapCache {
         }
     }
 
+    /**
+     * Removes several entries from memory and disk cache in one batch, e.g. when clearing a whole gallery. Disk cache
+     * removals are committed together.
+     *
+     * @param keys Identifiers of values to be removed from cache.
+     * @throws IOException In case entries could not be removed from disk cache due to an IO Error.
+     */
+    public void removeAll(Collection<String> keys) throws IOException {
+        for (String key : keys) {
+            mMemoryCache.remove(key);
+        }
+
+        synchronized (mDiskCacheLock) {
+            if (mDiskLruCache != null) {
+                mDiskLruCache.removeAll(keys);
+            }
+        }
+    }
+
+    /**
+     * Tries to retrieve several Bitmaps by their keys at once, from Memory Cache, and the ones not found there, from
+     * Disk Cache in one batch.
+     *
+     * @param keys IDs of the {@link Bitmap} objects to be retrieved.
+     * @return {@link Bitmap} objects found, mapped by their keys.
+     */
+    public Map<String, Bitmap> getAll(Collection<String> keys) {
+        return getAll(keys, 0, 0);
+    }
+
+    /**
+     * Tries to retrieve several Bitmaps by their keys at once, from Memory Cache, and the ones not found there, from
+     * Disk Cache in one batch, decoded at the size requested. Disk hits are promoted into Memory Cache as the
+     * {@link PromotionPolicy} decides.
+     *
+     * @param keys      IDs of the {@link Bitmap} objects to be retrieved.
+     * @param reqWidth  Required width of the view where the Bitmaps should fit. 0 to decode at full stored size.
+     * @param reqHeight Required height of the view where the Bitmaps should fit. 0 to decode at full stored size.
+     * @return {@link Bitmap} objects found, mapped by their keys.
+     */
+    public Map<String, Bitmap> getAll(Collection<String> keys, int reqWidth, int reqHeight) {
+        Map<String, Bitmap> bitmaps = new LinkedHashMap<String, Bitmap>();
+        List<String> missing = new ArrayList<String>();
+
+        for (String key : keys) {
+            Bitmap bitmap = mMemoryCache.get(key);
+            if (bitmap != null) {
+                bitmaps.put(key, bitmap);
+            } else {
+                missing.add(key);
+            }
+        }
+
+        if (!missing.isEmpty() && mDiskLruCache != null) {
+            DiskLruCache diskLruCache = null;
+            Map<String, DiskLruCache.Snapshot> snapshots = Collections.emptyMap();
+            synchronized (mDiskCacheLock) {
+                // Wait while disk cache is started from background thread
+                while (mDiskCacheStarting) {
+                    try {
+                        mDiskCacheLock.wait();
+                    } catch (InterruptedException ignored) {
+                    }
+                }
+                if (mDiskLruCache != null) {
+                    diskLruCache = mDiskLruCache;
+                    try {
+                        snapshots = diskLruCache.getAll(missing);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+
+            //Decode after releasing the lock, so other disk cache operations are not blocked meanwhile
+            Map<String, Bitmap> diskHits = Collections.emptyMap();
+            if (diskLruCache != null) {
+                diskHits = diskLruCache.decodeBitmaps(snapshots, reqWidth, reqHeight);
+            }
+
+            //Keep disk hits in memory, so next requests skip reading and decoding the files again
+            PromotionPolicy promotionPolicy = mPromotionPolicy;
+            for (Map.Entry<String, Bitmap> diskHit : diskHits.entrySet()) {
+                if (promotionPolicy != null && promotionPolicy.onDiskHit(diskHit.getKey(),
+                        BitmapMemoryCache.getBitmapByteCount(diskHit.getValue()), mMemoryCache.maxSize())) {
+                    mMemoryCache.put(diskHit.getKey(), diskHit.getValue());
+                }
+                bitmaps.put(diskHit.getKey(), diskHit.getValue());
+            }
+        }
+
+        return bitmaps;
+    }
+
+    /**
+     * Checks if every key given is cached, either on Memory or Disk Cache, without decoding any Bitmap.
+     *
+     * @param keys IDs of the {@link Bitmap} objects to check.
+     * @return True if every key is cached, False otherwise.
+     */
+    public boolean containsAll(Collection<String> keys) {
+        List<String> missing = new ArrayList<String>();
+        for (String key : keys) {
+            if (!mMemoryCache.contains(key)) {
+                missing.add(key);
+            }
+        }
+
+        if (missing.isEmpty()) {
+            return true;
+        }
+        synchronized (mDiskCacheLock) {
+            return mDiskLruCache != null && !mDiskLruCache.isClosed() && mDiskLruCache.containsAll(missing);
+        }
+    }
+
     /**
      * Gets Bitmap from Memory Cache by its key.
      *
@@ -173,6 +728,53 @@ public class EpicBitmapCache {
      * @return {@link Bitmap} object if found, null otherwise.
      */
     public Bitmap getBitmapFromDiskCache(String key) {
+        return getBitmapFromDiskCache(key, 0, 0);
+    }
+
+    /**
+     * Gets Bitmap from Disk Cache by its key, decoded at the size requested.
+     *
+     * @param key       ID of the {@link Bitmap} to be retrieved.
+     * @param reqWidth  Required width of the view where the Bitmap should fit. 0 to decode at full stored size.
+     * @param reqHeight Required height of the view where the Bitmap should fit. 0 to decode at full stored size.
+     * @return {@link Bitmap} object if found, null otherwise.
+     */
+    public Bitmap getBitmapFromDiskCache(String key, int reqWidth, int reqHeight) {
+        DiskLruCache diskLruCache;
+        DiskLruCache.Snapshot snapshot = null;
+        synchronized (mDiskCacheLock) {
+            // Wait while disk cache is started from background thread
+            while (mDiskCacheStarting) {
+                try {
+                    mDiskCacheLock.wait();
+                } catch (InterruptedException ignored) {
+                }
+            }
+            diskLruCache = mDiskLruCache;
+            if (diskLruCache != null) {
+                try {
+                    snapshot = diskLruCache.get(key);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        //Decode after releasing the lock, so other disk cache operations are not blocked meanwhile
+        return snapshot != null ? diskLruCache.decodeBitmap(snapshot, reqWidth, reqHeight, null) : null;
+    }
+
+    /**
+     * Gets the metadata stored on Disk Cache along with a {@link Bitmap}, like the HTTP validators of images downloaded from an url.
+     *
+     * @param key ID of the {@link Bitmap} whose metadata should be retrieved.
+     * @return Metadata stored, empty if none was stored, or null if not found or disk cache is not initialized.
+     */
+    public String getMetadataFromDiskCache(String key) {
+        if (mDiskLruCache == null) {
+            return null;
+        }
+
         synchronized (mDiskCacheLock) {
             // Wait while disk cache is started from background thread
             while (mDiskCacheStarting) {
@@ -182,12 +784,72 @@ public class EpicBitmapCache {
                 }
             }
             if (mDiskLruCache != null) {
-                return mDiskLruCache.getBitmap(key);
+                return mDiskLruCache.getMetadata(key);
             }
         }
         return null;
     }
 
+    /**
+     * Replaces the metadata stored on Disk Cache along with a {@link Bitmap}, without rewriting the {@link Bitmap} itself.
+     *
+     * @param key          ID of the {@link Bitmap} whose metadata should be updated.
+     * @param diskMetadata New metadata to store.
+     * @return True if metadata was updated, False otherwise.
+     */
+    public boolean updateDiskCacheMetadata(String key, String diskMetadata) {
+        synchronized (mDiskCacheLock) {
+            return mDiskLruCache != null && mDiskLruCache.setMetadata(key, diskMetadata);
+        }
+    }
+
+    /**
+     * Checks if a {@link Bitmap} stored on Disk Cache has expired. Expired bitmaps are not returned by Disk Cache
+     * anymore, but their metadata is, until they are reclaimed, so they can be revalidated.
+     *
+     * @param key ID of the {@link Bitmap} to check.
+     * @return True if bitmap is stored but expired, False if it is not expired, not found or disk cache is not initialized.
+     */
+    public boolean isExpiredOnDiskCache(String key) {
+        synchronized (mDiskCacheLock) {
+            try {
+                return mDiskLruCache != null && !mDiskLruCache.isClosed() && mDiskLruCache.isExpired(key);
+            } catch (IllegalArgumentException e) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Compacts the Disk Cache journal in the background if it holds enough redundant records. Meant to be called
+     * when the app is idle (e.g. from a {@link android.os.MessageQueue.IdleHandler}), so compaction work doesn't
+     * compete with rendering. Cache operations are blocked just briefly while it runs.
+     *
+     * @return True if a compaction was queued, False if journal is compact enough or disk cache is not initialized.
+     */
+    public boolean compactDiskCache() {
+        synchronized (mDiskCacheLock) {
+            return mDiskLruCache != null && !mDiskLruCache.isClosed() && mDiskLruCache.compactIfNeeded();
+        }
+    }
+
+    /**
+     * Gets the staging file on Disk Cache directory where an image can be downloaded, resuming interrupted downloads,
+     * before being decoded and stored.
+     *
+     * @param key ID of the {@link Bitmap} to be downloaded.
+     * @return Staging {@link File}, or null if disk cache is not initialized or key can't be used as file name.
+     */
+    public File getPartialDownloadFile(String key) {
+        synchronized (mDiskCacheLock) {
+            try {
+                return mDiskLruCache != null ? mDiskLruCache.getPartialFile(key) : null;
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+    }
+
     /**
      * Tries to retrieve a Bitmap by its key from Memory Cache, and if not found, from Disk Cache.
      *
@@ -195,25 +857,58 @@ public class EpicBitmapCache {
      * @return {@link Bitmap} object if found, null otherwise.
      */
     public Bitmap getBitmapFromCache(String key) {
-        Bitmap bitmap = null;
+        return getBitmapFromCache(key, 0, 0);
+    }
 
-        if (mMemoryCache != null) {
-            bitmap = getBitmapFromMemCache(key);
-        }
-        if (bitmap == null && mDiskLruCache != null) {
-            bitmap = getBitmapFromDiskCache(key);
+    /**
+     * Tries to retrieve a Bitmap by its key from Memory Cache, and if not found, from Disk Cache, decoded at the size
+     * requested. Disk hits are promoted into Memory Cache as the {@link PromotionPolicy} decides.
+     *
+     * @param key       ID of the {@link Bitmap} to be retrieved.
+     * @param reqWidth  Required width of the view where the Bitmap should fit. 0 to decode at full stored size.
+     * @param reqHeight Required height of the view where the Bitmap should fit. 0 to decode at full stored size.
+     * @return {@link Bitmap} object if found, null otherwise.
+     */
+    public Bitmap getBitmapFromCache(String key, int reqWidth, int reqHeight) {
+        return getBitmapFromCache(key, reqWidth, reqHeight, CachePolicy.MEMORY_AND_DISK);
+    }
+
+    /**
+     * Tries to retrieve a Bitmap by its key from the cache tiers a {@link CachePolicy} reads from, Memory Cache first,
+     * decoded at the size requested. Disk hits are promoted into Memory Cache as the {@link PromotionPolicy} decides,
+     * only if the {@link CachePolicy} writes Memory Cache.
+     *
+     * @param key         ID of the {@link Bitmap} to be retrieved.
+     * @param reqWidth    Required width of the view where the Bitmap should fit. 0 to decode at full stored size.
+     * @param reqHeight   Required height of the view where the Bitmap should fit. 0 to decode at full stored size.
+     * @param cachePolicy {@link CachePolicy} deciding which tiers are read.
+     * @return {@link Bitmap} object if found, null otherwise.
+     */
+    public Bitmap getBitmapFromCache(String key, int reqWidth, int reqHeight, CachePolicy cachePolicy) {
+        Bitmap bitmap = cachePolicy.readsMemory() ? getBitmapFromMemCache(key) : null;
+
+        if (bitmap == null && cachePolicy.readsDisk() && mDiskLruCache != null) {
+            bitmap = getBitmapFromDiskCache(key, reqWidth, reqHeight);
+
+            //Keep disk hit in memory, so next requests skip reading and decoding the file again
+            PromotionPolicy promotionPolicy = mPromotionPolicy;
+            if (bitmap != null && cachePolicy.writesMemory() && promotionPolicy != null && promotionPolicy.onDiskHit(key,
+                    BitmapMemoryCache.getBitmapByteCount(bitmap), mMemoryCache.maxSize())) {
+                mMemoryCache.put(key, bitmap);
+            }
         }
 
         return bitmap;
     }
 
     /**
-     * Deletes memory and disk cache contents.
+     * Deletes memory and disk cache contents, and forgets recent failures.
      *
      * @throws IOException In case disk cache could not be cleared due to an IO error.
      */
     public void clear() throws IOException {
         mMemoryCache.evictAll();
+        mFailureCache.evictAll();
 
         synchronized (mDiskCacheLock) {
             mDiskLruCache.delete();
@@ -223,6 +918,39 @@ public class EpicBitmapCache {
 
     //region Helper methods
 
+    /**
+     * Builds the key identifying a given size rendition of an image, so every rendition is cached separately.
+     *
+     * @param key  ID of the original image.
+     * @param size Maximum width and height of the rendition, in pixels.
+     * @return Size-qualified key.
+     */
+    public static String getRenditionKey(String key, int size) {
+        return key + "_" + size + "px";
+    }
+
+    /**
+     * Obtains the compress format to store an image on disk cache from its mime type.
+     *
+     * @param outMimeType Image's mime type (usually in form 'image/format', e.g. 'image/png').
+     * @return JPEG for JPEG images, PNG otherwise.
+     * @throws IllegalArgumentException In case Mime Type specified is not image.
+     */
+    public static Bitmap.CompressFormat getCompressFormat(String outMimeType) throws IllegalArgumentException {
+        String[] parts = outMimeType.split("/");
+
+        //Mime type should be "image"
+        if (parts[0].equals("image")) {
+            if (parts[1].contains("jpeg")) {
+                return Bitmap.CompressFormat.JPEG;
+            } else {
+                return Bitmap.CompressFormat.PNG;
+            }
+        } else {
+            throw new IllegalArgumentException("Incorrect Mime Type. Expected image, found " + parts[0]);
+        }
+    }
+
     /**
      *
      */
@@ -264,10 +992,20 @@ public class EpicBitmapCache {
             synchronized (mDiskCacheLock) {
                 try {
                     File cacheDir = params[0];
-                    mDiskLruCache = DiskLruCache.open(cacheDir, DISK_CACHE_SIZE);
+                    mDiskLruCache = DiskLruCache.open(cacheDir, DISK_CACHE_APP_VERSION, DISK_CACHE_VALUE_COUNT, DISK_CACHE_SIZE,
+                            mDiskCacheLayout);
+                    //Apply optional modes set before disk cache was opened, all of them off by default
+                    mDiskLruCache.setRecencyCheckpointing(mDiskCacheRecencyCheckpointing);
+                    mDiskLruCache.setDurability(mDiskCacheDurability, mDiskCacheGroupCommitInterval);
+                    mDiskLruCache.setEvictionWatermarks(mDiskCacheEvictionHighWatermark, mDiskCacheEvictionLowWatermark);
+                    mDiskLruCache.setSegmentStorage(mDiskCacheSegmentValueMaxSize);
+                    mDiskLruCache.setContentDeduplication(mDiskCacheContentDeduplication);
+                    mDiskLruCache.setDefaultTimeToLive(mDiskCacheTimeToLive);
+                } catch (IOException e) {
+                } finally {
+                    //Never leave threads waiting for disk cache, even if it could not be opened
                     mDiskCacheStarting = false; // Finished initialization
                     mDiskCacheLock.notifyAll(); // Wake any waiting threads
-                } catch (IOException e) {
                 }
             }
 
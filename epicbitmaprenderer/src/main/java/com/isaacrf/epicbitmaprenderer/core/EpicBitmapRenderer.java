@@ -26,15 +26,26 @@ import android.graphics.BitmapFactory;
 
 import com.isaacrf.epicbitmaprenderer.asynctasks.AsyncDecodeFileForced;
 import com.isaacrf.epicbitmaprenderer.asynctasks.AsyncDecodeFileMeasured;
+import com.isaacrf.epicbitmaprenderer.asynctasks.AsyncDecodeFileRenditions;
 import com.isaacrf.epicbitmaprenderer.asynctasks.AsyncDecodeResForced;
 import com.isaacrf.epicbitmaprenderer.asynctasks.AsyncDecodeResMeasured;
 import com.isaacrf.epicbitmaprenderer.asynctasks.AsyncDecodeUrlForced;
 import com.isaacrf.epicbitmaprenderer.asynctasks.AsyncDecodeUrlMeasured;
 import com.isaacrf.epicbitmaprenderer.listeners.OnBitmapRenderFailed;
 import com.isaacrf.epicbitmaprenderer.listeners.OnBitmapRendered;
-
-import java.io.UnsupportedEncodingException;
-import java.net.URLEncoder;
+import com.isaacrf.epicbitmaprenderer.listeners.OnRenditionsRendered;
+import com.isaacrf.epicbitmaprenderer.network.BitmapTransport;
+import com.isaacrf.epicbitmaprenderer.network.UrlConnectionTransport;
+import com.isaacrf.epicbitmaprenderer.transformations.Transformation;
+import com.isaacrf.epicbitmaprenderer.utils.BitmapDecoder;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * <p>
@@ -65,6 +76,8 @@ public final class EpicBitmapRenderer {
     //region Fields
     //TODO: Allow to enable / disable cache usage
     private static EpicBitmapCache epicBitmapCache;
+    private static BitmapTransport urlTransport;
+    private static BitmapPool bitmapPool;
     //endregion Fields
 
     //region Constructors and initialization
@@ -74,6 +87,8 @@ public final class EpicBitmapRenderer {
      */
     static {
         epicBitmapCache = new EpicBitmapCache();
+        urlTransport = new UrlConnectionTransport();
+        bitmapPool = new BitmapPool();
     }
 
     /**
@@ -105,6 +120,43 @@ public final class EpicBitmapRenderer {
         EpicBitmapRenderer.epicBitmapCache = epicBitmapCache;
     }
 
+    /**
+     * Gets the {@link BitmapTransport} used to download images from urls. By default, a {@link UrlConnectionTransport}
+     * whose timeouts and retries can be configured.
+     *
+     * @return Transport in use.
+     */
+    public static BitmapTransport getUrlTransport() {
+        return urlTransport;
+    }
+
+    /**
+     * Sets {@link BitmapTransport} object to use to download images from urls, e.g. to plug in your own HTTP client.
+     *
+     * @param urlTransport Transport to use by url render methods.
+     */
+    public static void setUrlTransport(BitmapTransport urlTransport) {
+        EpicBitmapRenderer.urlTransport = urlTransport;
+    }
+
+
+    /**
+     * Gets the {@link BitmapPool} where intermediate bitmaps of {@link Transformation} chains are recycled.
+     *
+     * @return Pool in use.
+     */
+    public static BitmapPool getBitmapPool() {
+        return bitmapPool;
+    }
+
+    /**
+     * Sets {@link BitmapPool} object to recycle intermediate bitmaps of {@link Transformation} chains.
+     *
+     * @param bitmapPool Pool to use by render methods.
+     */
+    public static void setBitmapPool(BitmapPool bitmapPool) {
+        EpicBitmapRenderer.bitmapPool = bitmapPool;
+    }
     //endregion Getters / Setters
 
     //region Rendering Synchronous Methods
@@ -131,7 +183,8 @@ public final class EpicBitmapRenderer {
 
         // Search bitmap on cache first if available
         if (epicBitmapCache != null) {
-            decodedBitmap = epicBitmapCache.getBitmapFromCache(String.valueOf(resId));
+            decodedBitmap = epicBitmapCache.getBitmapFromCache(String.valueOf(resId), reqWidth, reqHeight,
+                    epicBitmapCache.getDefaultCachePolicy(SourceType.RESOURCE));
         }
 
         //If bitmap not found on cache, render it
@@ -152,7 +205,8 @@ public final class EpicBitmapRenderer {
 
                     //Add bitmap to cache if bitmap was successfully rendered and cache is available
                     if (decodedBitmap != null && epicBitmapCache != null) {
-                        epicBitmapCache.put(String.valueOf(resId), decodedBitmap, options.outMimeType, 100);
+                        epicBitmapCache.put(String.valueOf(resId), decodedBitmap, options.outMimeType, 100, null,
+                                epicBitmapCache.getDefaultCachePolicy(SourceType.RESOURCE));
                     }
 
                     outOfMemoryError = false;
@@ -191,7 +245,8 @@ public final class EpicBitmapRenderer {
 
         // Search bitmap on cache first if available
         if (epicBitmapCache != null) {
-            decodedBitmap = epicBitmapCache.getBitmapFromCache(String.valueOf(resId));
+            decodedBitmap = epicBitmapCache.getBitmapFromCache(String.valueOf(resId), 0, 0,
+                    epicBitmapCache.getDefaultCachePolicy(SourceType.RESOURCE));
         }
 
         //If bitmap not found on cache, render it
@@ -203,7 +258,8 @@ public final class EpicBitmapRenderer {
 
             //Add bitmap to cache if bitmap was successfully rendered and cache is available
             if (decodedBitmap != null && epicBitmapCache != null) {
-                epicBitmapCache.put(String.valueOf(resId), decodedBitmap, options.outMimeType, 100);
+                epicBitmapCache.put(String.valueOf(resId), decodedBitmap, options.outMimeType, 100, null,
+                        epicBitmapCache.getDefaultCachePolicy(SourceType.RESOURCE));
             }
         }
 
@@ -245,50 +301,62 @@ public final class EpicBitmapRenderer {
     public static Bitmap decodeBitmapFromFile(String path, int reqWidth, int reqHeight) {
         Bitmap decodedBitmap = null;
         Boolean outOfMemoryError = true;
-        String pathEncoded = "";
 
-        //File path encoding into percent format, to use it as cache identifier (required to create a valid file name for disk cache)
-        try {
-            pathEncoded = URLEncoder.encode(path, "UTF-8");
-        } catch (UnsupportedEncodingException ignored) {
-        }
+        //Canonical file path, encoded into percent format, to use it as cache identifier (required to create a valid file name for disk cache)
+        String pathEncoded = epicBitmapCache != null ? epicBitmapCache.getCacheKey(path, SourceType.FILE) : "";
 
         // Search bitmap on cache first if available
         if (!pathEncoded.isEmpty() && epicBitmapCache != null) {
-            decodedBitmap = epicBitmapCache.getBitmapFromCache(pathEncoded);
+            decodedBitmap = epicBitmapCache.getBitmapFromCache(pathEncoded, reqWidth, reqHeight, epicBitmapCache.getDefaultCachePolicy(SourceType.FILE));
         }
 
         //If bitmap not found on cache, render it
         if (decodedBitmap == null) {
-            // First decode with inJustDecodeBounds=true (No memory allocation) to check dimensions
-            final BitmapFactory.Options options = new BitmapFactory.Options();
-            options.inJustDecodeBounds = true;
-            BitmapFactory.decodeFile(path, options);
-
-            // Calculate inSampleSize
-            options.inSampleSize = EpicBitmapRenderer.calculateInSampleSize(options, reqWidth, reqHeight);
-
-            // Decode bitmap with inSampleSize set
-            options.inJustDecodeBounds = false;
-            while (outOfMemoryError) {
-                try {
-                    decodedBitmap = BitmapFactory.decodeFile(path, options);
-
-                    //Add bitmap to cache if bitmap was successfully rendered and cache is available
-                    if (!pathEncoded.isEmpty() && decodedBitmap != null && epicBitmapCache != null) {
-                        epicBitmapCache.put(pathEncoded, decodedBitmap, options.outMimeType, 100);
+            FileInputStream fileInputStream = null;
+            try {
+                //Open file just once, every decode pass below reads from the same file descriptor
+                fileInputStream = new FileInputStream(path);
+
+                // First decode with inJustDecodeBounds=true (No memory allocation) to check dimensions
+                final BitmapFactory.Options options = new BitmapFactory.Options();
+                options.inJustDecodeBounds = true;
+                options.inTempStorage = new byte[BitmapDecoder.DECODE_TEMP_STORAGE_SIZE];
+                BitmapDecoder.decodeFileDescriptorFromStart(fileInputStream, options);
+
+                // Calculate inSampleSize
+                options.inSampleSize = EpicBitmapRenderer.calculateInSampleSize(options, reqWidth, reqHeight);
+
+                // Decode bitmap with inSampleSize set
+                options.inJustDecodeBounds = false;
+                while (outOfMemoryError) {
+                    try {
+                        decodedBitmap = BitmapDecoder.decodeFileDescriptorFromStart(fileInputStream, options);
+
+                        //Add bitmap to cache if bitmap was successfully rendered and cache is available
+                        if (!pathEncoded.isEmpty() && decodedBitmap != null && epicBitmapCache != null) {
+                            epicBitmapCache.put(pathEncoded, decodedBitmap, options.outMimeType, 100, null, epicBitmapCache.getDefaultCachePolicy(SourceType.FILE));
+                        }
+
+                        outOfMemoryError = false;
+                    } catch (OutOfMemoryError e) {
+                        //If inSampleSize still not enough to avoid out of memory error, increase it
+                        options.inSampleSize *= 2;
+                        outOfMemoryError = true;
                     }
 
-                    outOfMemoryError = false;
-                } catch (OutOfMemoryError e) {
-                    //If inSampleSize still not enough to avoid out of memory error, increase it
-                    options.inSampleSize *= 2;
-                    outOfMemoryError = true;
+                    if (options.inSampleSize >= 20) {
+                        //Break loop in case of too many loops (something else is happening)
+                        outOfMemoryError = false;
+                    }
                 }
-
-                if (options.inSampleSize >= 20) {
-                    //Break loop in case of too many loops (something else is happening)
-                    outOfMemoryError = false;
+            } catch (IOException ignored) {
+                //File could not be opened or read, same as BitmapFactory.decodeFile, return null
+            } finally {
+                if (fileInputStream != null) {
+                    try {
+                        fileInputStream.close();
+                    } catch (IOException ignored) {
+                    }
                 }
             }
         }
@@ -311,17 +379,13 @@ public final class EpicBitmapRenderer {
      */
     public static Bitmap decodeBitmapFromFile(String path, int inSampleSize) {
         Bitmap decodedBitmap = null;
-        String pathEncoded = "";
 
-        //File path encoding into percent format, to use it as cache identifier (required to create a valid file name for disk cache)
-        try {
-            pathEncoded = URLEncoder.encode(path, "UTF-8");
-        } catch (UnsupportedEncodingException ignored) {
-        }
+        //Canonical file path, encoded into percent format, to use it as cache identifier (required to create a valid file name for disk cache)
+        String pathEncoded = epicBitmapCache != null ? epicBitmapCache.getCacheKey(path, SourceType.FILE) : "";
 
         // Search bitmap on cache first if available
         if (!pathEncoded.isEmpty() && epicBitmapCache != null) {
-            decodedBitmap = epicBitmapCache.getBitmapFromCache(pathEncoded);
+            decodedBitmap = epicBitmapCache.getBitmapFromCache(pathEncoded, 0, 0, epicBitmapCache.getDefaultCachePolicy(SourceType.FILE));
         }
 
         //If bitmap not found on cache, render it
@@ -333,7 +397,7 @@ public final class EpicBitmapRenderer {
 
             //Add bitmap to cache if bitmap was successfully rendered and cache is available
             if (!pathEncoded.isEmpty() && decodedBitmap != null && epicBitmapCache != null) {
-                epicBitmapCache.put(pathEncoded, decodedBitmap, options.outMimeType, 100);
+                epicBitmapCache.put(pathEncoded, decodedBitmap, options.outMimeType, 100, null, epicBitmapCache.getDefaultCachePolicy(SourceType.FILE));
             }
         }
 
@@ -355,6 +419,31 @@ public final class EpicBitmapRenderer {
     public static Bitmap decodeBitmapFromFile(String path) {
         return decodeBitmapFromFile(path, 1);
     }
+
+    /**
+     * <p>
+     * Decodes several size renditions of the image in a given file (e.g. 96px, 256px and 1080px thumbnails of the same photo)
+     * reading and decoding the file just once. Image is decoded downsampled for the largest size required, and smaller
+     * renditions are derived from larger ones in memory. Every rendition is cached under its own size-qualified key
+     * (see {@link EpicBitmapCache#getRenditionKey(String, int)}).
+     * </p>
+     * <p>
+     * <b>Important Note:</b> This method is synchronous and can cause UI Thread to freeze,
+     * use {@link #decodeRenditionsFromFile(String, int[], OnRenditionsRendered, OnBitmapRenderFailed)} instead for an asynchronous solution.
+     * </p>
+     *
+     * @param path  Physical path of File in the device storage.
+     * @param sizes Maximum width and height, in pixels, of every rendition. Image aspect ratio is kept, and images smaller than a size are not upscaled.
+     * @return Decoded renditions, in the same order as sizes, or null if image could not be decoded.
+     */
+    public static Bitmap[] decodeRenditionsFromFile(String path, int[] sizes) {
+        try {
+            return renderRenditionsFromFile(path, sizes, epicBitmapCache);
+        } catch (IOException e) {
+            //File could not be opened or read, same as BitmapFactory.decodeFile, return null
+            return null;
+        }
+    }
     //endregion Rendering Synchronous Methods
 
     //region Rendering Async methods
@@ -378,6 +467,51 @@ public final class EpicBitmapRenderer {
         new AsyncDecodeResMeasured(res, resId, reqWidth, reqHeight, onBitmapRendered, onBitmapRenderFailed, epicBitmapCache).execute();
     }
 
+    /**
+     * Decodes a sampled {@link Bitmap} object from a given app resource asynchronously, using the specified measures to calculate image downsample if needed,
+     * and applies a {@link Transformation} chain to it on the worker thread. Transformed result is cached, so next renders skip both decoding and transforming.
+     *
+     * @param res                  Resources package. You can get default resources package using {@link Activity#getResources()} inside an activity or {@link Context#getResources()} outside if a {@link Context} is available.
+     * @param resId                App resource id. Could be either the pure integer value, or the Android resource name (R.drawable.img_name).
+     * @param reqWidth             Required width of the view where the Bitmap should fit. This parameter doesn't affect image aspect ratio, it's only used to calculate the inSampleSize of the image in case a downsample is required.
+     * @param reqHeight            Required height of the view where the Bitmap should fit. This parameter doesn't affect image aspect ratio, it's only used to calculate the inSampleSize of the image in case a downsample is required.
+     * @param transformations      Transformations to apply to the rendered {@link Bitmap}, in order.
+     * @param onBitmapRendered     Overwrite this callback to retrieve {@link Bitmap} object rendered once it's ready and perform any other actions needed.
+     * @param onBitmapRenderFailed Overwrite this callback to perform actions when {@link Bitmap} object fails to render. Can be null.
+     */
+    public static void decodeBitmapFromResource(Resources res, int resId,
+                                                int reqWidth, int reqHeight,
+                                                List<Transformation> transformations,
+                                                OnBitmapRendered onBitmapRendered,
+                                                OnBitmapRenderFailed onBitmapRenderFailed) {
+        decodeBitmapFromResource(res, resId, reqWidth, reqHeight, transformations, null, onBitmapRendered, onBitmapRenderFailed);
+    }
+
+    /**
+     * Decodes a sampled {@link Bitmap} object from a given app resource asynchronously, using the specified measures to calculate image downsample if needed,
+     * and applies a {@link Transformation} chain to it on the worker thread, reading and writing the cache tiers a {@link CachePolicy} allows. Transformed result is cached, so next renders skip both decoding and transforming.
+     *
+     * @param res                  Resources package. You can get default resources package using {@link Activity#getResources()} inside an activity or {@link Context#getResources()} outside if a {@link Context} is available.
+     * @param resId                App resource id. Could be either the pure integer value, or the Android resource name (R.drawable.img_name).
+     * @param reqWidth             Required width of the view where the Bitmap should fit. This parameter doesn't affect image aspect ratio, it's only used to calculate the inSampleSize of the image in case a downsample is required.
+     * @param reqHeight            Required height of the view where the Bitmap should fit. This parameter doesn't affect image aspect ratio, it's only used to calculate the inSampleSize of the image in case a downsample is required.
+     * @param transformations      Transformations to apply to the rendered {@link Bitmap}, in order.
+     * @param cachePolicy          {@link CachePolicy} deciding which cache tiers this request reads and writes. Null to use the source type default.
+     * @param onBitmapRendered     Overwrite this callback to retrieve {@link Bitmap} object rendered once it's ready and perform any other actions needed.
+     * @param onBitmapRenderFailed Overwrite this callback to perform actions when {@link Bitmap} object fails to render. Can be null.
+     */
+    public static void decodeBitmapFromResource(Resources res, int resId,
+                                                int reqWidth, int reqHeight,
+                                                List<Transformation> transformations,
+                                                CachePolicy cachePolicy,
+                                                OnBitmapRendered onBitmapRendered,
+                                                OnBitmapRenderFailed onBitmapRenderFailed) {
+        AsyncDecodeResMeasured task = new AsyncDecodeResMeasured(res, resId, reqWidth, reqHeight, onBitmapRendered, onBitmapRenderFailed, epicBitmapCache);
+        task.setTransformations(transformations);
+        task.setCachePolicy(cachePolicy);
+        task.execute();
+    }
+
     /**
      * Decodes a sampled {@link Bitmap} object from a given app resource asynchronously, using the inSampleSize specified.
      * Downsample rate is auto-increased if bitmap rendering causes an {@link OutOfMemoryError}.
@@ -435,6 +569,47 @@ public final class EpicBitmapRenderer {
         new AsyncDecodeFileMeasured(path, reqWidth, reqHeight, onBitmapRendered, onBitmapRenderFailed, epicBitmapCache).execute();
     }
 
+    /**
+     * Decodes a sampled {@link Bitmap} object from a given file asynchronously, using the specified measures to calculate image downsample if needed,
+     * and applies a {@link Transformation} chain to it on the worker thread. Transformed result is cached, so next renders skip both decoding and transforming.
+     *
+     * @param path                 Physical path of File in the device storage.
+     * @param reqWidth             Required width of the view where the Bitmap should fit. This parameter doesn't affect image aspect ratio, it's only used to calculate the inSampleSize of the image in case a downsample is required.
+     * @param reqHeight            Required height of the view where the Bitmap should fit. This parameter doesn't affect image aspect ratio, it's only used to calculate the inSampleSize of the image in case a downsample is required.
+     * @param transformations      Transformations to apply to the rendered {@link Bitmap}, in order.
+     * @param onBitmapRendered     Overwrite this callback to retrieve {@link Bitmap} object rendered once it's ready and perform any other actions needed.
+     * @param onBitmapRenderFailed Overwrite this callback to perform actions when {@link Bitmap} object fails to render. Can be null.
+     */
+    public static void decodeBitmapFromFile(String path, int reqWidth, int reqHeight,
+                                            List<Transformation> transformations,
+                                            OnBitmapRendered onBitmapRendered,
+                                            OnBitmapRenderFailed onBitmapRenderFailed) {
+        decodeBitmapFromFile(path, reqWidth, reqHeight, transformations, null, onBitmapRendered, onBitmapRenderFailed);
+    }
+
+    /**
+     * Decodes a sampled {@link Bitmap} object from a given file asynchronously, using the specified measures to calculate image downsample if needed,
+     * and applies a {@link Transformation} chain to it on the worker thread, reading and writing the cache tiers a {@link CachePolicy} allows. Transformed result is cached, so next renders skip both decoding and transforming.
+     *
+     * @param path                 Physical path of File in the device storage.
+     * @param reqWidth             Required width of the view where the Bitmap should fit. This parameter doesn't affect image aspect ratio, it's only used to calculate the inSampleSize of the image in case a downsample is required.
+     * @param reqHeight            Required height of the view where the Bitmap should fit. This parameter doesn't affect image aspect ratio, it's only used to calculate the inSampleSize of the image in case a downsample is required.
+     * @param transformations      Transformations to apply to the rendered {@link Bitmap}, in order.
+     * @param cachePolicy          {@link CachePolicy} deciding which cache tiers this request reads and writes. Null to use the source type default.
+     * @param onBitmapRendered     Overwrite this callback to retrieve {@link Bitmap} object rendered once it's ready and perform any other actions needed.
+     * @param onBitmapRenderFailed Overwrite this callback to perform actions when {@link Bitmap} object fails to render. Can be null.
+     */
+    public static void decodeBitmapFromFile(String path, int reqWidth, int reqHeight,
+                                            List<Transformation> transformations,
+                                            CachePolicy cachePolicy,
+                                            OnBitmapRendered onBitmapRendered,
+                                            OnBitmapRenderFailed onBitmapRenderFailed) {
+        AsyncDecodeFileMeasured task = new AsyncDecodeFileMeasured(path, reqWidth, reqHeight, onBitmapRendered, onBitmapRenderFailed, epicBitmapCache);
+        task.setTransformations(transformations);
+        task.setCachePolicy(cachePolicy);
+        task.execute();
+    }
+
     /**
      * <p>
      * Decodes a sampled {@link Bitmap} object from a given file asynchronously, using the inSampleSize specified.
@@ -478,6 +653,28 @@ public final class EpicBitmapRenderer {
         decodeBitmapFromFile(path, 1, onBitmapRendered, onBitmapRenderFailed);
     }
 
+    /**
+     * <p>
+     * Decodes several size renditions of the image in a given file asynchronously, reading and decoding the file just once.
+     * Image is decoded downsampled for the largest size required, and smaller renditions are derived from larger ones in memory.
+     * </p>
+     * <p>
+     * <b>Permissions:</b> If file is outside app's own folders, this method requires the app using the library to
+     * get permission android.permissions.READ_EXTERNAL_STORAGE in order to work. If permission
+     * android.permissions.WRITE_EXTERNAL_STORAGE is granted, READ_EXTERNAL_STORAGE permission is also granted automatically.
+     * </p>
+     *
+     * @param path                 Physical path of File in the device storage.
+     * @param sizes                Maximum width and height, in pixels, of every rendition. Image aspect ratio is kept, and images smaller than a size are not upscaled.
+     * @param onRenditionsRendered Overwrite this callback to retrieve rendered {@link Bitmap} renditions once they're ready, in the same order as sizes.
+     * @param onBitmapRenderFailed Overwrite this callback to perform actions when image fails to render. Can be null.
+     */
+    public static void decodeRenditionsFromFile(String path, int[] sizes,
+                                                OnRenditionsRendered onRenditionsRendered,
+                                                OnBitmapRenderFailed onBitmapRenderFailed) {
+        new AsyncDecodeFileRenditions(path, sizes, onRenditionsRendered, onBitmapRenderFailed, epicBitmapCache).execute();
+    }
+
     /**
      * <p>
      * Decodes a sampled {@link Bitmap} object from a given url, using the specified measures to calculate image downsample if needed.
@@ -496,6 +693,53 @@ public final class EpicBitmapRenderer {
         new AsyncDecodeUrlMeasured(url, reqWidth, reqHeight, onBitmapRendered, onBitmapRenderFailed, epicBitmapCache).execute();
     }
 
+    /**
+     * <p>
+     * Decodes a sampled {@link Bitmap} object from a given url, using the specified measures to calculate image downsample if needed,
+     * and applies a {@link Transformation} chain to it on the worker thread. Transformed result is cached, so next renders skip both decoding and transforming.
+     * </p>
+     * <p><b>Permissions:</b> This method requires the app using the library to use permission android.permissions.INTERNET in order to work.</p>
+     *
+     * @param url                  Image resource URL (e.g. http://www.website.com/image.png)
+     * @param reqWidth             Required width of the view where the Bitmap should fit. This parameter doesn't affect image aspect ratio, it's only used to calculate the inSampleSize of the image in case a downsample is required.
+     * @param reqHeight            Required height of the view where the Bitmap should fit. This parameter doesn't affect image aspect ratio, it's only used to calculate the inSampleSize of the image in case a downsample is required.
+     * @param transformations      Transformations to apply to the rendered {@link Bitmap}, in order.
+     * @param onBitmapRendered     Overwrite this callback to retrieve {@link Bitmap} object rendered once it's ready and perform any other actions needed.
+     * @param onBitmapRenderFailed Overwrite this callback to perform actions when {@link Bitmap} object fails to render. Can be null.
+     */
+    public static void decodeBitmapFromUrl(String url, int reqWidth, int reqHeight,
+                                           List<Transformation> transformations,
+                                           OnBitmapRendered onBitmapRendered,
+                                           OnBitmapRenderFailed onBitmapRenderFailed) {
+        decodeBitmapFromUrl(url, reqWidth, reqHeight, transformations, null, onBitmapRendered, onBitmapRenderFailed);
+    }
+
+    /**
+     * <p>
+     * Decodes a sampled {@link Bitmap} object from a given url, using the specified measures to calculate image downsample if needed,
+     * and applies a {@link Transformation} chain to it on the worker thread, reading and writing the cache tiers a {@link CachePolicy} allows. Transformed result is cached, so next renders skip both decoding and transforming.
+     * </p>
+     * <p><b>Permissions:</b> This method requires the app using the library to use permission android.permissions.INTERNET in order to work.</p>
+     *
+     * @param url                  Image resource URL (e.g. http://www.website.com/image.png)
+     * @param reqWidth             Required width of the view where the Bitmap should fit. This parameter doesn't affect image aspect ratio, it's only used to calculate the inSampleSize of the image in case a downsample is required.
+     * @param reqHeight            Required height of the view where the Bitmap should fit. This parameter doesn't affect image aspect ratio, it's only used to calculate the inSampleSize of the image in case a downsample is required.
+     * @param transformations      Transformations to apply to the rendered {@link Bitmap}, in order.
+     * @param cachePolicy          {@link CachePolicy} deciding which cache tiers this request reads and writes. Null to use the source type default.
+     * @param onBitmapRendered     Overwrite this callback to retrieve {@link Bitmap} object rendered once it's ready and perform any other actions needed.
+     * @param onBitmapRenderFailed Overwrite this callback to perform actions when {@link Bitmap} object fails to render. Can be null.
+     */
+    public static void decodeBitmapFromUrl(String url, int reqWidth, int reqHeight,
+                                           List<Transformation> transformations,
+                                           CachePolicy cachePolicy,
+                                           OnBitmapRendered onBitmapRendered,
+                                           OnBitmapRenderFailed onBitmapRenderFailed) {
+        AsyncDecodeUrlMeasured task = new AsyncDecodeUrlMeasured(url, reqWidth, reqHeight, onBitmapRendered, onBitmapRenderFailed, epicBitmapCache);
+        task.setTransformations(transformations);
+        task.setCachePolicy(cachePolicy);
+        task.execute();
+    }
+
     /**
      * <p>
      * Decodes a sampled {@link Bitmap} object from a given url, using the inSampleSize specified.
@@ -561,25 +805,120 @@ public final class EpicBitmapRenderer {
      */
     public static int calculateInSampleSize(
             BitmapFactory.Options options, int reqWidth, int reqHeight) {
-        // Raw height and width of image
-        final int height = options.outHeight;
-        final int width = options.outWidth;
-        int inSampleSize = 1;
+        return BitmapDecoder.calculateInSampleSize(options, reqWidth, reqHeight);
+    }
 
-        if ((reqHeight > 0 || reqWidth > 0) && (height > reqHeight || width > reqWidth)) {
+    /**
+     * Renders several size renditions of the image in a given file from a single decode, taking the ones already rendered
+     * from cache. Image is decoded downsampled for the largest size missing, and each smaller rendition is scaled down
+     * from the previous one. Renditions rendered are added to cache in one batch.
+     *
+     * @param path            Physical path of File in the device storage.
+     * @param sizes           Maximum width and height, in pixels, of every rendition.
+     * @param epicBitmapCache Cache to check if renditions have already been rendered, and to store them. Can be null.
+     * @return Renditions, in the same order as sizes, or null if image could not be decoded.
+     * @throws IOException If file could not be opened or read.
+     */
+    public static Bitmap[] renderRenditionsFromFile(String path, int[] sizes, EpicBitmapCache epicBitmapCache)
+            throws IOException {
+        Bitmap[] renditions = new Bitmap[sizes.length];
+        int largestMissingSize = 0;
+
+        //Canonical file path, encoded into percent format, to use it as cache identifier (required to create a valid file name for disk cache)
+        String pathEncoded = epicBitmapCache != null ? epicBitmapCache.getCacheKey(path, SourceType.FILE) : "";
+
+        // Search renditions on cache first if available
+        for (int i = 0; i < sizes.length; i++) {
+            if (!pathEncoded.isEmpty() && epicBitmapCache != null) {
+                renditions[i] = epicBitmapCache.getBitmapFromCache(EpicBitmapCache.getRenditionKey(pathEncoded, sizes[i]), 0, 0,
+                        epicBitmapCache.getDefaultCachePolicy(SourceType.FILE));
+            }
+            if (renditions[i] == null) {
+                largestMissingSize = Math.max(largestMissingSize, sizes[i]);
+            }
+        }
 
-            final int halfHeight = height / 2;
-            final int halfWidth = width / 2;
+        //If every rendition was found on cache, there is nothing to render
+        if (largestMissingSize == 0) {
+            return renditions;
+        }
 
-            // Calculate the largest inSampleSize value that is a power of 2 and keeps both
-            // height and width larger than the requested height and width.
-            while ((halfHeight / inSampleSize) > reqHeight
-                    && (halfWidth / inSampleSize) > reqWidth) {
-                inSampleSize *= 2;
+        //Decode image just once, downsampled for the largest rendition missing
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        Bitmap decodedBitmap;
+        FileInputStream fileInputStream = new FileInputStream(path);
+        try {
+            decodedBitmap = BitmapDecoder.decodeSampledBitmapFromFileDescriptor(fileInputStream, options,
+                    largestMissingSize, largestMissingSize);
+        } finally {
+            fileInputStream.close();
+        }
+
+        if (decodedBitmap == null) {
+            return null;
+        }
+
+        //Derive missing renditions from largest to smallest, scaling down each one from the previous one
+        Map<String, Bitmap> rendered = new LinkedHashMap<String, Bitmap>();
+        Bitmap source = decodedBitmap;
+        Integer[] order = sortBySizeDescending(sizes);
+        for (Integer i : order) {
+            if (renditions[i] == null) {
+                renditions[i] = scaleToFit(source, sizes[i]);
+                source = renditions[i];
+                rendered.put(EpicBitmapCache.getRenditionKey(pathEncoded, sizes[i]), renditions[i]);
             }
         }
 
-        return inSampleSize;
+        //Decoded bitmap is usually larger than every rendition, return it to the pool unless it is one of them
+        if (!Arrays.asList(renditions).contains(decodedBitmap)) {
+            getBitmapPool().put(decodedBitmap);
+        }
+
+        //Add renditions to cache, committed together, if cache is available
+        if (!pathEncoded.isEmpty() && epicBitmapCache != null) {
+            epicBitmapCache.putAll(rendered, options.outMimeType, 100, null, epicBitmapCache.getDefaultCachePolicy(SourceType.FILE));
+        }
+
+        return renditions;
+    }
+
+    /**
+     * Scales down a {@link Bitmap} to fit in a square of a given size, keeping its aspect ratio.
+     *
+     * @param bitmap {@link Bitmap} to scale.
+     * @param size   Maximum width and height, in pixels.
+     * @return Scaled {@link Bitmap}, or the same one if it already fits.
+     */
+    public static Bitmap scaleToFit(Bitmap bitmap, int size) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int longestSide = Math.max(width, height);
+
+        if (size <= 0 || longestSide <= size) {
+            return bitmap;
+        }
+
+        float scale = (float) size / longestSide;
+        return Bitmap.createScaledBitmap(bitmap, Math.max(1, Math.round(width * scale)),
+                Math.max(1, Math.round(height * scale)), true);
+    }
+
+    /**
+     * Sorts the indexes of a sizes array from largest to smallest size.
+     */
+    private static Integer[] sortBySizeDescending(final int[] sizes) {
+        Integer[] order = new Integer[sizes.length];
+        for (int i = 0; i < sizes.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer first, Integer second) {
+                return sizes[second] < sizes[first] ? -1 : (sizes[second] == sizes[first] ? 0 : 1);
+            }
+        });
+        return order;
     }
     //endregion Helper methods
 }
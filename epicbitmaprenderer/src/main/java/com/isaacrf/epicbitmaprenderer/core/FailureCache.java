@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2016 Isaac R.F.
+ * http://isaacrf.com/works/epicbitmaprenderer
+ * https://github.com/isaacrf/EpicBitmapRenderer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.isaacrf.epicbitmaprenderer.core;
+
+import com.isaacrf.epicbitmaprenderer.network.HttpStatusException;
+
+import java.io.FileNotFoundException;
+import java.net.MalformedURLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * Bounded negative cache remembering sources (urls, files) that recently failed to render, so repeated requests
+ * for them are answered with the same failure instead of connecting and decoding again.
+ * </p>
+ * <p>
+ * Each failure is kept for a time to live that depends on its {@link FailureType} and grows exponentially with
+ * every consecutive failure of the same source, up to a maximum. A successful render clears the source's record.
+ * </p>
+ */
+public class FailureCache {
+    //region Constants
+    public static final int DEFAULT_MAX_ENTRIES = 256;
+    private static final long PERMANENT_BASE_TTL = 60 * 1000; // 1 minute
+    private static final long TRANSIENT_BASE_TTL = 5 * 1000; // 5 seconds
+    private static final long MAX_TTL = 30 * 60 * 1000; // 30 minutes
+    private static final int MAX_BACKOFF_SHIFT = 16;
+    //endregion Constants
+
+    /**
+     * Kinds of failure, determining how long they are remembered.
+     */
+    public enum FailureType {
+        /**
+         * Source doesn't exist or can't be handled (404, 410, missing file, malformed url...). Retrying soon won't help.
+         */
+        PERMANENT,
+        /**
+         * Network errors, timeouts or server errors. Source may work again shortly.
+         */
+        TRANSIENT
+    }
+
+    //region Fields
+    private final int maxEntries;
+    private final LinkedHashMap<String, Failure> failures;
+    private int hitCount;
+    private int missCount;
+    private int recordCount;
+    //endregion Fields
+
+    //region Constructors
+
+    /**
+     * Basic constructor, remembers up to {@link #DEFAULT_MAX_ENTRIES} failing sources.
+     */
+    public FailureCache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * All parameters constructor.
+     *
+     * @param maxEntries Maximum number of failing sources remembered. Least recently used ones are dropped first.
+     */
+    public FailureCache(int maxEntries) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries <= 0");
+        }
+        this.maxEntries = maxEntries;
+        this.failures = new LinkedHashMap<String, Failure>(0, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Failure> eldest) {
+                return size() > FailureCache.this.maxEntries;
+            }
+        };
+    }
+    //endregion Constructors
+
+    //region Cache handling methods
+
+    /**
+     * Gets the failure of a source if it failed recently and its backoff time hasn't passed yet.
+     *
+     * @param key Source identifier.
+     * @return {@link Exception} that caused last failure, or null if source can be rendered again.
+     */
+    public synchronized Exception get(String key) {
+        Failure failure = failures.get(key);
+        if (failure != null && currentTimeMillis() < failure.retryAt) {
+            hitCount++;
+            return failure.exception;
+        }
+
+        missCount++;
+        return null;
+    }
+
+    /**
+     * Gets the kind of the last failure recorded for a source.
+     *
+     * @param key Source identifier.
+     * @return {@link FailureType} of last failure, or null if source has no failure recorded.
+     */
+    public synchronized FailureType getFailureType(String key) {
+        Failure failure = failures.get(key);
+        return failure != null ? failure.type : null;
+    }
+
+    /**
+     * Records a source failure. Consecutive failures of the same source double its backoff time.
+     *
+     * @param key       Source identifier.
+     * @param exception {@link Exception} that caused the failure.
+     */
+    public synchronized void put(String key, Exception exception) {
+        Failure previous = failures.get(key);
+        int consecutiveFailures = previous != null ? previous.consecutiveFailures + 1 : 1;
+        FailureType type = classify(exception);
+
+        long baseTtl = type == FailureType.PERMANENT ? PERMANENT_BASE_TTL : TRANSIENT_BASE_TTL;
+        long ttl = Math.min(baseTtl << Math.min(consecutiveFailures - 1, MAX_BACKOFF_SHIFT), MAX_TTL);
+
+        failures.put(key, new Failure(exception, type, consecutiveFailures, currentTimeMillis() + ttl));
+        recordCount++;
+    }
+
+    /**
+     * Forgets a source failure, usually after it was successfully rendered.
+     *
+     * @param key Source identifier.
+     */
+    public synchronized void remove(String key) {
+        failures.remove(key);
+    }
+
+    /**
+     * Forgets every failure recorded.
+     */
+    public synchronized void evictAll() {
+        failures.clear();
+    }
+    //endregion Cache handling methods
+
+    //region Stats
+
+    /**
+     * @return Number of requests answered with a remembered failure.
+     */
+    public synchronized int hitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return Number of requests allowed to render their source.
+     */
+    public synchronized int missCount() {
+        return missCount;
+    }
+
+    /**
+     * @return Number of failures recorded.
+     */
+    public synchronized int recordCount() {
+        return recordCount;
+    }
+
+    /**
+     * @return Number of failing sources currently remembered.
+     */
+    public synchronized int size() {
+        return failures.size();
+    }
+
+    /**
+     * @return Maximum number of failing sources remembered.
+     */
+    public int maxSize() {
+        return maxEntries;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "FailureCache[size=" + failures.size() + ",hits=" + hitCount + ",misses=" + missCount
+                + ",records=" + recordCount + "]";
+    }
+    //endregion Stats
+
+    //region Helper methods
+
+    /**
+     * Gets the current time, used to compute and check backoff times.
+     *
+     * @return Current time in milliseconds since epoch.
+     */
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Determines the kind of a failure.
+     *
+     * @param exception {@link Exception} that caused the failure.
+     * @return {@link FailureType} of the failure.
+     */
+    public static FailureType classify(Exception exception) {
+        if (exception instanceof HttpStatusException) {
+            return ((HttpStatusException) exception).isTransient() ? FailureType.TRANSIENT : FailureType.PERMANENT;
+        }
+        if (exception instanceof FileNotFoundException
+                || exception instanceof MalformedURLException
+                || exception instanceof SecurityException
+                || exception instanceof IllegalArgumentException) {
+            return FailureType.PERMANENT;
+        }
+        return FailureType.TRANSIENT;
+    }
+    //endregion Helper methods
+
+    //region Helper classes
+
+    /**
+     * Failure record of a single source.
+     */
+    private static class Failure {
+        private final Exception exception;
+        private final FailureType type;
+        private final int consecutiveFailures;
+        private final long retryAt;
+
+        private Failure(Exception exception, FailureType type, int consecutiveFailures, long retryAt) {
+            this.exception = exception;
+            this.type = type;
+            this.consecutiveFailures = consecutiveFailures;
+            this.retryAt = retryAt;
+        }
+    }
+    //endregion Helper classes
+}
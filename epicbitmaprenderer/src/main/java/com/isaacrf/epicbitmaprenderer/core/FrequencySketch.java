@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2016 Isaac R.F.
+ * http://isaacrf.com/works/epicbitmaprenderer
+ * https://github.com/isaacrf/EpicBitmapRenderer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.isaacrf.epicbitmaprenderer.core;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Count-min sketch estimating how often keys have been accessed recently, using a fixed amount of memory no matter how
+ * many keys are tracked. Estimations may overcount due to hash collisions, but never undercount.
+ * </p>
+ * <p>
+ * Counters saturate at {@link #MAX_FREQUENCY}, and every counter is halved once the number of accesses recorded reaches
+ * ten times the sketch width, so keys that stopped being used are eventually forgotten. This class is not thread safe.
+ * </p>
+ */
+public class FrequencySketch {
+    //region Constants
+    public static final int MAX_FREQUENCY = 15;
+    private static final int DEPTH = 4;
+    private static final int MIN_WIDTH = 16;
+    private static final int[] SEEDS = {0x9E3779B9, 0x7F4A7C15, 0x85EBCA6B, 0xC2B2AE35};
+    //endregion Constants
+
+    //region Fields
+    private final int[] table;
+    private final int width;
+    private final int sampleSize;
+    private int additions;
+    //endregion Fields
+
+    /**
+     * All parameters constructor.
+     *
+     * @param expectedKeys Number of distinct keys expected to be tracked.
+     */
+    public FrequencySketch(int expectedKeys) {
+        int requiredWidth = Math.max(expectedKeys, MIN_WIDTH);
+        int powerOfTwo = Integer.highestOneBit(requiredWidth);
+        this.width = powerOfTwo < requiredWidth ? powerOfTwo << 1 : powerOfTwo;
+        this.table = new int[DEPTH * width];
+        this.sampleSize = 10 * width;
+    }
+
+    /**
+     * Records an access to a key.
+     *
+     * @param key Key accessed.
+     */
+    public void increment(String key) {
+        int hash = spread(key.hashCode());
+        boolean incremented = false;
+        for (int i = 0; i < DEPTH; i++) {
+            int index = indexOf(hash, i);
+            if (table[index] < MAX_FREQUENCY) {
+                table[index]++;
+                incremented = true;
+            }
+        }
+
+        if (incremented && ++additions >= sampleSize) {
+            reset();
+        }
+    }
+
+    /**
+     * Estimates how many times a key has been accessed recently.
+     *
+     * @param key Key to look up.
+     * @return Estimated access count, up to {@link #MAX_FREQUENCY}.
+     */
+    public int frequency(String key) {
+        int hash = spread(key.hashCode());
+        int frequency = MAX_FREQUENCY;
+        for (int i = 0; i < DEPTH; i++) {
+            frequency = Math.min(frequency, table[indexOf(hash, i)]);
+        }
+        return frequency;
+    }
+
+    /**
+     * Forgets every access recorded.
+     */
+    public void clear() {
+        Arrays.fill(table, 0);
+        additions = 0;
+    }
+
+    //region Helper methods
+
+    /**
+     * Halves every counter, aging the frequencies recorded.
+     */
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] >>>= 1;
+        }
+        additions >>>= 1;
+    }
+
+    private int indexOf(int hash, int row) {
+        int h = (hash ^ SEEDS[row]) * 0x9E3779B1;
+        h ^= h >>> 16;
+        return row * width + (h & (width - 1));
+    }
+
+    private static int spread(int hash) {
+        hash ^= hash >>> 17;
+        hash *= 0xED5AD4BB;
+        hash ^= hash >>> 11;
+        return hash;
+    }
+    //endregion Helper methods
+}
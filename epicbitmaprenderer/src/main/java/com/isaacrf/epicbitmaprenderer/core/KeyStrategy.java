@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2016 Isaac R.F.
+ * http://isaacrf.com/works/epicbitmaprenderer
+ * https://github.com/isaacrf/EpicBitmapRenderer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.isaacrf.epicbitmaprenderer.core;
+
+/**
+ * <p>
+ * Strategy turning the source of a render request into its canonical form before it is used as cache key, so
+ * trivially different sources of the same image (query parameter order, cache-busting parameters, CDN hostnames...)
+ * share memory and disk cache entries. Set it through {@link EpicBitmapCache#setKeyStrategy(KeyStrategy)}.
+ * </p>
+ * <p>
+ * {@link CanonicalKeyStrategy} provides the usual url canonicalizations. Strategies are called from several render
+ * threads at once, so they must be thread safe.
+ * </p>
+ */
+public interface KeyStrategy {
+
+    /**
+     * Returns the canonical form of a source. Sources with the same canonical form are considered the same image.
+     *
+     * @param source     Url or file path requested.
+     * @param sourceType Kind of source.
+     * @return Canonical form of source, or source itself if it is left as is.
+     */
+    String canonicalize(String source, SourceType sourceType);
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2016 Isaac R.F.
+ * http://isaacrf.com/works/epicbitmaprenderer
+ * https://github.com/isaacrf/EpicBitmapRenderer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.isaacrf.epicbitmaprenderer.core;
+
+import android.graphics.Bitmap;
+
+/**
+ * <p>
+ * Memory tier of {@link EpicBitmapCache}, bounded by the bytes its {@link Bitmap} objects hold on the heap.
+ * Implementations differ in the eviction policy they follow, and are selected when building the cache with
+ * {@link EpicBitmapCache#EpicBitmapCache(MemoryCache)}.
+ * </p>
+ * <ul>
+ * <li>{@link BitmapMemoryCache}: least recently used, the default.</li>
+ * <li>{@link WTinyLfuMemoryCache}: Window TinyLFU, resistant to one-off scans (e.g. flinging through a long gallery).</li>
+ * </ul>
+ * <p>
+ * Implementations must be thread safe.
+ * </p>
+ */
+public interface MemoryCache {
+
+    /**
+     * Gets a cached {@link Bitmap}, recording the access for the eviction policy.
+     *
+     * @param key ID of the {@link Bitmap}.
+     * @return Cached {@link Bitmap}, or null if not found.
+     */
+    Bitmap get(String key);
+
+    /**
+     * Checks if a {@link Bitmap} is cached, without recording an access nor counting a hit or miss.
+     *
+     * @param key ID of the {@link Bitmap}.
+     * @return True if cached, False otherwise.
+     */
+    boolean contains(String key);
+
+    /**
+     * Caches a {@link Bitmap}, evicting other entries if limits are exceeded. The bitmap may not be kept if it is
+     * too large or the eviction policy rejects it, in which case any previous value for the key is dropped too.
+     *
+     * @param key    ID of the {@link Bitmap}.
+     * @param bitmap {@link Bitmap} to cache.
+     * @return Previous {@link Bitmap} cached for the key, or null if none.
+     */
+    Bitmap put(String key, Bitmap bitmap);
+
+    /**
+     * Removes a cached {@link Bitmap}.
+     *
+     * @param key ID of the {@link Bitmap}.
+     * @return Removed {@link Bitmap}, or null if not found.
+     */
+    Bitmap remove(String key);
+
+    /**
+     * Evicts every entry. They are not counted in {@link #evictionCount()}, which only tracks limits being honored.
+     */
+    void evictAll();
+
+    /**
+     * Evicts entries, following the eviction policy, until cache holds no more than the bytes specified.
+     *
+     * @param maxSize Maximum number of bytes to keep.
+     */
+    void trimToSize(long maxSize);
+
+    /**
+     * @return Number of bytes held by cached entries, including their overhead.
+     */
+    long size();
+
+    /**
+     * @return Maximum number of bytes held by cached entries.
+     */
+    long maxSize();
+
+    /**
+     * @return Number of cached entries.
+     */
+    int entryCount();
+
+    /**
+     * @return Number of times {@link #get(String)} found the bitmap requested.
+     */
+    int hitCount();
+
+    /**
+     * @return Number of times {@link #get(String)} didn't find the bitmap requested.
+     */
+    int missCount();
+
+    /**
+     * @return Number of entries evicted to honor cache limits.
+     */
+    int evictionCount();
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2016 Isaac R.F.
+ * http://isaacrf.com/works/epicbitmaprenderer
+ * https://github.com/isaacrf/EpicBitmapRenderer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.isaacrf.epicbitmaprenderer.core;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * Policy deciding when a {@link android.graphics.Bitmap} read from disk cache is promoted into the memory tier of
+ * {@link EpicBitmapCache}, so later requests for it skip reading and decoding the file again.
+ * </p>
+ * <ul>
+ * <li>Always: {@code new PromotionPolicy()}, the default.</li>
+ * <li>After N disk hits: {@code new PromotionPolicy(n, 1f)}, so images read just once don't displace memory entries.</li>
+ * <li>Size-limited: {@code new PromotionPolicy(1, fraction)}, promoting only bitmaps up to a fraction of the memory cache.</li>
+ * </ul>
+ * <p>
+ * Promoted bitmaps still go through the memory cache own admission rules. Disk hit and promotion counts are kept
+ * for stats.
+ * </p>
+ */
+public class PromotionPolicy {
+    //region Constants
+    /**
+     * Maximum number of keys whose disk hits are tracked while waiting for promotion.
+     */
+    public static final int MAX_TRACKED_KEYS = 256;
+    //endregion Constants
+
+    //region Fields
+    private final int minDiskHits;
+    private final float maxSizeFraction;
+    private final LinkedHashMap<String, Integer> pendingHits;
+    private int diskHitCount;
+    private int promotionCount;
+    //endregion Fields
+
+    //region Constructors
+
+    /**
+     * Basic constructor, promotes every disk hit.
+     */
+    public PromotionPolicy() {
+        this(1, 1f);
+    }
+
+    /**
+     * All parameters constructor.
+     *
+     * @param minDiskHits     Number of disk hits a key needs before being promoted. 1 to promote on first hit.
+     * @param maxSizeFraction Maximum size of a promoted bitmap, as a fraction of the memory cache size (between 0 and 1).
+     */
+    public PromotionPolicy(int minDiskHits, float maxSizeFraction) {
+        if (minDiskHits < 1) {
+            throw new IllegalArgumentException("minDiskHits < 1");
+        }
+        if (maxSizeFraction <= 0 || maxSizeFraction > 1) {
+            throw new IllegalArgumentException("maxSizeFraction must be in (0, 1]");
+        }
+        this.minDiskHits = minDiskHits;
+        this.maxSizeFraction = maxSizeFraction;
+        this.pendingHits = new LinkedHashMap<String, Integer>(0, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+                return size() > MAX_TRACKED_KEYS;
+            }
+        };
+    }
+    //endregion Constructors
+
+    /**
+     * Records a disk cache hit and decides whether the bitmap read is promoted into memory.
+     *
+     * @param key            ID of the bitmap read from disk.
+     * @param bitmapSize     Bytes held by the bitmap read.
+     * @param memoryCacheMax Maximum number of bytes held by the memory cache.
+     * @return True if bitmap should be put into memory cache.
+     */
+    public synchronized boolean onDiskHit(String key, long bitmapSize, long memoryCacheMax) {
+        diskHitCount++;
+
+        if (bitmapSize > memoryCacheMax * maxSizeFraction) {
+            return false;
+        }
+
+        if (minDiskHits > 1) {
+            Integer previousHits = pendingHits.get(key);
+            int hits = previousHits != null ? previousHits + 1 : 1;
+            if (hits < minDiskHits) {
+                pendingHits.put(key, hits);
+                return false;
+            }
+            pendingHits.remove(key);
+        }
+
+        promotionCount++;
+        return true;
+    }
+
+    //region Getters
+
+    /**
+     * @return Number of disk hits a key needs before being promoted.
+     */
+    public int getMinDiskHits() {
+        return minDiskHits;
+    }
+
+    /**
+     * @return Maximum size of a promoted bitmap, as a fraction of the memory cache size.
+     */
+    public float getMaxSizeFraction() {
+        return maxSizeFraction;
+    }
+
+    /**
+     * @return Number of bitmaps read from disk cache.
+     */
+    public synchronized int diskHitCount() {
+        return diskHitCount;
+    }
+
+    /**
+     * @return Number of bitmaps read from disk cache and promoted into memory.
+     */
+    public synchronized int promotionCount() {
+        return promotionCount;
+    }
+    //endregion Getters
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2016 Isaac R.F.
+ * http://isaacrf.com/works/epicbitmaprenderer
+ * https://github.com/isaacrf/EpicBitmapRenderer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.isaacrf.epicbitmaprenderer.core;
+
+/**
+ * {@link AdmissionPolicy} rejecting entries larger than a fraction of the whole memory cache, such as full resolution
+ * decodes, so they never evict a large part of the cache at once.
+ */
+public class SizeAdmissionPolicy implements AdmissionPolicy {
+    //region Constants
+    /**
+     * Default maximum size of a single entry, as a fraction of the cache size.
+     */
+    public static final float DEFAULT_MAX_ENTRY_FRACTION = 0.25f;
+    //endregion Constants
+
+    //region Fields
+    private final float maxEntryFraction;
+    //endregion Fields
+
+    //region Constructors
+
+    /**
+     * Basic constructor, admits entries up to {@link #DEFAULT_MAX_ENTRY_FRACTION} of cache size.
+     */
+    public SizeAdmissionPolicy() {
+        this(DEFAULT_MAX_ENTRY_FRACTION);
+    }
+
+    /**
+     * All parameters constructor.
+     *
+     * @param maxEntryFraction Maximum size of a single entry, as a fraction of the cache size (between 0 and 1).
+     */
+    public SizeAdmissionPolicy(float maxEntryFraction) {
+        if (maxEntryFraction <= 0 || maxEntryFraction > 1) {
+            throw new IllegalArgumentException("maxEntryFraction must be in (0, 1]");
+        }
+        this.maxEntryFraction = maxEntryFraction;
+    }
+    //endregion Constructors
+
+    @Override
+    public void recordAccess(String key) {
+    }
+
+    @Override
+    public boolean admit(String key, long entrySize, String victimKey, long maxSize) {
+        return entrySize <= maxSize * maxEntryFraction;
+    }
+
+    /**
+     * @return Maximum size of a single entry, as a fraction of the cache size.
+     */
+    public float getMaxEntryFraction() {
+        return maxEntryFraction;
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2016 Isaac R.F.
+ * http://isaacrf.com/works/epicbitmaprenderer
+ * https://github.com/isaacrf/EpicBitmapRenderer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.isaacrf.epicbitmaprenderer.core;
+
+/**
+ * Kinds of source a {@link android.graphics.Bitmap} can be rendered from, each with its own default {@link CachePolicy}.
+ */
+public enum SourceType {
+    /**
+     * Application resources, already stored compressed inside the APK.
+     */
+    RESOURCE,
+    /**
+     * Image files on device storage.
+     */
+    FILE,
+    /**
+     * Images downloaded from an url, the most expensive to render again.
+     */
+    URL
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2016 Isaac R.F.
+ * http://isaacrf.com/works/epicbitmaprenderer
+ * https://github.com/isaacrf/EpicBitmapRenderer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.isaacrf.epicbitmaprenderer.core;
+
+/**
+ * <p>
+ * TinyLFU {@link AdmissionPolicy}: besides rejecting entries too large for the cache (see {@link SizeAdmissionPolicy}),
+ * a new entry that needs to evict something is only admitted if it has been requested more often recently than the
+ * entry that would be evicted. One-off bitmaps then no longer push out the ones shown over and over.
+ * </p>
+ * <p>
+ * Access frequencies are estimated with a {@link FrequencySketch}, using a few bytes per key and forgetting old
+ * accesses over time.
+ * </p>
+ */
+public class TinyLfuAdmissionPolicy extends SizeAdmissionPolicy {
+    //region Constants
+    /**
+     * Default number of distinct keys expected to be tracked, sizing the frequency sketch.
+     */
+    public static final int DEFAULT_EXPECTED_KEYS = 1024;
+    //endregion Constants
+
+    //region Fields
+    private final FrequencySketch sketch;
+    //endregion Fields
+
+    //region Constructors
+
+    /**
+     * Basic constructor, sized for {@link #DEFAULT_EXPECTED_KEYS} keys, admitting entries up to
+     * {@link #DEFAULT_MAX_ENTRY_FRACTION} of cache size.
+     */
+    public TinyLfuAdmissionPolicy() {
+        this(DEFAULT_EXPECTED_KEYS, DEFAULT_MAX_ENTRY_FRACTION);
+    }
+
+    /**
+     * All parameters constructor.
+     *
+     * @param expectedKeys     Number of distinct keys expected to be tracked, usually a few times the cache entry count.
+     * @param maxEntryFraction Maximum size of a single entry, as a fraction of the cache size (between 0 and 1).
+     */
+    public TinyLfuAdmissionPolicy(int expectedKeys, float maxEntryFraction) {
+        super(maxEntryFraction);
+        this.sketch = new FrequencySketch(expectedKeys);
+    }
+    //endregion Constructors
+
+    @Override
+    public void recordAccess(String key) {
+        sketch.increment(key);
+    }
+
+    @Override
+    public boolean admit(String key, long entrySize, String victimKey, long maxSize) {
+        if (!super.admit(key, entrySize, victimKey, maxSize)) {
+            return false;
+        }
+
+        //Candidate must be likely to be requested more than the entry it would evict
+        return victimKey == null || sketch.frequency(key) > sketch.frequency(victimKey);
+    }
+
+    /**
+     * @return {@link FrequencySketch} estimating key access frequencies.
+     */
+    public FrequencySketch getSketch() {
+        return sketch;
+    }
+}
@@ -0,0 +1,400 @@
+/*
+ * Copyright (C) 2016 Isaac R.F.
+ * http://isaacrf.com/works/epicbitmaprenderer
+ * https://github.com/isaacrf/EpicBitmapRenderer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.isaacrf.epicbitmaprenderer.core;
+
+import android.graphics.Bitmap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * Scan resistant {@link MemoryCache} following the Window TinyLFU policy. Plain LRU evicts the few bitmaps used on every
+ * screen (avatars, icons...) as soon as the user flings once through a long gallery; W-TinyLFU keeps them.
+ * </p>
+ * <p>
+ * New entries land in a small LRU admission window ({@link #WINDOW_FRACTION} of the cache), so bursts of recent
+ * bitmaps are still served. Entries leaving the window become candidates for the main area, and are only admitted if
+ * a {@link FrequencySketch} estimates they are requested more often than the main area's eviction victim. The main
+ * area is a segmented LRU: entries hit again while on probation are promoted to a protected segment
+ * ({@link #PROTECTED_FRACTION} of the main area), which one-off accesses can't flush.
+ * </p>
+ * <p>
+ * Entries are accounted in bytes the same way {@link BitmapMemoryCache} does.
+ * </p>
+ */
+public class WTinyLfuMemoryCache implements MemoryCache {
+    //region Constants
+    /**
+     * Fraction of the cache used as admission window.
+     */
+    public static final float WINDOW_FRACTION = 0.01f;
+    /**
+     * Fraction of the main area used as protected segment.
+     */
+    public static final float PROTECTED_FRACTION = 0.8f;
+    //endregion Constants
+
+    //region Fields
+    private final Map<String, Entry> data = new HashMap<String, Entry>();
+    private final LinkedHashMap<String, Entry> window = new LinkedHashMap<String, Entry>();
+    private final LinkedHashMap<String, Entry> probation = new LinkedHashMap<String, Entry>();
+    private final LinkedHashMap<String, Entry> protectedSegment = new LinkedHashMap<String, Entry>();
+    private final FrequencySketch sketch;
+    private long maxSize;
+    private int maxEntries;
+    private long windowMaxSize;
+    private long protectedMaxSize;
+    private long windowSize;
+    private long protectedSize;
+    private long size;
+    private int hitCount;
+    private int missCount;
+    private int putCount;
+    private int evictionCount;
+    //endregion Fields
+
+    //region Constructors
+
+    /**
+     * Basic constructor, bounded by size only, with a frequency sketch sized for {@link TinyLfuAdmissionPolicy#DEFAULT_EXPECTED_KEYS} keys.
+     *
+     * @param maxSize Maximum number of bytes held by cached entries.
+     */
+    public WTinyLfuMemoryCache(long maxSize) {
+        this(maxSize, BitmapMemoryCache.UNLIMITED_ENTRIES, TinyLfuAdmissionPolicy.DEFAULT_EXPECTED_KEYS);
+    }
+
+    /**
+     * All parameters constructor.
+     *
+     * @param maxSize      Maximum number of bytes held by cached entries.
+     * @param maxEntries   Maximum number of cached entries, or {@link BitmapMemoryCache#UNLIMITED_ENTRIES}.
+     * @param expectedKeys Number of distinct keys expected to be requested, sizing the frequency sketch. A few times the number of entries that fit in cache is a good value.
+     */
+    public WTinyLfuMemoryCache(long maxSize, int maxEntries, int expectedKeys) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        if (maxEntries < 0) {
+            throw new IllegalArgumentException("maxEntries < 0");
+        }
+        this.sketch = new FrequencySketch(expectedKeys);
+        this.maxEntries = maxEntries;
+        setMaxSize(maxSize);
+    }
+    //endregion Constructors
+
+    //region Cache handling methods
+
+    @Override
+    public synchronized Bitmap get(String key) {
+        sketch.increment(key);
+
+        Entry entry = data.get(key);
+        if (entry == null) {
+            missCount++;
+            return null;
+        }
+
+        hitCount++;
+        onHit(entry);
+        return entry.bitmap;
+    }
+
+    @Override
+    public synchronized boolean contains(String key) {
+        return data.containsKey(key);
+    }
+
+    @Override
+    public synchronized Bitmap put(String key, Bitmap bitmap) {
+        if (key == null || bitmap == null) {
+            throw new NullPointerException("key == null || bitmap == null");
+        }
+
+        putCount++;
+
+        Entry previous = data.get(key);
+        if (previous != null) {
+            removeEntry(previous);
+        }
+
+        long entrySize = sizeOf(key, bitmap);
+        if (entrySize <= maxSize) {
+            //New entries always land on the admission window
+            Entry entry = new Entry(key, bitmap, entrySize);
+            data.put(key, entry);
+            window.put(key, entry);
+            windowSize += entrySize;
+            size += entrySize;
+            evictEntries();
+        }
+
+        return previous != null ? previous.bitmap : null;
+    }
+
+    @Override
+    public synchronized Bitmap remove(String key) {
+        Entry entry = data.get(key);
+        if (entry != null) {
+            removeEntry(entry);
+            return entry.bitmap;
+        }
+        return null;
+    }
+
+    @Override
+    public synchronized void evictAll() {
+        data.clear();
+        window.clear();
+        probation.clear();
+        protectedSegment.clear();
+        windowSize = 0;
+        protectedSize = 0;
+        size = 0;
+    }
+
+    @Override
+    public synchronized void trimToSize(long maxSize) {
+        while (size > maxSize && !data.isEmpty()) {
+            evict(nextVictim());
+        }
+    }
+
+    /**
+     * Changes cache limits, evicting entries if needed.
+     *
+     * @param maxSize    Maximum number of bytes held by cached entries.
+     * @param maxEntries Maximum number of cached entries, or {@link BitmapMemoryCache#UNLIMITED_ENTRIES}.
+     */
+    public synchronized void resize(long maxSize, int maxEntries) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        if (maxEntries < 0) {
+            throw new IllegalArgumentException("maxEntries < 0");
+        }
+        this.maxEntries = maxEntries;
+        setMaxSize(maxSize);
+        evictEntries();
+    }
+    //endregion Cache handling methods
+
+    //region Getters
+
+    @Override
+    public synchronized long size() {
+        return size;
+    }
+
+    @Override
+    public synchronized long maxSize() {
+        return maxSize;
+    }
+
+    @Override
+    public synchronized int entryCount() {
+        return data.size();
+    }
+
+    /**
+     * @return Maximum number of cached entries, or {@link BitmapMemoryCache#UNLIMITED_ENTRIES}.
+     */
+    public synchronized int maxEntries() {
+        return maxEntries;
+    }
+
+    @Override
+    public synchronized int hitCount() {
+        return hitCount;
+    }
+
+    @Override
+    public synchronized int missCount() {
+        return missCount;
+    }
+
+    /**
+     * @return Number of times {@link #put(String, Bitmap)} was called.
+     */
+    public synchronized int putCount() {
+        return putCount;
+    }
+
+    @Override
+    public synchronized int evictionCount() {
+        return evictionCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "WTinyLfuMemoryCache[size=" + size + ",maxSize=" + maxSize + ",entries=" + data.size()
+                + ",window=" + window.size() + ",probation=" + probation.size() + ",protected=" + protectedSegment.size()
+                + ",hits=" + hitCount + ",misses=" + missCount + "]";
+    }
+    //endregion Getters
+
+    //region Helper methods
+
+    /**
+     * Computes the heap bytes accounted for an entry. Override to account entries differently.
+     *
+     * @param key    ID of the {@link Bitmap}.
+     * @param bitmap Cached {@link Bitmap}.
+     * @return Bytes accounted for the entry.
+     */
+    protected long sizeOf(String key, Bitmap bitmap) {
+        return BitmapMemoryCache.getBitmapByteCount(bitmap) + BitmapMemoryCache.ENTRY_OVERHEAD + 2L * key.length();
+    }
+
+    private void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+        this.windowMaxSize = Math.max(1, (long) (maxSize * WINDOW_FRACTION));
+        this.protectedMaxSize = (long) ((maxSize - windowMaxSize) * PROTECTED_FRACTION);
+    }
+
+    /**
+     * Moves an entry hit to the most recently used position of its segment, promoting it to the protected segment if
+     * it was on probation.
+     */
+    private void onHit(Entry entry) {
+        if (entry.segment == window) {
+            window.remove(entry.key);
+            window.put(entry.key, entry);
+        } else if (entry.segment == protectedSegment) {
+            protectedSegment.remove(entry.key);
+            protectedSegment.put(entry.key, entry);
+        } else {
+            probation.remove(entry.key);
+            entry.segment = protectedSegment;
+            protectedSegment.put(entry.key, entry);
+            protectedSize += entry.size;
+
+            //Demote least recently used protected entries back to probation if protected segment is full
+            Iterator<Entry> iterator = protectedSegment.values().iterator();
+            while (protectedSize > protectedMaxSize && iterator.hasNext()) {
+                Entry demoted = iterator.next();
+                if (demoted == entry) {
+                    break;
+                }
+                iterator.remove();
+                protectedSize -= demoted.size;
+                demoted.segment = probation;
+                probation.put(demoted.key, demoted);
+            }
+        }
+    }
+
+    /**
+     * Moves entries overflowing the admission window to the main area as candidates, and evicts either each
+     * candidate or the main area's victim, whichever is less frequently used, until cache is within limits.
+     */
+    private void evictEntries() {
+        List<Entry> candidates = new ArrayList<Entry>();
+        Iterator<Entry> windowIterator = window.values().iterator();
+        while (windowSize > windowMaxSize && windowIterator.hasNext()) {
+            Entry candidate = windowIterator.next();
+            windowIterator.remove();
+            windowSize -= candidate.size;
+            candidate.segment = probation;
+            probation.put(candidate.key, candidate);
+            candidates.add(candidate);
+        }
+
+        int nextCandidate = 0;
+        while (isOverLimits()) {
+            Entry candidate = null;
+            while (candidate == null && nextCandidate < candidates.size()) {
+                candidate = candidates.get(nextCandidate++);
+                if (data.get(candidate.key) != candidate) {
+                    candidate = null; // Already evicted
+                }
+            }
+
+            Entry victim = nextVictim();
+            if (candidate == null || victim == candidate) {
+                evict(victim);
+            } else if (sketch.frequency(candidate.key) > sketch.frequency(victim.key)) {
+                evict(victim);
+            } else {
+                evict(candidate);
+            }
+        }
+    }
+
+    /**
+     * Gets the entry to evict next: least recently used one on probation, then on protected segment, then on window.
+     */
+    private Entry nextVictim() {
+        if (!probation.isEmpty()) {
+            return probation.values().iterator().next();
+        }
+        if (!protectedSegment.isEmpty()) {
+            return protectedSegment.values().iterator().next();
+        }
+        return window.values().iterator().next();
+    }
+
+    private boolean isOverLimits() {
+        return !data.isEmpty() && (size > maxSize
+                || (maxEntries != BitmapMemoryCache.UNLIMITED_ENTRIES && data.size() > maxEntries));
+    }
+
+    private void evict(Entry entry) {
+        removeEntry(entry);
+        evictionCount++;
+    }
+
+    private void removeEntry(Entry entry) {
+        data.remove(entry.key);
+        entry.segment.remove(entry.key);
+        if (entry.segment == window) {
+            windowSize -= entry.size;
+        } else if (entry.segment == protectedSegment) {
+            protectedSize -= entry.size;
+        }
+        size -= entry.size;
+    }
+    //endregion Helper methods
+
+    //region Helper classes
+
+    /**
+     * Cached {@link Bitmap} along with the bytes accounted for it and the segment holding it.
+     */
+    private class Entry {
+        private final String key;
+        private final Bitmap bitmap;
+        private final long size;
+        private LinkedHashMap<String, Entry> segment;
+
+        private Entry(String key, Bitmap bitmap, long size) {
+            this.key = key;
+            this.bitmap = bitmap;
+            this.size = size;
+            this.segment = window;
+        }
+    }
+    //endregion Helper classes
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2016 Isaac R.F.
+ * http://isaacrf.com/works/epicbitmaprenderer
+ * https://github.com/isaacrf/EpicBitmapRenderer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.isaacrf.epicbitmaprenderer.listeners;
+
+import android.graphics.Bitmap;
+
+/**
+ * Listener to get a callback when every size rendition of an image is successfully rendered
+ */
+public interface OnRenditionsRendered {
+
+    /**
+     * Callback to be invoked when every size rendition of an image is successfully rendered
+     *
+     * @param renditions {@link Bitmap} objects rendered, in the same order as the sizes requested
+     */
+    void onRenditionsRendered(Bitmap[] renditions);
+}
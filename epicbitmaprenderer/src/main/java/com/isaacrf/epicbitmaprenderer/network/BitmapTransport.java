@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2016 Isaac R.F.
+ * http://isaacrf.com/works/epicbitmaprenderer
+ * https://github.com/isaacrf/EpicBitmapRenderer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.isaacrf.epicbitmaprenderer.network;
+
+import java.io.IOException;
+
+/**
+ * <p>
+ * Transport used by every url render method to fetch image data. Implement it to plug in your own HTTP client
+ * (e.g. a pooled one shared with the rest of the app) and set it using
+ * {@link com.isaacrf.epicbitmaprenderer.core.EpicBitmapRenderer#setUrlTransport(BitmapTransport)}.
+ * </p>
+ * <p>
+ * {@link UrlConnectionTransport} is used by default.
+ * </p>
+ */
+public interface BitmapTransport {
+
+    /**
+     * Requests image data from a given url.
+     *
+     * @param url            Image resource URL (e.g. http://www.website.com/image.png)
+     * @param cachedMetadata Metadata of a stale copy of the image stored on cache, to make the request conditional
+     *                       (If-None-Match / If-Modified-Since). Null for an unconditional request. Ignored when resuming.
+     * @param rangeStart     First byte requested, to resume an interrupted download. 0 to request the whole image.
+     * @param rangeValidator ETag or Last-Modified of the partially downloaded image (If-Range), so the whole image is sent
+     *                       if it changed meanwhile. Can be null.
+     * @return {@link TransportResponse} with the whole image (200), the rest of it (206), or a 304 if request was
+     * conditional and stored copy is still valid. Caller must close it.
+     * @throws IOException If request fails, or server answers with an error status ({@link HttpStatusException}).
+     */
+    TransportResponse open(String url, HttpCacheMetadata cachedMetadata, long rangeStart, String rangeValidator)
+            throws IOException;
+}
@@ -0,0 +1,316 @@
+/*
+ * Copyright (C) 2016 Isaac R.F.
+ * http://isaacrf.com/works/epicbitmaprenderer
+ * https://github.com/isaacrf/EpicBitmapRenderer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.isaacrf.epicbitmaprenderer.network;
+
+import java.net.URLConnection;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * <p>
+ * HTTP freshness and validation info of an image downloaded from an url, stored along with the image on disk cache.
+ * </p>
+ * <p>
+ * It keeps the validators sent by the server (ETag and Last-Modified) and the Cache-Control header, and computes
+ * the moment the stored copy becomes stale. Stale copies are revalidated using a conditional request
+ * (If-None-Match / If-Modified-Since), so a "304 Not Modified" answer just refreshes this metadata instead of
+ * downloading the whole image again.
+ * </p>
+ */
+public class HttpCacheMetadata {
+    //region Constants
+    private static final String FIELD_ETAG = "ETag";
+    private static final String FIELD_LAST_MODIFIED = "Last-Modified";
+    private static final String FIELD_CACHE_CONTROL = "Cache-Control";
+    private static final String FIELD_EXPIRES_AT = "Expires-At";
+    private static final char FIELD_SEPARATOR = '=';
+    private static final char LINE_SEPARATOR = '\n';
+    private static final String HEADER_EXPIRES = "Expires";
+    private static final String HTTP_DATE_FORMAT = "EEE, dd MMM yyyy HH:mm:ss zzz";
+
+    /**
+     * Fraction of the time elapsed since Last-Modified used as freshness lifetime when server sends no explicit one.
+     */
+    private static final long HEURISTIC_FRESHNESS_DIVISOR = 10;
+
+    /**
+     * Expiration time of responses that never get stale (no freshness info nor validators sent by the server).
+     * Responses with validators but no freshness info expire right away instead, so they are always revalidated.
+     */
+    public static final long NEVER_EXPIRES = Long.MAX_VALUE;
+    //endregion Constants
+
+    //region Fields
+    private String eTag;
+    private String lastModified;
+    private String cacheControl;
+    private long expiresAt;
+    //endregion Fields
+
+    //region Constructors
+
+    /**
+     * All parameters constructor.
+     *
+     * @param eTag         ETag header value, or null if not sent.
+     * @param lastModified Last-Modified header value, or null if not sent.
+     * @param cacheControl Cache-Control header value, or null if not sent.
+     * @param expiresAt    Time, in milliseconds since epoch, from which stored copy is considered stale.
+     */
+    public HttpCacheMetadata(String eTag, String lastModified, String cacheControl, long expiresAt) {
+        this.eTag = eTag;
+        this.lastModified = lastModified;
+        this.cacheControl = cacheControl;
+        this.expiresAt = expiresAt;
+    }
+    //endregion Constructors
+
+    //region Getters / Setters
+
+    /**
+     * @return ETag validator, or null if server sent none.
+     */
+    public String getETag() {
+        return eTag;
+    }
+
+    /**
+     * @return Last-Modified validator, or null if server sent none.
+     */
+    public String getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * @return Cache-Control header sent by server, or null if server sent none.
+     */
+    public String getCacheControl() {
+        return cacheControl;
+    }
+
+    /**
+     * @return Time, in milliseconds since epoch, from which stored copy is considered stale.
+     */
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+    //endregion Getters / Setters
+
+    //region Freshness methods
+
+    /**
+     * Checks if stored copy can still be used without asking the server.
+     *
+     * @param now Current time in milliseconds since epoch.
+     * @return True if stored copy is fresh, False if it must be revalidated.
+     */
+    public boolean isFresh(long now) {
+        return now < expiresAt;
+    }
+
+    /**
+     * Checks if a conditional request can be made for the stored copy.
+     *
+     * @return True if server sent any validator (ETag or Last-Modified).
+     */
+    public boolean hasValidators() {
+        return eTag != null || lastModified != null;
+    }
+
+    /**
+     * Adds If-None-Match / If-Modified-Since headers to a connection not yet connected, so server can answer
+     * "304 Not Modified" if stored copy is still valid.
+     *
+     * @param urlConnection {@link URLConnection} to make conditional.
+     */
+    public void addConditionalHeaders(URLConnection urlConnection) {
+        if (eTag != null) {
+            urlConnection.setRequestProperty("If-None-Match", eTag);
+        }
+        if (lastModified != null) {
+            urlConnection.setRequestProperty("If-Modified-Since", lastModified);
+        }
+    }
+
+    /**
+     * Builds the metadata to store after a "304 Not Modified" answer. Validators and Cache-Control sent along
+     * with the 304 replace stored ones, stored ones are kept otherwise.
+     *
+     * @param response {@link TransportResponse} with a 304 status.
+     * @param now      Current time in milliseconds since epoch.
+     * @return Refreshed {@link HttpCacheMetadata}.
+     */
+    public HttpCacheMetadata refresh(TransportResponse response, long now) {
+        String refreshedETag = response.getHeader(FIELD_ETAG) != null ? response.getHeader(FIELD_ETAG) : eTag;
+        String refreshedLastModified = response.getHeader(FIELD_LAST_MODIFIED) != null
+                ? response.getHeader(FIELD_LAST_MODIFIED) : lastModified;
+        String refreshedCacheControl = response.getHeader(FIELD_CACHE_CONTROL) != null
+                ? response.getHeader(FIELD_CACHE_CONTROL) : cacheControl;
+
+        return new HttpCacheMetadata(refreshedETag, refreshedLastModified, refreshedCacheControl,
+                computeExpiresAt(refreshedCacheControl, response.getHeader(HEADER_EXPIRES), refreshedETag,
+                        refreshedLastModified, now));
+    }
+    //endregion Freshness methods
+
+    //region Helper methods
+
+    /**
+     * Reads metadata from the headers of a response.
+     *
+     * @param response {@link TransportResponse} received.
+     * @param now      Current time in milliseconds since epoch.
+     * @return {@link HttpCacheMetadata} describing the response.
+     */
+    public static HttpCacheMetadata fromResponse(TransportResponse response, long now) {
+        String eTag = response.getHeader(FIELD_ETAG);
+        String cacheControl = response.getHeader(FIELD_CACHE_CONTROL);
+        String lastModified = response.getHeader(FIELD_LAST_MODIFIED);
+
+        return new HttpCacheMetadata(eTag, lastModified, cacheControl,
+                computeExpiresAt(cacheControl, response.getHeader(HEADER_EXPIRES), eTag, lastModified, now));
+    }
+
+    /**
+     * Computes the time a response gets stale, following Cache-Control, then Expires, and finally the
+     * Last-Modified heuristic. Responses with validators but no usable freshness info (e.g. ETag only) are stale
+     * right away, so every use revalidates them; responses with neither never get stale.
+     */
+    private static long computeExpiresAt(String cacheControl, String expires, String eTag, String lastModified,
+                                         long now) {
+        if (cacheControl != null) {
+            for (String directive : cacheControl.toLowerCase(Locale.US).split(",")) {
+                directive = directive.trim();
+                if (directive.equals("no-cache") || directive.equals("no-store")) {
+                    return now;
+                } else if (directive.startsWith("max-age=")) {
+                    try {
+                        return now + Long.parseLong(directive.substring("max-age=".length()).trim()) * 1000;
+                    } catch (NumberFormatException ignored) {
+                    }
+                }
+            }
+        }
+
+        if (expires != null) {
+            // Invalid dates (e.g. "0") mean already expired
+            long expiresTime = parseHttpDate(expires);
+            return expiresTime > 0 ? expiresTime : now;
+        }
+
+        long lastModifiedTime = parseHttpDate(lastModified);
+        if (lastModifiedTime > 0 && lastModifiedTime < now) {
+            return now + (now - lastModifiedTime) / HEURISTIC_FRESHNESS_DIVISOR;
+        }
+
+        if (eTag != null || lastModified != null) {
+            return now;
+        }
+        return NEVER_EXPIRES;
+    }
+
+    /**
+     * Parses an HTTP date (RFC 1123 format, e.g. "Sun, 06 Nov 1994 08:49:37 GMT").
+     *
+     * @return Time in milliseconds since epoch, or -1 if date is null or invalid.
+     */
+    private static long parseHttpDate(String date) {
+        if (date == null) {
+            return -1;
+        }
+
+        SimpleDateFormat format = new SimpleDateFormat(HTTP_DATE_FORMAT, Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            return format.parse(date.trim()).getTime();
+        } catch (ParseException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Reads metadata previously stored using {@link #toString()}.
+     *
+     * @param metadata Stored metadata.
+     * @return {@link HttpCacheMetadata} object, or null if metadata is empty or null.
+     */
+    public static HttpCacheMetadata parse(String metadata) {
+        if (metadata == null || metadata.isEmpty()) {
+            return null;
+        }
+
+        String parsedETag = null;
+        String parsedLastModified = null;
+        String parsedCacheControl = null;
+        long parsedExpiresAt = NEVER_EXPIRES;
+
+        for (String line : metadata.split(String.valueOf(LINE_SEPARATOR))) {
+            int separator = line.indexOf(FIELD_SEPARATOR);
+            if (separator == -1) {
+                continue;
+            }
+
+            String field = line.substring(0, separator);
+            String value = line.substring(separator + 1);
+            if (field.equals(FIELD_ETAG)) {
+                parsedETag = value;
+            } else if (field.equals(FIELD_LAST_MODIFIED)) {
+                parsedLastModified = value;
+            } else if (field.equals(FIELD_CACHE_CONTROL)) {
+                parsedCacheControl = value;
+            } else if (field.equals(FIELD_EXPIRES_AT)) {
+                try {
+                    parsedExpiresAt = Long.parseLong(value);
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        }
+
+        //Copies with validators must be revalidated at some point (missing expiry, or stored by older versions)
+        if (parsedExpiresAt == NEVER_EXPIRES && (parsedETag != null || parsedLastModified != null)) {
+            parsedExpiresAt = 0;
+        }
+
+        return new HttpCacheMetadata(parsedETag, parsedLastModified, parsedCacheControl, parsedExpiresAt);
+    }
+
+    /**
+     * Serializes metadata to be stored on disk cache, one "Field=value" pair per line.
+     *
+     * @return Serialized metadata, readable with {@link #parse(String)}.
+     */
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        appendField(result, FIELD_ETAG, eTag);
+        appendField(result, FIELD_LAST_MODIFIED, lastModified);
+        appendField(result, FIELD_CACHE_CONTROL, cacheControl);
+        appendField(result, FIELD_EXPIRES_AT, String.valueOf(expiresAt));
+        return result.toString();
+    }
+
+    private static void appendField(StringBuilder result, String field, String value) {
+        if (value != null) {
+            result.append(field).append(FIELD_SEPARATOR).append(value).append(LINE_SEPARATOR);
+        }
+    }
+    //endregion Helper methods
+}
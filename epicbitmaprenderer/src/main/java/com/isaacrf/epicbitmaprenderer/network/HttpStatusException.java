@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2016 Isaac R.F.
+ * http://isaacrf.com/works/epicbitmaprenderer
+ * https://github.com/isaacrf/EpicBitmapRenderer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.isaacrf.epicbitmaprenderer.network;
+
+import java.io.IOException;
+
+/**
+ * Signals that a server answered a request with an unsuccessful HTTP status code.
+ */
+public class HttpStatusException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final int responseCode;
+    private final String url;
+
+    /**
+     * All parameters constructor.
+     *
+     * @param responseCode HTTP status code received.
+     * @param url          Url requested.
+     */
+    public HttpStatusException(int responseCode, String url) {
+        super("HTTP " + responseCode + " received from " + url);
+        this.responseCode = responseCode;
+        this.url = url;
+    }
+
+    /**
+     * @return HTTP status code received.
+     */
+    public int getResponseCode() {
+        return responseCode;
+    }
+
+    /**
+     * @return Url requested.
+     */
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * Checks if the same request may succeed if retried later (server errors, request timeouts and rate limiting).
+     *
+     * @return True if request is worth retrying.
+     */
+    public boolean isTransient() {
+        return responseCode >= 500 || responseCode == 408 || responseCode == 429;
+    }
+}
@@ -0,0 +1,317 @@
+/*
+ * Copyright (C) 2016 Isaac R.F.
+ * http://isaacrf.com/works/epicbitmaprenderer
+ * https://github.com/isaacrf/EpicBitmapRenderer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.isaacrf.epicbitmaprenderer.network;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * <p>
+ * Downloads an image into a staging file, so a download interrupted mid-stream can be resumed later instead of
+ * starting again from byte zero.
+ * </p>
+ * <p>
+ * The validator of the image (ETag, or Last-Modified if server sends no ETag) is stored next to the partial data.
+ * Next attempt requests only the missing bytes using a "Range" request along with "If-Range", and checks the
+ * "Content-Range" received. If image changed meanwhile, or server doesn't support ranges, the whole image is
+ * downloaded again.
+ * </p>
+ * <p>
+ * Only one download per staging file can be in progress at the same time, see {@link #acquire}.
+ * </p>
+ */
+public class ResumableDownload {
+    //region Constants
+    private static final String VALIDATOR_FILE_SUFFIX = ".validator";
+    private static final int HTTP_PARTIAL = 206;
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * Paths of the staging files being downloaded right now.
+     */
+    private static final Set<String> IN_PROGRESS = new HashSet<String>();
+    //endregion Constants
+
+    //region Fields
+    private final BitmapTransport transport;
+    private final String url;
+    private final File partialFile;
+    private final File validatorFile;
+    private boolean released;
+    //endregion Fields
+
+    //region Constructors
+
+    private ResumableDownload(BitmapTransport transport, String url, File partialFile) {
+        this.transport = transport;
+        this.url = url;
+        this.partialFile = partialFile;
+        this.validatorFile = new File(partialFile.getPath() + VALIDATOR_FILE_SUFFIX);
+    }
+
+    /**
+     * Starts a resumable download, unless the same staging file is already being downloaded by another thread.
+     * Every download acquired must be finished calling {@link #complete()} or {@link #release()}.
+     *
+     * @param transport   {@link BitmapTransport} used to request the image.
+     * @param url         Image resource URL.
+     * @param partialFile Staging file where image is downloaded.
+     * @return {@link ResumableDownload} object, or null if staging file is in use.
+     */
+    public static ResumableDownload acquire(BitmapTransport transport, String url, File partialFile) {
+        synchronized (IN_PROGRESS) {
+            if (!IN_PROGRESS.add(partialFile.getPath())) {
+                return null;
+            }
+        }
+        return new ResumableDownload(transport, url, partialFile);
+    }
+    //endregion Constructors
+
+    //region Download methods
+
+    /**
+     * Downloads the whole image into the staging file, resuming a previous interrupted attempt if possible.
+     * If download fails, data received so far is kept to be resumed next time.
+     *
+     * @param cachedMetadata Metadata of a stale copy of the image stored on cache, to make the request conditional
+     *                       when there is nothing to resume. Can be null.
+     * @return {@link TransportResponse} received, with its body already stored on {@link #getFile()} and its stream closed.
+     * Check {@link TransportResponse#isNotModified()}, in which case nothing was downloaded.
+     * @throws IOException If download failed or was incomplete.
+     */
+    public TransportResponse download(HttpCacheMetadata cachedMetadata) throws IOException {
+        String validator = readValidator();
+        long resumeFrom = validator != null ? partialFile.length() : 0;
+
+        TransportResponse response;
+        try {
+            response = transport.open(url, cachedMetadata, resumeFrom, validator);
+        } catch (HttpStatusException e) {
+            if (resumeFrom == 0 || e.getResponseCode() != HTTP_RANGE_NOT_SATISFIABLE) {
+                throw e;
+            }
+            //Partial data is no longer valid for this image, start again
+            deleteFiles();
+            resumeFrom = 0;
+            response = transport.open(url, cachedMetadata, 0, null);
+        }
+
+        if (response.isNotModified()) {
+            return response;
+        }
+
+        try {
+            boolean resumed = resumeFrom > 0 && response.getResponseCode() == HTTP_PARTIAL
+                    && getRangeStart(response) == resumeFrom
+                    && validator.equals(getValidator(response, validator));
+            if (!resumed && response.getResponseCode() == HTTP_PARTIAL) {
+                //Server sent a range we didn't ask for, download the whole image again
+                response.close();
+                deleteFiles();
+                resumeFrom = 0;
+                response = transport.open(url, null, 0, null);
+            } else if (!resumed) {
+                resumeFrom = 0;
+            }
+
+            writeValidator(getValidator(response, null));
+            long expectedLength = getExpectedLength(response, resumeFrom);
+            long length = copy(response.getInputStream(), resumeFrom > 0);
+
+            if (expectedLength >= 0 && length != expectedLength) {
+                throw new IOException("Incomplete download of " + url + ": " + length + " of " + expectedLength + " bytes");
+            }
+        } finally {
+            response.close();
+        }
+
+        return response;
+    }
+
+    /**
+     * @return Staging file where image is downloaded.
+     */
+    public File getFile() {
+        return partialFile;
+    }
+
+    /**
+     * Opens the downloaded image to decode it.
+     *
+     * @return {@link FileInputStream} of the staging file.
+     * @throws IOException If staging file can't be opened.
+     */
+    public FileInputStream openFile() throws IOException {
+        return new FileInputStream(partialFile);
+    }
+
+    /**
+     * Finishes the download deleting the staging file, once downloaded image has been used.
+     */
+    public void complete() {
+        deleteFiles();
+        release();
+    }
+
+    /**
+     * Finishes the download keeping data received so far, so it can be resumed later.
+     */
+    public void release() {
+        if (!released) {
+            released = true;
+            synchronized (IN_PROGRESS) {
+                IN_PROGRESS.remove(partialFile.getPath());
+            }
+        }
+    }
+    //endregion Download methods
+
+    //region Helper methods
+
+    /**
+     * Appends (or writes from scratch) response body to staging file.
+     *
+     * @return Total length of staging file.
+     */
+    private long copy(InputStream in, boolean append) throws IOException {
+        OutputStream out = new FileOutputStream(partialFile, append);
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+        } finally {
+            out.close();
+        }
+        return partialFile.length();
+    }
+
+    /**
+     * Reads first byte position from a "Content-Range: bytes first-last/total" header.
+     *
+     * @return First byte position, or -1 if header is missing or malformed.
+     */
+    private static long getRangeStart(TransportResponse response) {
+        String contentRange = response.getHeader("Content-Range");
+        if (contentRange == null || !contentRange.startsWith("bytes ")) {
+            return -1;
+        }
+        int dash = contentRange.indexOf('-');
+        try {
+            return dash > 0 ? Long.parseLong(contentRange.substring("bytes ".length(), dash).trim()) : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Computes the final length of the image, from Content-Range total or Content-Length.
+     *
+     * @return Expected length in bytes, or -1 if unknown.
+     */
+    private static long getExpectedLength(TransportResponse response, long resumeFrom) {
+        String contentRange = response.getHeader("Content-Range");
+        if (contentRange != null) {
+            int slash = contentRange.lastIndexOf('/');
+            try {
+                if (slash != -1 && !contentRange.endsWith("*")) {
+                    return Long.parseLong(contentRange.substring(slash + 1).trim());
+                }
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        return response.getContentLength() >= 0 ? resumeFrom + response.getContentLength() : -1;
+    }
+
+    /**
+     * Gets the strongest validator sent with a response: ETag, or Last-Modified if there is no ETag.
+     */
+    private static String getValidator(TransportResponse response, String defaultValue) {
+        String eTag = response.getETag();
+        // Weak ETags can't be used on If-Range
+        if (eTag != null && !eTag.startsWith("W/")) {
+            return eTag;
+        }
+        String lastModified = response.getLastModified();
+        return lastModified != null ? lastModified : defaultValue;
+    }
+
+    private String readValidator() {
+        if (!validatorFile.exists() || !partialFile.exists()) {
+            deleteFiles();
+            return null;
+        }
+
+        InputStream in = null;
+        try {
+            in = new FileInputStream(validatorFile);
+            byte[] bytes = new byte[(int) validatorFile.length()];
+            int read = 0;
+            int count;
+            while (read < bytes.length && (count = in.read(bytes, read, bytes.length - read)) != -1) {
+                read += count;
+            }
+            String validator = new String(bytes, 0, read, "UTF-8");
+            return validator.isEmpty() ? null : validator;
+        } catch (IOException e) {
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Stores the validator of the image being downloaded. Without validator, download can't be resumed safely.
+     */
+    private void writeValidator(String validator) throws IOException {
+        if (validator == null) {
+            if (validatorFile.exists() && !validatorFile.delete()) {
+                throw new IOException("failed to delete " + validatorFile);
+            }
+            return;
+        }
+
+        OutputStream out = new FileOutputStream(validatorFile);
+        try {
+            out.write(validator.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    private void deleteFiles() {
+        partialFile.delete();
+        validatorFile.delete();
+    }
+    //endregion Helper methods
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2016 Isaac R.F.
+ * http://isaacrf.com/works/epicbitmaprenderer
+ * https://github.com/isaacrf/EpicBitmapRenderer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.isaacrf.epicbitmaprenderer.network;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Response to an image request: status code, body stream and the headers needed to decode and cache it.
+ * Closing the response releases its connection so it can be reused for later requests.
+ */
+public class TransportResponse implements Closeable {
+    //region Fields
+    private final int responseCode;
+    private final InputStream inputStream;
+    private final long contentLength;
+    private final String contentType;
+    private final Map<String, String> headers;
+    //endregion Fields
+
+    //region Constructors
+
+    /**
+     * All parameters constructor.
+     *
+     * @param responseCode  HTTP status code received (200 for non-HTTP sources).
+     * @param inputStream   Stream to read response body from. Empty for "304 Not Modified" responses.
+     * @param contentLength Length of response body in bytes, or -1 if unknown.
+     * @param contentType   Mime type of response body, or null if unknown.
+     * @param headers       Response headers. Header names are matched ignoring case.
+     */
+    public TransportResponse(int responseCode, InputStream inputStream, long contentLength, String contentType,
+                             Map<String, String> headers) {
+        this.responseCode = responseCode;
+        this.inputStream = inputStream;
+        this.contentLength = contentLength;
+        this.contentType = contentType;
+        this.headers = new HashMap<String, String>();
+        if (headers != null) {
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                if (header.getKey() != null) {
+                    this.headers.put(header.getKey().toLowerCase(Locale.US), header.getValue());
+                }
+            }
+        }
+    }
+    //endregion Constructors
+
+    //region Getters
+
+    /**
+     * @return HTTP status code received.
+     */
+    public int getResponseCode() {
+        return responseCode;
+    }
+
+    /**
+     * @return True if server answered "304 Not Modified" to a conditional request.
+     */
+    public boolean isNotModified() {
+        return responseCode == 304;
+    }
+
+    /**
+     * @return Stream to read response body from.
+     */
+    public InputStream getInputStream() {
+        return inputStream;
+    }
+
+    /**
+     * @return Length of response body in bytes, or -1 if unknown.
+     */
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    /**
+     * @return Mime type of response body, or null if unknown.
+     */
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * @return ETag validator sent with the response, or null if none.
+     */
+    public String getETag() {
+        return getHeader("ETag");
+    }
+
+    /**
+     * @return Last-Modified validator sent with the response, or null if none.
+     */
+    public String getLastModified() {
+        return getHeader("Last-Modified");
+    }
+
+    /**
+     * Gets a response header value.
+     *
+     * @param name Header name, case insensitive.
+     * @return Header value, or null if not received.
+     */
+    public String getHeader(String name) {
+        return headers.get(name.toLowerCase(Locale.US));
+    }
+    //endregion Getters
+
+    @Override
+    public void close() throws IOException {
+        if (inputStream != null) {
+            inputStream.close();
+        }
+    }
+}
@@ -0,0 +1,474 @@
+/*
+ * Copyright (C) 2016 Isaac R.F.
+ * http://isaacrf.com/works/epicbitmaprenderer
+ * https://github.com/isaacrf/EpicBitmapRenderer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.isaacrf.epicbitmaprenderer.network;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.ProtocolException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * Default {@link BitmapTransport} used to download images from urls, built on top of {@link HttpURLConnection}.
+ * </p>
+ * <ul>
+ * <li>Every request is bounded by a connect timeout, a read timeout and an overall deadline, so a stalled
+ * server can never pin a worker thread indefinitely.</li>
+ * <li>Connections are kept alive and released properly (small leftovers are drained before closing), so they
+ * can be reused by later requests to the same host.</li>
+ * <li>Redirects are followed manually. Permanent ones (301 / 308) are remembered, so later loads of the same
+ * url go straight to its final location, skipping the extra round trip.</li>
+ * <li>GET requests failing due to network errors or transient server errors (5xx, 408, 429) are retried
+ * with a bounded exponential backoff, as long as the overall deadline allows it.</li>
+ * </ul>
+ */
+public class UrlConnectionTransport implements BitmapTransport {
+    //region Constants
+    public static final int DEFAULT_CONNECT_TIMEOUT = 15 * 1000;
+    public static final int DEFAULT_READ_TIMEOUT = 20 * 1000;
+    public static final int DEFAULT_OVERALL_TIMEOUT = 60 * 1000;
+    public static final int DEFAULT_MAX_RETRIES = 2;
+    public static final int DEFAULT_RETRY_BACKOFF = 500;
+    private static final int MAX_RETRY_BACKOFF = 4 * 1000;
+    private static final int MAX_REDIRECTS = 5;
+    private static final int MAX_REMEMBERED_REDIRECTS = 100;
+    private static final int KEEP_ALIVE_DRAIN_LIMIT = 16 * 1024;
+    private static final int HTTP_TEMPORARY_REDIRECT = 307;
+    private static final int HTTP_PERMANENT_REDIRECT = 308;
+    //endregion Constants
+
+    //region Fields
+    private volatile int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+    private volatile int readTimeout = DEFAULT_READ_TIMEOUT;
+    private volatile int overallTimeout = DEFAULT_OVERALL_TIMEOUT;
+    private volatile int maxRetries = DEFAULT_MAX_RETRIES;
+    private volatile int retryBackoff = DEFAULT_RETRY_BACKOFF;
+
+    /**
+     * Final locations of urls permanently redirected, least recently used first.
+     */
+    private final LinkedHashMap<String, String> permanentRedirects =
+            new LinkedHashMap<String, String>(0, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                    return size() > MAX_REMEMBERED_REDIRECTS;
+                }
+            };
+    //endregion Fields
+
+    //region Getters / Setters
+
+    /**
+     * @return Maximum time, in milliseconds, to wait for a connection to be established.
+     */
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    /**
+     * @param connectTimeout Maximum time, in milliseconds, to wait for a connection to be established.
+     */
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    /**
+     * @return Maximum time, in milliseconds, to wait for data while reading a response.
+     */
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    /**
+     * @param readTimeout Maximum time, in milliseconds, to wait for data while reading a response.
+     */
+    public void setReadTimeout(int readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * @return Maximum time, in milliseconds, a whole request can take, including redirects, retries and reading the response body.
+     */
+    public int getOverallTimeout() {
+        return overallTimeout;
+    }
+
+    /**
+     * @param overallTimeout Maximum time, in milliseconds, a whole request can take, including redirects, retries and reading the response body.
+     */
+    public void setOverallTimeout(int overallTimeout) {
+        this.overallTimeout = overallTimeout;
+    }
+
+    /**
+     * @return Maximum number of times a failed request is retried.
+     */
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * @param maxRetries Maximum number of times a failed request is retried. 0 to disable retries.
+     */
+    public void setMaxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+    /**
+     * @return Time, in milliseconds, to wait before first retry. It is doubled on each later retry.
+     */
+    public int getRetryBackoff() {
+        return retryBackoff;
+    }
+
+    /**
+     * @param retryBackoff Time, in milliseconds, to wait before first retry. It is doubled on each later retry.
+     */
+    public void setRetryBackoff(int retryBackoff) {
+        this.retryBackoff = retryBackoff;
+    }
+    //endregion Getters / Setters
+
+    //region Request methods
+
+    /**
+     * Requests an image from a given url.
+     *
+     * @param url            Image resource URL (e.g. http://www.website.com/image.png)
+     * @param cachedMetadata Metadata of a stale copy of the image stored on cache, to make the request conditional. Null for an unconditional request.
+     * @return {@link TransportResponse} with either the image ("200 OK") or a "304 Not Modified" if request was conditional and stored copy is still valid.
+     * @throws IOException If request fails after all retries, server answers with an error status ({@link HttpStatusException}), or deadline is exceeded.
+     */
+    public TransportResponse open(String url, HttpCacheMetadata cachedMetadata) throws IOException {
+        return open(url, cachedMetadata, 0, null);
+    }
+
+    /**
+     * Requests an image from a given url, starting from a given byte to resume a previous interrupted download.
+     *
+     * @param url            Image resource URL (e.g. http://www.website.com/image.png)
+     * @param cachedMetadata Metadata of a stale copy of the image stored on cache, to make the request conditional. Null for an unconditional request. Ignored when resuming.
+     * @param rangeStart     First byte requested. 0 to request the whole image.
+     * @param rangeValidator ETag or Last-Modified of the partially downloaded image, sent as If-Range so server sends the whole image if it changed meanwhile. Can be null.
+     * @return {@link TransportResponse} with either the rest of the image ("206 Partial Content"), the whole image ("200 OK"),
+     * or a "304 Not Modified" if request was conditional and stored copy is still valid.
+     * @throws IOException If request fails after all retries, server answers with an error status ({@link HttpStatusException}), or deadline is exceeded.
+     */
+    @Override
+    public TransportResponse open(String url, HttpCacheMetadata cachedMetadata, long rangeStart, String rangeValidator)
+            throws IOException {
+        final long deadline = System.currentTimeMillis() + overallTimeout;
+        String requestUrl = getPermanentRedirect(url);
+        int attempt = 0;
+
+        while (true) {
+            try {
+                return openFollowingRedirects(url, requestUrl, cachedMetadata, rangeStart, rangeValidator, deadline);
+            } catch (IOException e) {
+                if (!requestUrl.equals(url) && isRedirectTargetFailure(e)) {
+                    //Remembered redirect is outdated, forget it and go back to the original url
+                    forgetPermanentRedirect(url);
+                    requestUrl = url;
+                    continue;
+                }
+
+                long backoff = Math.min((long) retryBackoff << attempt, MAX_RETRY_BACKOFF);
+                if (attempt >= maxRetries || !isRetryable(e) || System.currentTimeMillis() + backoff >= deadline) {
+                    throw e;
+                }
+
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting to retry " + url);
+                }
+                attempt++;
+            }
+        }
+    }
+
+    /**
+     * Removes every remembered permanent redirect.
+     */
+    public void clearPermanentRedirects() {
+        synchronized (permanentRedirects) {
+            permanentRedirects.clear();
+        }
+    }
+    //endregion Request methods
+
+    //region Helper methods
+
+    private TransportResponse openFollowingRedirects(String originalUrl, String requestUrl,
+                                                     HttpCacheMetadata cachedMetadata, long rangeStart,
+                                                     String rangeValidator, long deadline)
+            throws IOException {
+        String location = requestUrl;
+        boolean permanentOnly = true;
+
+        for (int redirects = 0; redirects <= MAX_REDIRECTS; redirects++) {
+            URLConnection urlConnection = openConnection(location, cachedMetadata, rangeStart, rangeValidator, deadline);
+
+            //Non HTTP urls (e.g. file://) have no status nor redirects
+            if (!(urlConnection instanceof HttpURLConnection)) {
+                return new TransportResponse(HttpURLConnection.HTTP_OK,
+                        new DeadlineInputStream(urlConnection.getInputStream(), null, deadline),
+                        urlConnection.getContentLength(), urlConnection.getContentType(), null);
+            }
+
+            HttpURLConnection connection = (HttpURLConnection) urlConnection;
+            int responseCode = connection.getResponseCode();
+
+            if (isRedirect(responseCode)) {
+                String target = connection.getHeaderField("Location");
+                release(connection);
+                if (target == null) {
+                    throw new HttpStatusException(responseCode, location);
+                }
+
+                location = new URL(new URL(location), target).toString();
+                permanentOnly &= responseCode == HttpURLConnection.HTTP_MOVED_PERM
+                        || responseCode == HTTP_PERMANENT_REDIRECT;
+                if (permanentOnly) {
+                    rememberPermanentRedirect(originalUrl, location);
+                }
+            } else if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                Map<String, String> headers = getHeaders(connection);
+                release(connection);
+                return new TransportResponse(responseCode, new ByteArrayInputStream(new byte[0]), 0, null, headers);
+            } else if (responseCode >= HttpURLConnection.HTTP_OK && responseCode < HttpURLConnection.HTTP_MULT_CHOICE) {
+                return new TransportResponse(responseCode,
+                        new DeadlineInputStream(connection.getInputStream(), connection, deadline),
+                        connection.getContentLength(), connection.getContentType(), getHeaders(connection));
+            } else {
+                release(connection);
+                throw new HttpStatusException(responseCode, location);
+            }
+        }
+
+        throw new ProtocolException("Too many redirects requesting " + originalUrl);
+    }
+
+    private URLConnection openConnection(String url, HttpCacheMetadata cachedMetadata, long rangeStart,
+                                         String rangeValidator, long deadline)
+            throws IOException {
+        int remaining = getRemainingTime(deadline);
+
+        URLConnection urlConnection = new URL(url).openConnection();
+        urlConnection.setConnectTimeout(Math.min(connectTimeout, remaining));
+        urlConnection.setReadTimeout(Math.min(readTimeout, remaining));
+        urlConnection.setUseCaches(true);
+
+        if (urlConnection instanceof HttpURLConnection) {
+            ((HttpURLConnection) urlConnection).setInstanceFollowRedirects(false);
+            urlConnection.setRequestProperty("Connection", "keep-alive");
+            // Images are already compressed, and byte ranges must refer to the stored representation
+            urlConnection.setRequestProperty("Accept-Encoding", "identity");
+
+            if (rangeStart > 0) {
+                urlConnection.setRequestProperty("Range", "bytes=" + rangeStart + "-");
+                if (rangeValidator != null) {
+                    urlConnection.setRequestProperty("If-Range", rangeValidator);
+                }
+            } else if (cachedMetadata != null) {
+                cachedMetadata.addConditionalHeaders(urlConnection);
+            }
+        }
+
+        return urlConnection;
+    }
+
+    private static int getRemainingTime(long deadline) throws SocketTimeoutException {
+        long remaining = deadline - System.currentTimeMillis();
+        if (remaining <= 0) {
+            throw new SocketTimeoutException("Request deadline exceeded");
+        }
+        return (int) Math.min(remaining, Integer.MAX_VALUE);
+    }
+
+    private static boolean isRedirect(int responseCode) {
+        return responseCode == HttpURLConnection.HTTP_MOVED_PERM
+                || responseCode == HttpURLConnection.HTTP_MOVED_TEMP
+                || responseCode == HttpURLConnection.HTTP_SEE_OTHER
+                || responseCode == HTTP_TEMPORARY_REDIRECT
+                || responseCode == HTTP_PERMANENT_REDIRECT;
+    }
+
+    private static boolean isRetryable(IOException e) {
+        if (e instanceof HttpStatusException) {
+            return ((HttpStatusException) e).isTransient();
+        }
+        return !(e instanceof MalformedURLException
+                || e instanceof UnknownHostException
+                || e instanceof ProtocolException
+                || e instanceof InterruptedIOException && !(e instanceof SocketTimeoutException));
+    }
+
+    /**
+     * Checks if a request to a remembered redirect target failed because of the target itself (error status, or
+     * a broken redirect chain), rather than a network error worth retrying against the same target.
+     */
+    private static boolean isRedirectTargetFailure(IOException e) {
+        return e instanceof HttpStatusException || e instanceof ProtocolException;
+    }
+
+    private static Map<String, String> getHeaders(HttpURLConnection connection) {
+        Map<String, String> headers = new HashMap<String, String>();
+        for (Map.Entry<String, List<String>> header : connection.getHeaderFields().entrySet()) {
+            List<String> values = header.getValue();
+            if (header.getKey() != null && values != null && !values.isEmpty()) {
+                headers.put(header.getKey(), values.get(values.size() - 1));
+            }
+        }
+        return headers;
+    }
+
+    private String getPermanentRedirect(String url) {
+        synchronized (permanentRedirects) {
+            String location = permanentRedirects.get(url);
+            return location != null ? location : url;
+        }
+    }
+
+    private void rememberPermanentRedirect(String url, String location) {
+        synchronized (permanentRedirects) {
+            permanentRedirects.put(url, location);
+        }
+    }
+
+    private void forgetPermanentRedirect(String url) {
+        synchronized (permanentRedirects) {
+            permanentRedirects.remove(url);
+        }
+    }
+
+    /**
+     * Releases a connection whose body is not going to be used. Small bodies are read to the end so the
+     * underlying socket goes back to the keep-alive pool, bigger ones are dropped closing the socket.
+     */
+    private static void release(HttpURLConnection connection) {
+        InputStream in = null;
+        boolean reusable = false;
+        try {
+            in = connection.getResponseCode() >= HttpURLConnection.HTTP_BAD_REQUEST
+                    ? connection.getErrorStream()
+                    : connection.getInputStream();
+            reusable = in == null || drain(in);
+        } catch (IOException ignored) {
+        } finally {
+            closeQuietly(in);
+            if (!reusable) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Reads a stream to its end, up to {@link #KEEP_ALIVE_DRAIN_LIMIT} bytes.
+     *
+     * @return True if end of stream was reached.
+     */
+    private static boolean drain(InputStream in) throws IOException {
+        byte[] buffer = new byte[1024];
+        int drained = 0;
+        int count;
+        while (drained <= KEEP_ALIVE_DRAIN_LIMIT) {
+            count = in.read(buffer);
+            if (count == -1) {
+                return true;
+            }
+            drained += count;
+        }
+        return false;
+    }
+
+    private static void closeQuietly(InputStream in) {
+        if (in != null) {
+            try {
+                in.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+    //endregion Helper methods
+
+    //region Helper classes
+
+    /**
+     * Response body stream that fails once the request deadline is exceeded, and releases its connection for
+     * reuse when closed.
+     */
+    private static class DeadlineInputStream extends FilterInputStream {
+        private final HttpURLConnection connection;
+        private final long deadline;
+        private boolean exhausted;
+
+        private DeadlineInputStream(InputStream in, HttpURLConnection connection, long deadline) {
+            super(in);
+            this.connection = connection;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public int read() throws IOException {
+            getRemainingTime(deadline);
+            int result = super.read();
+            exhausted = result == -1;
+            return result;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            getRemainingTime(deadline);
+            int result = super.read(buffer, offset, count);
+            exhausted = result == -1;
+            return result;
+        }
+
+        @Override
+        public void close() throws IOException {
+            boolean reusable = exhausted;
+            try {
+                if (!reusable && connection != null && System.currentTimeMillis() < deadline) {
+                    reusable = drain(in);
+                }
+            } catch (IOException ignored) {
+            } finally {
+                super.close();
+                if (!reusable && connection != null) {
+                    connection.disconnect();
+                }
+            }
+        }
+    }
+    //endregion Helper classes
+}
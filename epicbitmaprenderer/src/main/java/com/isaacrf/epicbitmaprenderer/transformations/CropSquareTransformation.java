@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2016 Isaac R.F.
+ * http://isaacrf.com/works/epicbitmaprenderer
+ * https://github.com/isaacrf/EpicBitmapRenderer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.isaacrf.epicbitmaprenderer.transformations;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+import com.isaacrf.epicbitmaprenderer.core.BitmapPool;
+
+/**
+ * Crops the center square of a bitmap, e.g. for avatars and grid thumbnails.
+ */
+public class CropSquareTransformation implements Transformation {
+
+    @Override
+    public Bitmap transform(Bitmap source, BitmapPool bitmapPool) {
+        int size = Math.min(source.getWidth(), source.getHeight());
+        if (source.getWidth() == source.getHeight()) {
+            return source;
+        }
+
+        int left = (source.getWidth() - size) / 2;
+        int top = (source.getHeight() - size) / 2;
+
+        Bitmap result = bitmapPool.get(size, size, source.getConfig());
+        new Canvas(result).drawBitmap(source, new Rect(left, top, left + size, top + size),
+                new Rect(0, 0, size, size), new Paint(Paint.FILTER_BITMAP_FLAG));
+        return result;
+    }
+
+    @Override
+    public String getKey() {
+        return "CropSquare()";
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2016 Isaac R.F.
+ * http://isaacrf.com/works/epicbitmaprenderer
+ * https://github.com/isaacrf/EpicBitmapRenderer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.isaacrf.epicbitmaprenderer.transformations;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+import com.isaacrf.epicbitmaprenderer.core.BitmapPool;
+
+/**
+ * Scales a bitmap down to fit in the dimensions specified, keeping its aspect ratio. Unlike inSampleSize downsampling,
+ * result has exactly the size needed by the view.
+ */
+public class ResizeTransformation implements Transformation {
+    //region Fields
+    private final int maxWidth;
+    private final int maxHeight;
+    //endregion Fields
+
+    /**
+     * All parameters constructor.
+     *
+     * @param maxWidth  Maximum width of the result, in pixels.
+     * @param maxHeight Maximum height of the result, in pixels.
+     */
+    public ResizeTransformation(int maxWidth, int maxHeight) {
+        this.maxWidth = maxWidth;
+        this.maxHeight = maxHeight;
+    }
+
+    @Override
+    public Bitmap transform(Bitmap source, BitmapPool bitmapPool) {
+        float scale = Math.min((float) maxWidth / source.getWidth(), (float) maxHeight / source.getHeight());
+        if (scale >= 1) {
+            return source;
+        }
+
+        int width = Math.max(1, Math.round(source.getWidth() * scale));
+        int height = Math.max(1, Math.round(source.getHeight() * scale));
+
+        Bitmap result = bitmapPool.get(width, height, source.getConfig());
+        new Canvas(result).drawBitmap(source, null, new Rect(0, 0, width, height), new Paint(Paint.FILTER_BITMAP_FLAG));
+        return result;
+    }
+
+    @Override
+    public String getKey() {
+        return "Resize(" + maxWidth + "," + maxHeight + ")";
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2016 Isaac R.F.
+ * http://isaacrf.com/works/epicbitmaprenderer
+ * https://github.com/isaacrf/EpicBitmapRenderer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.isaacrf.epicbitmaprenderer.transformations;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapShader;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.graphics.Shader;
+
+import com.isaacrf.epicbitmaprenderer.core.BitmapPool;
+
+/**
+ * Rounds the corners of a bitmap. Combined with {@link CropSquareTransformation} and a radius of half the size, it
+ * renders circular images.
+ */
+public class RoundedCornersTransformation implements Transformation {
+    //region Fields
+    private final float radius;
+    //endregion Fields
+
+    /**
+     * All parameters constructor.
+     *
+     * @param radius Corner radius, in pixels.
+     */
+    public RoundedCornersTransformation(float radius) {
+        this.radius = radius;
+    }
+
+    @Override
+    public Bitmap transform(Bitmap source, BitmapPool bitmapPool) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+
+        //Corners need transparency, whatever the source config is
+        Bitmap result = bitmapPool.get(width, height, Bitmap.Config.ARGB_8888);
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setShader(new BitmapShader(source, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP));
+        new Canvas(result).drawRoundRect(new RectF(0, 0, width, height), radius, radius, paint);
+        return result;
+    }
+
+    @Override
+    public String getKey() {
+        return "RoundedCorners(" + radius + ")";
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2016 Isaac R.F.
+ * http://isaacrf.com/works/epicbitmaprenderer
+ * https://github.com/isaacrf/EpicBitmapRenderer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.isaacrf.epicbitmaprenderer.transformations;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffColorFilter;
+
+import com.isaacrf.epicbitmaprenderer.core.BitmapPool;
+
+/**
+ * Tints a bitmap with a color, keeping its transparency (e.g. for icons).
+ */
+public class TintTransformation implements Transformation {
+    //region Fields
+    private final int color;
+    //endregion Fields
+
+    /**
+     * All parameters constructor.
+     *
+     * @param color Tint color, in ARGB format.
+     */
+    public TintTransformation(int color) {
+        this.color = color;
+    }
+
+    @Override
+    public Bitmap transform(Bitmap source, BitmapPool bitmapPool) {
+        Bitmap result = bitmapPool.get(source.getWidth(), source.getHeight(), source.getConfig());
+        Paint paint = new Paint();
+        paint.setColorFilter(new PorterDuffColorFilter(color, PorterDuff.Mode.SRC_ATOP));
+        new Canvas(result).drawBitmap(source, 0, 0, paint);
+        return result;
+    }
+
+    @Override
+    public String getKey() {
+        return "Tint(" + Integer.toHexString(color) + ")";
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2016 Isaac R.F.
+ * http://isaacrf.com/works/epicbitmaprenderer
+ * https://github.com/isaacrf/EpicBitmapRenderer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.isaacrf.epicbitmaprenderer.transformations;
+
+import android.graphics.Bitmap;
+
+import com.isaacrf.epicbitmaprenderer.core.BitmapPool;
+
+/**
+ * <p>
+ * Transformation (crop, rounding, tint, resize...) applied to a rendered {@link Bitmap} on the decode worker thread,
+ * before it is cached and returned. Results are cached under a key including every transformation's {@link #getKey()},
+ * so later renders of the same source and transformations skip both decoding and transforming.
+ * </p>
+ * <p>
+ * Implementations must not recycle the source bitmap, the chain returns it to the {@link BitmapPool} itself.
+ * </p>
+ */
+public interface Transformation {
+
+    /**
+     * Transforms a {@link Bitmap}.
+     *
+     * @param source     {@link Bitmap} to transform. Must not be modified nor recycled.
+     * @param bitmapPool Pool to get the result {@link Bitmap} from, reusing memory of previous intermediate results.
+     * @return Transformed {@link Bitmap}, or source itself if there is nothing to transform.
+     */
+    Bitmap transform(Bitmap source, BitmapPool bitmapPool);
+
+    /**
+     * Gets a signature identifying this transformation and all its parameters, stable between app runs, as it is
+     * part of the keys transformed bitmaps are cached under (e.g. "RoundedCorners(16)").
+     *
+     * @return Transformation signature.
+     */
+    String getKey();
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2016 Isaac R.F.
+ * http://isaacrf.com/works/epicbitmaprenderer
+ * https://github.com/isaacrf/EpicBitmapRenderer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.isaacrf.epicbitmaprenderer.transformations;
+
+import android.graphics.Bitmap;
+
+import com.isaacrf.epicbitmaprenderer.core.BitmapPool;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+/**
+ * Helper methods to run a {@link Transformation} chain and to build the cache keys of its results.
+ */
+public final class Transformations {
+    private static final int SIGNATURE_HASH_LENGTH = 16;
+
+    private Transformations() {
+    }
+
+    /**
+     * Builds the key a source's bitmap transformed by a chain is cached under, appending a hash of every transformation
+     * signature to the source key, so it is still a valid disk cache key.
+     *
+     * @param key             ID of the untransformed source.
+     * @param transformations Transformation chain. Can be null.
+     * @return Transform-aware key, or key itself if there are no transformations.
+     */
+    public static String getCacheKey(String key, List<Transformation> transformations) {
+        if (transformations == null || transformations.isEmpty()) {
+            return key;
+        }
+
+        StringBuilder signature = new StringBuilder();
+        for (Transformation transformation : transformations) {
+            signature.append(transformation.getKey()).append('\n');
+        }
+
+        return key + "_t" + hash(signature.toString());
+    }
+
+    /**
+     * Runs a transformation chain over a bitmap. Intermediate bitmaps, including the source one when it is transformed,
+     * are returned to the pool, so only the final result stays in memory.
+     *
+     * @param source          {@link Bitmap} to transform. Not used anymore by caller if a different bitmap is returned.
+     * @param transformations Transformation chain. Can be null.
+     * @param bitmapPool      Pool to take result bitmaps from and return intermediate ones to.
+     * @return Transformed {@link Bitmap}, or source itself if there are no transformations.
+     */
+    public static Bitmap apply(Bitmap source, List<Transformation> transformations, BitmapPool bitmapPool) {
+        if (source == null || transformations == null) {
+            return source;
+        }
+
+        Bitmap current = source;
+        for (Transformation transformation : transformations) {
+            Bitmap transformed = transformation.transform(current, bitmapPool);
+            if (transformed != current) {
+                bitmapPool.put(current);
+                current = transformed;
+            }
+        }
+
+        return current;
+    }
+
+    /**
+     * Hashes a transformation chain signature into an hex string.
+     */
+    private static String hash(String signature) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(signature.getBytes("UTF-8"));
+            StringBuilder hex = new StringBuilder();
+            for (int i = 0; i < SIGNATURE_HASH_LENGTH / 2; i++) {
+                hex.append(Character.forDigit((digest[i] >> 4) & 0xf, 16));
+                hex.append(Character.forDigit(digest[i] & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(signature.hashCode());
+        } catch (UnsupportedEncodingException e) {
+            return Integer.toHexString(signature.hashCode());
+        }
+    }
+}
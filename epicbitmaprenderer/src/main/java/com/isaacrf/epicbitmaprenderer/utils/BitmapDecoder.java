@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2016 Isaac R.F.
+ * http://isaacrf.com/works/epicbitmaprenderer
+ * https://github.com/isaacrf/EpicBitmapRenderer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.isaacrf.epicbitmaprenderer.utils;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Collection of {@link Bitmap} decoding helper methods, shared by render methods and disk cache reads.
+ */
+public final class BitmapDecoder {
+    /**
+     * Size of the temp storage buffer shared by all decode passes over the same source.
+     */
+    public static final int DECODE_TEMP_STORAGE_SIZE = 16 * 1024;
+
+    private BitmapDecoder() {
+    }
+
+    /**
+     * Calculates downsample rate, if needed, for an image depending of width and height it should fit on.
+     *
+     * @param options   {@link android.graphics.BitmapFactory.Options} object containing image info.
+     * @param reqWidth  Required width of the view where the Bitmap should fit.
+     * @param reqHeight Required height of the view where the Bitmap should fit.
+     * @return int representing inSampleSize, a.k.a. the number of times image resolution is divided to lower memory usage.
+     * @see <a href="https://developer.android.com/training/displaying-bitmaps/load-bitmap.html#load-bitmap">Google conventions for calculate inSampleSize.</a>
+     */
+    public static int calculateInSampleSize(
+            BitmapFactory.Options options, int reqWidth, int reqHeight) {
+        // Raw height and width of image
+        final int height = options.outHeight;
+        final int width = options.outWidth;
+        int inSampleSize = 1;
+
+        if ((reqHeight > 0 || reqWidth > 0) && (height > reqHeight || width > reqWidth)) {
+
+            final int halfHeight = height / 2;
+            final int halfWidth = width / 2;
+
+            // Calculate the largest inSampleSize value that is a power of 2 and keeps both
+            // height and width larger than the requested height and width.
+            while ((halfHeight / inSampleSize) > reqHeight
+                    && (halfWidth / inSampleSize) > reqWidth) {
+                inSampleSize *= 2;
+            }
+        }
+
+        return inSampleSize;
+    }
+
+    /**
+     * Decodes a {@link Bitmap} from the {@link FileDescriptor} of an already opened file, starting from its first byte.
+     * File position is rewound before decoding, so the same open file can be used for every decode pass
+     * (bounds pass, sampled pass and any {@link OutOfMemoryError} retry) instead of reopening it on each one.
+     *
+     * @param fileInputStream Opened {@link FileInputStream} of the image file.
+     * @param options         {@link android.graphics.BitmapFactory.Options} to decode with. Set its inTempStorage to reuse the same buffer on each pass.
+     * @return Decoded {@link Bitmap} object, or null if options request bounds only or image could not be decoded.
+     * @throws IOException If file descriptor is no longer valid or file position could not be reset.
+     */
+    public static Bitmap decodeFileDescriptorFromStart(FileInputStream fileInputStream, BitmapFactory.Options options)
+            throws IOException {
+        fileInputStream.getChannel().position(0);
+        return BitmapFactory.decodeFileDescriptor(fileInputStream.getFD(), null, options);
+    }
+
+    /**
+     * Decodes a sampled {@link Bitmap} from the {@link FileDescriptor} of an already opened file, using the specified measures to
+     * calculate image downsample if needed, or the inSampleSize already set on options otherwise.
+     * Downsample rate is auto-increased if bitmap rendering causes an {@link OutOfMemoryError}.
+     *
+     * @param fileInputStream Opened {@link FileInputStream} of the image file.
+     * @param options         {@link android.graphics.BitmapFactory.Options} to decode with. After decoding, it holds the image mime type.
+     * @param reqWidth        Required width of the view where the Bitmap should fit. 0 to use options inSampleSize.
+     * @param reqHeight       Required height of the view where the Bitmap should fit. 0 to use options inSampleSize.
+     * @return Decoded {@link Bitmap} object, or null if image could not be decoded.
+     * @throws IOException If file descriptor is no longer valid or file position could not be reset.
+     */
+    public static Bitmap decodeSampledBitmapFromFileDescriptor(FileInputStream fileInputStream, BitmapFactory.Options options,
+                                                               int reqWidth, int reqHeight) throws IOException {
+        Bitmap decodedBitmap = null;
+        Boolean outOfMemoryError = true;
+
+        if (options.inTempStorage == null) {
+            options.inTempStorage = new byte[DECODE_TEMP_STORAGE_SIZE];
+        }
+
+        if (reqWidth > 0 || reqHeight > 0) {
+            // First decode with inJustDecodeBounds=true (No memory allocation) to check dimensions
+            options.inJustDecodeBounds = true;
+            decodeFileDescriptorFromStart(fileInputStream, options);
+
+            // Calculate inSampleSize
+            options.inSampleSize = calculateInSampleSize(options, reqWidth, reqHeight);
+        }
+
+        // Decode bitmap with inSampleSize set
+        options.inJustDecodeBounds = false;
+        while (outOfMemoryError) {
+            try {
+                decodedBitmap = decodeFileDescriptorFromStart(fileInputStream, options);
+                outOfMemoryError = false;
+            } catch (OutOfMemoryError e) {
+                //If inSampleSize still not enough to avoid out of memory error, increase it
+                options.inSampleSize = Math.max(options.inSampleSize, 1) * 2;
+                outOfMemoryError = true;
+            }
+
+            if (options.inSampleSize >= 20) {
+                //Break loop in case of too many loops (something else is happening)
+                outOfMemoryError = false;
+            }
+        }
+
+        return decodedBitmap;
+    }
+
+    /**
+     * Decodes a sampled {@link Bitmap} from image data already read into memory, using the specified measures to
+     * calculate image downsample if needed, or the inSampleSize already set on options otherwise.
+     * Downsample rate is auto-increased if bitmap rendering causes an {@link OutOfMemoryError}.
+     *
+     * @param data      Encoded image data.
+     * @param options   {@link android.graphics.BitmapFactory.Options} to decode with. After decoding, it holds the image mime type.
+     * @param reqWidth  Required width of the view where the Bitmap should fit. 0 to use options inSampleSize.
+     * @param reqHeight Required height of the view where the Bitmap should fit. 0 to use options inSampleSize.
+     * @return Decoded {@link Bitmap} object, or null if image could not be decoded.
+     */
+    public static Bitmap decodeSampledBitmapFromByteArray(byte[] data, BitmapFactory.Options options,
+                                                          int reqWidth, int reqHeight) {
+        Bitmap decodedBitmap = null;
+        Boolean outOfMemoryError = true;
+
+        if (reqWidth > 0 || reqHeight > 0) {
+            // First decode with inJustDecodeBounds=true (No memory allocation) to check dimensions
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeByteArray(data, 0, data.length, options);
+
+            // Calculate inSampleSize
+            options.inSampleSize = calculateInSampleSize(options, reqWidth, reqHeight);
+        }
+
+        // Decode bitmap with inSampleSize set
+        options.inJustDecodeBounds = false;
+        while (outOfMemoryError) {
+            try {
+                decodedBitmap = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+                outOfMemoryError = false;
+            } catch (OutOfMemoryError e) {
+                //If inSampleSize still not enough to avoid out of memory error, increase it
+                options.inSampleSize = Math.max(options.inSampleSize, 1) * 2;
+                outOfMemoryError = true;
+            }
+
+            if (options.inSampleSize >= 20) {
+                //Break loop in case of too many loops (something else is happening)
+                outOfMemoryError = false;
+            }
+        }
+
+        return decodedBitmap;
+    }
+}
@@ -23,12 +23,12 @@ import android.util.Log;
 
 import com.isaacrf.epicbitmaprenderer.BuildConfig;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
 import java.io.Closeable;
 import java.io.EOFException;
 import java.io.File;
+import java.io.FileDescriptor;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
@@ -39,12 +39,24 @@ import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
@@ -110,13 +122,42 @@ public final class DiskLruCache implements Closeable {
     static final String MAGIC = "libcore.io.DiskLruCache";
     static final String VERSION_1 = "1";
     static final long ANY_SEQUENCE_NUMBER = -1;
+    static final String PARTIAL_FILE_SUFFIX = ".partial";
+    static final String PARTIAL_VALIDATOR_FILE_SUFFIX = PARTIAL_FILE_SUFFIX + ".validator";
+    static final long PARTIAL_FILE_MAX_AGE = 2 * 24 * 60 * 60 * 1000L; // 2 days
     static final String STRING_KEY_PATTERN = "[A-z0-9%._-]{1,127}";
     static final Pattern LEGAL_KEY_PATTERN = Pattern.compile(STRING_KEY_PATTERN);
+    static final long RECENCY_CHECKPOINT_INTERVAL = 30 * 1000L; // 30 seconds
+    public static final long DEFAULT_GROUP_COMMIT_INTERVAL = 50; // 50 milliseconds
+    public static final float DEFAULT_EVICTION_HIGH_WATERMARK = 1.0f;
+    public static final float DEFAULT_EVICTION_LOW_WATERMARK = 1.0f;
+    static final int FAN_OUT_WIDTH = 16;
+    public static final long SEGMENT_SIZE = 1024 * 1024; // 1MB
+    static final String PAYLOAD_FILE_SUFFIX = ".blob";
+    static final String CONTENT_HASH_ALGORITHM = "SHA-256";
+    static final String EXPIRY_PREFIX = "@";
+    static final long EXPIRY_SWEEP_INTERVAL = 60 * 1000L; // 1 minute
     private static final String CLEAN = "CLEAN";
     private static final String DIRTY = "DIRTY";
     private static final String REMOVE = "REMOVE";
     private static final String READ = "READ";
 
+    /**
+     * Index of the value storing the compressed {@link Bitmap} on entries written by {@link #put}.
+     */
+    public static final int BITMAP_VALUE_INDEX = 0;
+
+    /**
+     * Index of the value storing entry metadata on entries written by {@link #put}, if cache has more than one value per entry.
+     */
+    public static final int METADATA_VALUE_INDEX = 1;
+
+    /**
+     * Prefix of the line, first on the metadata value, storing the bounds of the stored image (e.g. "Bounds=1080x720;image/jpeg"),
+     * so sampled reads can compute their inSampleSize without a bounds decode pass.
+     */
+    static final String BOUNDS_PREFIX = "Bounds=";
+
     /*
      * This cache uses a journal file named "journal". A typical journal file
      * looks like this:
@@ -147,17 +188,31 @@ public final class DiskLruCache implements Closeable {
      *     temporary files may need to be deleted.
      *   o CLEAN lines track a cache entry that has been successfully published
      *     and may be read. A publish line is followed by the lengths of each of
-     *     its values.
-     *   o READ lines track accesses for LRU.
+     *     its values. If any value is stored in a segment, lengths are followed
+     *     by the location of each value: "segment:offset", "#hash" for values
+     *     stored once for every entry with the same content, in a payload file
+     *     named "hash.blob", or "-" for values stored in files of their own.
+     *     Entries with a time to live end with their expiry time, in
+     *     milliseconds since epoch, like "@1476802800000".
+     *   o READ lines track accesses for LRU. With recency checkpointing
+     *     enabled, reads are not journaled one by one: each key read since the
+     *     last checkpoint is written once, in access order, by the next one.
      *   o REMOVE lines track entries that have been deleted.
      *
      * The journal file is appended to as cache operations occur. The journal may
      * occasionally be compacted by dropping redundant lines. A temporary file named
      * "journal.tmp" will be used during compaction; that file should be deleted if
      * it exists when the cache is opened.
+     *
+     * Value files are named "key.N". With the FAN_OUT layout they are stored in
+     * two levels of hashed subdirectories, like "a/3/key.0", instead of in the
+     * cache directory. The journal is the same in both layouts; files found in
+     * the other layout's place are moved when the cache is opened.
      */
 
     private final File directory;
+    private final Layout layout;
+    private final SegmentStore segmentStore;
     private final File journalFile;
     private final File journalFileTmp;
     private final File journalFileBackup;
@@ -166,10 +221,104 @@ public final class DiskLruCache implements Closeable {
     private final int valueCount;
     private long size = 0;
     private Writer journalWriter;
+    private FileOutputStream journalStream;
     private final LinkedHashMap<String, Entry> lruEntries =
             new LinkedHashMap<String, Entry>(0, 0.75f, true);
+
+    /**
+     * The same entries as lruEntries, to look them up without moving them in
+     * the LRU queue, e.g. to read just their metadata.
+     */
+    private final Map<String, Entry> entryIndex = new HashMap<String, Entry>();
     private int redundantOpCount;
 
+    /**
+     * With recency checkpointing, keys read since the last checkpoint, least
+     * recently read first. Recency is tracked in memory by lruEntries, this is
+     * just what the journal is still missing.
+     */
+    private boolean recencyCheckpointing;
+    private final LinkedHashSet<String> pendingReads = new LinkedHashSet<String>();
+    private long lastRecencyCheckpoint = System.currentTimeMillis();
+    private boolean recencyCheckpointScheduled;
+    private int recencyCheckpointCount;
+
+    /**
+     * Records appended to the journal while it is being compacted, to be
+     * replayed on the compacted journal before swapping it in. Null if no
+     * compaction is running.
+     */
+    private List<String> compactionSideLog;
+    /**
+     * Visible for testing: run by compactions on the background thread once
+     * the index is snapshotted, before the compacted journal is written.
+     */
+    Runnable compactionSnapshotListener;
+    private int compactionCount;
+    private long lastCompactionPauseNanos;
+    private long maxCompactionPauseNanos;
+
+    /**
+     * How journal records are made durable. Records appended and made durable
+     * so far are counted, so callers can wait for theirs.
+     */
+    private Durability durability = Durability.FLUSH_PER_OPERATION;
+    private long groupCommitInterval = DEFAULT_GROUP_COMMIT_INTERVAL;
+    private boolean groupCommitScheduled;
+    private long journalAppendCount;
+    private long journalDurableCount;
+    private int groupCommitCount;
+    private IOException groupCommitFailure;
+
+    /**
+     * The evictor wakes when size passes the high watermark and removes least
+     * recently used entries down to the low one, both fractions of maxSize.
+     * Edits of keys whose files are being deleted by the evictor, outside
+     * the lock, wait until it finishes.
+     */
+    private float evictionHighWatermark = DEFAULT_EVICTION_HIGH_WATERMARK;
+    private float evictionLowWatermark = DEFAULT_EVICTION_LOW_WATERMARK;
+    private final Set<String> evictingKeys = new HashSet<String>();
+    private int evictionCount;
+    private int evictionBatchCount;
+    /**
+     * Visible for testing: run by evictions on the background thread once
+     * entries are dropped from the index, before their files are deleted.
+     */
+    Runnable evictionListener;
+
+    /**
+     * Values up to this size are appended to segment files shared by many
+     * entries instead of being stored in a file of their own. 0 if disabled.
+     */
+    private long segmentValueMaxSize;
+    private int segmentCompactionCount;
+
+    /**
+     * With content deduplication, values stored in files are stored once per
+     * content hash, as payloads referenced by every entry with that content.
+     * Size accounts each payload once.
+     */
+    private boolean contentDeduplication;
+    private final Map<String, Payload> payloads = new HashMap<String, Payload>();
+    private long payloadBytes;
+    private long payloadReferencedBytes;
+    private int deduplicatedCount;
+
+    /**
+     * Entries may expire at a given time. Expired entries are misses, but are
+     * kept until the evictor reclaims them, so their metadata can be read to
+     * revalidate them. Eviction batches remove expired entries before least
+     * recently used ones, and a sweep runs at most once per interval after
+     * the earliest expiry known passed.
+     */
+    private long defaultTimeToLive;
+    private long earliestExpiry = Long.MAX_VALUE;
+    private long lastExpirySweep;
+    private boolean expirySweepScheduled;
+    private int expiredEvictionCount;
+    private int expiredMissCount;
+
     /**
      * To differentiate between old and current snapshots, each entry is given
      * a sequence number each time an edit is committed. A snapshot is stale if
@@ -184,28 +333,82 @@ public final class DiskLruCache implements Closeable {
             new ThreadPoolExecutor(0, 1, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
     private final Callable<Void> cleanupCallable = new Callable<Void>() {
         public Void call() throws Exception {
+            boolean compactionRequired;
+            evictToLowWatermark();
+            compactSegments();
+            synchronized (DiskLruCache.this) {
+                if (journalWriter == null) {
+                    return null; // Closed.
+                }
+                compactionRequired = journalRebuildRequired();
+            }
+            if (compactionRequired) {
+                compactJournal();
+            }
+            return null;
+        }
+    };
+
+    private final Callable<Void> recencyCheckpointCallable = new Callable<Void>() {
+        public Void call() throws Exception {
+            boolean compactionRequired;
             synchronized (DiskLruCache.this) {
+                recencyCheckpointScheduled = false;
                 if (journalWriter == null) {
                     return null; // Closed.
                 }
-                trimToSize();
-                if (journalRebuildRequired()) {
-                    rebuildJournal();
-                    redundantOpCount = 0;
+                writeRecencyCheckpoint();
+                commitJournal();
+                compactionRequired = journalRebuildRequired();
+            }
+            if (compactionRequired) {
+                compactJournal();
+            }
+            return null;
+        }
+    };
+
+    /**
+     * Journal records are group committed on a thread of their own, so commits
+     * are never queued behind evictions or compactions.
+     */
+    final ScheduledThreadPoolExecutor groupCommitExecutor = new ScheduledThreadPoolExecutor(1);
+    private final Callable<Void> groupCommitCallable = new Callable<Void>() {
+        public Void call() throws Exception {
+            synchronized (DiskLruCache.this) {
+                groupCommitScheduled = false;
+            }
+            try {
+                syncJournal();
+            } catch (IOException e) {
+                synchronized (DiskLruCache.this) {
+                    groupCommitFailure = e;
+                    DiskLruCache.this.notifyAll(); // Wake threads waiting for durability to report it
                 }
             }
             return null;
         }
     };
 
-    private DiskLruCache(File directory, int appVersion, int valueCount, long maxSize) {
+    private final Callable<Void> compactionCallable = new Callable<Void>() {
+        public Void call() throws Exception {
+            compactJournal();
+            return null;
+        }
+    };
+
+    private DiskLruCache(File directory, int appVersion, int valueCount, long maxSize, Layout layout) {
         this.directory = directory;
+        this.layout = layout;
+        this.segmentStore = new SegmentStore(directory, SEGMENT_SIZE);
         this.appVersion = appVersion;
         this.journalFile = new File(directory, JOURNAL_FILE);
         this.journalFileTmp = new File(directory, JOURNAL_FILE_TEMP);
         this.journalFileBackup = new File(directory, JOURNAL_FILE_BACKUP);
         this.valueCount = valueCount;
         this.maxSize = maxSize;
+        this.groupCommitExecutor.setKeepAliveTime(60L, TimeUnit.SECONDS);
+        this.groupCommitExecutor.allowCoreThreadTimeOut(true);
     }
 
     /**
@@ -219,6 +422,22 @@ public final class DiskLruCache implements Closeable {
      */
     public static DiskLruCache open(File directory, int appVersion, int valueCount, long maxSize)
             throws IOException {
+        return open(directory, appVersion, valueCount, maxSize, Layout.FLAT);
+    }
+
+    /**
+     * Opens the cache in {@code directory}, creating a cache if none exists
+     * there. Value files stored in a different layout by a previous open are
+     * moved to {@code layout}.
+     *
+     * @param directory  a writable directory
+     * @param valueCount the number of values per cache entry. Must be positive.
+     * @param maxSize    the maximum number of bytes this cache should use to store
+     * @param layout     how value files are placed inside {@code directory}
+     * @throws IOException if reading or writing the cache directory fails
+     */
+    public static DiskLruCache open(File directory, int appVersion, int valueCount, long maxSize, Layout layout)
+            throws IOException {
         if (maxSize <= 0) {
             throw new IllegalArgumentException("maxSize <= 0");
         }
@@ -239,7 +458,7 @@ public final class DiskLruCache implements Closeable {
         }
 
         // Prefer to pick up where we left off.
-        DiskLruCache cache = new DiskLruCache(directory, appVersion, valueCount, maxSize);
+        DiskLruCache cache = new DiskLruCache(directory, appVersion, valueCount, maxSize, layout);
         if (cache.journalFile.exists()) {
             try {
                 cache.readJournal();
@@ -258,7 +477,7 @@ public final class DiskLruCache implements Closeable {
 
         // Create a new empty cache.
         directory.mkdirs();
-        cache = new DiskLruCache(directory, appVersion, valueCount, maxSize);
+        cache = new DiskLruCache(directory, appVersion, valueCount, maxSize, layout);
         cache.rebuildJournal();
         return cache;
     }
@@ -307,8 +526,7 @@ public final class DiskLruCache implements Closeable {
             if (reader.hasUnterminatedLine()) {
                 rebuildJournal();
             } else {
-                journalWriter = new BufferedWriter(new OutputStreamWriter(
-                        new FileOutputStream(journalFile, true), IOHelper.US_ASCII));
+                openJournalWriter();
             }
         } finally {
             IOHelper.closeQuietly(reader);
@@ -328,6 +546,7 @@ public final class DiskLruCache implements Closeable {
             key = line.substring(keyBegin);
             if (firstSpace == REMOVE.length() && line.startsWith(REMOVE)) {
                 lruEntries.remove(key);
+                entryIndex.remove(key);
                 return;
             }
         } else {
@@ -338,6 +557,7 @@ public final class DiskLruCache implements Closeable {
         if (entry == null) {
             entry = new Entry(key);
             lruEntries.put(key, entry);
+            entryIndex.put(key, entry);
         }
 
         if (secondSpace != -1 && firstSpace == CLEAN.length() && line.startsWith(CLEAN)) {
@@ -357,14 +577,46 @@ public final class DiskLruCache implements Closeable {
     /**
      * Computes the initial size and collects garbage as a part of opening the
      * cache. Dirty entries are assumed to be inconsistent and will be deleted.
+     * Partial downloads not resumed for too long are deleted too.
      */
     private void processJournal() throws IOException {
         deleteIfExists(journalFileTmp);
+        Set<Integer> referencedSegments = new HashSet<Integer>();
+        for (Entry entry : lruEntries.values()) {
+            for (SegmentStore.Location location : entry.locations) {
+                if (location != null) {
+                    referencedSegments.add(location.segment);
+                }
+            }
+        }
+        Set<Integer> missingSegments = segmentStore.reconcile(referencedSegments);
+
+        Map<Integer, Long> segmentLiveBytes = new HashMap<Integer, Long>();
+        boolean lostEntries = false;
         for (Iterator<Entry> i = lruEntries.values().iterator(); i.hasNext(); ) {
             Entry entry = i.next();
-            if (entry.currentEditor == null) {
+            if (entry.currentEditor == null && entry.isStoredIn(missingSegments)) {
+                // Its segment was deleted, but the record removing it was lost. Its files go as untracked ones
+                redundantOpCount++;
+                appendJournal(REMOVE + ' ' + entry.key + '\n');
+                i.remove();
+                entryIndex.remove(entry.key);
+                lostEntries = true;
+            } else if (entry.currentEditor == null) {
                 for (int t = 0; t < valueCount; t++) {
-                    size += entry.lengths[t];
+                    SegmentStore.Location location = entry.locations[t];
+                    if (location != null) {
+                        Long live = segmentLiveBytes.get(location.segment);
+                        segmentLiveBytes.put(location.segment, (live != null ? live : 0) + entry.lengths[t]);
+                    }
+                    if (entry.payloads[t] != null) {
+                        size += referencePayload(entry.payloads[t], entry.lengths[t]);
+                    } else {
+                        size += entry.lengths[t];
+                    }
+                }
+                if (entry.expiresAt > 0) {
+                    earliestExpiry = Math.min(earliestExpiry, entry.expiresAt);
                 }
             } else {
                 entry.currentEditor = null;
@@ -373,8 +625,18 @@ public final class DiskLruCache implements Closeable {
                     deleteIfExists(entry.getDirtyFile(t));
                 }
                 i.remove();
+                entryIndex.remove(entry.key);
             }
         }
+        if (lostEntries) {
+            journalWriter.flush();
+        }
+        segmentStore.load(segmentLiveBytes);
+
+        List<File> files = listCacheFiles();
+        deleteStalePartialFiles(files);
+        deleteUntrackedFiles(files);
+        moveMisplacedFiles(files);
     }
 
     /**
@@ -389,21 +651,13 @@ public final class DiskLruCache implements Closeable {
         Writer writer = new BufferedWriter(
                 new OutputStreamWriter(new FileOutputStream(journalFileTmp), IOHelper.US_ASCII));
         try {
-            writer.write(MAGIC);
-            writer.write("\n");
-            writer.write(VERSION_1);
-            writer.write("\n");
-            writer.write(Integer.toString(appVersion));
-            writer.write("\n");
-            writer.write(Integer.toString(valueCount));
-            writer.write("\n");
-            writer.write("\n");
+            writeJournalHeader(writer);
 
             for (Entry entry : lruEntries.values()) {
                 if (entry.currentEditor != null) {
                     writer.write(DIRTY + ' ' + entry.key + '\n');
                 } else {
-                    writer.write(CLEAN + ' ' + entry.key + entry.getLengths() + '\n');
+                    writer.write(entry.getCleanRecord());
                 }
             }
         } finally {
@@ -416,192 +670,844 @@ public final class DiskLruCache implements Closeable {
         renameTo(journalFileTmp, journalFile, false);
         journalFileBackup.delete();
 
-        journalWriter = new BufferedWriter(
-                new OutputStreamWriter(new FileOutputStream(journalFile, true), IOHelper.US_ASCII));
-    }
-
-    private static void deleteIfExists(File file) throws IOException {
-        if (file.exists() && !file.delete()) {
-            throw new IOException();
-        }
-    }
+        openJournalWriter();
 
-    private static void renameTo(File from, File to, boolean deleteDestination) throws IOException {
-        if (deleteDestination) {
-            deleteIfExists(to);
-        }
-        if (!from.renameTo(to)) {
-            throw new IOException();
-        }
+        // Entries were just written in access order, so recency is up to date
+        pendingReads.clear();
+        lastRecencyCheckpoint = System.currentTimeMillis();
     }
 
     /**
-     * Returns a snapshot of the entry named {@code key}, or null if it doesn't
-     * exist is not currently readable. If a value is returned, it is moved to
-     * the head of the LRU queue.
+     * <p>
+     * Creates a new journal that omits redundant information, like {@link #rebuildJournal}, but holding the cache
+     * lock just briefly. The index is snapshotted under the lock, the compacted journal is written without it while
+     * records of concurrent operations go to both the current journal and a side log, and then, under the lock again,
+     * the side log is appended to the compacted journal and it is swapped in.
+     * </p>
+     * <p>
+     * The current journal stays valid until the swap, so a crash while compacting loses nothing.
+     * </p>
      */
-    public synchronized Snapshot get(String key) throws IOException {
-        checkNotClosed();
-        validateKey(key);
-        Entry entry = lruEntries.get(key);
-        if (entry == null) {
-            return null;
-        }
+    private void compactJournal() throws IOException {
+        List<String> records;
+        long pauseNanos;
+
+        // Snapshot the index, from now on records go to the side log too
+        long pauseStart = System.nanoTime();
+        synchronized (this) {
+            if (journalWriter == null || compactionSideLog != null) {
+                return; // Closed, or already compacting.
+            }
+            records = new ArrayList<String>(lruEntries.size());
+            for (Entry entry : lruEntries.values()) {
+                if (entry.currentEditor != null) {
+                    records.add(DIRTY + ' ' + entry.key + '\n');
+                } else {
+                    records.add(entry.getCleanRecord());
+                }
+            }
+            compactionSideLog = new ArrayList<String>();
 
-        if (!entry.readable) {
-            return null;
+            // Entries are snapshotted in access order, so recency is up to date
+            pendingReads.clear();
+            lastRecencyCheckpoint = System.currentTimeMillis();
+        }
+        pauseNanos = System.nanoTime() - pauseStart;
+        if (compactionSnapshotListener != null) {
+            compactionSnapshotListener.run();
         }
 
-        // Open all streams eagerly to guarantee that we see a single published
-        // snapshot. If we opened streams lazily then the streams could come
-        // from different edits.
-        InputStream[] ins = new InputStream[valueCount];
+        // Write the compacted journal without holding the lock
+        Writer writer = null;
+        boolean written = false;
         try {
-            for (int i = 0; i < valueCount; i++) {
-                ins[i] = new FileInputStream(entry.getCleanFile(i));
+            writer = new BufferedWriter(
+                    new OutputStreamWriter(new FileOutputStream(journalFileTmp), IOHelper.US_ASCII));
+            writeJournalHeader(writer);
+            for (String record : records) {
+                writer.write(record);
             }
-        } catch (FileNotFoundException e) {
-            // A file must have been deleted manually!
-            for (int i = 0; i < valueCount; i++) {
-                if (ins[i] != null) {
-                    IOHelper.closeQuietly(ins[i]);
-                } else {
-                    break;
+            written = true;
+        } finally {
+            if (!written) {
+                IOHelper.closeQuietly(writer);
+                synchronized (this) {
+                    compactionSideLog = null;
                 }
+                journalFileTmp.delete();
             }
-            return null;
         }
 
-        redundantOpCount++;
-        journalWriter.append(READ + ' ' + key + '\n');
-        if (journalRebuildRequired()) {
-            executorService.submit(cleanupCallable);
+        // Replay operations performed meanwhile and swap journals
+        pauseStart = System.nanoTime();
+        synchronized (this) {
+            List<String> sideLog = compactionSideLog;
+            compactionSideLog = null;
+            try {
+                for (String record : sideLog) {
+                    writer.write(record);
+                }
+            } finally {
+                writer.close();
+            }
+
+            if (journalWriter == null) {
+                journalFileTmp.delete();
+                return; // Closed meanwhile.
+            }
+
+            journalWriter.close();
+            if (journalFile.exists()) {
+                renameTo(journalFile, journalFileBackup, true);
+            }
+            renameTo(journalFileTmp, journalFile, false);
+            journalFileBackup.delete();
+            openJournalWriter();
+            redundantOpCount = sideLog.size();
+
+            pauseNanos += System.nanoTime() - pauseStart;
+            compactionCount++;
+            lastCompactionPauseNanos = pauseNanos;
+            maxCompactionPauseNanos = Math.max(maxCompactionPauseNanos, pauseNanos);
         }
+    }
 
-        return new Snapshot(key, entry.sequenceNumber, ins, entry.lengths);
+    private void writeJournalHeader(Writer writer) throws IOException {
+        writer.write(MAGIC);
+        writer.write("\n");
+        writer.write(VERSION_1);
+        writer.write("\n");
+        writer.write(Integer.toString(appVersion));
+        writer.write("\n");
+        writer.write(Integer.toString(valueCount));
+        writer.write("\n");
+        writer.write("\n");
     }
 
     /**
-     * Obtains a {@link Bitmap} object, if possible, from specified key's value
-     *
-     * @param key Value's identifier
-     * @return {@link Bitmap} object
+     * Appends a record to the journal, and to the side log if the journal is being compacted.
      */
-    public Bitmap getBitmap(String key) {
-        Bitmap bitmap = null;
-        Snapshot snapshot = null;
-
-        try {
-            snapshot = get(key);
+    private void appendJournal(String record) throws IOException {
+        journalWriter.write(record);
+        journalAppendCount++;
+        if (compactionSideLog != null) {
+            compactionSideLog.add(record);
+        }
+    }
 
-            if (snapshot == null) {
-                return null;
-            }
+    private void openJournalWriter() throws IOException {
+        journalStream = new FileOutputStream(journalFile, true);
+        journalWriter = new BufferedWriter(new OutputStreamWriter(journalStream, IOHelper.US_ASCII));
+    }
 
-            final InputStream in = snapshot.getInputStream(0);
-            if (in != null) {
-                final BufferedInputStream buffIn =
-                        new BufferedInputStream(in, IOHelper.IO_BUFFER_SIZE);
-                bitmap = BitmapFactory.decodeStream(buffIn);
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
-            if (snapshot != null) {
-                snapshot.close();
-            }
+    /**
+     * Makes the records appended by an operation durable as the {@link Durability} in use says.
+     */
+    private void commitJournal() throws IOException {
+        switch (durability) {
+            case FLUSH_PER_OPERATION:
+                journalWriter.flush();
+                break;
+            case GROUP_COMMIT:
+                scheduleGroupCommit();
+                break;
+            case FSYNC_ON_CLOSE:
+                // Records are written when the buffer fills up, and synced on close
+                break;
         }
+    }
 
-        if (BuildConfig.DEBUG) {
-            Log.d("DiskLruCache", bitmap == null ? "" : "image read from disk " + key);
+    private void scheduleGroupCommit() {
+        if (!groupCommitScheduled && journalAppendCount > journalDurableCount) {
+            groupCommitScheduled = true;
+            groupCommitExecutor.schedule(groupCommitCallable, groupCommitInterval, TimeUnit.MILLISECONDS);
         }
+    }
 
-        return bitmap;
-
+    private void syncJournal() throws IOException {
+        syncJournal(false);
     }
 
     /**
-     * Checks if specified key exists in cache
+     * Writes every record appended so far and syncs them to the storage device, after the segment values they
+     * refer to. The buffer is written under the lock, but the sync, the expensive part, is performed without it.
      *
-     * @param key Value's identifier
-     * @return True if key is found, False otherwise
+     * @param force True to sync even if every record is already durable, e.g. after the journal was compacted.
      */
-    public boolean containsKey(String key) {
-        boolean contained = false;
-        Snapshot snapshot = null;
+    private void syncJournal(boolean force) throws IOException {
+        FileOutputStream stream;
+        long appendCount;
+        synchronized (this) {
+            if (journalWriter == null || (!force && journalDurableCount >= journalAppendCount)) {
+                return; // Closed, or nothing new to sync.
+            }
+            journalWriter.flush();
+            stream = journalStream;
+            appendCount = journalAppendCount;
+        }
 
         try {
-            snapshot = get(key);
-            contained = snapshot != null;
+            segmentStore.sync();
+            stream.getFD().sync();
         } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
-            if (snapshot != null) {
-                snapshot.close();
+            // Journal was swapped by a compaction meanwhile, sync the current one
+            synchronized (this) {
+                if (journalWriter == null) {
+                    return;
+                }
+                journalWriter.flush();
+                journalStream.getFD().sync();
             }
         }
 
-        return contained;
+        synchronized (this) {
+            journalDurableCount = Math.max(journalDurableCount, appendCount);
+            groupCommitFailure = null;
+            if (!force) {
+                groupCommitCount++;
+            }
+            notifyAll(); // Wake threads waiting for durability
+        }
     }
 
     /**
-     * Returns an editor for the entry named {@code key}, or null if another
-     * edit is in progress.
+     * Appends one READ record for every key read since the last checkpoint, in
+     * access order, so replaying the journal restores the LRU order. Keys
+     * removed meanwhile are skipped. Journal is not flushed.
      */
-    public Editor edit(String key) throws IOException {
-        return edit(key, ANY_SEQUENCE_NUMBER);
+    private void writeRecencyCheckpoint() throws IOException {
+        if (pendingReads.isEmpty()) {
+            return;
+        }
+
+        for (String key : pendingReads) {
+            Entry entry = lruEntries.get(key);
+            if (entry != null && entry.readable) {
+                appendJournal(READ + ' ' + key + '\n');
+                redundantOpCount++;
+            }
+        }
+        pendingReads.clear();
+        lastRecencyCheckpoint = System.currentTimeMillis();
+        recencyCheckpointCount++;
     }
 
-    private synchronized Editor edit(String key, long expectedSequenceNumber) throws IOException {
-        checkNotClosed();
-        validateKey(key);
-        Entry entry = lruEntries.get(key);
-        if (expectedSequenceNumber != ANY_SEQUENCE_NUMBER && (entry == null
-                || entry.sequenceNumber != expectedSequenceNumber)) {
-            return null; // Snapshot is stale.
+    /**
+     * Lists the files in the cache directory and in its fan-out subdirectories, whichever layout is in use, so files
+     * left by the other one are found too.
+     */
+    private List<File> listCacheFiles() {
+        List<File> cacheFiles = new ArrayList<File>();
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return cacheFiles;
         }
-        if (entry == null) {
-            entry = new Entry(key);
-            lruEntries.put(key, entry);
-        } else if (entry.currentEditor != null) {
-            return null; // Another edit is in progress.
+        for (File file : files) {
+            if (isFanOutDirectory(file)) {
+                File[] subdirectories = file.listFiles();
+                if (subdirectories != null) {
+                    for (File subdirectory : subdirectories) {
+                        if (isFanOutDirectory(subdirectory)) {
+                            File[] subdirectoryFiles = subdirectory.listFiles();
+                            if (subdirectoryFiles != null) {
+                                cacheFiles.addAll(Arrays.asList(subdirectoryFiles));
+                            }
+                        }
+                    }
+                }
+            } else {
+                cacheFiles.add(file);
+            }
         }
+        return cacheFiles;
+    }
 
-        Editor editor = new Editor(entry);
-        entry.currentEditor = editor;
+    private static boolean isFanOutDirectory(File file) {
+        return file.getName().length() == 1 && Character.digit(file.getName().charAt(0), FAN_OUT_WIDTH) >= 0
+                && file.isDirectory();
+    }
 
-        // Flush the journal before creating files to prevent file leaks.
-        journalWriter.write(DIRTY + ' ' + key + '\n');
-        journalWriter.flush();
-        return editor;
+    private void deleteStalePartialFiles(List<File> files) {
+        long now = System.currentTimeMillis();
+        for (Iterator<File> i = files.iterator(); i.hasNext(); ) {
+            File file = i.next();
+            if (getPartialSuffixLength(file.getName()) > 0 && now - file.lastModified() > PARTIAL_FILE_MAX_AGE) {
+                file.delete();
+                i.remove();
+            }
+        }
     }
 
     /**
-     * Inserts a bitmap into disk cache, along with its distinctive key.
-     *
-     * @param key             {@link String} representing the entry key, to retrieve it later.
-     * @param bitmap          {@link Bitmap} to store on disk cache.
-     * @param compressFormat  Format to compress the image (JPEG, PNG, etc.)
-     * @param compressQuality Compress quality percentage of the image, from 0 to 100.
-     * @return {@link Snapshot} object with the previous value mapped by key if exists, null otherwise.
+     * Deletes dirty files, and clean files of entries and payloads the journal doesn't know, left behind when
+     * records not yet durable are lost.
      */
-    public Snapshot put(String key, Bitmap bitmap, Bitmap.CompressFormat compressFormat, int compressQuality) {
-        Snapshot oldValue = null;
-
-        Editor editor = null;
-        try {
-            oldValue = get(key);
-            editor = edit(key);
-            if (editor == null) {
-                return null;
+    private void deleteUntrackedFiles(List<File> files) {
+        for (Iterator<File> i = files.iterator(); i.hasNext(); ) {
+            File file = i.next();
+            String name = file.getName();
+            int indexSeparator = name.lastIndexOf('.');
+            if (name.startsWith(JOURNAL_FILE) || getPartialSuffixLength(name) > 0 || indexSeparator <= 0) {
+                continue;
             }
 
-            if (writeBitmapToFile(bitmap, editor, compressFormat, compressQuality)) {
-                flush();
-                editor.commit();
-                if (BuildConfig.DEBUG) {
-                    Log.d("DiskLruCache", "SUCCESS: image successfully stored on disk cache " + key);
-                }
+            if (name.endsWith(".tmp")) {
+                file.delete(); // No edit survives a restart.
+                i.remove();
+                continue;
+            }
+            if (name.endsWith(PAYLOAD_FILE_SUFFIX)) {
+                if (!payloads.containsKey(name.substring(0, indexSeparator))) {
+                    file.delete();
+                    i.remove();
+                }
+                continue;
+            }
+            try {
+                int index = Integer.parseInt(name.substring(indexSeparator + 1));
+                if (index >= 0 && index < valueCount && !lruEntries.containsKey(name.substring(0, indexSeparator))) {
+                    file.delete();
+                    i.remove();
+                }
+            } catch (NumberFormatException ignored) {
+                // Not a cache file.
+            }
+        }
+    }
+
+    /**
+     * Moves value and partial files stored in a layout other than the current one, e.g. when a flat cache is opened
+     * with {@link Layout#FAN_OUT}, so migration just costs one rename per file on the first open.
+     */
+    private void moveMisplacedFiles(List<File> files) {
+        for (File file : files) {
+            String name = file.getName();
+            if (name.startsWith(JOURNAL_FILE)) {
+                continue;
+            }
+            int partialSuffixLength = getPartialSuffixLength(name);
+            int keyEnd = partialSuffixLength > 0 ? name.length() - partialSuffixLength : name.lastIndexOf('.');
+            if (keyEnd <= 0) {
+                continue;
+            }
+
+            File entryDirectory = getEntryDirectory(name.substring(0, keyEnd));
+            File parent = file.getParentFile();
+            if (!entryDirectory.equals(parent)) {
+                entryDirectory.mkdirs();
+                file.renameTo(new File(entryDirectory, name));
+                if (layout != Layout.FAN_OUT) {
+                    // Deleting directories only succeeds once they are empty.
+                    parent.delete();
+                    parent.getParentFile().delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the length of the suffix of a partial download file, or of the validator stored next to it, or 0 if
+     * the file is not one of them. Keys may contain ".partial" too, so just suffixes are matched.
+     */
+    private static int getPartialSuffixLength(String name) {
+        if (name.endsWith(PARTIAL_FILE_SUFFIX)) {
+            return PARTIAL_FILE_SUFFIX.length();
+        } else if (name.endsWith(PARTIAL_VALIDATOR_FILE_SUFFIX)) {
+            return PARTIAL_VALIDATOR_FILE_SUFFIX.length();
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the directory storing files of {@code key}, depending on layout.
+     */
+    private File getEntryDirectory(String key) {
+        if (layout != Layout.FAN_OUT) {
+            return directory;
+        }
+        int hash = key.hashCode();
+        hash ^= (hash >>> 20) ^ (hash >>> 12);
+        hash ^= (hash >>> 7) ^ (hash >>> 4);
+        char level1 = Character.forDigit(hash & (FAN_OUT_WIDTH - 1), FAN_OUT_WIDTH);
+        char level2 = Character.forDigit((hash >>> 4) & (FAN_OUT_WIDTH - 1), FAN_OUT_WIDTH);
+        return new File(new File(directory, String.valueOf(level1)), String.valueOf(level2));
+    }
+
+    private static void deleteIfExists(File file) throws IOException {
+        if (file.exists() && !file.delete()) {
+            throw new IOException();
+        }
+    }
+
+    private static void renameTo(File from, File to, boolean deleteDestination) throws IOException {
+        if (deleteDestination) {
+            deleteIfExists(to);
+        }
+        if (!from.renameTo(to)) {
+            throw new IOException();
+        }
+    }
+
+    /**
+     * Returns a snapshot of the entry named {@code key}, or null if it doesn't
+     * exist, is not currently readable or has expired. If a value is returned,
+     * it is moved to the head of the LRU queue.
+     */
+    public Snapshot get(String key) throws IOException {
+        return get(key, false);
+    }
+
+    /**
+     * Returns a snapshot of the entry named {@code key}, like {@link #get(String)}, optionally even if it has expired
+     * but was not reclaimed yet, e.g. to revalidate it.
+     */
+    private synchronized Snapshot get(String key, boolean includeExpired) throws IOException {
+        checkNotClosed();
+        validateKey(key);
+        Entry entry = lruEntries.get(key);
+        if (entry == null) {
+            return null;
+        }
+
+        if (!entry.readable) {
+            return null;
+        }
+
+        if (!includeExpired && entry.isExpired(System.currentTimeMillis())) {
+            expiredMissCount++;
+            scheduleExpirySweep();
+            return null;
+        }
+
+        // Open all streams eagerly to guarantee that we see a single published
+        // snapshot. If we opened streams lazily then the streams could come
+        // from different edits.
+        InputStream[] ins = openValues(entry);
+        if (ins == null) {
+            return null;
+        }
+
+        recordRead(key);
+        scheduleReadMaintenance();
+
+        return new Snapshot(key, entry.sequenceNumber, ins, entry.lengths);
+    }
+
+    /**
+     * <p>
+     * Returns snapshots of the entries named by {@code keys} which exist and are readable, all taken at once. Found
+     * entries are moved to the head of the LRU queue.
+     * </p>
+     * <p>
+     * The whole batch takes the cache lock once, and performs a single journal maintenance check.
+     * </p>
+     *
+     * @param keys Values' identifiers.
+     * @return Snapshots of the entries found, mapped by their keys, in the same order as keys.
+     */
+    public synchronized Map<String, Snapshot> getAll(Collection<String> keys) throws IOException {
+        checkNotClosed();
+        Map<String, Snapshot> snapshots = new LinkedHashMap<String, Snapshot>();
+        List<Entry> entries = new ArrayList<Entry>(keys.size());
+        long now = System.currentTimeMillis();
+        for (String key : keys) {
+            validateKey(key);
+            Entry entry = lruEntries.get(key);
+            if (entry != null && entry.readable) {
+                if (entry.isExpired(now)) {
+                    expiredMissCount++;
+                } else {
+                    entries.add(entry);
+                }
+            }
+        }
+
+        // Entries are opened one after another on the caller thread, opening them in parallel measured slower
+        for (Entry entry : entries) {
+            InputStream[] ins = openValues(entry);
+            if (ins != null) {
+                recordRead(entry.key);
+                snapshots.put(entry.key, new Snapshot(entry.key, entry.sequenceNumber, ins, entry.lengths));
+            }
+        }
+        scheduleReadMaintenance();
+
+        return snapshots;
+    }
+
+    /**
+     * Opens every value of an entry, or none if any of its files is missing.
+     */
+    private InputStream[] openValues(Entry entry) {
+        InputStream[] ins = new InputStream[valueCount];
+        try {
+            for (int i = 0; i < valueCount; i++) {
+                ins[i] = openValue(entry, i);
+            }
+        } catch (FileNotFoundException e) {
+            // A file must have been deleted manually!
+            for (int i = 0; i < valueCount; i++) {
+                if (ins[i] != null) {
+                    IOHelper.closeQuietly(ins[i]);
+                } else {
+                    break;
+                }
+            }
+            return null;
+        }
+        return ins;
+    }
+
+    /**
+     * Opens a value, from its own file, its payload file or its segment.
+     */
+    private InputStream openValue(Entry entry, int index) throws FileNotFoundException {
+        SegmentStore.Location location = entry.locations[index];
+        if (location == null) {
+            return new FileInputStream(entry.payloads[index] != null
+                    ? getPayloadFile(entry.payloads[index]) : entry.getCleanFile(index));
+        }
+        InputStream in = segmentStore.newInputStream(location, entry.lengths[index]);
+        if (in == null) {
+            throw new FileNotFoundException("missing segment " + location.segment);
+        }
+        return in;
+    }
+
+    /**
+     * Records a read for LRU, on the journal or to the next recency checkpoint.
+     */
+    private void recordRead(String key) throws IOException {
+        if (recencyCheckpointing) {
+            // Recency was already updated in memory by lruEntries.get(), the journal gets it on next checkpoint
+            pendingReads.remove(key);
+            pendingReads.add(key);
+        } else {
+            redundantOpCount++;
+            appendJournal(READ + ' ' + key + '\n');
+        }
+    }
+
+    private void scheduleReadMaintenance() {
+        scheduleExpirySweep();
+        if (recencyCheckpointing) {
+            if (!recencyCheckpointScheduled && !pendingReads.isEmpty()
+                    && System.currentTimeMillis() - lastRecencyCheckpoint >= RECENCY_CHECKPOINT_INTERVAL) {
+                recencyCheckpointScheduled = true;
+                executorService.submit(recencyCheckpointCallable);
+            }
+        } else if (journalRebuildRequired()) {
+            executorService.submit(cleanupCallable);
+        }
+    }
+
+    /**
+     * Queues a sweep of expired entries if the earliest expiry known passed and no sweep ran for an interval.
+     */
+    private void scheduleExpirySweep() {
+        long now = System.currentTimeMillis();
+        if (!expirySweepScheduled && earliestExpiry <= now && now - lastExpirySweep >= EXPIRY_SWEEP_INTERVAL) {
+            expirySweepScheduled = true;
+            executorService.submit(cleanupCallable);
+        }
+    }
+
+    /**
+     * Checks if every key given is stored on cache, readable and not expired, without opening its files. Entries
+     * found are moved to the head of the LRU queue in memory, but no read is recorded on the journal.
+     *
+     * @param keys Values' identifiers.
+     * @return True if every key is found, False otherwise.
+     */
+    public synchronized boolean containsAll(Collection<String> keys) {
+        checkNotClosed();
+        long now = System.currentTimeMillis();
+        for (String key : keys) {
+            validateKey(key);
+            Entry entry = lruEntries.get(key);
+            if (entry == null || !entry.readable || entry.isExpired(now) || !entry.isStored(BITMAP_VALUE_INDEX)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Obtains a {@link Bitmap} object, if possible, from specified key's value
+     *
+     * @param key Value's identifier
+     * @return {@link Bitmap} object
+     */
+    public Bitmap getBitmap(String key) {
+        return getBitmap(key, 0, 0);
+    }
+
+    /**
+     * <p>
+     * Obtains a sampled {@link Bitmap} object, if possible, from specified key's value, using the specified measures
+     * to calculate image downsample if needed.
+     * </p>
+     * <p>
+     * Bitmap is decoded straight from the clean file's {@link FileDescriptor}, with no intermediate Java heap buffering.
+     * </p>
+     *
+     * @param key       Value's identifier
+     * @param reqWidth  Required width of the view where the Bitmap should fit. 0 to decode at full stored size.
+     * @param reqHeight Required height of the view where the Bitmap should fit. 0 to decode at full stored size.
+     * @return {@link Bitmap} object
+     */
+    public Bitmap getBitmap(String key, int reqWidth, int reqHeight) {
+        return getBitmap(key, reqWidth, reqHeight, null);
+    }
+
+    /**
+     * <p>
+     * Obtains a sampled {@link Bitmap} object, if possible, from specified key's value, using the specified measures
+     * to calculate image downsample if needed, and the pixel config specified.
+     * </p>
+     * <p>
+     * Bitmap is decoded straight from the clean file's {@link FileDescriptor}, with no intermediate Java heap buffering.
+     * Stored image bounds are read from entry metadata when available, skipping the bounds decode pass, and downsample
+     * rate is auto-increased if decoding causes an {@link OutOfMemoryError}, as source decoders do.
+     * </p>
+     *
+     * @param key       Value's identifier
+     * @param reqWidth  Required width of the view where the Bitmap should fit. 0 to decode at full stored size.
+     * @param reqHeight Required height of the view where the Bitmap should fit. 0 to decode at full stored size.
+     * @param config    Preferred {@link Bitmap.Config} to decode with. Null for the platform default.
+     * @return {@link Bitmap} object
+     */
+    public Bitmap getBitmap(String key, int reqWidth, int reqHeight, Bitmap.Config config) {
+        Snapshot snapshot;
+        try {
+            snapshot = get(key);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+
+        return snapshot != null ? decodeBitmap(snapshot, reqWidth, reqHeight, config) : null;
+    }
+
+    /**
+     * <p>
+     * Decodes the {@link Bitmap} value of a snapshot taken with {@link #get}, as
+     * {@link #getBitmap(String, int, int, Bitmap.Config)} does, and closes the snapshot.
+     * </p>
+     * <p>
+     * Snapshot files stay readable once taken, so callers guarding the cache with a lock of their own can take the
+     * snapshot holding it, and decode after releasing it.
+     * </p>
+     *
+     * @param snapshot  {@link Snapshot} of the entry to decode.
+     * @param reqWidth  Required width of the view where the Bitmap should fit. 0 to decode at full stored size.
+     * @param reqHeight Required height of the view where the Bitmap should fit. 0 to decode at full stored size.
+     * @param config    Preferred {@link Bitmap.Config} to decode with. Null for the platform default.
+     * @return {@link Bitmap} object, or null if it could not be decoded.
+     */
+    public Bitmap decodeBitmap(Snapshot snapshot, int reqWidth, int reqHeight, Bitmap.Config config) {
+        Bitmap bitmap = null;
+
+        try {
+            bitmap = decodeSnapshot(snapshot, reqWidth, reqHeight, config);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            snapshot.close();
+        }
+
+        if (BuildConfig.DEBUG) {
+            Log.d("DiskLruCache", bitmap == null ? "" : "image read from disk " + snapshot.key);
+        }
+
+        return bitmap;
+    }
+
+    /**
+     * Obtains sampled {@link Bitmap} objects of several keys' values at once, as {@link #getBitmap(String, int, int)}
+     * does. Entries are looked up in one batch with {@link #getAll}, and then decoded one by one without holding the
+     * cache lock.
+     *
+     * @param keys      Values' identifiers.
+     * @param reqWidth  Required width of the view where the Bitmaps should fit. 0 to decode at full stored size.
+     * @param reqHeight Required height of the view where the Bitmaps should fit. 0 to decode at full stored size.
+     * @return {@link Bitmap} objects decoded, mapped by their keys. Keys not found or not decoded are missing.
+     */
+    public Map<String, Bitmap> getBitmaps(Collection<String> keys, int reqWidth, int reqHeight) {
+        Map<String, Snapshot> snapshots;
+        try {
+            snapshots = getAll(keys);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return new LinkedHashMap<String, Bitmap>();
+        }
+
+        return decodeBitmaps(snapshots, reqWidth, reqHeight);
+    }
+
+    /**
+     * Decodes the {@link Bitmap} values of snapshots taken with {@link #getAll} one by one, as
+     * {@link #decodeBitmap} does, and closes every snapshot.
+     *
+     * @param snapshots {@link Snapshot} objects to decode, mapped by their keys.
+     * @param reqWidth  Required width of the view where the Bitmaps should fit. 0 to decode at full stored size.
+     * @param reqHeight Required height of the view where the Bitmaps should fit. 0 to decode at full stored size.
+     * @return {@link Bitmap} objects decoded, mapped by their keys. Snapshots not decoded are missing.
+     */
+    public Map<String, Bitmap> decodeBitmaps(Map<String, Snapshot> snapshots, int reqWidth, int reqHeight) {
+        Map<String, Bitmap> bitmaps = new LinkedHashMap<String, Bitmap>();
+
+        try {
+            for (Map.Entry<String, Snapshot> snapshot : snapshots.entrySet()) {
+                Bitmap bitmap = decodeSnapshot(snapshot.getValue(), reqWidth, reqHeight, null);
+                if (bitmap != null) {
+                    bitmaps.put(snapshot.getKey(), bitmap);
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            for (Snapshot snapshot : snapshots.values()) {
+                snapshot.close();
+            }
+        }
+
+        if (BuildConfig.DEBUG) {
+            Log.d("DiskLruCache", bitmaps.size() + " of " + snapshots.size() + " images read from disk");
+        }
+
+        return bitmaps;
+    }
+
+    /**
+     * Decodes the bitmap value of a snapshot, sampled to the size requested. Stored image bounds are read from entry
+     * metadata when available, skipping the bounds decode pass.
+     */
+    private Bitmap decodeSnapshot(Snapshot snapshot, int reqWidth, int reqHeight, Bitmap.Config config)
+            throws IOException {
+        final InputStream in = snapshot.getInputStream(BITMAP_VALUE_INDEX);
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inTempStorage = new byte[BitmapDecoder.DECODE_TEMP_STORAGE_SIZE];
+        if (config != null) {
+            options.inPreferredConfig = config;
+        }
+
+        if ((reqWidth > 0 || reqHeight > 0) && valueCount > METADATA_VALUE_INDEX
+                && readBounds(snapshot.getString(METADATA_VALUE_INDEX), options)) {
+            // Stored dimensions are known, decode just at the size requested with no bounds pass
+            options.inSampleSize = BitmapDecoder.calculateInSampleSize(options, reqWidth, reqHeight);
+            reqWidth = 0;
+            reqHeight = 0;
+        }
+
+        if (in instanceof FileInputStream) {
+            // Read stored dimensions from the file itself if a size is still requested
+            return BitmapDecoder.decodeSampledBitmapFromFileDescriptor((FileInputStream) in, options,
+                    reqWidth, reqHeight);
+        } else {
+            // Values stored in segments are small, decode them from memory
+            return BitmapDecoder.decodeSampledBitmapFromByteArray(
+                    readFully(in, snapshot.getLength(BITMAP_VALUE_INDEX)), options, reqWidth, reqHeight);
+        }
+    }
+
+    /**
+     * Checks if specified key exists in cache
+     *
+     * @param key Value's identifier
+     * @return True if key is found, False otherwise
+     */
+    public boolean containsKey(String key) {
+        boolean contained = false;
+        Snapshot snapshot = null;
+
+        try {
+            snapshot = get(key);
+            contained = snapshot != null;
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            if (snapshot != null) {
+                snapshot.close();
+            }
+        }
+
+        return contained;
+    }
+
+    /**
+     * Returns an editor for the entry named {@code key}, or null if another
+     * edit is in progress.
+     */
+    public Editor edit(String key) throws IOException {
+        return edit(key, ANY_SEQUENCE_NUMBER);
+    }
+
+    private synchronized Editor edit(String key, long expectedSequenceNumber) throws IOException {
+        return edit(key, expectedSequenceNumber, true);
+    }
+
+    private synchronized Editor edit(String key, long expectedSequenceNumber, boolean flushJournal)
+            throws IOException {
+        checkNotClosed();
+        validateKey(key);
+        awaitEviction(key);
+        checkNotClosed();
+        Entry entry = lruEntries.get(key);
+        if (expectedSequenceNumber != ANY_SEQUENCE_NUMBER && (entry == null
+                || entry.sequenceNumber != expectedSequenceNumber)) {
+            return null; // Snapshot is stale.
+        }
+        if (entry == null) {
+            entry = new Entry(key);
+            lruEntries.put(key, entry);
+            entryIndex.put(key, entry);
+        } else if (entry.currentEditor != null) {
+            return null; // Another edit is in progress.
+        }
+
+        Editor editor = new Editor(entry);
+        entry.currentEditor = editor;
+
+        // The DIRTY record tells next open which files were being written. With FLUSH_PER_OPERATION it's written
+        // before any file is created. With GROUP_COMMIT and FSYNC_ON_CLOSE it may still be buffered when files are
+        // created, so a crash can leave files the journal doesn't know; open deletes them as untracked instead.
+        appendJournal(DIRTY + ' ' + key + '\n');
+        if (flushJournal) {
+            commitJournal();
+        }
+        return editor;
+    }
+
+    /**
+     * Inserts a bitmap into disk cache, along with its distinctive key and metadata.
+     *
+     * @param key             {@link String} representing the entry key, to retrieve it later.
+     * @param bitmap          {@link Bitmap} to store on disk cache.
+     * @param compressFormat  Format to compress the image (JPEG, PNG, etc.)
+     * @param compressQuality Compress quality percentage of the image, from 0 to 100.
+     * @param metadata        Metadata to store along with the bitmap, if cache has more than one value per entry. Can be null.
+     * @return {@link Snapshot} object with the previous value mapped by key if exists, null otherwise.
+     */
+    public Snapshot put(String key, Bitmap bitmap, Bitmap.CompressFormat compressFormat, int compressQuality, String metadata) {
+        Snapshot oldValue = null;
+
+        Editor editor = null;
+        try {
+            oldValue = get(key);
+            editor = edit(key);
+            if (editor == null) {
+                return null;
+            }
+
+            if (writeBitmapToFile(bitmap, editor, compressFormat, compressQuality)) {
+                if (valueCount > METADATA_VALUE_INDEX) {
+                    editor.set(METADATA_VALUE_INDEX, encodeMetadata(bitmap, compressFormat, metadata));
+                }
+                editor.commit();
+                if (BuildConfig.DEBUG) {
+                    Log.d("DiskLruCache", "SUCCESS: image successfully stored on disk cache " + key);
+                }
             } else {
                 editor.abort();
                 if (BuildConfig.DEBUG) {
@@ -609,18 +1515,212 @@ public final class DiskLruCache implements Closeable {
                 }
             }
         } catch (IOException e) {
-            if (BuildConfig.DEBUG) {
-                Log.d("DiskLruCache", "ERROR trying to store the image on disk cache " + key);
-            }
-            try {
+            if (BuildConfig.DEBUG) {
+                Log.d("DiskLruCache", "ERROR trying to store the image on disk cache " + key);
+            }
+            try {
+                if (editor != null) {
+                    editor.abort();
+                }
+            } catch (IOException ignored) {
+            }
+        }
+
+        return oldValue;
+    }
+
+    /**
+     * <p>
+     * Inserts several bitmaps into disk cache in one batch, e.g. the renditions of the same image. Every entry is
+     * opened and published together, so the journal is committed twice and cache size checked once for the whole
+     * batch instead of per entry, and bitmaps are compressed without holding the cache lock.
+     * </p>
+     * <p>
+     * Entries being edited by someone else are skipped.
+     * </p>
+     *
+     * @param bitmaps         {@link Bitmap} objects to store, mapped by their entry keys.
+     * @param compressFormat  Format to compress the images (JPEG, PNG, etc.)
+     * @param compressQuality Compress quality percentage of the images, from 0 to 100.
+     * @param metadata        Metadata to store along with every bitmap, if cache has more than one value per entry. Can be null.
+     * @return Number of entries stored.
+     */
+    public int putAll(Map<String, Bitmap> bitmaps, Bitmap.CompressFormat compressFormat, int compressQuality,
+                      String metadata) {
+        List<Editor> editors = new ArrayList<Editor>(bitmaps.size());
+        List<Bitmap> values = new ArrayList<Bitmap>(bitmaps.size());
+        int stored = 0;
+
+        try {
+            // Open every entry first, writing all their DIRTY records at once
+            synchronized (this) {
+                checkNotClosed();
+                for (Map.Entry<String, Bitmap> bitmap : bitmaps.entrySet()) {
+                    Editor editor = edit(bitmap.getKey(), ANY_SEQUENCE_NUMBER, false);
+                    if (editor != null) {
+                        editors.add(editor);
+                        values.add(bitmap.getValue());
+                    }
+                }
+                commitJournal();
+            }
+
+            // Compress every bitmap outside the lock
+            boolean[] written = new boolean[editors.size()];
+            for (int i = 0; i < editors.size(); i++) {
+                written[i] = writeBitmapToFile(values.get(i), editors.get(i), compressFormat, compressQuality);
+                if (written[i] && valueCount > METADATA_VALUE_INDEX) {
+                    editors.get(i).set(METADATA_VALUE_INDEX, encodeMetadata(values.get(i), compressFormat, metadata));
+                }
+            }
+
+            // Publish every entry at once, with a single journal flush
+            synchronized (this) {
+                for (int i = 0; i < editors.size(); i++) {
+                    Editor editor = editors.get(i);
+                    if (written[i] && !editor.hasErrors) {
+                        completeEdit(editor, true, false);
+                        stored++;
+                    } else {
+                        completeEdit(editor, false, false);
+                        if (editor.hasErrors) {
+                            remove(editor.entry.key); // The previous entry is stale.
+                        }
+                    }
+                    editor.committed = true;
+                }
+
+                // Single journal commit and maintenance check for the whole batch
+                commitJournal();
+                if (size > getHighWatermarkSize() || journalRebuildRequired() || segmentStore.compactionRequired()) {
+                    executorService.submit(cleanupCallable);
+                } else {
+                    scheduleExpirySweep();
+                }
+            }
+
+            if (BuildConfig.DEBUG) {
+                Log.d("DiskLruCache", "SUCCESS: " + stored + " of " + bitmaps.size() + " images stored on disk cache");
+            }
+        } catch (IOException e) {
+            if (BuildConfig.DEBUG) {
+                Log.d("DiskLruCache", "ERROR trying to store " + bitmaps.size() + " images on disk cache");
+            }
+        } finally {
+            for (Editor editor : editors) {
+                editor.abortUnlessCommitted();
+            }
+        }
+
+        return stored;
+    }
+
+    /**
+     * Inserts a bitmap into disk cache, along with its distinctive key.
+     *
+     * @param key             {@link String} representing the entry key, to retrieve it later.
+     * @param bitmap          {@link Bitmap} to store on disk cache.
+     * @param compressFormat  Format to compress the image (JPEG, PNG, etc.)
+     * @param compressQuality Compress quality percentage of the image, from 0 to 100.
+     * @return {@link Snapshot} object with the previous value mapped by key if exists, null otherwise.
+     */
+    public Snapshot put(String key, Bitmap bitmap, Bitmap.CompressFormat compressFormat, int compressQuality) {
+        return put(key, bitmap, compressFormat, compressQuality, null);
+    }
+
+    /**
+     * Obtains the metadata stored along with specified key's bitmap. Metadata of expired entries not reclaimed yet
+     * is returned too, so they can be revalidated, e.g. with the HTTP validators stored. Just the metadata value is
+     * opened, and the read is not recorded as an access of the entry.
+     *
+     * @param key Value's identifier
+     * @return Metadata stored, empty if none was stored, or null if key is not found or cache has a single value per entry.
+     */
+    public String getMetadata(String key) {
+        if (valueCount <= METADATA_VALUE_INDEX) {
+            return null;
+        }
+
+        String metadata = null;
+        InputStream in = null;
+
+        try {
+            in = openMetadata(key);
+            if (in != null) {
+                metadata = stripBounds(inputStreamToString(in));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            IOHelper.closeQuietly(in);
+        }
+
+        return metadata;
+    }
+
+    /**
+     * Opens the metadata value of the entry named {@code key}, even if it has expired, without moving it in the LRU
+     * queue.
+     *
+     * @return Metadata stream, or null if key is not found, not readable or its metadata is missing.
+     */
+    private synchronized InputStream openMetadata(String key) {
+        checkNotClosed();
+        validateKey(key);
+        Entry entry = entryIndex.get(key);
+        if (entry == null || !entry.readable) {
+            return null;
+        }
+
+        try {
+            return openValue(entry, METADATA_VALUE_INDEX);
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Replaces the metadata stored along with specified key's bitmap, leaving the bitmap untouched. Expired entries
+     * not reclaimed yet can be updated too, and as any other edit, the update renews the entry's time to live.
+     *
+     * @param key      Value's identifier
+     * @param metadata New metadata to store.
+     * @return True if metadata was updated, False if key is not found, is being edited, or cache has a single value per entry.
+     */
+    public boolean setMetadata(String key, String metadata) {
+        if (valueCount <= METADATA_VALUE_INDEX) {
+            return false;
+        }
+
+        boolean updated = false;
+        Snapshot snapshot = null;
+        Editor editor = null;
+
+        try {
+            snapshot = get(key, true);
+            if (snapshot != null) {
+                // Edit through the snapshot so a concurrent put is never overwritten with stale metadata
+                editor = snapshot.edit();
                 if (editor != null) {
-                    editor.abort();
+                    // Keep stored image bounds, just the caller's metadata is replaced
+                    String bounds = getBoundsLine(snapshot.getString(METADATA_VALUE_INDEX));
+                    editor.set(METADATA_VALUE_INDEX, bounds + (metadata != null ? metadata : ""));
+                    editor.commit();
+                    updated = true;
                 }
-            } catch (IOException ignored) {
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            if (editor != null) {
+                editor.abortUnlessCommitted();
+            }
+        } finally {
+            if (snapshot != null) {
+                snapshot.close();
             }
         }
 
-        return oldValue;
+        return updated;
     }
 
     /**
@@ -664,6 +1764,80 @@ public final class DiskLruCache implements Closeable {
         }
     }
 
+    /**
+     * Builds the metadata value of an entry: a line with the bounds and mime type of the stored image, followed by the
+     * caller's metadata.
+     */
+    private static String encodeMetadata(Bitmap bitmap, Bitmap.CompressFormat compressFormat, String metadata) {
+        return BOUNDS_PREFIX + bitmap.getWidth() + "x" + bitmap.getHeight() + ";"
+                + "image/" + compressFormat.name().toLowerCase(Locale.US) + "\n"
+                + (metadata != null ? metadata : "");
+    }
+
+    /**
+     * Gets the stored image bounds line of a metadata value, including its line break, or empty if there is none.
+     */
+    private static String getBoundsLine(String metadata) {
+        if (metadata == null || !metadata.startsWith(BOUNDS_PREFIX)) {
+            return "";
+        }
+        int lineEnd = metadata.indexOf('\n');
+        return lineEnd == -1 ? metadata + "\n" : metadata.substring(0, lineEnd + 1);
+    }
+
+    /**
+     * Removes the stored image bounds line from a metadata value, leaving just the caller's metadata.
+     */
+    private static String stripBounds(String metadata) {
+        if (metadata == null) {
+            return null;
+        }
+        return metadata.substring(Math.min(getBoundsLine(metadata).length(), metadata.length()));
+    }
+
+    /**
+     * Reads stored image bounds from a metadata value into options, as a bounds decode pass would.
+     *
+     * @return True if bounds were found, False otherwise (e.g. entries written by older versions).
+     */
+    private static boolean readBounds(String metadata, BitmapFactory.Options options) {
+        String bounds = getBoundsLine(metadata).trim();
+        if (bounds.isEmpty()) {
+            return false;
+        }
+
+        try {
+            String value = bounds.substring(BOUNDS_PREFIX.length());
+            int sizeSeparator = value.indexOf('x');
+            int typeSeparator = value.indexOf(';');
+            options.outWidth = Integer.parseInt(value.substring(0, sizeSeparator));
+            options.outHeight = Integer.parseInt(value.substring(sizeSeparator + 1, typeSeparator));
+            options.outMimeType = value.substring(typeSeparator + 1);
+            return options.outWidth > 0 && options.outHeight > 0;
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    /**
+     * <p>
+     * Returns the staging file where data for {@code key} can be downloaded in several attempts before being
+     * decoded and stored on cache. Staging files live next to the entries' dirty files, are not accounted in
+     * cache size, and are deleted when not used for a while.
+     * </p>
+     *
+     * @param key Value's identifier
+     * @return Staging {@link File}, not necessarily existing.
+     */
+    public File getPartialFile(String key) {
+        validateKey(key);
+        File entryDirectory = getEntryDirectory(key);
+        if (layout == Layout.FAN_OUT) {
+            entryDirectory.mkdirs();
+        }
+        return new File(entryDirectory, key + PARTIAL_FILE_SUFFIX);
+    }
+
     /**
      * Returns the directory where this cache stores its data.
      */
@@ -688,16 +1862,370 @@ public final class DiskLruCache implements Closeable {
         executorService.submit(cleanupCallable);
     }
 
+    /**
+     * Sets the eviction watermarks, as fractions of the maximum size. The background evictor wakes when size passes
+     * the high watermark, and removes least recently used entries in one batch until size is below the low one, so
+     * a burst of inserts triggers a few large evictions instead of one per insert. By default, eviction starts at
+     * the maximum size and goes down to it, removing only as many entries as needed.
+     *
+     * @param highWatermark Fraction of the maximum size that wakes the evictor, greater than 0.
+     * @param lowWatermark  Fraction of the maximum size the evictor goes down to, between 0 and highWatermark.
+     */
+    public synchronized void setEvictionWatermarks(float highWatermark, float lowWatermark) {
+        if (highWatermark <= 0 || lowWatermark < 0 || lowWatermark > highWatermark) {
+            throw new IllegalArgumentException("expected 0 <= lowWatermark <= highWatermark, 0 < highWatermark");
+        }
+        this.evictionHighWatermark = highWatermark;
+        this.evictionLowWatermark = lowWatermark;
+        executorService.submit(cleanupCallable);
+    }
+
+    /**
+     * Returns the number of entries evicted by the background evictor.
+     */
+    public synchronized int evictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Returns the number of eviction batches run by the background evictor.
+     */
+    public synchronized int evictionBatchCount() {
+        return evictionBatchCount;
+    }
+
+    /**
+     * Sets the maximum size of values stored in segments. Committed values up to this size are appended to large
+     * segment files shared by many entries and read back with positional reads, instead of taking a file, an inode
+     * and a filesystem block each. Space of values removed is reclaimed by compacting segments in the background.
+     * Larger values are still stored in files of their own. Values already stored are kept where they are.
+     *
+     * @param maxValueSize Maximum value size in bytes, less than 1MB segments. 0 to disable segment storage.
+     */
+    public synchronized void setSegmentStorage(long maxValueSize) {
+        if (maxValueSize < 0 || maxValueSize >= SEGMENT_SIZE) {
+            throw new IllegalArgumentException("expected 0 <= maxValueSize < " + SEGMENT_SIZE);
+        }
+        this.segmentValueMaxSize = maxValueSize;
+    }
+
+    /**
+     * Returns the maximum size of values stored in segments, 0 if segment storage is disabled.
+     */
+    public synchronized long getSegmentStorage() {
+        return segmentValueMaxSize;
+    }
+
+    /**
+     * Returns the number of segment files.
+     */
+    public synchronized int segmentCount() {
+        return segmentStore.segmentCount();
+    }
+
+    /**
+     * Returns bytes of segment files taken by values removed, not yet reclaimed by compaction.
+     */
+    public synchronized long segmentGarbageBytes() {
+        return segmentStore.garbageBytes();
+    }
+
+    /**
+     * Returns the number of segment compactions performed.
+     */
+    public synchronized int segmentCompactionCount() {
+        return segmentCompactionCount;
+    }
+
+    /**
+     * Enables or disables content deduplication. When enabled, values not stored in segments are hashed while
+     * written, and stored once per content hash as payloads referenced by every entry with that content, e.g. the
+     * same image downloaded through several URLs. A payload is deleted when its last entry is removed or evicted,
+     * and cache size accounts it just once. Values already stored are kept where they are.
+     *
+     * @param contentDeduplication True to deduplicate values committed from now on.
+     */
+    public synchronized void setContentDeduplication(boolean contentDeduplication) {
+        this.contentDeduplication = contentDeduplication && newContentDigest() != null;
+    }
+
+    /**
+     * Returns true if values committed are deduplicated by content.
+     */
+    public synchronized boolean isContentDeduplication() {
+        return contentDeduplication;
+    }
+
+    /**
+     * Returns the number of values committed whose content was already stored.
+     */
+    public synchronized int deduplicatedCount() {
+        return deduplicatedCount;
+    }
+
+    /**
+     * Returns the number of payloads, each stored once for every entry with the same content.
+     */
+    public synchronized int payloadCount() {
+        return payloads.size();
+    }
+
+    /**
+     * Returns the dedupe ratio: bytes of deduplicated values referenced by entries, divided by bytes actually
+     * stored for them. 1 means no content is shared, 2 means every payload is referenced twice on average.
+     */
+    public synchronized float dedupeRatio() {
+        return payloadBytes > 0 ? (float) payloadReferencedBytes / payloadBytes : 1f;
+    }
+
+    /**
+     * Sets the default time to live of entries. Entries committed from now on expire this long after being
+     * committed, unless their editor sets another expiry with {@link Editor#setExpiresAt}. Expired entries are
+     * misses, and are removed by the background evictor before any live entry: on its next eviction batch, or on a
+     * sweep run at most once a minute after an entry expired. Entries already stored keep their expiry.
+     *
+     * @param timeToLive Time to live in milliseconds. 0 for entries to never expire.
+     */
+    public synchronized void setDefaultTimeToLive(long timeToLive) {
+        if (timeToLive < 0) {
+            throw new IllegalArgumentException("timeToLive < 0");
+        }
+        this.defaultTimeToLive = timeToLive;
+    }
+
+    /**
+     * Returns the default time to live of entries in milliseconds, 0 if they never expire.
+     */
+    public synchronized long getDefaultTimeToLive() {
+        return defaultTimeToLive;
+    }
+
+    /**
+     * Changes the time an entry expires at, without rewriting its values, e.g. after revalidating it.
+     *
+     * @param key       Value's identifier
+     * @param expiresAt Time in milliseconds since epoch, or 0 for the entry to never expire.
+     * @return True if expiry was changed, False if key is not found or is being edited.
+     */
+    public synchronized boolean setExpiresAt(String key, long expiresAt) throws IOException {
+        checkNotClosed();
+        validateKey(key);
+        Entry entry = lruEntries.get(key);
+        if (entry == null || !entry.readable || entry.currentEditor != null) {
+            return false;
+        }
+
+        entry.expiresAt = Math.max(expiresAt, 0);
+        if (entry.expiresAt > 0) {
+            earliestExpiry = Math.min(earliestExpiry, entry.expiresAt);
+        }
+        redundantOpCount++;
+        appendJournal(entry.getCleanRecord());
+        commitJournal();
+        return true;
+    }
+
+    /**
+     * Returns true if the entry named {@code key} has expired but was not reclaimed yet.
+     */
+    public synchronized boolean isExpired(String key) {
+        checkNotClosed();
+        validateKey(key);
+        Entry entry = entryIndex.get(key);
+        return entry != null && entry.readable && entry.isExpired(System.currentTimeMillis());
+    }
+
+    /**
+     * Returns the number of expired entries removed by the background evictor, included in {@link #evictionCount}.
+     */
+    public synchronized int expiredEvictionCount() {
+        return expiredEvictionCount;
+    }
+
+    /**
+     * Returns the number of reads missed because their entry had expired.
+     */
+    public synchronized int expiredMissCount() {
+        return expiredMissCount;
+    }
+
+    private static MessageDigest newContentDigest() {
+        try {
+            return MessageDigest.getInstance(CONTENT_HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
+
     /**
      * Returns the number of bytes currently being used to store the values in
      * this cache. This may be greater than the max size if a background
      * deletion is pending.
      */
-    public synchronized long size() {
-        return size;
+    public synchronized long size() {
+        return size;
+    }
+
+    /**
+     * <p>
+     * Enables or disables recency checkpointing. When enabled, {@link #get} stops appending a READ record to the
+     * journal on every hit: recency is just updated in memory, and persisted by periodic checkpoints writing each key
+     * read meanwhile once, in access order. Reads become write-free and the journal stops growing with them, at the
+     * cost of losing the recency of the reads since the last checkpoint if the process dies.
+     * </p>
+     * <p>
+     * Checkpoints are written on the background thread on the first read 30 seconds after the last one, and piggyback
+     * on every {@link #flush} and {@link #close}. Pending keys are bounded by the number of entries, as each key is
+     * pending once however many times it is read.
+     * </p>
+     *
+     * @param enabled True to track recency in memory with checkpoints, False to journal every read.
+     * @throws IOException If pending reads could not be written to the journal when disabling checkpoints.
+     */
+    public synchronized void setRecencyCheckpointing(boolean enabled) throws IOException {
+        if (!enabled && journalWriter != null) {
+            writeRecencyCheckpoint();
+        }
+        this.recencyCheckpointing = enabled;
+    }
+
+    /**
+     * Returns true if reads are persisted by recency checkpoints instead of one READ record each.
+     */
+    public synchronized boolean isRecencyCheckpointing() {
+        return recencyCheckpointing;
+    }
+
+    /**
+     * Returns the number of recency checkpoints written to the journal.
+     */
+    public synchronized int recencyCheckpointCount() {
+        return recencyCheckpointCount;
+    }
+
+    /**
+     * Compacts the journal on the background thread if it holds enough redundant records, e.g. when the app is
+     * idle. Compaction holds the cache lock just to snapshot the index and to swap journals, so other operations
+     * keep running meanwhile.
+     *
+     * @return True if a compaction was queued, False if journal is compact enough.
+     */
+    public synchronized boolean compactIfNeeded() {
+        checkNotClosed();
+        if (redundantOpCount == 0 || redundantOpCount < lruEntries.size() || compactionSideLog != null) {
+            return false;
+        }
+        executorService.submit(compactionCallable);
+        return true;
+    }
+
+    /**
+     * Returns the number of journal compactions completed.
+     */
+    public synchronized int compactionCount() {
+        return compactionCount;
+    }
+
+    /**
+     * Returns the time, in nanoseconds, the last journal compaction held the cache lock, blocking other operations.
+     */
+    public synchronized long lastCompactionPauseNanos() {
+        return lastCompactionPauseNanos;
+    }
+
+    /**
+     * Returns the longest time, in nanoseconds, a journal compaction held the cache lock, blocking other operations.
+     */
+    public synchronized long maxCompactionPauseNanos() {
+        return maxCompactionPauseNanos;
+    }
+
+    /**
+     * <p>
+     * Sets how journal records are made durable:
+     * </p>
+     * <ul>
+     * <li>{@link Durability#FLUSH_PER_OPERATION}: every edit, commit and removal flushes the journal, as usual.</li>
+     * <li>{@link Durability#GROUP_COMMIT}: records from every thread are batched and written and synced together
+     * by a background thread, at most {@code groupCommitInterval} milliseconds after the first of the batch.</li>
+     * <li>{@link Durability#FSYNC_ON_CLOSE}: records are written when the journal buffer fills up, and synced just
+     * on {@link #close}.</li>
+     * </ul>
+     * <p>
+     * Records not yet written when the process dies are lost, so their entries are dropped and their files deleted
+     * on next {@link #open}. Callers needing durability at some point can wait for it with {@link #awaitDurable()}.
+     * </p>
+     *
+     * @param durability          {@link Durability} mode.
+     * @param groupCommitInterval Maximum time, in milliseconds, records wait for a group commit. Ignored on other modes.
+     * @throws IOException If buffered records could not be written when switching to flush per operation.
+     */
+    public synchronized void setDurability(Durability durability, long groupCommitInterval) throws IOException {
+        if (groupCommitInterval <= 0) {
+            throw new IllegalArgumentException("groupCommitInterval <= 0");
+        }
+        checkNotClosed();
+        this.durability = durability;
+        this.groupCommitInterval = groupCommitInterval;
+        commitJournal();
+    }
+
+    /**
+     * Returns how journal records are made durable.
+     */
+    public synchronized Durability getDurability() {
+        return durability;
+    }
+
+    /**
+     * Blocks until every journal record appended before this call is written and synced to the storage device,
+     * whatever the {@link Durability} in use. With group commit, the call joins the next batch.
+     *
+     * @throws IOException If journal could not be written or synced.
+     */
+    public void awaitDurable() throws IOException {
+        long appendCount;
+        synchronized (this) {
+            checkNotClosed();
+            appendCount = journalAppendCount;
+            if (durability == Durability.GROUP_COMMIT) {
+                scheduleGroupCommit();
+                boolean interrupted = false;
+                try {
+                    while (journalDurableCount < appendCount) {
+                        try {
+                            wait();
+                        } catch (InterruptedException e) {
+                            interrupted = true; // Keep waiting, records must be durable on return
+                        }
+                        if (groupCommitFailure != null && journalDurableCount < appendCount) {
+                            throw groupCommitFailure;
+                        }
+                    }
+                } finally {
+                    if (interrupted) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return;
+            }
+        }
+
+        syncJournal();
+    }
+
+    /**
+     * Returns the number of group commits performed, each making a batch of journal records durable at once.
+     */
+    public synchronized int groupCommitCount() {
+        return groupCommitCount;
     }
 
     private synchronized void completeEdit(Editor editor, boolean success) throws IOException {
+        completeEdit(editor, success, true);
+    }
+
+    private synchronized void completeEdit(Editor editor, boolean success, boolean flushJournal) throws IOException {
         Entry entry = editor.entry;
         if (entry.currentEditor != editor) {
             throw new IllegalStateException();
@@ -721,12 +2249,10 @@ public final class DiskLruCache implements Closeable {
             File dirty = entry.getDirtyFile(i);
             if (success) {
                 if (dirty.exists()) {
-                    File clean = entry.getCleanFile(i);
-                    dirty.renameTo(clean);
-                    long oldLength = entry.lengths[i];
-                    long newLength = clean.length();
+                    long newLength = dirty.length();
+                    size -= releaseValue(entry, i, null);
+                    size += storeValue(editor, i, dirty, newLength);
                     entry.lengths[i] = newLength;
-                    size = size - oldLength + newLength;
                 }
             } else {
                 deleteIfExists(dirty);
@@ -737,18 +2263,159 @@ public final class DiskLruCache implements Closeable {
         entry.currentEditor = null;
         if (entry.readable | success) {
             entry.readable = true;
-            journalWriter.write(CLEAN + ' ' + entry.key + entry.getLengths() + '\n');
+            if (success) {
+                // Values committed live for the default time to live, unless the editor set another expiry
+                entry.expiresAt = editor.expirySet ? editor.expiresAt
+                        : defaultTimeToLive > 0 ? System.currentTimeMillis() + defaultTimeToLive : 0;
+                if (entry.expiresAt > 0) {
+                    earliestExpiry = Math.min(earliestExpiry, entry.expiresAt);
+                }
+            }
+            appendJournal(entry.getCleanRecord());
             if (success) {
                 entry.sequenceNumber = nextSequenceNumber++;
             }
         } else {
             lruEntries.remove(entry.key);
-            journalWriter.write(REMOVE + ' ' + entry.key + '\n');
+            entryIndex.remove(entry.key);
+            appendJournal(REMOVE + ' ' + entry.key + '\n');
         }
-        journalWriter.flush();
+        if (flushJournal) {
+            commitJournal();
+            if (size > getHighWatermarkSize() || journalRebuildRequired() || segmentStore.compactionRequired()) {
+                executorService.submit(cleanupCallable);
+            } else {
+                scheduleExpirySweep();
+            }
+        }
+    }
 
-        if (size > maxSize || journalRebuildRequired()) {
-            executorService.submit(cleanupCallable);
+    /**
+     * Stores a committed value: in a segment if small enough, as a payload shared by entries with the same content
+     * if deduplication is enabled, or in a file of its own otherwise.
+     *
+     * @return Bytes of storage taken by the value, 0 if its content was already stored.
+     */
+    private long storeValue(Editor editor, int index, File dirty, long length) throws IOException {
+        Entry entry = editor.entry;
+        if (segmentValueMaxSize > 0 && length <= segmentValueMaxSize) {
+            SegmentStore.Location location = appendToSegment(dirty, length);
+            if (location != null) {
+                dirty.delete();
+                entry.locations[index] = location;
+                return length;
+            }
+        }
+
+        String hash = editor.getContentHash(index);
+        if (hash != null) {
+            if (payloads.containsKey(hash)) {
+                dirty.delete(); // Content already stored.
+                deduplicatedCount++;
+                entry.payloads[index] = hash;
+                return referencePayload(hash, length);
+            }
+            File payloadFile = getPayloadFile(hash);
+            boolean renamed = dirty.renameTo(payloadFile);
+            if (!renamed) {
+                // Fan-out subdirectory of the hash may not exist yet
+                payloadFile.getParentFile().mkdirs();
+                renamed = dirty.renameTo(payloadFile);
+            }
+            if (renamed) {
+                entry.payloads[index] = hash;
+                return referencePayload(hash, length);
+            }
+        }
+
+        dirty.renameTo(entry.getCleanFile(index));
+        return length;
+    }
+
+    /**
+     * Releases the storage of a value being replaced or removed. Files of its own are deleted, or added to
+     * {@code deferredDeletes} to be deleted later without holding the lock.
+     *
+     * @return Bytes of storage freed, 0 if its content is still referenced by other entries.
+     */
+    private long releaseValue(Entry entry, int index, List<File> deferredDeletes) throws IOException {
+        long length = entry.lengths[index];
+        entry.lengths[index] = 0;
+        if (entry.locations[index] != null) {
+            segmentStore.release(entry.locations[index], length);
+            entry.locations[index] = null;
+            return length;
+        }
+        if (entry.payloads[index] != null) {
+            String hash = entry.payloads[index];
+            entry.payloads[index] = null;
+            return dereferencePayload(hash, length);
+        }
+        if (!entry.readable) {
+            return 0; // Nothing stored yet.
+        }
+
+        File file = entry.getCleanFile(index);
+        if (deferredDeletes != null) {
+            deferredDeletes.add(file);
+        } else if (file.exists() && !file.delete()) {
+            throw new IOException("failed to delete " + file);
+        }
+        return length;
+    }
+
+    /**
+     * Adds a reference to a payload, creating it if it is the first one.
+     *
+     * @return Bytes of storage taken if the payload was created, 0 otherwise.
+     */
+    private long referencePayload(String hash, long length) {
+        payloadReferencedBytes += length;
+        Payload payload = payloads.get(hash);
+        if (payload != null) {
+            payload.references++;
+            return 0;
+        }
+        payloads.put(hash, new Payload(length));
+        payloadBytes += length;
+        return length;
+    }
+
+    /**
+     * Removes a reference to a payload, deleting it if it was the last one. Payloads are deleted holding the lock,
+     * as an edit may store the same content again right after.
+     *
+     * @return Bytes of storage freed if the payload was deleted, 0 otherwise.
+     */
+    private long dereferencePayload(String hash, long length) throws IOException {
+        Payload payload = payloads.get(hash);
+        if (payload == null) {
+            return 0;
+        }
+        payloadReferencedBytes -= length;
+        if (--payload.references > 0) {
+            return 0;
+        }
+        payloads.remove(hash);
+        payloadBytes -= payload.length;
+        deleteIfExists(getPayloadFile(hash));
+        return payload.length;
+    }
+
+    private File getPayloadFile(String hash) {
+        return new File(getEntryDirectory(hash), hash + PAYLOAD_FILE_SUFFIX);
+    }
+
+    /**
+     * Appends a committed value to the active segment.
+     *
+     * @return Location of the value, or null if it could not be appended and must be stored in a file of its own.
+     */
+    private SegmentStore.Location appendToSegment(File dirty, long length) {
+        try {
+            return segmentStore.append(dirty, length);
+        } catch (IOException e) {
+            return null;
         }
     }
 
@@ -771,26 +2438,72 @@ public final class DiskLruCache implements Closeable {
     public synchronized boolean remove(String key) throws IOException {
         checkNotClosed();
         validateKey(key);
+        return removeEntry(key);
+    }
+
+    /**
+     * Drops the entries for {@code keys} which exist and can be removed, as {@link #remove} does, in one batch:
+     * taking the cache lock once, committing the journal once and performing a single maintenance check.
+     *
+     * @param keys Identifiers of the entries to remove.
+     * @return Number of entries removed.
+     */
+    public synchronized int removeAll(Collection<String> keys) throws IOException {
+        checkNotClosed();
+        for (String key : keys) {
+            validateKey(key);
+        }
+
+        int removed = 0;
+        try {
+            for (String key : keys) {
+                if (removeEntry(key, false)) {
+                    removed++;
+                }
+            }
+        } finally {
+            if (removed > 0) {
+                commitJournal();
+                if (journalRebuildRequired() || segmentStore.compactionRequired()) {
+                    executorService.submit(cleanupCallable);
+                }
+            }
+        }
+        return removed;
+    }
+
+    private boolean removeEntry(String key) throws IOException {
+        return removeEntry(key, true);
+    }
+
+    /**
+     * Removes an entry and records it on the journal.
+     *
+     * @param maintain True to schedule journal commit and maintenance for this removal alone, False if the caller
+     *                 does it for a whole batch.
+     */
+    private boolean removeEntry(String key, boolean maintain) throws IOException {
         Entry entry = lruEntries.get(key);
         if (entry == null || entry.currentEditor != null) {
             return false;
         }
 
         for (int i = 0; i < valueCount; i++) {
-            File file = entry.getCleanFile(i);
-            if (file.exists() && !file.delete()) {
-                throw new IOException("failed to delete " + file);
-            }
-            size -= entry.lengths[i];
-            entry.lengths[i] = 0;
+            size -= releaseValue(entry, i, null);
         }
 
         redundantOpCount++;
-        journalWriter.append(REMOVE + ' ' + key + '\n');
+        appendJournal(REMOVE + ' ' + key + '\n');
         lruEntries.remove(key);
+        entryIndex.remove(key);
 
-        if (journalRebuildRequired()) {
-            executorService.submit(cleanupCallable);
+        if (maintain) {
+            if (durability == Durability.GROUP_COMMIT) {
+                scheduleGroupCommit();
+            }
+            if (journalRebuildRequired() || segmentStore.compactionRequired()) {
+                executorService.submit(cleanupCallable);
+            }
         }
 
         return true;
@@ -814,7 +2527,12 @@ public final class DiskLruCache implements Closeable {
      */
     public synchronized void flush() throws IOException {
         checkNotClosed();
-        trimToSize();
+        if (size > getHighWatermarkSize()) {
+            executorService.submit(cleanupCallable);
+        } else {
+            scheduleExpirySweep();
+        }
+        writeRecencyCheckpoint();
         journalWriter.flush();
     }
 
@@ -831,17 +2549,212 @@ public final class DiskLruCache implements Closeable {
             }
         }
         trimToSize();
+        writeRecencyCheckpoint();
+        journalWriter.flush();
+        if (durability != Durability.FLUSH_PER_OPERATION) {
+            segmentStore.sync();
+            journalStream.getFD().sync();
+        }
         journalWriter.close();
         journalWriter = null;
+        segmentStore.close();
+        journalDurableCount = journalAppendCount;
+        notifyAll(); // Wake threads waiting for durability
+        groupCommitExecutor.shutdown();
     }
 
     private void trimToSize() throws IOException {
+        // Expired entries go first, however recently used
+        long now = System.currentTimeMillis();
+        if (size > maxSize && earliestExpiry <= now) {
+            for (Entry entry : new ArrayList<Entry>(lruEntries.values())) {
+                if (size <= maxSize) {
+                    break;
+                }
+                if (entry.isExpired(now)) {
+                    remove(entry.key);
+                }
+            }
+        }
         while (size > maxSize) {
             Map.Entry<String, Entry> toEvict = lruEntries.entrySet().iterator().next();
             remove(toEvict.getKey());
         }
     }
 
+    /**
+     * <p>
+     * Evicts entries in one batch: expired entries first, if the earliest expiry known passed, and then least
+     * recently used ones, if size passed the high watermark, until it is below the low one. Entries are dropped from
+     * the index and their REMOVE records committed under the lock, but their files are deleted without holding it,
+     * so inserts are not blocked by evictions.
+     * </p>
+     * <p>
+     * Entries being edited are skipped, and edits of evicted keys wait until their files are deleted. A crash before
+     * files are deleted leaves them untracked, and they are deleted on next {@link #open}.
+     * </p>
+     */
+    private void evictToLowWatermark() throws IOException {
+        List<File> files = new ArrayList<File>();
+        List<String> evicted = new ArrayList<String>();
+
+        synchronized (this) {
+            expirySweepScheduled = false;
+            long now = System.currentTimeMillis();
+            boolean overHighWatermark = size > getHighWatermarkSize();
+            boolean sweepRequired = earliestExpiry <= now && now - lastExpirySweep >= EXPIRY_SWEEP_INTERVAL;
+            if (journalWriter == null || !(overHighWatermark || sweepRequired)) {
+                return;
+            }
+
+            // Expired entries are misses anyway, so they go before any live entry, however recently used
+            if (earliestExpiry <= now) {
+                earliestExpiry = Long.MAX_VALUE;
+                for (Iterator<Entry> i = lruEntries.values().iterator(); i.hasNext(); ) {
+                    Entry entry = i.next();
+                    if (entry.currentEditor == null && entry.isExpired(now)) {
+                        evictEntry(entry, files);
+                        i.remove();
+                        entryIndex.remove(entry.key);
+                        evicted.add(entry.key);
+                        expiredEvictionCount++;
+                    } else if (entry.expiresAt > 0) {
+                        earliestExpiry = Math.min(earliestExpiry, entry.expiresAt);
+                    }
+                }
+                lastExpirySweep = now;
+            }
+
+            if (overHighWatermark) {
+                long lowWatermarkSize = (long) (maxSize * evictionLowWatermark);
+                for (Iterator<Entry> i = lruEntries.values().iterator(); size > lowWatermarkSize && i.hasNext(); ) {
+                    Entry entry = i.next();
+                    if (entry.currentEditor != null) {
+                        continue;
+                    }
+
+                    evictEntry(entry, files);
+                    i.remove();
+                    entryIndex.remove(entry.key);
+                    evicted.add(entry.key);
+                }
+                evictionBatchCount++;
+            }
+            commitJournal();
+            evictionCount += evicted.size();
+        }
+
+        try {
+            if (evictionListener != null) {
+                evictionListener.run();
+            }
+            for (File file : files) {
+                file.delete();
+            }
+        } finally {
+            synchronized (this) {
+                evictingKeys.removeAll(evicted);
+                notifyAll(); // Wake editors waiting for evicted keys
+            }
+        }
+    }
+
+    /**
+     * Waits for the evictor to delete the files of an evicted key, so they aren't deleted once written again.
+     */
+    private void awaitEviction(String key) {
+        boolean interrupted = false;
+        try {
+            while (evictingKeys.contains(key)) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true; // Keep waiting, files must be deleted on return
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Releases the values of an entry being evicted and records its removal, leaving its files to be deleted
+     * without holding the lock. The caller drops it from the index.
+     */
+    private void evictEntry(Entry entry, List<File> files) throws IOException {
+        for (int t = 0; t < valueCount; t++) {
+            size -= releaseValue(entry, t, files);
+        }
+        redundantOpCount++;
+        appendJournal(REMOVE + ' ' + entry.key + '\n');
+        evictingKeys.add(entry.key);
+    }
+
+    private long getHighWatermarkSize() {
+        return (long) (maxSize * evictionHighWatermark);
+    }
+
+    /**
+     * <p>
+     * Reclaims the space of sealed segments mostly taken by removed values, copying their live values to the active
+     * segment and recording the new locations on the journal. Segments holding values of entries being edited are
+     * left for a later run.
+     * </p>
+     * <p>
+     * Copies are made under the lock, bounded by the segment size. Afterwards, the journal is compacted, so
+     * relocations don't replay as accesses, and synced before old segments are deleted, so it never refers to them
+     * after a crash.
+     * </p>
+     */
+    private void compactSegments() throws IOException {
+        List<SegmentStore.Segment> retired;
+        synchronized (this) {
+            if (journalWriter == null || !segmentStore.compactionRequired()) {
+                return;
+            }
+            Set<Integer> candidates = segmentStore.compactionCandidates();
+            for (Entry entry : lruEntries.values()) {
+                if (entry.currentEditor != null) {
+                    for (SegmentStore.Location location : entry.locations) {
+                        if (location != null) {
+                            candidates.remove(location.segment);
+                        }
+                    }
+                }
+            }
+            if (candidates.isEmpty()) {
+                return;
+            }
+
+            for (Entry entry : lruEntries.values()) {
+                boolean relocated = false;
+                try {
+                    for (int t = 0; t < valueCount; t++) {
+                        SegmentStore.Location location = entry.locations[t];
+                        if (location != null && candidates.contains(location.segment)) {
+                            entry.locations[t] = segmentStore.relocate(location, entry.lengths[t]);
+                            relocated = true;
+                        }
+                    }
+                } finally {
+                    if (relocated) {
+                        redundantOpCount++;
+                        appendJournal(entry.getCleanRecord());
+                    }
+                }
+            }
+            retired = segmentStore.retire(candidates);
+            commitJournal();
+            segmentCompactionCount++;
+        }
+
+        compactJournal();
+        syncJournal(true);
+        SegmentStore.delete(retired);
+    }
+
     /**
      * Closes the cache and deletes all of its stored values. This will delete
      * all files in the cache directory including files that weren't created by
@@ -860,10 +2773,68 @@ public final class DiskLruCache implements Closeable {
         }
     }
 
+    private static byte[] readFully(InputStream in, long length) throws IOException {
+        byte[] data = new byte[(int) length];
+        int read = 0;
+        while (read < data.length) {
+            int count = in.read(data, read, data.length - read);
+            if (count == -1) {
+                throw new EOFException();
+            }
+            read += count;
+        }
+        return data;
+    }
+
     private static String inputStreamToString(InputStream in) throws IOException {
         return IOHelper.readFully(new InputStreamReader(in, IOHelper.UTF_8));
     }
 
+    /**
+     * How journal records are made durable. See {@link #setDurability}.
+     */
+    public enum Durability {
+        /**
+         * Journal is flushed by every operation.
+         */
+        FLUSH_PER_OPERATION,
+        /**
+         * Records are batched and written and synced together by a background thread.
+         */
+        GROUP_COMMIT,
+        /**
+         * Records are written when the journal buffer fills up, and synced just on close.
+         */
+        FSYNC_ON_CLOSE
+    }
+
+    /**
+     * How value files are placed inside the cache directory. See {@link #open(File, int, int, long, Layout)}.
+     */
+    public enum Layout {
+        /**
+         * All files in the cache directory.
+         */
+        FLAT,
+        /**
+         * Files spread over 256 subdirectories, two levels of 16 picked by key hash, so no directory grows too large
+         * to list and look up quickly with many entries.
+         */
+        FAN_OUT
+    }
+
+    /**
+     * Content stored once for every entry referencing it, see {@link #setContentDeduplication}.
+     */
+    private static final class Payload {
+        private final long length;
+        private int references = 1;
+
+        private Payload(long length) {
+            this.length = length;
+        }
+    }
+
     /**
      * A snapshot of the values for an entry.
      */
@@ -930,12 +2901,33 @@ public final class DiskLruCache implements Closeable {
     public final class Editor {
         private final Entry entry;
         private final boolean[] written;
+        private final MessageDigest[] digests;
         private boolean hasErrors;
         private boolean committed;
+        private boolean expirySet;
+        private long expiresAt;
 
         private Editor(Entry entry) {
             this.entry = entry;
             this.written = (entry.readable) ? null : new boolean[valueCount];
+            this.digests = new MessageDigest[valueCount];
+        }
+
+        /**
+         * Returns the hex content hash of the value written at {@code index}, or null if it was not hashed.
+         */
+        private String getContentHash(int index) {
+            MessageDigest digest = digests[index];
+            if (digest == null) {
+                return null;
+            }
+            digests[index] = null;
+            byte[] hash = digest.digest();
+            StringBuilder result = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                result.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return result.toString();
         }
 
         /**
@@ -951,7 +2943,7 @@ public final class DiskLruCache implements Closeable {
                     return null;
                 }
                 try {
-                    return new FileInputStream(entry.getCleanFile(index));
+                    return openValue(entry, index);
                 } catch (FileNotFoundException e) {
                     return null;
                 }
@@ -992,8 +2984,8 @@ public final class DiskLruCache implements Closeable {
                 try {
                     outputStream = new FileOutputStream(dirtyFile);
                 } catch (FileNotFoundException e) {
-                    // Attempt to recreate the cache directory.
-                    directory.mkdirs();
+                    // Attempt to recreate the cache directory, or the entry's subdirectory.
+                    dirtyFile.getParentFile().mkdirs();
                     try {
                         outputStream = new FileOutputStream(dirtyFile);
                     } catch (FileNotFoundException e2) {
@@ -1001,6 +2993,12 @@ public final class DiskLruCache implements Closeable {
                         return NULL_OUTPUT_STREAM;
                     }
                 }
+
+                // Hash content while it is written, so deduplication needs no extra read
+                digests[index] = contentDeduplication ? newContentDigest() : null;
+                if (digests[index] != null) {
+                    return new FaultHidingOutputStream(new DigestOutputStream(outputStream, digests[index]));
+                }
                 return new FaultHidingOutputStream(outputStream);
             }
         }
@@ -1018,6 +3016,18 @@ public final class DiskLruCache implements Closeable {
             }
         }
 
+        /**
+         * Sets the time the entry expires at once this edit is committed, in
+         * milliseconds since epoch, or 0 for it to never expire. Without it, the
+         * entry expires after the cache's default time to live.
+         */
+        public void setExpiresAt(long expiresAt) {
+            synchronized (DiskLruCache.this) {
+                this.expiresAt = Math.max(expiresAt, 0);
+                this.expirySet = true;
+            }
+        }
+
         /**
          * Commits this edit so it is visible to readers.  This releases the
          * edit lock so another edit may be started on the same key.
@@ -1100,6 +3110,16 @@ public final class DiskLruCache implements Closeable {
          */
         private final long[] lengths;
 
+        /**
+         * Locations of values stored in segments, null for values stored in files of their own.
+         */
+        private final SegmentStore.Location[] locations;
+
+        /**
+         * Content hashes of values stored as payloads, null for values not deduplicated.
+         */
+        private final String[] payloads;
+
         /**
          * True if this entry has ever been published.
          */
@@ -1115,9 +3135,35 @@ public final class DiskLruCache implements Closeable {
          */
         private long sequenceNumber;
 
+        /**
+         * Time this entry expires at, in milliseconds since epoch, or 0 if it never expires.
+         */
+        private long expiresAt;
+
         private Entry(String key) {
             this.key = key;
             this.lengths = new long[valueCount];
+            this.locations = new SegmentStore.Location[valueCount];
+            this.payloads = new String[valueCount];
+        }
+
+        /**
+         * Returns true if any value of this entry is stored in one of the segments given.
+         */
+        private boolean isStoredIn(Set<Integer> segments) {
+            for (SegmentStore.Location location : locations) {
+                if (location != null && segments.contains(location.segment)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Returns the CLEAN record publishing this entry on the journal.
+         */
+        public String getCleanRecord() throws IOException {
+            return CLEAN + ' ' + key + getLengths() + getLocations() + getExpiry() + '\n';
         }
 
         public String getLengths() throws IOException {
@@ -1129,32 +3175,81 @@ public final class DiskLruCache implements Closeable {
         }
 
         /**
-         * Set lengths using decimal numbers like "10123".
+         * Returns locations of values for a CLEAN line, or nothing if every value is stored in its own file.
+         */
+        public String getLocations() {
+            StringBuilder result = new StringBuilder();
+            for (int i = 0; i < valueCount; i++) {
+                if (locations[i] != null || payloads[i] != null) {
+                    for (int t = 0; t < valueCount; t++) {
+                        result.append(' ').append(locations[t] != null ? locations[t].toString()
+                                : payloads[t] != null ? '#' + payloads[t] : "-");
+                    }
+                    break;
+                }
+            }
+            return result.toString();
+        }
+
+        /**
+         * Returns the expiry time for a CLEAN line, or nothing if this entry never expires.
+         */
+        public String getExpiry() {
+            return expiresAt > 0 ? ' ' + EXPIRY_PREFIX + expiresAt : "";
+        }
+
+        /**
+         * Set lengths using decimal numbers like "10123", optionally followed by value locations like "3:1024" or
+         * "#hash", and by the expiry time like "@1476802800000".
          */
         private void setLengths(String[] strings) throws IOException {
-            if (strings.length != valueCount) {
+            int count = strings.length;
+            boolean expiring = count > 0 && strings[count - 1].startsWith(EXPIRY_PREFIX);
+            if (expiring) {
+                count--;
+            }
+            if (count != valueCount && count != valueCount * 2) {
                 throw invalidLengths(strings);
             }
 
             try {
-                for (int i = 0; i < strings.length; i++) {
+                expiresAt = expiring ? Long.parseLong(strings[count].substring(EXPIRY_PREFIX.length())) : 0;
+                for (int i = 0; i < valueCount; i++) {
                     lengths[i] = Long.parseLong(strings[i]);
+                    String location = count > valueCount ? strings[valueCount + i] : "-";
+                    payloads[i] = location.startsWith("#") ? location.substring(1) : null;
+                    locations[i] = payloads[i] == null && !"-".equals(location)
+                            ? SegmentStore.Location.parse(location) : null;
                 }
             } catch (NumberFormatException e) {
                 throw invalidLengths(strings);
             }
         }
 
+        /**
+         * Returns true if this entry has a time to live which ran out at {@code now}.
+         */
+        private boolean isExpired(long now) {
+            return expiresAt > 0 && now >= expiresAt;
+        }
+
+        /**
+         * Returns true if the value at {@code i} is found in its segment or its file.
+         */
+        private boolean isStored(int i) {
+            return locations[i] != null || (payloads[i] != null ? getPayloadFile(payloads[i]) : getCleanFile(i)).exists();
+        }
+
         private IOException invalidLengths(String[] strings) throws IOException {
             throw new IOException("unexpected journal line: " + java.util.Arrays.toString(strings));
         }
 
         public File getCleanFile(int i) {
-            return new File(directory, key + "." + i);
+            return new File(getEntryDirectory(key), key + "." + i);
         }
 
         public File getDirtyFile(int i) {
-            return new File(directory, key + "." + i + ".tmp");
+            return new File(getEntryDirectory(key), key + "." + i + ".tmp");
         }
     }
 }
@@ -0,0 +1,465 @@
+/*
+ * Copyright (C) 2016 Isaac R.F.
+ * http://isaacrf.com/works/epicbitmaprenderer
+ * https://github.com/isaacrf/EpicBitmapRenderer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.isaacrf.epicbitmaprenderer.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>
+ * Log-structured storage for small {@link DiskLruCache} values. Values are appended to large segment files, named by
+ * their numeric ids in the "segments" subdirectory of the cache, instead of taking a file, an inode and a filesystem
+ * block each. They are read back with positional reads on segment channels kept open, so no file is opened per read.
+ * </p>
+ * <p>
+ * Removed values are just accounted as garbage. Sealed segments mostly made of garbage are compacted by copying
+ * their live values to the active segment and deleting them. Where each value lives is tracked by the cache journal;
+ * every method but {@link #sync} and reads from streams is called holding the cache lock.
+ * </p>
+ */
+final class SegmentStore {
+    static final String SEGMENTS_DIRECTORY = "segments";
+
+    /**
+     * Sealed segments are compacted once live values take less than this fraction of them.
+     */
+    static final float COMPACTION_LIVE_RATIO = 0.5f;
+
+    private final File directory;
+    private final long segmentSize;
+    private final Map<Integer, Segment> segments = new HashMap<Integer, Segment>();
+    private final Set<Segment> unsynced = new LinkedHashSet<Segment>();
+    private Segment active;
+    private int nextId;
+    private boolean compactionRequired;
+
+    SegmentStore(File cacheDirectory, long segmentSize) {
+        this.directory = new File(cacheDirectory, SEGMENTS_DIRECTORY);
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Finds the segments the journal refers to whose files are missing, e.g. an emptied segment deleted by
+     * {@link #release} right before a crash lost the journal records removing its values. New segments never take
+     * the ids of segments the journal refers to.
+     *
+     * @return Ids of the missing segments.
+     */
+    Set<Integer> reconcile(Set<Integer> referenced) {
+        Set<Integer> missing = new LinkedHashSet<Integer>();
+        for (Integer id : referenced) {
+            nextId = Math.max(nextId, id + 1);
+            if (!new File(directory, Integer.toString(id)).isFile()) {
+                missing.add(id);
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * Opens existing segments, given the bytes of live values each one holds according to the journal. Segments
+     * holding none are deleted.
+     */
+    void load(Map<Integer, Long> liveBytes) throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            int id;
+            try {
+                id = Integer.parseInt(file.getName());
+            } catch (NumberFormatException e) {
+                file.delete();
+                continue;
+            }
+            nextId = Math.max(nextId, id + 1);
+
+            Long live = liveBytes.get(id);
+            if (live == null) {
+                file.delete();
+            } else {
+                Segment segment = new Segment(id, file);
+                segment.liveBytes = live;
+                segments.put(id, segment);
+                compactionRequired |= segment.isCompactable();
+            }
+        }
+    }
+
+    /**
+     * Appends {@code length} bytes of a file to the active segment, opening a new one if it is full.
+     *
+     * @return Location of the value.
+     */
+    Location append(File source, long length) throws IOException {
+        Segment segment = activeSegment(length);
+        FileInputStream in = new FileInputStream(source);
+        try {
+            // Values are small, copy them with one read and one positional write
+            ByteBuffer buffer = ByteBuffer.allocate((int) length);
+            FileChannel sourceChannel = in.getChannel();
+            while (buffer.hasRemaining()) {
+                if (sourceChannel.read(buffer) < 0) {
+                    throw new IOException("unexpected end of " + source);
+                }
+            }
+            buffer.flip();
+            long offset = segment.end;
+            while (buffer.hasRemaining()) {
+                segment.channel.write(buffer, offset + buffer.position());
+            }
+            return segment.appended(offset, length);
+        } finally {
+            IOHelper.closeQuietly(in);
+        }
+    }
+
+    /**
+     * Copies a value to the active segment, accounting its old copy as garbage. The old segment is never deleted
+     * here, even with no live value left: the journal may still refer to it until the caller syncs it, and then
+     * deletes the segment with {@link #retire} and {@link #delete}.
+     *
+     * @return New location of the value.
+     */
+    Location relocate(Location location, long length) throws IOException {
+        Segment source = segments.get(location.segment);
+        if (source == null) {
+            throw new IOException("missing segment " + location.segment);
+        }
+        Segment segment = activeSegment(length);
+        long offset = segment.end;
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(length, IOHelper.IO_BUFFER_SIZE));
+        for (long copied = 0; copied < length; ) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), length - copied));
+            if (source.channel.read(buffer, location.offset + copied) <= 0) {
+                throw new IOException("unexpected end of segment " + location.segment);
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                copied += segment.channel.write(buffer, offset + copied);
+            }
+        }
+        Location relocated = segment.appended(offset, length);
+        source.liveBytes -= length;
+        return relocated;
+    }
+
+    private Segment activeSegment(long length) throws IOException {
+        if (active != null && active.end > 0 && active.end + length > segmentSize) {
+            // Sealed, it stays on unsynced until next sync
+            compactionRequired |= active.isCompactable();
+            active = null;
+        }
+        if (active == null) {
+            directory.mkdirs();
+            int id = nextId++;
+            active = new Segment(id, new File(directory, Integer.toString(id)));
+            segments.put(id, active);
+        }
+        synchronized (unsynced) {
+            unsynced.add(active);
+        }
+        return active;
+    }
+
+    /**
+     * Returns a stream reading a value, or null if its segment is missing.
+     */
+    InputStream newInputStream(Location location, long length) {
+        Segment segment = segments.get(location.segment);
+        if (segment == null || !segment.acquire()) {
+            return null;
+        }
+        return new SegmentInputStream(segment, location.offset, length);
+    }
+
+    /**
+     * Accounts a value as garbage. Segments left with no live value, other than the active one, are deleted. The
+     * journal records removing their values may not be written yet, so {@link #reconcile} drops entries still
+     * referring to them on next open.
+     */
+    void release(Location location, long length) {
+        Segment segment = segments.get(location.segment);
+        if (segment == null) {
+            return;
+        }
+        segment.liveBytes -= length;
+        if (segment == active) {
+            return;
+        }
+        if (segment.liveBytes <= 0) {
+            segments.remove(segment.id);
+            segment.retire(true);
+        } else {
+            compactionRequired |= segment.isCompactable();
+        }
+    }
+
+    /**
+     * Returns true if a sealed segment became worth compacting since candidates were last listed.
+     */
+    boolean compactionRequired() {
+        return compactionRequired;
+    }
+
+    /**
+     * Returns the ids of sealed segments worth compacting.
+     */
+    Set<Integer> compactionCandidates() {
+        compactionRequired = false;
+        Set<Integer> candidates = new LinkedHashSet<Integer>();
+        for (Segment segment : segments.values()) {
+            if (segment != active && segment.isCompactable()) {
+                candidates.add(segment.id);
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Removes segments from the store. Their files are left for {@link #delete} to remove once nothing stored
+     * elsewhere refers to them.
+     */
+    List<Segment> retire(Set<Integer> ids) {
+        List<Segment> retired = new ArrayList<Segment>(ids.size());
+        for (Integer id : ids) {
+            Segment segment = segments.remove(id);
+            if (segment != null) {
+                segment.retire(false);
+                retired.add(segment);
+            }
+        }
+        return retired;
+    }
+
+    static void delete(List<Segment> retired) {
+        for (Segment segment : retired) {
+            segment.file.delete();
+        }
+    }
+
+    /**
+     * Forces values appended since the last sync to the storage device.
+     */
+    void sync() throws IOException {
+        List<Segment> toSync;
+        synchronized (unsynced) {
+            toSync = new ArrayList<Segment>(unsynced);
+            unsynced.clear();
+        }
+        for (Segment segment : toSync) {
+            segment.force();
+        }
+    }
+
+    int segmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Returns bytes taken by values no longer stored, not yet reclaimed by compaction.
+     */
+    long garbageBytes() {
+        long garbage = 0;
+        for (Segment segment : segments.values()) {
+            garbage += segment.end - segment.liveBytes;
+        }
+        return garbage;
+    }
+
+    void close() {
+        for (Segment segment : segments.values()) {
+            segment.retire(false);
+        }
+        segments.clear();
+        active = null;
+    }
+
+    /**
+     * Position of a value in a segment.
+     */
+    static final class Location {
+        final int segment;
+        final long offset;
+
+        Location(int segment, long offset) {
+            this.segment = segment;
+            this.offset = offset;
+        }
+
+        @Override
+        public String toString() {
+            return segment + ":" + offset;
+        }
+
+        /**
+         * Parses a location written by {@link #toString}.
+         */
+        static Location parse(String location) throws NumberFormatException {
+            int separator = location.indexOf(':');
+            if (separator <= 0) {
+                throw new NumberFormatException(location);
+            }
+            return new Location(Integer.parseInt(location.substring(0, separator)),
+                    Long.parseLong(location.substring(separator + 1)));
+        }
+    }
+
+    /**
+     * A segment file. Its channel is closed when the segment is retired and no stream reads from it anymore, so
+     * reads of values compacted or removed meanwhile keep working.
+     */
+    static final class Segment {
+        private final int id;
+        private final File file;
+        private FileChannel channel;
+        private long end;
+        private long liveBytes;
+        private int readers;
+        private boolean retired;
+
+        private Segment(int id, File file) throws IOException {
+            this.id = id;
+            this.file = file;
+            this.channel = new RandomAccessFile(file, "rw").getChannel();
+            this.end = channel.size();
+        }
+
+        private boolean isCompactable() {
+            return liveBytes < end * COMPACTION_LIVE_RATIO;
+        }
+
+        private Location appended(long offset, long length) {
+            end = offset + length;
+            liveBytes += length;
+            return new Location(id, offset);
+        }
+
+        private synchronized boolean acquire() {
+            if (retired) {
+                return false;
+            }
+            readers++;
+            return true;
+        }
+
+        private synchronized void release() {
+            readers--;
+            if (retired && readers == 0) {
+                IOHelper.closeQuietly(channel);
+            }
+        }
+
+        private synchronized void retire(boolean delete) {
+            retired = true;
+            if (delete) {
+                file.delete(); // Streams still reading keep it open.
+            }
+            if (readers == 0) {
+                IOHelper.closeQuietly(channel);
+            }
+        }
+
+        private void force() throws IOException {
+            try {
+                channel.force(false);
+            } catch (IOException e) {
+                synchronized (this) {
+                    if (!retired) {
+                        throw e;
+                    }
+                    // Closed meanwhile.
+                }
+            }
+        }
+    }
+
+    /**
+     * Unbuffered stream reading a value with positional reads, which don't move the shared channel position.
+     */
+    private static final class SegmentInputStream extends InputStream {
+        private final Segment segment;
+        private final long end;
+        private long position;
+        private boolean closed;
+
+        private SegmentInputStream(Segment segment, long offset, long length) {
+            this.segment = segment;
+            this.position = offset;
+            this.end = offset + length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            if (closed) {
+                throw new IOException("stream closed");
+            }
+            if (count == 0) {
+                return 0;
+            }
+            if (position >= end) {
+                return -1;
+            }
+            int read = segment.channel.read(ByteBuffer.wrap(buffer, offset, (int) Math.min(count, end - position)),
+                    position);
+            if (read > 0) {
+                position += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long count) {
+            long skipped = Math.max(0, Math.min(count, end - position));
+            position += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, end - position);
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                segment.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2016 Isaac R.F.
+ * http://isaacrf.com/works/epicbitmaprenderer
+ * https://github.com/isaacrf/EpicBitmapRenderer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.isaacrf.epicbitmaprenderer.core;
+
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests {@link CanonicalKeyStrategy} url canonicalization.
+ */
+public class CanonicalKeyStrategyTest {
+    private final CanonicalKeyStrategy strategy = new CanonicalKeyStrategy();
+    private final CanonicalKeyStrategy schemeAware = new CanonicalKeyStrategy(
+            CanonicalKeyStrategy.DEFAULT_STRIPPED_PARAMS, true, false, Collections.<String, String>emptyMap());
+
+    @Test
+    public void dropsDefaultPortOfScheme() {
+        assertEquals("http://example.com/a.png", url(schemeAware, "http://example.com:80/a.png"));
+        assertEquals("https://example.com/a.png", url(schemeAware, "https://example.com:443/a.png"));
+        assertEquals("https://example.com/a.png", url(strategy, "http://example.com:80/a.png"));
+        assertEquals("https://example.com/a.png", url(strategy, "https://example.com:443/a.png"));
+    }
+
+    @Test
+    public void keepsDefaultPortOfOtherScheme() {
+        assertEquals("http://example.com:443/a.png", url(schemeAware, "http://example.com:443/a.png"));
+        assertEquals("https://example.com:80/a.png", url(schemeAware, "https://example.com:80/a.png"));
+        // Still a different server once http is considered the same as https
+        assertEquals("https://example.com:443/a.png", url(strategy, "http://example.com:443/a.png"));
+        assertEquals("ftp://example.com:80/a.png", url(strategy, "ftp://example.com:80/a.png"));
+    }
+
+    @Test
+    public void keepsOtherPortsAndIpv6Hosts() {
+        assertEquals("http://example.com:8080/a.png", url(schemeAware, "http://example.com:8080/a.png"));
+        assertEquals("http://example.com/a.png", url(schemeAware, "http://example.com:/a.png"));
+        assertEquals("http://[::1]/a.png", url(schemeAware, "http://[::1]:80/a.png"));
+        assertEquals("http://[::1]:8080/a.png", url(schemeAware, "http://[::1]:8080/a.png"));
+    }
+
+    @Test
+    public void lowerCasesSchemeAndHostAndDropsFragment() {
+        assertEquals("https://example.com/A.png", url(strategy, "HTTPS://Example.COM/A.png#top"));
+    }
+
+    @Test
+    public void stripsAndSortsQueryParameters() {
+        assertEquals("https://example.com/a.png?a=1&b=2",
+                url(strategy, "https://example.com/a.png?b=2&utm_source=x&a=1&t=123"));
+        assertEquals("https://example.com/a.png", url(strategy, "https://example.com/a.png?t=123"));
+    }
+
+    @Test
+    public void replacesHostAliases() {
+        CanonicalKeyStrategy aliased = new CanonicalKeyStrategy(CanonicalKeyStrategy.DEFAULT_STRIPPED_PARAMS, true,
+                true, Collections.singletonMap("CDN2.example.com", "cdn.example.com"));
+
+        assertEquals("https://user@cdn.example.com:8443/a.png",
+                url(aliased, "http://user@cdn2.example.com:8443/a.png"));
+    }
+
+    @Test
+    public void leavesOtherSourcesAsIs() {
+        assertEquals("/sdcard/A.png:80", strategy.canonicalize("/sdcard/A.png:80", SourceType.FILE));
+        assertEquals("not a url", strategy.canonicalize("not a url", SourceType.URL));
+    }
+
+    private static String url(CanonicalKeyStrategy strategy, String url) {
+        return strategy.canonicalize(url, SourceType.URL);
+    }
+}
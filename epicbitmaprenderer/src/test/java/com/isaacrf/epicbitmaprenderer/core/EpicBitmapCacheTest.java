@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2016 Isaac R.F.
+ * http://isaacrf.com/works/epicbitmaprenderer
+ * https://github.com/isaacrf/EpicBitmapRenderer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.isaacrf.epicbitmaprenderer.core;
+
+import android.graphics.Bitmap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link EpicBitmapCache} reads and bulk operations across Memory and Disk Cache.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class EpicBitmapCacheTest {
+    private static final List<String> KEYS = Arrays.asList("key0", "key1", "key2");
+
+    private EpicBitmapCache cache;
+    private Map<String, Bitmap> bitmaps;
+
+    @Before
+    public void setUp() {
+        cache = new EpicBitmapCache();
+        cache.initDiskCache(RuntimeEnvironment.application);
+        Robolectric.flushBackgroundThreadScheduler();
+
+        bitmaps = new LinkedHashMap<String, Bitmap>();
+        for (String key : KEYS) {
+            bitmaps.put(key, Bitmap.createBitmap(10, 10, Bitmap.Config.ARGB_8888));
+        }
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        cache.clear();
+    }
+
+    @Test
+    public void getAllReturnsMemoryHitsAsStored() {
+        cache.putAll(bitmaps, "image/png", 100, null, CachePolicy.MEMORY_ONLY);
+
+        Map<String, Bitmap> found = cache.getAll(keysAnd("missing"));
+
+        assertEquals(KEYS, new ArrayList<String>(found.keySet()));
+        for (String key : KEYS) {
+            assertSame(bitmaps.get(key), found.get(key));
+        }
+        assertTrue(cache.containsAll(KEYS));
+        assertFalse(cache.containsAll(keysAnd("missing")));
+    }
+
+    @Test
+    public void getAllReadsBitmapsMissingFromMemoryCacheFromDiskCache() {
+        cache.putAll(bitmaps, "image/png", 100, null, CachePolicy.DISK_ONLY);
+        assertNull(cache.getBitmapFromMemCache(KEYS.get(0)));
+
+        Map<String, Bitmap> found = cache.getAll(keysAnd("missing"));
+
+        assertEquals(KEYS, new ArrayList<String>(found.keySet()));
+        for (String key : KEYS) {
+            assertNotNull(found.get(key));
+        }
+        assertTrue(cache.containsAll(KEYS));
+        assertFalse(cache.containsAll(keysAnd("missing")));
+    }
+
+    @Test
+    public void getAllPromotesDiskHitsAsPolicyDecides() {
+        cache.setPromotionPolicy(new PromotionPolicy(2, 1f));
+        cache.putAll(bitmaps, "image/png", 100, null, CachePolicy.DISK_ONLY);
+
+        cache.getAll(KEYS);
+        assertNull(cache.getBitmapFromMemCache(KEYS.get(0)));
+
+        // Second disk hit of every key promotes it
+        Map<String, Bitmap> found = cache.getAll(KEYS);
+        for (String key : KEYS) {
+            assertSame(found.get(key), cache.getBitmapFromMemCache(key));
+        }
+        assertEquals(KEYS.size(), cache.getPromotionPolicy().promotionCount());
+    }
+
+    @Test
+    public void getBitmapFromDiskCacheReadsSingleBitmap() {
+        cache.putAll(bitmaps, "image/png", 100, null, CachePolicy.DISK_ONLY);
+
+        assertNotNull(cache.getBitmapFromDiskCache(KEYS.get(0)));
+        assertNotNull(cache.getBitmapFromDiskCache(KEYS.get(1), 5, 5));
+        assertNull(cache.getBitmapFromDiskCache("missing"));
+    }
+
+    @Test
+    public void removeAllRemovesFromBothTiers() throws IOException {
+        cache.putAll(bitmaps, "image/png", 100, null);
+        assertTrue(cache.containsAll(KEYS));
+
+        cache.removeAll(KEYS.subList(0, 2));
+
+        assertTrue(cache.getAll(KEYS.subList(0, 2)).isEmpty());
+        assertEquals(KEYS.subList(2, 3), new ArrayList<String>(cache.getAll(KEYS).keySet()));
+    }
+
+    private static List<String> keysAnd(String key) {
+        List<String> keys = new ArrayList<String>(KEYS);
+        keys.add(key);
+        return keys;
+    }
+}
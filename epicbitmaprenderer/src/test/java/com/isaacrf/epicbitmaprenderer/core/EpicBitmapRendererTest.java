@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2016 Isaac R.F.
+ * http://isaacrf.com/works/epicbitmaprenderer
+ * https://github.com/isaacrf/EpicBitmapRenderer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.isaacrf.epicbitmaprenderer.core;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Rect;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.Implementation;
+import org.robolectric.annotation.Implements;
+import org.robolectric.shadows.ShadowBitmapFactory;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link EpicBitmapRenderer#renderRenditionsFromFile} renders the renditions missing from cache from a single
+ * decode, and returns the decoded image to the pool unless it is one of them.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23, shadows = EpicBitmapRendererTest.ShadowPngBitmapFactory.class)
+public class EpicBitmapRendererTest {
+    // Robolectric decodes every image as a 100x100 bitmap
+    private static final int IMAGE_SIZE = 100;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private BitmapPool previousBitmapPool;
+    private RecordingBitmapPool bitmapPool;
+    private String path;
+
+    @Before
+    public void setUp() throws IOException {
+        previousBitmapPool = EpicBitmapRenderer.getBitmapPool();
+        bitmapPool = new RecordingBitmapPool();
+        EpicBitmapRenderer.setBitmapPool(bitmapPool);
+
+        File image = temporaryFolder.newFile("image.png");
+        FileOutputStream out = new FileOutputStream(image);
+        try {
+            out.write(new byte[]{1, 2, 3});
+        } finally {
+            out.close();
+        }
+        path = image.getPath();
+    }
+
+    @After
+    public void tearDown() {
+        EpicBitmapRenderer.setBitmapPool(previousBitmapPool);
+    }
+
+    @Test
+    public void decodedImageIsPooledWhenNoRenditionUsesIt() throws IOException {
+        Bitmap[] renditions = EpicBitmapRenderer.renderRenditionsFromFile(path, new int[]{30, 60}, null);
+
+        assertSize(30, renditions[0]);
+        assertSize(60, renditions[1]);
+        assertEquals(1, bitmapPool.pooled.size());
+        Bitmap decoded = bitmapPool.pooled.get(0);
+        assertSize(IMAGE_SIZE, decoded);
+        assertNotSame(decoded, renditions[0]);
+        assertNotSame(decoded, renditions[1]);
+    }
+
+    @Test
+    public void decodedImageIsNotPooledWhenItIsARendition() throws IOException {
+        Bitmap[] renditions = EpicBitmapRenderer.renderRenditionsFromFile(path, new int[]{30, IMAGE_SIZE}, null);
+
+        assertSize(30, renditions[0]);
+        assertSize(IMAGE_SIZE, renditions[1]);
+        assertTrue(bitmapPool.pooled.isEmpty());
+        assertFalse(renditions[1].isRecycled());
+    }
+
+    @Test
+    public void cachedRenditionsAreReusedAndMissingOnesCached() throws IOException {
+        EpicBitmapCache cache = newCache();
+        String pathEncoded = cache.getCacheKey(path, SourceType.FILE);
+        Bitmap cached = Bitmap.createBitmap(60, 60, Bitmap.Config.ARGB_8888);
+        cache.put(EpicBitmapCache.getRenditionKey(pathEncoded, 60), cached);
+
+        // Robolectric scales bitmaps without a config, so the rendition missing is the decoded image itself
+        Bitmap[] renditions = EpicBitmapRenderer.renderRenditionsFromFile(path, new int[]{60, IMAGE_SIZE}, cache);
+
+        assertSame(cached, renditions[0]);
+        assertSize(IMAGE_SIZE, renditions[1]);
+        assertTrue(bitmapPool.pooled.isEmpty());
+        String renderedKey = EpicBitmapCache.getRenditionKey(pathEncoded, IMAGE_SIZE);
+        assertSame(renditions[1], cache.getBitmapFromMemCache(renderedKey));
+        assertNotNull(cache.getBitmapFromDiskCache(renderedKey));
+        cache.clear();
+    }
+
+    @Test
+    public void imageIsNotDecodedWhenEveryRenditionIsCached() throws IOException {
+        EpicBitmapCache cache = newCache();
+        String pathEncoded = cache.getCacheKey(path, SourceType.FILE);
+        Bitmap large = Bitmap.createBitmap(60, 60, Bitmap.Config.ARGB_8888);
+        Bitmap small = Bitmap.createBitmap(30, 30, Bitmap.Config.ARGB_8888);
+        cache.put(EpicBitmapCache.getRenditionKey(pathEncoded, 60), large);
+        cache.put(EpicBitmapCache.getRenditionKey(pathEncoded, 30), small);
+        // Opening the file would fail
+        assertTrue(new File(path).delete());
+
+        Bitmap[] renditions = EpicBitmapRenderer.renderRenditionsFromFile(path, new int[]{30, 60}, cache);
+
+        assertSame(small, renditions[0]);
+        assertSame(large, renditions[1]);
+        assertTrue(bitmapPool.pooled.isEmpty());
+        cache.clear();
+    }
+
+    private static EpicBitmapCache newCache() {
+        EpicBitmapCache cache = new EpicBitmapCache();
+        cache.initDiskCache(RuntimeEnvironment.application);
+        Robolectric.flushBackgroundThreadScheduler();
+        return cache;
+    }
+
+    private static void assertSize(int size, Bitmap bitmap) {
+        assertNotNull(bitmap);
+        assertEquals(size, bitmap.getWidth());
+        assertEquals(size, bitmap.getHeight());
+    }
+
+    /**
+     * {@link BitmapPool} recording bitmaps returned to it.
+     */
+    private static class RecordingBitmapPool extends BitmapPool {
+        final List<Bitmap> pooled = new ArrayList<Bitmap>();
+
+        @Override
+        public void put(Bitmap bitmap) {
+            pooled.add(bitmap);
+            super.put(bitmap);
+        }
+    }
+
+    /**
+     * Shadow decoding images as ARGB_8888 PNG, as Robolectric doesn't set the config and mime type renditions are
+     * cached with.
+     */
+    @Implements(BitmapFactory.class)
+    public static class ShadowPngBitmapFactory extends ShadowBitmapFactory {
+        @Implementation
+        public static Bitmap decodeFileDescriptor(FileDescriptor fd, Rect outPadding, BitmapFactory.Options opts) {
+            Bitmap bitmap = ShadowBitmapFactory.decodeFileDescriptor(fd, outPadding, opts);
+            if (bitmap != null) {
+                bitmap.setConfig(Bitmap.Config.ARGB_8888);
+            }
+            if (opts != null) {
+                opts.outMimeType = "image/png";
+            }
+            return bitmap;
+        }
+    }
+}
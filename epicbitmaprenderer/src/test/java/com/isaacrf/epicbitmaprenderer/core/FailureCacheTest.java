@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2016 Isaac R.F.
+ * http://isaacrf.com/works/epicbitmaprenderer
+ * https://github.com/isaacrf/EpicBitmapRenderer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.isaacrf.epicbitmaprenderer.core;
+
+import com.isaacrf.epicbitmaprenderer.network.HttpStatusException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests failure classification, exponential backoff and bounds of {@link FailureCache}, on a manual clock.
+ */
+public class FailureCacheTest {
+    private static final String URL = "http%3A%2F%2Fexample.com%2Fimage.png";
+
+    private ManualClockFailureCache failureCache;
+
+    @Before
+    public void setUp() {
+        failureCache = new ManualClockFailureCache(4);
+    }
+
+    @Test
+    public void classifiesFailures() {
+        assertEquals(FailureCache.FailureType.PERMANENT, FailureCache.classify(new HttpStatusException(404, URL)));
+        assertEquals(FailureCache.FailureType.PERMANENT, FailureCache.classify(new FileNotFoundException(URL)));
+        assertEquals(FailureCache.FailureType.TRANSIENT, FailureCache.classify(new HttpStatusException(503, URL)));
+        assertEquals(FailureCache.FailureType.TRANSIENT, FailureCache.classify(new HttpStatusException(429, URL)));
+        assertEquals(FailureCache.FailureType.TRANSIENT, FailureCache.classify(new SocketTimeoutException()));
+    }
+
+    @Test
+    public void answersFailureUntilBackoffPasses() {
+        IOException failure = new HttpStatusException(404, URL);
+        failureCache.put(URL, failure);
+
+        failureCache.now += 59 * 1000;
+        assertSame(failure, failureCache.get(URL));
+        failureCache.now += 1000;
+        assertNull(failureCache.get(URL));
+
+        assertEquals(1, failureCache.hitCount());
+        assertEquals(1, failureCache.missCount());
+        assertEquals(FailureCache.FailureType.PERMANENT, failureCache.getFailureType(URL));
+    }
+
+    @Test
+    public void transientFailuresBackOffSooner() {
+        failureCache.put(URL, new SocketTimeoutException());
+
+        failureCache.now += 4999;
+        assertEquals(SocketTimeoutException.class, failureCache.get(URL).getClass());
+        failureCache.now += 1;
+        assertNull(failureCache.get(URL));
+    }
+
+    @Test
+    public void consecutiveFailuresDoubleBackoff() {
+        long[] expectedBackoffs = {5000, 10000, 20000, 40000};
+        for (long backoff : expectedBackoffs) {
+            failureCache.put(URL, new SocketTimeoutException());
+            failureCache.now += backoff - 1;
+            assertEquals(SocketTimeoutException.class, failureCache.get(URL).getClass());
+            failureCache.now += 1;
+            assertNull(failureCache.get(URL));
+        }
+    }
+
+    @Test
+    public void backoffIsCapped() {
+        for (int i = 0; i < 40; i++) {
+            failureCache.put(URL, new HttpStatusException(404, URL));
+        }
+
+        failureCache.now += 30 * 60 * 1000 - 1;
+        assertEquals(HttpStatusException.class, failureCache.get(URL).getClass());
+        failureCache.now += 1;
+        assertNull(failureCache.get(URL));
+    }
+
+    @Test
+    public void successResetsBackoff() {
+        failureCache.put(URL, new SocketTimeoutException());
+        failureCache.put(URL, new SocketTimeoutException());
+        failureCache.remove(URL);
+        failureCache.put(URL, new SocketTimeoutException());
+
+        failureCache.now += 5000;
+        assertNull(failureCache.get(URL));
+    }
+
+    @Test
+    public void dropsLeastRecentlyUsedSources() {
+        for (int i = 0; i < 5; i++) {
+            failureCache.put(URL + i, new SocketTimeoutException());
+        }
+
+        assertEquals(4, failureCache.size());
+        assertNull(failureCache.getFailureType(URL + 0));
+        assertEquals(5, failureCache.recordCount());
+    }
+
+    /**
+     * {@link FailureCache} whose time only moves when tests move it.
+     */
+    private static class ManualClockFailureCache extends FailureCache {
+        private long now = 1000000;
+
+        private ManualClockFailureCache(int maxEntries) {
+            super(maxEntries);
+        }
+
+        @Override
+        protected long currentTimeMillis() {
+            return now;
+        }
+    }
+}
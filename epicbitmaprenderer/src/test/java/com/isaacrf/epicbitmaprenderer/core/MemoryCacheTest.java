@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2016 Isaac R.F.
+ * http://isaacrf.com/works/epicbitmaprenderer
+ * https://github.com/isaacrf/EpicBitmapRenderer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.isaacrf.epicbitmaprenderer.core;
+
+import android.graphics.Bitmap;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests byte accounting and eviction counting shared by every {@link MemoryCache} implementation.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class MemoryCacheTest {
+    private static final String KEY = "key0";
+
+    @Test
+    public void accountsPixelBytesPlusOverhead() {
+        Bitmap bitmap = Bitmap.createBitmap(10, 20, Bitmap.Config.ARGB_8888);
+        long expected = 10 * 20 * 4 + BitmapMemoryCache.ENTRY_OVERHEAD + 2 * KEY.length();
+
+        assertEquals(10 * 20 * 4, BitmapMemoryCache.getBitmapByteCount(bitmap));
+        assertAccounted(new BitmapMemoryCache(4 * expected), bitmap, expected);
+        assertAccounted(new WTinyLfuMemoryCache(4 * expected), bitmap, expected);
+    }
+
+    @Test
+    public void dropsBitmapsLargerThanCache() {
+        Bitmap bitmap = Bitmap.createBitmap(10, 10, Bitmap.Config.ARGB_8888);
+        BitmapMemoryCache lru = new BitmapMemoryCache(400);
+        lru.setAdmissionPolicy(null);
+        WTinyLfuMemoryCache wTinyLfu = new WTinyLfuMemoryCache(400);
+
+        lru.put(KEY, bitmap);
+        wTinyLfu.put(KEY, bitmap);
+
+        assertFalse(lru.contains(KEY));
+        assertFalse(wTinyLfu.contains(KEY));
+        assertEquals(0, lru.size());
+        assertEquals(0, wTinyLfu.size());
+    }
+
+    @Test
+    public void evictAllIsNotCountedAsEvictions() {
+        assertEvictAllNotCounted(new BitmapMemoryCache(64 * 1024));
+        assertEvictAllNotCounted(new WTinyLfuMemoryCache(64 * 1024));
+    }
+
+    @Test
+    public void evictionsToHonorLimitsAreCounted() {
+        assertTrimCounted(new BitmapMemoryCache(64 * 1024));
+        assertTrimCounted(new WTinyLfuMemoryCache(64 * 1024));
+    }
+
+    private void assertAccounted(MemoryCache cache, Bitmap bitmap, long expected) {
+        assertNull(cache.get(KEY));
+        cache.put(KEY, bitmap);
+
+        assertEquals(expected, cache.size());
+        assertSame(bitmap, cache.get(KEY));
+        cache.remove(KEY);
+        assertEquals(0, cache.size());
+    }
+
+    private void assertEvictAllNotCounted(MemoryCache cache) {
+        fill(cache, 4);
+        cache.evictAll();
+
+        assertEquals(0, cache.entryCount());
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.evictionCount());
+    }
+
+    private void assertTrimCounted(MemoryCache cache) {
+        fill(cache, 4);
+        cache.trimToSize(0);
+
+        assertEquals(0, cache.entryCount());
+        assertEquals(4, cache.evictionCount());
+    }
+
+    private void fill(MemoryCache cache, int entries) {
+        for (int i = 0; i < entries; i++) {
+            String key = "key" + i;
+            cache.get(key);
+            cache.put(key, Bitmap.createBitmap(4, 4, Bitmap.Config.ARGB_8888));
+        }
+        assertEquals(entries, cache.entryCount());
+    }
+}
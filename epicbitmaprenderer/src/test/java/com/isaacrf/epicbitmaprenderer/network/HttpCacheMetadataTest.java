@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2016 Isaac R.F.
+ * http://isaacrf.com/works/epicbitmaprenderer
+ * https://github.com/isaacrf/EpicBitmapRenderer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.isaacrf.epicbitmaprenderer.network;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests freshness and storage of {@link HttpCacheMetadata}, and revalidation of stale copies against a local server.
+ */
+public class HttpCacheMetadataTest {
+    private static final long NOW = 1500000000000L;
+    private static final String ETAG = "\"abc\"";
+
+    @Test
+    public void maxAgeSetsExpiry() {
+        HttpCacheMetadata metadata = HttpCacheMetadata.fromResponse(response("ETag", ETAG,
+                "Cache-Control", "public, max-age=60"), NOW);
+
+        assertEquals(NOW + 60 * 1000, metadata.getExpiresAt());
+        assertTrue(metadata.isFresh(NOW + 59 * 1000));
+        assertFalse(metadata.isFresh(NOW + 60 * 1000));
+    }
+
+    @Test
+    public void noCacheIsStaleRightAway() {
+        HttpCacheMetadata metadata = HttpCacheMetadata.fromResponse(response("ETag", ETAG,
+                "Cache-Control", "no-cache"), NOW);
+
+        assertFalse(metadata.isFresh(NOW));
+        assertTrue(metadata.hasValidators());
+    }
+
+    @Test
+    public void cacheControlTakesPrecedenceOverExpires() {
+        HttpCacheMetadata metadata = HttpCacheMetadata.fromResponse(response("Cache-Control", "max-age=10",
+                "Expires", httpDate(NOW + 3600 * 1000)), NOW);
+
+        assertEquals(NOW + 10 * 1000, metadata.getExpiresAt());
+    }
+
+    @Test
+    public void expiresSetsExpiry() {
+        HttpCacheMetadata metadata = HttpCacheMetadata.fromResponse(response("Expires", httpDate(NOW + 3600 * 1000)), NOW);
+
+        assertEquals(NOW + 3600 * 1000, metadata.getExpiresAt());
+    }
+
+    @Test
+    public void invalidExpiresMeansExpired() {
+        HttpCacheMetadata metadata = HttpCacheMetadata.fromResponse(response("Expires", "0"), NOW);
+
+        assertFalse(metadata.isFresh(NOW));
+    }
+
+    @Test
+    public void lastModifiedGivesHeuristicFreshness() {
+        long lastModified = NOW - 10 * 24 * 3600 * 1000L;
+        HttpCacheMetadata metadata = HttpCacheMetadata.fromResponse(response("Last-Modified", httpDate(lastModified)), NOW);
+
+        // A tenth of the time since last modification
+        assertEquals(NOW + 24 * 3600 * 1000L, metadata.getExpiresAt());
+        assertTrue(metadata.hasValidators());
+    }
+
+    @Test
+    public void eTagOnlyIsRevalidatedRightAway() {
+        HttpCacheMetadata metadata = HttpCacheMetadata.fromResponse(response("ETag", ETAG), NOW);
+
+        assertEquals(NOW, metadata.getExpiresAt());
+        assertFalse(metadata.isFresh(NOW));
+        assertTrue(metadata.hasValidators());
+    }
+
+    @Test
+    public void eTagOnlyStaysStaleAfterRefresh() {
+        HttpCacheMetadata stale = HttpCacheMetadata.fromResponse(response("ETag", ETAG), NOW);
+
+        HttpCacheMetadata refreshed = stale.refresh(new TransportResponse(HttpURLConnection.HTTP_NOT_MODIFIED, null, 0,
+                null, null), NOW + 1000);
+
+        assertEquals(ETAG, refreshed.getETag());
+        assertFalse(refreshed.isFresh(NOW + 1000));
+    }
+
+    @Test
+    public void futureLastModifiedIsRevalidatedRightAway() {
+        HttpCacheMetadata metadata = HttpCacheMetadata.fromResponse(response("Last-Modified", httpDate(NOW + 1000)), NOW);
+
+        assertFalse(metadata.isFresh(NOW));
+    }
+
+    @Test
+    public void noFreshnessInfoNeverExpires() {
+        HttpCacheMetadata metadata = HttpCacheMetadata.fromResponse(response(), NOW);
+
+        assertEquals(HttpCacheMetadata.NEVER_EXPIRES, metadata.getExpiresAt());
+        assertFalse(metadata.hasValidators());
+    }
+
+    @Test
+    public void parsesWhatItStores() {
+        HttpCacheMetadata metadata = new HttpCacheMetadata(ETAG, httpDate(NOW), "max-age=60", NOW + 60 * 1000);
+
+        HttpCacheMetadata parsed = HttpCacheMetadata.parse(metadata.toString());
+
+        assertEquals(ETAG, parsed.getETag());
+        assertEquals(httpDate(NOW), parsed.getLastModified());
+        assertEquals("max-age=60", parsed.getCacheControl());
+        assertEquals(NOW + 60 * 1000, parsed.getExpiresAt());
+    }
+
+    @Test
+    public void parsesMissingFieldsAsAbsent() {
+        HttpCacheMetadata parsed = HttpCacheMetadata.parse("ETag=" + ETAG + "\nunknown line\nExpires-At=bad\n");
+
+        assertEquals(ETAG, parsed.getETag());
+        assertNull(parsed.getLastModified());
+        assertNull(parsed.getCacheControl());
+        // Missing expiry of a copy with validators means stale
+        assertFalse(parsed.isFresh(NOW));
+        assertEquals(HttpCacheMetadata.NEVER_EXPIRES, HttpCacheMetadata.parse("Cache-Control=public\n").getExpiresAt());
+        assertNull(HttpCacheMetadata.parse(null));
+        assertNull(HttpCacheMetadata.parse(""));
+    }
+
+    @Test
+    public void storedNeverExpiringCopyWithValidatorsIsStale() {
+        HttpCacheMetadata legacy = new HttpCacheMetadata(ETAG, null, null, HttpCacheMetadata.NEVER_EXPIRES);
+
+        assertFalse(HttpCacheMetadata.parse(legacy.toString()).isFresh(NOW));
+    }
+
+    @Test
+    public void refreshKeepsStoredValidatorsAndRenewsExpiry() {
+        HttpCacheMetadata stale = new HttpCacheMetadata(ETAG, null, "max-age=60", NOW);
+
+        HttpCacheMetadata refreshed = stale.refresh(new TransportResponse(HttpURLConnection.HTTP_NOT_MODIFIED, null, 0,
+                null, null), NOW + 1000);
+
+        assertEquals(ETAG, refreshed.getETag());
+        assertEquals(NOW + 61 * 1000, refreshed.getExpiresAt());
+    }
+
+    @Test
+    public void revalidationOfStaleCopySavesItsBytes() throws IOException {
+        final byte[] image = new byte[32 * 1024];
+        LocalHttpServer server = new LocalHttpServer(new LocalHttpServer.Handler() {
+            @Override
+            public LocalHttpServer.Response handle(LocalHttpServer.Request request) {
+                if (ETAG.equals(request.getHeader("If-None-Match"))) {
+                    return new LocalHttpServer.Response(HttpURLConnection.HTTP_NOT_MODIFIED)
+                            .header("ETag", ETAG).header("Cache-Control", "max-age=60");
+                }
+                return new LocalHttpServer.Response(HttpURLConnection.HTTP_OK).body(image)
+                        .header("ETag", ETAG).header("Cache-Control", "max-age=0");
+            }
+        });
+        try {
+            UrlConnectionTransport transport = new UrlConnectionTransport();
+
+            TransportResponse response = transport.open(server.url("/image.png"), null);
+            assertEquals(image.length, drain(response));
+            long now = System.currentTimeMillis();
+            HttpCacheMetadata stored = HttpCacheMetadata.parse(HttpCacheMetadata.fromResponse(response, now).toString());
+            assertFalse(stored.isFresh(now));
+
+            response = transport.open(server.url("/image.png"), stored);
+            assertTrue(response.isNotModified());
+            assertEquals(0, drain(response));
+            assertTrue(stored.refresh(response, now).isFresh(now));
+
+            // Stale copy was revalidated without downloading it again
+            assertEquals(2, server.getRequestCount());
+            assertEquals(image.length, server.getBodyBytesSent());
+        } finally {
+            server.close();
+        }
+    }
+
+    private static TransportResponse response(String... headers) {
+        Map<String, String> headerMap = new HashMap<String, String>();
+        for (int i = 0; i < headers.length; i += 2) {
+            headerMap.put(headers[i], headers[i + 1]);
+        }
+        return new TransportResponse(HttpURLConnection.HTTP_OK, null, -1, "image/png", headerMap);
+    }
+
+    private static String httpDate(long time) {
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format.format(new Date(time));
+    }
+
+    private static int drain(TransportResponse response) throws IOException {
+        InputStream in = response.getInputStream();
+        int length = 0;
+        try {
+            byte[] buffer = new byte[8 * 1024];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                length += count;
+            }
+        } finally {
+            response.close();
+        }
+        return length;
+    }
+}
@@ -0,0 +1,352 @@
+/*
+ * Copyright (C) 2016 Isaac R.F.
+ * http://isaacrf.com/works/epicbitmaprenderer
+ * https://github.com/isaacrf/EpicBitmapRenderer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.isaacrf.epicbitmaprenderer.network;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * <p>
+ * Minimal HTTP/1.1 server on a local {@link ServerSocket}, standing in for image servers in tests. Every request is
+ * answered by a {@link Handler}, whose {@link Response} can be delayed, or dropped after part of its body, to
+ * simulate slow and flaky servers.
+ * </p>
+ * <p>
+ * Connections are kept alive between requests. Requests, connections and body bytes sent are counted.
+ * </p>
+ */
+public class LocalHttpServer implements Closeable {
+    //region Fields
+    private final ServerSocket serverSocket;
+    private final Handler handler;
+    private final List<Socket> sockets = new ArrayList<Socket>();
+    private final List<Request> requests = new ArrayList<Request>();
+    private int connectionCount;
+    private long bodyBytesSent;
+    //endregion Fields
+
+    /**
+     * Starts the server on a free local port.
+     *
+     * @param handler {@link Handler} answering every request.
+     * @throws IOException If server socket can't be opened.
+     */
+    public LocalHttpServer(Handler handler) throws IOException {
+        this.handler = handler;
+        this.serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+
+        Thread acceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptConnections();
+            }
+        }, "LocalHttpServer");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    /**
+     * @param path Absolute path, e.g. "/image.png".
+     * @return Url of a path on this server.
+     */
+    public String url(String path) {
+        return "http://127.0.0.1:" + serverSocket.getLocalPort() + path;
+    }
+
+    //region Stats
+
+    /**
+     * @return Requests received so far, in order.
+     */
+    public synchronized List<Request> getRequests() {
+        return new ArrayList<Request>(requests);
+    }
+
+    /**
+     * @return Number of requests received.
+     */
+    public synchronized int getRequestCount() {
+        return requests.size();
+    }
+
+    /**
+     * @return Number of connections accepted.
+     */
+    public synchronized int getConnectionCount() {
+        return connectionCount;
+    }
+
+    /**
+     * @return Number of response body bytes sent.
+     */
+    public synchronized long getBodyBytesSent() {
+        return bodyBytesSent;
+    }
+    //endregion Stats
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        synchronized (this) {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+        }
+    }
+
+    //region Helper methods
+
+    private void acceptConnections() {
+        while (!serverSocket.isClosed()) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                return;
+            }
+            synchronized (this) {
+                connectionCount++;
+                sockets.add(socket);
+            }
+
+            Thread connectionThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        serve(socket);
+                    } catch (IOException ignored) {
+                    } finally {
+                        try {
+                            socket.close();
+                        } catch (IOException ignored) {
+                        }
+                    }
+                }
+            }, "LocalHttpServer connection");
+            connectionThread.setDaemon(true);
+            connectionThread.start();
+        }
+    }
+
+    /**
+     * Answers requests of a connection until client closes it, or a response drops it.
+     */
+    private void serve(Socket socket) throws IOException {
+        InputStream in = socket.getInputStream();
+        OutputStream out = socket.getOutputStream();
+
+        Request request;
+        while ((request = readRequest(in)) != null) {
+            synchronized (this) {
+                requests.add(request);
+            }
+
+            Response response = handler.handle(request);
+            sleep(response.delay);
+
+            byte[] body = "HEAD".equals(request.method) ? new byte[0] : response.body;
+            StringBuilder head = new StringBuilder();
+            head.append("HTTP/1.1 ").append(response.status).append(' ').append(reason(response.status)).append("\r\n");
+            for (Map.Entry<String, String> header : response.headers.entrySet()) {
+                head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+            }
+            head.append("Content-Length: ").append(response.body.length).append("\r\n\r\n");
+            out.write(head.toString().getBytes("US-ASCII"));
+
+            int length = response.dropAfterBytes >= 0 ? Math.min(response.dropAfterBytes, body.length) : body.length;
+            //Count bytes before writing them, so clients that read the whole body always see them counted
+            synchronized (this) {
+                bodyBytesSent += length;
+            }
+            out.write(body, 0, length);
+            out.flush();
+
+            if (length < body.length) {
+                //Drop the connection in the middle of the body
+                return;
+            }
+        }
+    }
+
+    private static Request readRequest(InputStream in) throws IOException {
+        String requestLine;
+        try {
+            requestLine = readLine(in);
+        } catch (SocketException e) {
+            return null;
+        }
+        if (requestLine == null || requestLine.isEmpty()) {
+            return null;
+        }
+
+        String[] parts = requestLine.split(" ");
+        Map<String, String> headers = new HashMap<String, String>();
+        String line;
+        while ((line = readLine(in)) != null && !line.isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                headers.put(line.substring(0, colon).trim().toLowerCase(Locale.US), line.substring(colon + 1).trim());
+            }
+        }
+
+        return new Request(parts[0], parts.length > 1 ? parts[1] : "/", headers);
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                String result = line.toString("US-ASCII");
+                return result.endsWith("\r") ? result.substring(0, result.length() - 1) : result;
+            }
+            line.write(b);
+        }
+        return line.size() > 0 ? line.toString("US-ASCII") : null;
+    }
+
+    private static String reason(int status) {
+        switch (status) {
+            case 200:
+                return "OK";
+            case 206:
+                return "Partial Content";
+            case 304:
+                return "Not Modified";
+            case 404:
+                return "Not Found";
+            default:
+                return "Status";
+        }
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    //endregion Helper methods
+
+    //region Helper classes
+
+    /**
+     * Answers requests received by a {@link LocalHttpServer}. Called from connection threads.
+     */
+    public interface Handler {
+
+        /**
+         * @param request {@link Request} received.
+         * @return {@link Response} to send.
+         */
+        Response handle(Request request);
+    }
+
+    /**
+     * Request received: method, path and headers.
+     */
+    public static class Request {
+        private final String method;
+        private final String path;
+        private final Map<String, String> headers;
+
+        private Request(String method, String path, Map<String, String> headers) {
+            this.method = method;
+            this.path = path;
+            this.headers = Collections.unmodifiableMap(headers);
+        }
+
+        public String getMethod() {
+            return method;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * @param name Header name, case insensitive.
+         * @return Header value, or null if not sent.
+         */
+        public String getHeader(String name) {
+            return headers.get(name.toLowerCase(Locale.US));
+        }
+    }
+
+    /**
+     * Response to send. Content-Length is always the length of the whole body, even if connection is dropped
+     * before sending all of it.
+     */
+    public static class Response {
+        private final int status;
+        private final Map<String, String> headers = new LinkedHashMap<String, String>();
+        private byte[] body = new byte[0];
+        private long delay;
+        private int dropAfterBytes = -1;
+
+        public Response(int status) {
+            this.status = status;
+        }
+
+        public Response header(String name, String value) {
+            headers.put(name, value);
+            return this;
+        }
+
+        public Response body(byte[] body) {
+            this.body = body;
+            return this;
+        }
+
+        /**
+         * @param delay Time, in milliseconds, to wait before sending the response.
+         */
+        public Response delay(long delay) {
+            this.delay = delay;
+            return this;
+        }
+
+        /**
+         * @param dropAfterBytes Body bytes sent before closing the connection. -1 to send the whole body.
+         */
+        public Response dropAfterBytes(int dropAfterBytes) {
+            this.dropAfterBytes = dropAfterBytes;
+            return this;
+        }
+    }
+    //endregion Helper classes
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright (C) 2016 Isaac R.F.
+ * http://isaacrf.com/works/epicbitmaprenderer
+ * https://github.com/isaacrf/EpicBitmapRenderer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.isaacrf.epicbitmaprenderer.network;
+
+import com.isaacrf.epicbitmaprenderer.utils.DiskLruCache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests {@link ResumableDownload} against a {@link LocalHttpServer} that supports ranges and drops connections,
+ * staging downloads in {@link DiskLruCache} partial files.
+ */
+public class ResumableDownloadTest {
+    private static final String PATH = "/photo.jpg";
+    private static final int IMAGE_SIZE = 100 * 1024;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private RangeHandler handler;
+    private LocalHttpServer server;
+    private UrlConnectionTransport transport;
+    private DiskLruCache cache;
+    private File partialFile;
+
+    @Before
+    public void setUp() throws IOException {
+        handler = new RangeHandler(image(1), "\"v1\"");
+        server = new LocalHttpServer(handler);
+        transport = new UrlConnectionTransport();
+        transport.setMaxRetries(0);
+        cache = DiskLruCache.open(temporaryFolder.newFolder(), 1, 2, 10 * 1024 * 1024, DiskLruCache.Layout.FAN_OUT);
+        partialFile = cache.getPartialFile("photo");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        cache.close();
+        server.close();
+    }
+
+    @Test
+    public void resumesDroppedDownloadWithRange() throws IOException {
+        handler.dropNextAfter = IMAGE_SIZE * 2 / 5;
+        failDownload();
+        assertEquals(IMAGE_SIZE * 2 / 5, partialFile.length());
+
+        assertEquals(206, download().getResponseCode());
+
+        assertArrayEquals(handler.body, readFile(partialFile));
+        LocalHttpServer.Request resumed = server.getRequests().get(1);
+        assertEquals("bytes=" + IMAGE_SIZE * 2 / 5 + "-", resumed.getHeader("Range"));
+        assertEquals("\"v1\"", resumed.getHeader("If-Range"));
+        // Bytes received before the drop are not downloaded again
+        assertEquals(IMAGE_SIZE, server.getBodyBytesSent());
+    }
+
+    @Test
+    public void resumesSeveralDrops() throws IOException {
+        for (int i = 0; i < 3; i++) {
+            handler.dropNextAfter = IMAGE_SIZE / 5;
+            failDownload();
+        }
+        assertEquals(IMAGE_SIZE * 3 / 5, partialFile.length());
+
+        download();
+
+        assertArrayEquals(handler.body, readFile(partialFile));
+        assertEquals(IMAGE_SIZE, server.getBodyBytesSent());
+    }
+
+    @Test
+    public void restartsWhenImageChanged() throws IOException {
+        handler.dropNextAfter = IMAGE_SIZE / 2;
+        failDownload();
+        handler.body = image(2);
+        handler.eTag = "\"v2\"";
+
+        // If-Range doesn't match anymore, so server sends the whole new image
+        assertEquals(200, download().getResponseCode());
+
+        assertArrayEquals(handler.body, readFile(partialFile));
+    }
+
+    @Test
+    public void restartsOnRangeNotSatisfiable() throws IOException {
+        handler.dropNextAfter = IMAGE_SIZE / 2;
+        failDownload();
+        handler.body = Arrays.copyOf(handler.body, IMAGE_SIZE / 4);
+
+        assertEquals(200, download().getResponseCode());
+
+        assertEquals(Arrays.asList(200, 416, 200), handler.getStatuses());
+        assertArrayEquals(handler.body, readFile(partialFile));
+    }
+
+    @Test
+    public void restartsWhenServerIgnoresRanges() throws IOException {
+        handler.dropNextAfter = IMAGE_SIZE / 2;
+        failDownload();
+        handler.supportsRanges = false;
+
+        assertEquals(200, download().getResponseCode());
+
+        assertArrayEquals(handler.body, readFile(partialFile));
+    }
+
+    @Test
+    public void onlyOneDownloadPerStagingFile() {
+        ResumableDownload download = ResumableDownload.acquire(transport, server.url(PATH), partialFile);
+        assertNotNull(download);
+        assertNull(ResumableDownload.acquire(transport, server.url(PATH), partialFile));
+
+        download.release();
+        download = ResumableDownload.acquire(transport, server.url(PATH), partialFile);
+        assertNotNull(download);
+        download.release();
+    }
+
+    @Test
+    public void completeDeletesStagingFiles() throws IOException {
+        ResumableDownload download = ResumableDownload.acquire(transport, server.url(PATH), partialFile);
+        download.download(null);
+        download.complete();
+
+        assertFalse(partialFile.exists());
+        assertFalse(new File(partialFile.getPath() + ".validator").exists());
+    }
+
+    @Test
+    public void partialDownloadsSurviveCacheReopen() throws IOException {
+        handler.dropNextAfter = IMAGE_SIZE / 2;
+        failDownload();
+        // Entry whose key contains the partial file suffix, which must not be mistaken for a staging file
+        DiskLruCache.Editor editor = cache.edit("photo.partial.v2");
+        editor.set(0, "value");
+        editor.set(1, "metadata");
+        editor.commit();
+
+        File directory = cache.getDirectory();
+        cache.close();
+        cache = DiskLruCache.open(directory, 1, 2, 10 * 1024 * 1024, DiskLruCache.Layout.FAN_OUT);
+
+        assertEquals(IMAGE_SIZE / 2, partialFile.length());
+        DiskLruCache.Snapshot snapshot = cache.get("photo.partial.v2");
+        assertNotNull(snapshot);
+        assertEquals("value", snapshot.getString(0));
+        snapshot.close();
+
+        download();
+        assertArrayEquals(handler.body, readFile(partialFile));
+    }
+
+    private TransportResponse download() throws IOException {
+        ResumableDownload download = ResumableDownload.acquire(transport, server.url(PATH), partialFile);
+        try {
+            return download.download(null);
+        } finally {
+            download.release();
+        }
+    }
+
+    private void failDownload() {
+        try {
+            download();
+            fail("Expected dropped connection");
+        } catch (IOException expected) {
+        }
+    }
+
+    private static byte[] image(int seed) {
+        byte[] image = new byte[IMAGE_SIZE];
+        for (int i = 0; i < image.length; i++) {
+            image[i] = (byte) (i * seed + i / 251);
+        }
+        return image;
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        byte[] bytes = new byte[(int) file.length()];
+        InputStream in = new FileInputStream(file);
+        try {
+            int read = 0;
+            int count;
+            while (read < bytes.length && (count = in.read(bytes, read, bytes.length - read)) != -1) {
+                read += count;
+            }
+            return bytes;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Serves a single image honoring "Range" and "If-Range", like most image servers and CDNs.
+     */
+    private static class RangeHandler implements LocalHttpServer.Handler {
+        private volatile byte[] body;
+        private volatile String eTag;
+        private volatile boolean supportsRanges = true;
+        private volatile int dropNextAfter = -1;
+        private final List<Integer> statuses = new ArrayList<Integer>();
+
+        private RangeHandler(byte[] body, String eTag) {
+            this.body = body;
+            this.eTag = eTag;
+        }
+
+        @Override
+        public synchronized LocalHttpServer.Response handle(LocalHttpServer.Request request) {
+            LocalHttpServer.Response response = respond(request);
+            if (dropNextAfter >= 0) {
+                response.dropAfterBytes(dropNextAfter);
+                dropNextAfter = -1;
+            }
+            return response;
+        }
+
+        private LocalHttpServer.Response respond(LocalHttpServer.Request request) {
+            String range = request.getHeader("Range");
+            String ifRange = request.getHeader("If-Range");
+            if (supportsRanges && range != null && range.startsWith("bytes=") && range.endsWith("-")
+                    && (ifRange == null || ifRange.equals(eTag))) {
+                int start = Integer.parseInt(range.substring("bytes=".length(), range.length() - 1));
+                if (start >= body.length) {
+                    return record(new LocalHttpServer.Response(416)
+                            .header("Content-Range", "bytes */" + body.length), 416);
+                }
+                return record(new LocalHttpServer.Response(206).header("ETag", eTag)
+                        .header("Content-Range", "bytes " + start + "-" + (body.length - 1) + "/" + body.length)
+                        .body(Arrays.copyOfRange(body, start, body.length)), 206);
+            }
+            return record(new LocalHttpServer.Response(200).header("ETag", eTag).body(body), 200);
+        }
+
+        private synchronized List<Integer> getStatuses() {
+            return new ArrayList<Integer>(statuses);
+        }
+
+        private LocalHttpServer.Response record(LocalHttpServer.Response response, int status) {
+            statuses.add(status);
+            return response;
+        }
+    }
+}
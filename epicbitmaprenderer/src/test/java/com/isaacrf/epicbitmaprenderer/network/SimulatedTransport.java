@@ -0,0 +1,286 @@
+/*
+ * Copyright (C) 2016 Isaac R.F.
+ * http://isaacrf.com/works/epicbitmaprenderer
+ * https://github.com/isaacrf/EpicBitmapRenderer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.isaacrf.epicbitmaprenderer.network;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * In-process {@link BitmapTransport} serving images registered in memory, with simulated latency and bandwidth.
+ * It allows running the whole url render pipeline (caching, revalidation, resumed downloads...) deterministically,
+ * without real network, e.g. for end-to-end performance tests.
+ * </p>
+ * <p>
+ * It honors conditional requests (If-None-Match / If-Modified-Since, answering 304) and range requests (Range /
+ * If-Range, answering 206), answers 404 for unknown urls, can drop connections after a given number of bytes, and
+ * counts requests and bytes served.
+ * </p>
+ */
+public class SimulatedTransport implements BitmapTransport {
+    //region Fields
+    private final Map<String, Resource> resources = new HashMap<String, Resource>();
+    private volatile long latency;
+    private volatile long bytesPerSecond;
+    private volatile long dropAfterBytes = -1;
+    private int requestCount;
+    private int notModifiedCount;
+    private long bytesServed;
+    //endregion Fields
+
+    //region Constructors
+
+    /**
+     * Basic constructor, serves images with no latency and unlimited bandwidth.
+     */
+    public SimulatedTransport() {
+        this(0, 0);
+    }
+
+    /**
+     * All parameters constructor.
+     *
+     * @param latency        Time, in milliseconds, every request waits before being answered.
+     * @param bytesPerSecond Simulated bandwidth for response bodies. 0 for unlimited.
+     */
+    public SimulatedTransport(long latency, long bytesPerSecond) {
+        this.latency = latency;
+        this.bytesPerSecond = bytesPerSecond;
+    }
+    //endregion Constructors
+
+    //region Configuration methods
+
+    /**
+     * Registers (or replaces) an image to be served.
+     *
+     * @param url          Url of the image.
+     * @param body         Image data.
+     * @param contentType  Image mime type (e.g. "image/png").
+     * @param eTag         ETag validator sent with the image. Can be null.
+     * @param cacheControl Cache-Control header sent with the image. Can be null.
+     */
+    public synchronized void put(String url, byte[] body, String contentType, String eTag, String cacheControl) {
+        resources.put(url, new Resource(body, contentType, eTag, cacheControl));
+    }
+
+    /**
+     * Stops serving an image, further requests get a 404.
+     *
+     * @param url Url of the image.
+     */
+    public synchronized void remove(String url) {
+        resources.remove(url);
+    }
+
+    /**
+     * @param latency Time, in milliseconds, every request waits before being answered.
+     */
+    public void setLatency(long latency) {
+        this.latency = latency;
+    }
+
+    /**
+     * @param bytesPerSecond Simulated bandwidth for response bodies. 0 for unlimited.
+     */
+    public void setBytesPerSecond(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * Makes every response body fail after a given number of bytes, simulating dropped connections.
+     *
+     * @param dropAfterBytes Bytes served per response before failing. -1 to never drop connections.
+     */
+    public void setDropAfterBytes(long dropAfterBytes) {
+        this.dropAfterBytes = dropAfterBytes;
+    }
+    //endregion Configuration methods
+
+    //region Stats
+
+    /**
+     * @return Number of requests received.
+     */
+    public synchronized int getRequestCount() {
+        return requestCount;
+    }
+
+    /**
+     * @return Number of requests answered with "304 Not Modified".
+     */
+    public synchronized int getNotModifiedCount() {
+        return notModifiedCount;
+    }
+
+    /**
+     * @return Number of body bytes actually read by clients.
+     */
+    public synchronized long getBytesServed() {
+        return bytesServed;
+    }
+
+    /**
+     * Resets request and byte counters.
+     */
+    public synchronized void resetStats() {
+        requestCount = 0;
+        notModifiedCount = 0;
+        bytesServed = 0;
+    }
+    //endregion Stats
+
+    @Override
+    public TransportResponse open(String url, HttpCacheMetadata cachedMetadata, long rangeStart, String rangeValidator)
+            throws IOException {
+        Resource resource;
+        synchronized (this) {
+            requestCount++;
+            resource = resources.get(url);
+        }
+
+        sleep(latency);
+
+        if (resource == null) {
+            throw new HttpStatusException(HttpURLConnection.HTTP_NOT_FOUND, url);
+        }
+
+        Map<String, String> headers = new HashMap<String, String>();
+        if (resource.eTag != null) {
+            headers.put("ETag", resource.eTag);
+        }
+        if (resource.cacheControl != null) {
+            headers.put("Cache-Control", resource.cacheControl);
+        }
+
+        if (rangeStart <= 0 && cachedMetadata != null && resource.eTag != null
+                && resource.eTag.equals(cachedMetadata.getETag())) {
+            synchronized (this) {
+                notModifiedCount++;
+            }
+            return new TransportResponse(HttpURLConnection.HTTP_NOT_MODIFIED, new ByteArrayInputStream(new byte[0]),
+                    0, null, headers);
+        }
+
+        boolean partial = rangeStart > 0 && rangeStart < resource.body.length
+                && (rangeValidator == null || rangeValidator.equals(resource.eTag));
+        int offset = partial ? (int) rangeStart : 0;
+        int length = resource.body.length - offset;
+        if (partial) {
+            headers.put("Content-Range", "bytes " + offset + "-" + (resource.body.length - 1) + "/" + resource.body.length);
+        }
+
+        InputStream body = new SimulatedInputStream(new ByteArrayInputStream(resource.body, offset, length));
+        return new TransportResponse(partial ? 206 : HttpURLConnection.HTTP_OK, body, length,
+                resource.contentType, headers);
+    }
+
+    //region Helper methods
+
+    private static void sleep(long millis) throws InterruptedIOException {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted simulating network");
+        }
+    }
+    //endregion Helper methods
+
+    //region Helper classes
+
+    /**
+     * Image registered to be served.
+     */
+    private static class Resource {
+        private final byte[] body;
+        private final String contentType;
+        private final String eTag;
+        private final String cacheControl;
+
+        private Resource(byte[] body, String contentType, String eTag, String cacheControl) {
+            this.body = body;
+            this.contentType = contentType;
+            this.eTag = eTag;
+            this.cacheControl = cacheControl;
+        }
+    }
+
+    /**
+     * Response body throttled to the simulated bandwidth, failing after {@link #dropAfterBytes} bytes if set.
+     */
+    private class SimulatedInputStream extends FilterInputStream {
+        private final long startTime = System.nanoTime();
+        private final long dropAfter = dropAfterBytes;
+        private long read;
+
+        private SimulatedInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            if (dropAfter >= 0) {
+                if (read >= dropAfter) {
+                    throw new IOException("Simulated connection drop after " + read + " bytes");
+                }
+                count = (int) Math.min(count, dropAfter - read);
+            }
+
+            int result = super.read(buffer, offset, count);
+            if (result > 0) {
+                read += result;
+                synchronized (SimulatedTransport.this) {
+                    bytesServed += result;
+                }
+
+                // Wait until the time these bytes would have taken at the simulated bandwidth
+                long rate = bytesPerSecond;
+                if (rate > 0) {
+                    long remaining = startTime + read * 1000000000L / rate - System.nanoTime();
+                    sleep((remaining + 999999) / 1000000);
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            byte[] buffer = new byte[(int) Math.min(count, 8 * 1024)];
+            int result = read(buffer, 0, buffer.length);
+            return Math.max(result, 0);
+        }
+    }
+    //endregion Helper classes
+}
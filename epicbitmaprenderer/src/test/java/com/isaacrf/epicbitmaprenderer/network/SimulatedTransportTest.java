@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2016 Isaac R.F.
+ * http://isaacrf.com/works/epicbitmaprenderer
+ * https://github.com/isaacrf/EpicBitmapRenderer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.isaacrf.epicbitmaprenderer.network;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * End-to-end tests of url downloads over {@link SimulatedTransport}. Latency and bandwidth are simulated by
+ * sleeping, so elapsed times have a deterministic lower bound on any machine.
+ */
+public class SimulatedTransportTest {
+    private static final String URL = "http://images.example.com/photo.jpg";
+    private static final String ETAG = "\"v1\"";
+    private static final int IMAGE_SIZE = 64 * 1024;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private SimulatedTransport transport;
+    private byte[] image;
+
+    @Before
+    public void setUp() {
+        image = new byte[IMAGE_SIZE];
+        for (int i = 0; i < image.length; i++) {
+            image[i] = (byte) (i * 31);
+        }
+        transport = new SimulatedTransport();
+        transport.put(URL, image, "image/jpeg", ETAG, "max-age=60");
+    }
+
+    @Test
+    public void servesRegisteredImage() throws IOException {
+        TransportResponse response = transport.open(URL, null, 0, null);
+
+        assertEquals(200, response.getResponseCode());
+        assertEquals(IMAGE_SIZE, response.getContentLength());
+        assertEquals("image/jpeg", response.getContentType());
+        assertEquals(ETAG, response.getETag());
+        assertArrayEquals(image, readFully(response));
+        assertEquals(IMAGE_SIZE, transport.getBytesServed());
+    }
+
+    @Test
+    public void answersNotFoundForUnknownUrls() throws IOException {
+        try {
+            transport.open(URL + "?missing", null, 0, null);
+            fail("Expected HttpStatusException");
+        } catch (HttpStatusException e) {
+            assertEquals(404, e.getResponseCode());
+        }
+        assertEquals(1, transport.getRequestCount());
+    }
+
+    @Test
+    public void answersNotModifiedToMatchingConditionalRequest() throws IOException {
+        HttpCacheMetadata cachedMetadata = new HttpCacheMetadata(ETAG, null, "max-age=60", 0);
+
+        TransportResponse response = transport.open(URL, cachedMetadata, 0, null);
+
+        assertTrue(response.isNotModified());
+        assertEquals(0, readFully(response).length);
+        assertEquals(1, transport.getNotModifiedCount());
+        assertEquals(0, transport.getBytesServed());
+    }
+
+    @Test
+    public void answersRestOfImageToRangeRequest() throws IOException {
+        TransportResponse response = transport.open(URL, null, 1000, ETAG);
+
+        assertEquals(206, response.getResponseCode());
+        assertEquals("bytes 1000-" + (IMAGE_SIZE - 1) + "/" + IMAGE_SIZE, response.getHeader("Content-Range"));
+        assertArrayEquals(Arrays.copyOfRange(image, 1000, IMAGE_SIZE), readFully(response));
+    }
+
+    @Test
+    public void answersWholeImageWhenRangeValidatorChanged() throws IOException {
+        TransportResponse response = transport.open(URL, null, 1000, "\"v0\"");
+
+        assertEquals(200, response.getResponseCode());
+        assertArrayEquals(image, readFully(response));
+    }
+
+    @Test
+    public void addsLatencyToEveryRequest() throws IOException {
+        transport.setLatency(50);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 4; i++) {
+            transport.open(URL, null, 0, null).close();
+        }
+        long elapsed = (System.nanoTime() - start) / 1000000;
+
+        assertTrue("Elapsed " + elapsed + "ms", elapsed >= 4 * 50);
+        assertEquals(4, transport.getRequestCount());
+    }
+
+    @Test
+    public void throttlesBodyToBandwidth() throws IOException {
+        transport.setBytesPerSecond(256 * 1024);
+
+        long start = System.nanoTime();
+        readFully(transport.open(URL, null, 0, null));
+        long elapsed = (System.nanoTime() - start) / 1000000;
+
+        // 64KB at 256KB/s
+        assertTrue("Elapsed " + elapsed + "ms", elapsed >= 250);
+        assertEquals(IMAGE_SIZE, transport.getBytesServed());
+    }
+
+    @Test
+    public void dropsConnectionAfterGivenBytes() throws IOException {
+        transport.setDropAfterBytes(1000);
+        TransportResponse response = transport.open(URL, null, 0, null);
+        try {
+            readFully(response);
+            fail("Expected dropped connection");
+        } catch (IOException expected) {
+        }
+        assertEquals(1000, transport.getBytesServed());
+    }
+
+    @Test
+    public void resumableDownloadTakesLatencyPlusTransferTime() throws IOException {
+        transport.setLatency(100);
+        transport.setBytesPerSecond(256 * 1024);
+        File partialFile = new File(temporaryFolder.getRoot(), "photo.partial");
+
+        long start = System.nanoTime();
+        ResumableDownload download = ResumableDownload.acquire(transport, URL, partialFile);
+        assertNotNull(download);
+        try {
+            TransportResponse response = download.download(null);
+            assertEquals(200, response.getResponseCode());
+            assertArrayEquals(image, readFully(download.openFile()));
+        } finally {
+            download.complete();
+        }
+        long elapsed = (System.nanoTime() - start) / 1000000;
+
+        // 100ms latency, then 64KB at 256KB/s
+        assertTrue("Elapsed " + elapsed + "ms", elapsed >= 100 + 250);
+        assertEquals(1, transport.getRequestCount());
+        assertTrue(!partialFile.exists());
+    }
+
+    @Test
+    public void resumedDownloadOnlyWaitsForMissingBytes() throws IOException {
+        transport.setBytesPerSecond(256 * 1024);
+        transport.setDropAfterBytes(IMAGE_SIZE * 3 / 4);
+        File partialFile = new File(temporaryFolder.getRoot(), "photo.partial");
+
+        ResumableDownload download = ResumableDownload.acquire(transport, URL, partialFile);
+        try {
+            download.download(null);
+            fail("Expected dropped connection");
+        } catch (IOException expected) {
+        } finally {
+            download.release();
+        }
+        assertEquals(IMAGE_SIZE * 3 / 4, partialFile.length());
+
+        transport.setDropAfterBytes(-1);
+        transport.resetStats();
+        long start = System.nanoTime();
+        download = ResumableDownload.acquire(transport, URL, partialFile);
+        try {
+            assertEquals(206, download.download(null).getResponseCode());
+            assertArrayEquals(image, readFully(download.openFile()));
+        } finally {
+            download.complete();
+        }
+        long elapsed = (System.nanoTime() - start) / 1000000;
+
+        // Remaining 16KB at 256KB/s take 62ms, downloading it all again would take 250ms
+        assertEquals(IMAGE_SIZE / 4, transport.getBytesServed());
+        assertTrue("Elapsed " + elapsed + "ms", elapsed >= 60 && elapsed < 250);
+    }
+
+    private static byte[] readFully(TransportResponse response) throws IOException {
+        try {
+            return readFully(response.getInputStream());
+        } finally {
+            response.close();
+        }
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8 * 1024];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright (C) 2016 Isaac R.F.
+ * http://isaacrf.com/works/epicbitmaprenderer
+ * https://github.com/isaacrf/EpicBitmapRenderer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.isaacrf.epicbitmaprenderer.network;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests timeouts, retries, redirects and connection reuse of {@link UrlConnectionTransport} against a
+ * {@link LocalHttpServer} answering scripted responses.
+ */
+public class UrlConnectionTransportTest {
+    private static final byte[] IMAGE = "image data".getBytes();
+
+    private ScriptedHandler handler;
+    private LocalHttpServer server;
+    private UrlConnectionTransport transport;
+
+    @Before
+    public void setUp() throws IOException {
+        handler = new ScriptedHandler();
+        server = new LocalHttpServer(handler);
+        transport = new UrlConnectionTransport();
+        transport.setReadTimeout(300);
+        transport.setRetryBackoff(10);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+    }
+
+    @Test
+    public void readTimeoutFailsStalledServer() throws IOException {
+        handler.script("/image", ok().delay(2000));
+        transport.setMaxRetries(0);
+
+        long start = System.currentTimeMillis();
+        try {
+            transport.open(server.url("/image"), null);
+            fail("Expected timeout");
+        } catch (SocketTimeoutException expected) {
+        }
+
+        assertTrue(System.currentTimeMillis() - start < 1500);
+    }
+
+    @Test
+    public void overallTimeoutBoundsRetries() throws IOException {
+        handler.script("/image", ok().delay(2000));
+        transport.setMaxRetries(10);
+        transport.setOverallTimeout(800);
+
+        long start = System.currentTimeMillis();
+        try {
+            transport.open(server.url("/image"), null);
+            fail("Expected timeout");
+        } catch (SocketTimeoutException expected) {
+        }
+
+        assertTrue(System.currentTimeMillis() - start < 1500);
+        assertTrue(server.getRequestCount() < 10);
+    }
+
+    @Test
+    public void retriesRequestDelayedPastReadTimeout() throws IOException {
+        handler.script("/image", ok().delay(1000), ok());
+
+        assertArrayEquals(IMAGE, read(transport.open(server.url("/image"), null)));
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    public void retriesTransientServerErrors() throws IOException {
+        handler.script("/image", status(503), status(503), ok());
+
+        assertArrayEquals(IMAGE, read(transport.open(server.url("/image"), null)));
+        assertEquals(3, server.getRequestCount());
+    }
+
+    @Test
+    public void givesUpAfterMaxRetries() throws IOException {
+        handler.script("/image", status(503));
+        transport.setMaxRetries(2);
+
+        try {
+            transport.open(server.url("/image"), null);
+            fail("Expected HttpStatusException");
+        } catch (HttpStatusException e) {
+            assertEquals(503, e.getResponseCode());
+        }
+        assertEquals(3, server.getRequestCount());
+    }
+
+    @Test
+    public void doesNotRetryClientErrors() throws IOException {
+        handler.script("/image", status(404));
+
+        try {
+            transport.open(server.url("/image"), null);
+            fail("Expected HttpStatusException");
+        } catch (HttpStatusException e) {
+            assertEquals(404, e.getResponseCode());
+            assertTrue(!e.isTransient());
+        }
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void remembersPermanentRedirects() throws IOException {
+        handler.script("/old", redirect(301, "/new"));
+        handler.script("/new", ok());
+
+        assertArrayEquals(IMAGE, read(transport.open(server.url("/old"), null)));
+        assertArrayEquals(IMAGE, read(transport.open(server.url("/old"), null)));
+
+        // Second load skips the redirect round trip
+        assertEquals(Arrays.asList("/old", "/new", "/new"), handler.getPaths());
+    }
+
+    @Test
+    public void followsButForgetsTemporaryRedirects() throws IOException {
+        handler.script("/old", redirect(302, "/new"));
+        handler.script("/new", ok());
+
+        assertArrayEquals(IMAGE, read(transport.open(server.url("/old"), null)));
+        assertArrayEquals(IMAGE, read(transport.open(server.url("/old"), null)));
+
+        assertEquals(Arrays.asList("/old", "/new", "/old", "/new"), handler.getPaths());
+    }
+
+    @Test
+    public void forgetsRedirectWhenTargetAnswersError() throws IOException {
+        handler.script("/old", redirect(301, "/new"), redirect(301, "/newer"));
+        handler.script("/new", ok(), status(404));
+        handler.script("/newer", ok());
+
+        read(transport.open(server.url("/old"), null));
+        assertArrayEquals(IMAGE, read(transport.open(server.url("/old"), null)));
+        assertArrayEquals(IMAGE, read(transport.open(server.url("/old"), null)));
+
+        assertEquals(Arrays.asList("/old", "/new", "/new", "/old", "/newer", "/newer"), handler.getPaths());
+    }
+
+    @Test
+    public void keepsRedirectWhenTargetTimesOut() throws IOException {
+        handler.script("/old", redirect(301, "/new"));
+        handler.script("/new", ok(), ok().delay(1000), ok());
+
+        read(transport.open(server.url("/old"), null));
+        assertArrayEquals(IMAGE, read(transport.open(server.url("/old"), null)));
+
+        // Timed out request is retried against the remembered target, not the original url
+        assertEquals(Arrays.asList("/old", "/new", "/new", "/new"), handler.getPaths());
+    }
+
+    @Test
+    public void failsOnRedirectLoops() throws IOException {
+        handler.script("/a", redirect(302, "/b"));
+        handler.script("/b", redirect(302, "/a"));
+
+        try {
+            transport.open(server.url("/a"), null);
+            fail("Expected too many redirects");
+        } catch (IOException expected) {
+        }
+        assertTrue(server.getRequestCount() <= 6);
+    }
+
+    @Test
+    public void reusesKeptAliveConnections() throws IOException {
+        handler.script("/image", ok());
+
+        for (int i = 0; i < 5; i++) {
+            assertArrayEquals(IMAGE, read(transport.open(server.url("/image"), null)));
+        }
+
+        assertEquals(5, server.getRequestCount());
+        assertEquals(1, server.getConnectionCount());
+    }
+
+    @Test
+    public void sendsConditionalAndRangeHeaders() throws IOException {
+        handler.script("/image", ok());
+
+        read(transport.open(server.url("/image"), new HttpCacheMetadata("\"v1\"", "Sat, 01 Jul 2017 00:00:00 GMT",
+                null, 0)));
+        read(transport.open(server.url("/image"), null, 4, "\"v1\""));
+
+        LocalHttpServer.Request conditional = server.getRequests().get(0);
+        assertEquals("\"v1\"", conditional.getHeader("If-None-Match"));
+        assertEquals("Sat, 01 Jul 2017 00:00:00 GMT", conditional.getHeader("If-Modified-Since"));
+        LocalHttpServer.Request range = server.getRequests().get(1);
+        assertEquals("bytes=4-", range.getHeader("Range"));
+        assertEquals("\"v1\"", range.getHeader("If-Range"));
+    }
+
+    private static LocalHttpServer.Response ok() {
+        return new LocalHttpServer.Response(200).header("Content-Type", "image/png").body(IMAGE);
+    }
+
+    private static LocalHttpServer.Response status(int status) {
+        return new LocalHttpServer.Response(status);
+    }
+
+    private static LocalHttpServer.Response redirect(int status, String location) {
+        return new LocalHttpServer.Response(status).header("Location", location);
+    }
+
+    private static byte[] read(TransportResponse response) throws IOException {
+        InputStream in = response.getInputStream();
+        try {
+            byte[] buffer = new byte[1024];
+            int length = 0;
+            int count;
+            while ((count = in.read(buffer, length, buffer.length - length)) > 0) {
+                length += count;
+            }
+            return Arrays.copyOf(buffer, length);
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * Answers each path with its scripted responses in order, repeating the last one once the script runs out.
+     */
+    private static class ScriptedHandler implements LocalHttpServer.Handler {
+        private final Map<String, List<LocalHttpServer.Response>> scripts =
+                new HashMap<String, List<LocalHttpServer.Response>>();
+        private final List<String> paths = new ArrayList<String>();
+
+        synchronized void script(String path, LocalHttpServer.Response... responses) {
+            scripts.put(path, new ArrayList<LocalHttpServer.Response>(Arrays.asList(responses)));
+        }
+
+        synchronized List<String> getPaths() {
+            return new ArrayList<String>(paths);
+        }
+
+        @Override
+        public synchronized LocalHttpServer.Response handle(LocalHttpServer.Request request) {
+            paths.add(request.getPath());
+            List<LocalHttpServer.Response> script = scripts.get(request.getPath());
+            if (script == null) {
+                return status(404);
+            }
+            return script.size() > 1 ? script.remove(0) : script.get(0);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2016 Isaac R.F.
+ * http://isaacrf.com/works/epicbitmaprenderer
+ * https://github.com/isaacrf/EpicBitmapRenderer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.isaacrf.epicbitmaprenderer.transformations;
+
+import android.graphics.Bitmap;
+
+import com.isaacrf.epicbitmaprenderer.core.BitmapPool;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link Transformations} chains hand intermediate bitmaps to the pool just once the next transformation is done
+ * with them, and their cache keys.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class TransformationsTest {
+
+    @Test
+    public void intermediateBitmapsArePooledOnceNextTransformationUsedThem() {
+        RecordingBitmapPool bitmapPool = new RecordingBitmapPool();
+        Bitmap source = Bitmap.createBitmap(8, 8, Bitmap.Config.ARGB_8888);
+        RecordingTransformation first = new RecordingTransformation("first", false, bitmapPool);
+        RecordingTransformation unchanged = new RecordingTransformation("unchanged", true, bitmapPool);
+        RecordingTransformation last = new RecordingTransformation("last", false, bitmapPool);
+
+        Bitmap result = Transformations.apply(source, Arrays.<Transformation>asList(first, unchanged, last),
+                bitmapPool);
+
+        // Every transformation got a bitmap not pooled yet
+        assertSame(source, first.source);
+        assertSame(first.result, unchanged.source);
+        assertSame(first.result, last.source);
+        assertSame(last.result, result);
+        assertEquals(Arrays.asList(source, first.result), bitmapPool.pooled);
+    }
+
+    @Test
+    public void sourceIsNotPooledIfNothingIsTransformed() {
+        RecordingBitmapPool bitmapPool = new RecordingBitmapPool();
+        Bitmap source = Bitmap.createBitmap(8, 8, Bitmap.Config.ARGB_8888);
+
+        assertSame(source, Transformations.apply(source, Collections.<Transformation>singletonList(
+                new RecordingTransformation("unchanged", true, bitmapPool)), bitmapPool));
+        assertSame(source, Transformations.apply(source, null, bitmapPool));
+        assertNull(Transformations.apply(null, Collections.<Transformation>emptyList(), bitmapPool));
+        assertTrue(bitmapPool.pooled.isEmpty());
+        assertFalse(source.isRecycled());
+    }
+
+    @Test
+    public void cacheKeyDependsOnChainSignature() {
+        BitmapPool bitmapPool = new BitmapPool();
+        Transformation first = new RecordingTransformation("first", false, bitmapPool);
+        Transformation second = new RecordingTransformation("second", false, bitmapPool);
+
+        assertEquals("key", Transformations.getCacheKey("key", null));
+        assertEquals("key", Transformations.getCacheKey("key", Collections.<Transformation>emptyList()));
+        assertEquals(Transformations.getCacheKey("key", Arrays.asList(first, second)),
+                Transformations.getCacheKey("key", Arrays.asList(first, second)));
+        assertNotEquals(Transformations.getCacheKey("key", Arrays.asList(first, second)),
+                Transformations.getCacheKey("key", Arrays.asList(second, first)));
+        assertTrue(Transformations.getCacheKey("key", Collections.singletonList(first)).matches("key_t[0-9a-f]{16}"));
+    }
+
+    /**
+     * {@link BitmapPool} recording bitmaps returned to it.
+     */
+    private static class RecordingBitmapPool extends BitmapPool {
+        final List<Bitmap> pooled = new ArrayList<Bitmap>();
+
+        @Override
+        public void put(Bitmap bitmap) {
+            pooled.add(bitmap);
+            super.put(bitmap);
+        }
+    }
+
+    /**
+     * {@link Transformation} recording the bitmap it got, and checking it was not pooled yet.
+     */
+    private static class RecordingTransformation implements Transformation {
+        private final String key;
+        private final boolean unchanged;
+        private final RecordingBitmapPool bitmapPool;
+        Bitmap source;
+        Bitmap result;
+
+        RecordingTransformation(String key, boolean unchanged, BitmapPool bitmapPool) {
+            this.key = key;
+            this.unchanged = unchanged;
+            this.bitmapPool = bitmapPool instanceof RecordingBitmapPool ? (RecordingBitmapPool) bitmapPool : null;
+        }
+
+        @Override
+        public Bitmap transform(Bitmap source, BitmapPool bitmapPool) {
+            assertFalse(source.isRecycled());
+            if (this.bitmapPool != null) {
+                assertFalse(this.bitmapPool.pooled.contains(source));
+            }
+            this.source = source;
+            result = unchanged ? source : bitmapPool.get(source.getWidth(), source.getHeight(), source.getConfig());
+            return result;
+        }
+
+        @Override
+        public String getKey() {
+            return key;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2016 Isaac R.F.
+ * http://isaacrf.com/works/epicbitmaprenderer
+ * https://github.com/isaacrf/EpicBitmapRenderer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.isaacrf.epicbitmaprenderer.utils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+
+import static com.isaacrf.epicbitmaprenderer.utils.DiskCaches.awaitBackgroundWork;
+import static com.isaacrf.epicbitmaprenderer.utils.DiskCaches.put;
+import static com.isaacrf.epicbitmaprenderer.utils.DiskCaches.read;
+import static com.isaacrf.epicbitmaprenderer.utils.DiskCaches.value;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests reference counting of {@link DiskLruCache} values deduplicated by content hash.
+ */
+public class ContentDeduplicationTest {
+    private static final int VALUE_SIZE = 4096;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void sameContentIsStoredOnce() throws IOException {
+        DiskLruCache cache = open(temporaryFolder.newFolder());
+        put(cache, "a", value(0, VALUE_SIZE));
+        put(cache, "b", value(0, VALUE_SIZE));
+        put(cache, "c", value(1, VALUE_SIZE));
+
+        assertEquals(2, cache.payloadCount());
+        assertEquals(1, cache.deduplicatedCount());
+        assertEquals(2L * VALUE_SIZE, cache.size());
+        assertEquals(1.5f, cache.dedupeRatio(), 0.001f);
+        assertEquals(2, payloadFiles(cache).length);
+        cache.close();
+    }
+
+    @Test
+    public void sharedPayloadIsDeletedWithItsLastReference() throws IOException {
+        DiskLruCache cache = open(temporaryFolder.newFolder());
+        put(cache, "a", value(0, VALUE_SIZE));
+        put(cache, "b", value(0, VALUE_SIZE));
+
+        assertTrue(cache.remove("a"));
+        assertNull(read(cache, "a"));
+        assertEquals(value(0, VALUE_SIZE), read(cache, "b"));
+        assertEquals(1, payloadFiles(cache).length);
+        assertEquals(VALUE_SIZE, cache.size());
+
+        assertTrue(cache.remove("b"));
+        assertEquals(0, cache.payloadCount());
+        assertEquals(0, payloadFiles(cache).length);
+        assertEquals(0, cache.size());
+        cache.close();
+    }
+
+    @Test
+    public void replacingSharedValueKeepsOtherReference() throws IOException {
+        DiskLruCache cache = open(temporaryFolder.newFolder());
+        put(cache, "a", value(0, VALUE_SIZE));
+        put(cache, "b", value(0, VALUE_SIZE));
+
+        put(cache, "a", value(1, VALUE_SIZE));
+
+        assertEquals(value(1, VALUE_SIZE), read(cache, "a"));
+        assertEquals(value(0, VALUE_SIZE), read(cache, "b"));
+        assertEquals(2, payloadFiles(cache).length);
+        assertEquals(2L * VALUE_SIZE, cache.size());
+        cache.close();
+    }
+
+    @Test
+    public void referenceCountsSurviveJournalRebuildAndReopen() throws IOException {
+        File directory = temporaryFolder.newFolder();
+        DiskLruCache cache = open(directory);
+        put(cache, "a", value(0, VALUE_SIZE));
+        put(cache, "b", value(0, VALUE_SIZE));
+        put(cache, "c", value(0, VALUE_SIZE));
+
+        // Reads are redundant records, enough of them make the journal worth rebuilding
+        for (int i = 0; i < 3; i++) {
+            read(cache, "a");
+        }
+        assertTrue(cache.compactIfNeeded());
+        awaitBackgroundWork(cache);
+        assertEquals(1, cache.compactionCount());
+        cache.close();
+
+        cache = open(directory);
+        assertEquals(1, cache.payloadCount());
+        assertEquals(VALUE_SIZE, cache.size());
+        assertEquals(3f, cache.dedupeRatio(), 0.001f);
+
+        assertTrue(cache.remove("a"));
+        assertTrue(cache.remove("b"));
+        assertEquals(value(0, VALUE_SIZE), read(cache, "c"));
+        assertEquals(1, payloadFiles(cache).length);
+
+        assertTrue(cache.remove("c"));
+        assertEquals(0, payloadFiles(cache).length);
+        cache.close();
+    }
+
+    private static DiskLruCache open(File directory) throws IOException {
+        DiskLruCache cache = DiskLruCache.open(directory, 1, 1, Long.MAX_VALUE);
+        cache.setContentDeduplication(true);
+        return cache;
+    }
+
+    private static File[] payloadFiles(DiskLruCache cache) {
+        return cache.getDirectory().listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File directory, String name) {
+                return name.endsWith(DiskLruCache.PAYLOAD_FILE_SUFFIX);
+            }
+        });
+    }
+}
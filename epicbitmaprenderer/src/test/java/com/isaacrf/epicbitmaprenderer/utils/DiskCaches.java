@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2016 Isaac R.F.
+ * http://isaacrf.com/works/epicbitmaprenderer
+ * https://github.com/isaacrf/EpicBitmapRenderer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.isaacrf.epicbitmaprenderer.utils;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Helpers shared by {@link DiskLruCache} tests.
+ */
+final class DiskCaches {
+
+    private DiskCaches() {
+    }
+
+    /**
+     * @return A value of {@code length} characters, different for every index.
+     */
+    static String value(int index, int length) {
+        char[] value = new char[length];
+        Arrays.fill(value, (char) ('a' + index % 26));
+        String prefix = Integer.toString(index);
+        prefix.getChars(0, Math.min(prefix.length(), length), value, 0);
+        return new String(value);
+    }
+
+    /**
+     * Stores a single value entry.
+     */
+    static void put(DiskLruCache cache, String key, String value) throws IOException {
+        DiskLruCache.Editor editor = cache.edit(key);
+        assertNotNull(key, editor);
+        editor.set(0, value);
+        editor.commit();
+    }
+
+    /**
+     * @return Value stored for the key, or null if not found.
+     */
+    static String read(DiskLruCache cache, String key) throws IOException {
+        DiskLruCache.Snapshot snapshot = cache.get(key);
+        if (snapshot == null) {
+            return null;
+        }
+        try {
+            return snapshot.getString(0);
+        } finally {
+            snapshot.close();
+        }
+    }
+
+    /**
+     * Waits for evictions and compactions queued so far on the background thread of the cache.
+     */
+    static void awaitBackgroundWork(DiskLruCache cache) throws IOException {
+        try {
+            cache.executorService.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    return null;
+                }
+            }).get();
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw new IOException(e);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2016 Isaac R.F.
+ * http://isaacrf.com/works/epicbitmaprenderer
+ * https://github.com/isaacrf/EpicBitmapRenderer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.isaacrf.epicbitmaprenderer.utils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import static com.isaacrf.epicbitmaprenderer.utils.DiskCaches.put;
+import static com.isaacrf.epicbitmaprenderer.utils.DiskCaches.read;
+import static com.isaacrf.epicbitmaprenderer.utils.DiskCaches.value;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link DiskLruCache.Durability} modes. A crash is simulated by copying the cache directory while the cache
+ * is still open, so records not yet written are missing from the copy.
+ */
+public class DurabilityTest {
+    private static final int ENTRIES = 10;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void flushPerOperationWritesEveryRecordRightAway() throws IOException {
+        File directory = temporaryFolder.newFolder();
+        DiskLruCache cache = DiskLruCache.open(directory, 1, 1, Long.MAX_VALUE);
+        assertEquals(DiskLruCache.Durability.FLUSH_PER_OPERATION, cache.getDurability());
+        putEntries(cache);
+
+        assertEntries(crashCopy(directory));
+        cache.close();
+    }
+
+    @Test
+    public void groupCommitWritesBatchedRecordsTogether() throws IOException {
+        File directory = temporaryFolder.newFolder();
+        DiskLruCache cache = DiskLruCache.open(directory, 1, 1, Long.MAX_VALUE);
+        // Long enough for every record to join the same batch
+        cache.setDurability(DiskLruCache.Durability.GROUP_COMMIT, 1000);
+        putEntries(cache);
+        assertMissingEntries(crashCopy(directory));
+
+        cache.awaitDurable();
+        assertEquals(1, cache.groupCommitCount());
+        assertEntries(crashCopy(directory));
+        cache.close();
+    }
+
+    @Test
+    public void fsyncOnCloseWritesRecordsJustOnClose() throws IOException {
+        File directory = temporaryFolder.newFolder();
+        DiskLruCache cache = DiskLruCache.open(directory, 1, 1, Long.MAX_VALUE);
+        cache.setDurability(DiskLruCache.Durability.FSYNC_ON_CLOSE, 1);
+        putEntries(cache);
+        assertMissingEntries(crashCopy(directory));
+        cache.close();
+
+        assertEntries(directory);
+    }
+
+    @Test
+    public void awaitDurableWritesBufferedRecords() throws IOException {
+        File directory = temporaryFolder.newFolder();
+        DiskLruCache cache = DiskLruCache.open(directory, 1, 1, Long.MAX_VALUE);
+        cache.setDurability(DiskLruCache.Durability.FSYNC_ON_CLOSE, 1);
+        putEntries(cache);
+
+        cache.awaitDurable();
+        assertEntries(crashCopy(directory));
+        cache.close();
+    }
+
+    @Test
+    public void switchingToFlushPerOperationWritesBufferedRecords() throws IOException {
+        File directory = temporaryFolder.newFolder();
+        DiskLruCache cache = DiskLruCache.open(directory, 1, 1, Long.MAX_VALUE);
+        cache.setDurability(DiskLruCache.Durability.FSYNC_ON_CLOSE, 1);
+        putEntries(cache);
+
+        cache.setDurability(DiskLruCache.Durability.FLUSH_PER_OPERATION, 1);
+        assertEntries(crashCopy(directory));
+        cache.close();
+    }
+
+    private static void putEntries(DiskLruCache cache) throws IOException {
+        for (int i = 0; i < ENTRIES; i++) {
+            put(cache, "key" + i, value(i, 16));
+        }
+    }
+
+    /**
+     * Checks every entry stored by {@link #putEntries} is found when opening the directory.
+     */
+    private static void assertEntries(File directory) throws IOException {
+        DiskLruCache cache = DiskLruCache.open(directory, 1, 1, Long.MAX_VALUE);
+        for (int i = 0; i < ENTRIES; i++) {
+            assertEquals(value(i, 16), read(cache, "key" + i));
+        }
+        cache.close();
+    }
+
+    /**
+     * Checks no entry stored by {@link #putEntries} is found when opening the directory, and their files were
+     * deleted instead of leaked.
+     */
+    private static void assertMissingEntries(File directory) throws IOException {
+        DiskLruCache cache = DiskLruCache.open(directory, 1, 1, Long.MAX_VALUE);
+        for (int i = 0; i < ENTRIES; i++) {
+            assertNull(read(cache, "key" + i));
+        }
+        assertEquals(0, cache.size());
+        cache.close();
+        for (String name : directory.list()) {
+            assertTrue(name, name.startsWith(DiskLruCache.JOURNAL_FILE) || new File(directory, name).isDirectory());
+        }
+    }
+
+    /**
+     * Copies the directory of a cache still open, keeping just what was written to files so far.
+     */
+    private File crashCopy(File directory) throws IOException {
+        File copy = temporaryFolder.newFolder();
+        copyDirectory(directory, copy);
+        return copy;
+    }
+
+    private static void copyDirectory(File source, File target) throws IOException {
+        for (File file : source.listFiles()) {
+            File targetFile = new File(target, file.getName());
+            if (file.isDirectory()) {
+                assertFalse(targetFile.exists());
+                assertTrue(targetFile.mkdir());
+                copyDirectory(file, targetFile);
+                continue;
+            }
+
+            InputStream in = new FileInputStream(file);
+            try {
+                OutputStream out = new FileOutputStream(targetFile);
+                try {
+                    byte[] buffer = new byte[8192];
+                    int count;
+                    while ((count = in.read(buffer)) != -1) {
+                        out.write(buffer, 0, count);
+                    }
+                } finally {
+                    out.close();
+                }
+            } finally {
+                in.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2016 Isaac R.F.
+ * http://isaacrf.com/works/epicbitmaprenderer
+ * https://github.com/isaacrf/EpicBitmapRenderer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.isaacrf.epicbitmaprenderer.utils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Benchmarks open, get and clear of a large disk cache stored flat versus fanned out into hashed subdirectories
+ * ({@link DiskLruCache.Layout}). Entry count can be changed with the "benchmark.entries" system property.
+ */
+public class FanOutLayoutBenchmarkTest {
+    private static final int ENTRIES = Integer.getInteger("benchmark.entries", 100000);
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void largeCacheInBothLayouts() throws IOException {
+        Result flat = run(DiskLruCache.Layout.FLAT);
+        Result fanOut = run(DiskLruCache.Layout.FAN_OUT);
+
+        System.out.println(String.format(Locale.US,
+                "%d entries%n  FLAT:    open %d ms, get all %d ms, clear %d ms, largest directory %d files%n"
+                        + "  FAN_OUT: open %d ms, get all %d ms, clear %d ms, largest directory %d files",
+                ENTRIES, flat.openMillis, flat.getMillis, flat.clearMillis, flat.largestDirectory,
+                fanOut.openMillis, fanOut.getMillis, fanOut.clearMillis, fanOut.largestDirectory));
+
+        assertTrue(flat.largestDirectory >= ENTRIES);
+        // 256 subdirectories share the entries
+        assertTrue(fanOut.largestDirectory < ENTRIES / 128 + 256);
+    }
+
+    @Test
+    public void largeCacheMigratesBetweenLayouts() throws IOException {
+        File directory = temporaryFolder.newFolder();
+        fill(directory, DiskLruCache.Layout.FLAT);
+
+        long start = System.nanoTime();
+        DiskLruCache cache = DiskLruCache.open(directory, 1, 1, Long.MAX_VALUE, DiskLruCache.Layout.FAN_OUT);
+        long toFanOut = (System.nanoTime() - start) / 1000000;
+        readAll(cache);
+        cache.close();
+
+        start = System.nanoTime();
+        cache = DiskLruCache.open(directory, 1, 1, Long.MAX_VALUE, DiskLruCache.Layout.FLAT);
+        long toFlat = (System.nanoTime() - start) / 1000000;
+        readAll(cache);
+        cache.close();
+
+        System.out.println(String.format(Locale.US, "%d entries: FLAT to FAN_OUT %d ms, FAN_OUT to FLAT %d ms",
+                ENTRIES, toFanOut, toFlat));
+
+        //Subdirectories emptied going back to flat are removed
+        File[] files = directory.listFiles();
+        assertNotNull(files);
+        for (File file : files) {
+            assertFalse(file.getName(), file.isDirectory());
+        }
+    }
+
+    private Result run(DiskLruCache.Layout layout) throws IOException {
+        File directory = temporaryFolder.newFolder();
+        fill(directory, layout);
+        Result result = new Result();
+
+        long start = System.nanoTime();
+        DiskLruCache cache = DiskLruCache.open(directory, 1, 1, Long.MAX_VALUE, layout);
+        result.openMillis = (System.nanoTime() - start) / 1000000;
+
+        start = System.nanoTime();
+        readAll(cache);
+        result.getMillis = (System.nanoTime() - start) / 1000000;
+        result.largestDirectory = largestDirectory(directory);
+
+        start = System.nanoTime();
+        cache.delete();
+        result.clearMillis = (System.nanoTime() - start) / 1000000;
+        File[] remaining = directory.listFiles();
+        assertTrue(remaining == null || remaining.length == 0);
+        return result;
+    }
+
+    private static void fill(File directory, DiskLruCache.Layout layout) throws IOException {
+        DiskLruCache cache = DiskLruCache.open(directory, 1, 1, Long.MAX_VALUE, layout);
+        try {
+            for (int i = 0; i < ENTRIES; i++) {
+                DiskLruCache.Editor editor = cache.edit(key(i));
+                editor.set(0, "0123456789abcdef");
+                editor.commit();
+            }
+        } finally {
+            cache.close();
+        }
+    }
+
+    private static void readAll(DiskLruCache cache) throws IOException {
+        for (int i = 0; i < ENTRIES; i++) {
+            DiskLruCache.Snapshot snapshot = cache.get(key(i));
+            assertNotNull(key(i), snapshot);
+            assertEquals("0123456789abcdef", snapshot.getString(0));
+            snapshot.close();
+        }
+    }
+
+    private static int largestDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return 0;
+        }
+        int largest = files.length;
+        for (File file : files) {
+            if (file.isDirectory()) {
+                largest = Math.max(largest, largestDirectory(file));
+            }
+        }
+        return largest;
+    }
+
+    private static String key(int index) {
+        return String.format(Locale.US, "key%07d", index);
+    }
+
+    private static class Result {
+        private long openMillis;
+        private long getMillis;
+        private long clearMillis;
+        private int largestDirectory;
+    }
+}
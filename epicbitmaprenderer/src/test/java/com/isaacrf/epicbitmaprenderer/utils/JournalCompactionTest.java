@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2016 Isaac R.F.
+ * http://isaacrf.com/works/epicbitmaprenderer
+ * https://github.com/isaacrf/EpicBitmapRenderer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.isaacrf.epicbitmaprenderer.utils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.isaacrf.epicbitmaprenderer.utils.DiskCaches.awaitBackgroundWork;
+import static com.isaacrf.epicbitmaprenderer.utils.DiskCaches.put;
+import static com.isaacrf.epicbitmaprenderer.utils.DiskCaches.read;
+import static com.isaacrf.epicbitmaprenderer.utils.DiskCaches.value;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link DiskLruCache} journal compaction, performed on the background thread while operations keep running,
+ * which are replayed from a side log onto the compacted journal.
+ */
+public class JournalCompactionTest {
+    private static final int ENTRIES = 100;
+    // Journal header takes 5 lines
+    private static final int HEADER_LINES = 5;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void compactionKeepsLiveEntriesAcrossReopen() throws IOException {
+        File directory = temporaryFolder.newFolder();
+        DiskLruCache cache = DiskLruCache.open(directory, 1, 1, Long.MAX_VALUE);
+        for (int i = 0; i < ENTRIES; i++) {
+            put(cache, key(i), value(i, 16));
+        }
+        replaceAndRemoveEntries(cache);
+
+        assertTrue(cache.compactIfNeeded());
+        awaitBackgroundWork(cache);
+
+        assertEquals(1, cache.compactionCount());
+        // Just one CLEAN record per live entry
+        assertEquals(HEADER_LINES + ENTRIES - 20, journalLines(directory));
+        assertFalse(cache.compactIfNeeded());
+        cache.close();
+
+        cache = DiskLruCache.open(directory, 1, 1, Long.MAX_VALUE);
+        assertEntries(cache);
+        cache.close();
+    }
+
+    @Test
+    public void operationsDuringCompactionAreReplayedFromSideLog() throws IOException {
+        File directory = temporaryFolder.newFolder();
+        final DiskLruCache cache = DiskLruCache.open(directory, 1, 1, Long.MAX_VALUE);
+        for (int i = 0; i < ENTRIES; i++) {
+            put(cache, key(i), value(i, 16));
+        }
+        for (int i = 0; i < ENTRIES; i++) {
+            read(cache, key(i));
+        }
+
+        // Operate once the index is snapshotted, while the compacted journal is written
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        cache.compactionSnapshotListener = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    replaceAndRemoveEntries(cache);
+                    put(cache, key(ENTRIES), value(ENTRIES, 16));
+                } catch (Throwable e) {
+                    failure.set(e);
+                }
+            }
+        };
+        assertTrue(cache.compactIfNeeded());
+        awaitBackgroundWork(cache);
+        cache.compactionSnapshotListener = null;
+
+        assertNull(failure.get());
+        assertEquals(1, cache.compactionCount());
+        assertEntries(cache);
+        assertEquals(value(ENTRIES, 16), read(cache, key(ENTRIES)));
+        cache.close();
+
+        DiskLruCache reopened = DiskLruCache.open(directory, 1, 1, Long.MAX_VALUE);
+        assertEntries(reopened);
+        assertEquals(value(ENTRIES, 16), read(reopened, key(ENTRIES)));
+        reopened.close();
+    }
+
+    /**
+     * Replaces the first half of entries and removes 20 of the rest.
+     */
+    private static void replaceAndRemoveEntries(DiskLruCache cache) throws IOException {
+        for (int i = 0; i < ENTRIES / 2; i++) {
+            put(cache, key(i), value(i + 1, 16));
+        }
+        for (int i = ENTRIES / 2; i < ENTRIES / 2 + 20; i++) {
+            assertTrue(cache.remove(key(i)));
+        }
+    }
+
+    /**
+     * Checks entries were replaced and removed by {@link #replaceAndRemoveEntries}.
+     */
+    private static void assertEntries(DiskLruCache cache) throws IOException {
+        for (int i = 0; i < ENTRIES; i++) {
+            if (i < ENTRIES / 2) {
+                assertEquals(value(i + 1, 16), read(cache, key(i)));
+            } else if (i < ENTRIES / 2 + 20) {
+                assertNull(read(cache, key(i)));
+            } else {
+                assertEquals(value(i, 16), read(cache, key(i)));
+            }
+        }
+    }
+
+    private static int journalLines(File directory) throws IOException {
+        BufferedReader reader = new BufferedReader(new FileReader(new File(directory, DiskLruCache.JOURNAL_FILE)));
+        try {
+            int lines = 0;
+            while (reader.readLine() != null) {
+                lines++;
+            }
+            return lines;
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static String key(int index) {
+        return "key" + index;
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2016 Isaac R.F.
+ * http://isaacrf.com/works/epicbitmaprenderer
+ * https://github.com/isaacrf/EpicBitmapRenderer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.isaacrf.epicbitmaprenderer.utils;
+
+import android.graphics.Bitmap;
+
+import com.isaacrf.epicbitmaprenderer.core.BitmapMemoryCache;
+import com.isaacrf.epicbitmaprenderer.core.MemoryCache;
+import com.isaacrf.epicbitmaprenderer.core.WTinyLfuMemoryCache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * <p>
+ * Replays access traces against {@link MemoryCache} implementations to compare their hit rates, e.g. to check the
+ * memory cache of {@link com.isaacrf.epicbitmaprenderer.core.EpicBitmapCache} against a given access pattern.
+ * </p>
+ * <p>
+ * Every key in a trace is looked up, and cached on a miss, as render methods do. All entries share the same
+ * {@link Bitmap}, so a tiny one is enough, and use fixed length keys, so they all have the same size.
+ * </p>
+ */
+public final class MemoryCacheSimulator {
+
+    private MemoryCacheSimulator() {
+    }
+
+    /**
+     * Replays a trace against a cache.
+     *
+     * @param cache {@link MemoryCache} to exercise. Counts already recorded by it are ignored.
+     * @param trace Keys requested, in order.
+     * @param value {@link Bitmap} cached on every miss.
+     * @return Hit rate, between 0 and 1.
+     */
+    public static double hitRate(MemoryCache cache, List<String> trace, Bitmap value) {
+        int hits = 0;
+        for (String key : trace) {
+            if (cache.get(key) != null) {
+                hits++;
+            } else {
+                cache.put(key, value);
+            }
+        }
+        return trace.isEmpty() ? 0 : (double) hits / trace.size();
+    }
+
+    /**
+     * Builds the trace of an app whose screens keep showing a few bitmaps (avatars, icons...) while the user flings
+     * through galleries whose images are seen once.
+     *
+     * @param hotKeys           Number of bitmaps shown on every screen.
+     * @param galleryKeys       Number of gallery images seen once per fling.
+     * @param hotPerGalleryItem Number of hot bitmap requests per gallery image shown.
+     * @param flings            Number of flings through a gallery of new images.
+     * @param seed              Random seed, to get the same trace on each run.
+     * @return Keys requested, in order.
+     */
+    public static List<String> galleryTrace(int hotKeys, int galleryKeys, int hotPerGalleryItem, int flings, long seed) {
+        Random random = new Random(seed);
+        List<String> trace = new ArrayList<String>();
+
+        for (int fling = 0; fling < flings; fling++) {
+            for (int item = 0; item < galleryKeys; item++) {
+                trace.add(key("gal", fling * galleryKeys + item));
+                for (int i = 0; i < hotPerGalleryItem; i++) {
+                    trace.add(key("hot", random.nextInt(hotKeys)));
+                }
+            }
+        }
+
+        return trace;
+    }
+
+    /**
+     * Compares LRU ({@link BitmapMemoryCache}) and W-TinyLFU ({@link WTinyLfuMemoryCache}) hit rates for a trace.
+     *
+     * @param trace    Keys requested, in order. Keys must have the same length for caches to hold exactly capacity entries.
+     * @param capacity Number of entries that fit in the caches compared.
+     * @param value    {@link Bitmap} cached on every miss.
+     * @return Human readable report with both hit rates.
+     */
+    public static String compare(List<String> trace, int capacity, Bitmap value) {
+        long maxSize = maxSize(trace, capacity, value);
+
+        double lru = hitRate(new BitmapMemoryCache(maxSize), trace, value);
+        double wTinyLfu = hitRate(new WTinyLfuMemoryCache(maxSize, BitmapMemoryCache.UNLIMITED_ENTRIES, capacity * 4),
+                trace, value);
+
+        return String.format(Locale.US, "%d requests, capacity %d: LRU %.2f%%, W-TinyLFU %.2f%%",
+                trace.size(), capacity, lru * 100, wTinyLfu * 100);
+    }
+
+    /**
+     * Computes the maximum size of a cache holding exactly a given number of entries of a trace.
+     *
+     * @param trace    Keys requested, in order. Keys must have the same length.
+     * @param capacity Number of entries that must fit.
+     * @param value    {@link Bitmap} cached on every miss.
+     * @return Maximum size, in bytes.
+     */
+    public static long maxSize(List<String> trace, int capacity, Bitmap value) {
+        return capacity * entrySize(trace.isEmpty() ? "" : trace.get(0), value);
+    }
+
+    //region Helper methods
+
+    private static String key(String prefix, int index) {
+        return String.format(Locale.US, "%s%07d", prefix, index);
+    }
+
+    private static long entrySize(String key, Bitmap value) {
+        return BitmapMemoryCache.getBitmapByteCount(value) + BitmapMemoryCache.ENTRY_OVERHEAD + 2L * key.length();
+    }
+    //endregion Helper methods
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2016 Isaac R.F.
+ * http://isaacrf.com/works/epicbitmaprenderer
+ * https://github.com/isaacrf/EpicBitmapRenderer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.isaacrf.epicbitmaprenderer.utils;
+
+import android.graphics.Bitmap;
+
+import com.isaacrf.epicbitmaprenderer.core.BitmapMemoryCache;
+import com.isaacrf.epicbitmaprenderer.core.WTinyLfuMemoryCache;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares memory cache hit rates on traces replayed by {@link MemoryCacheSimulator}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class MemoryCacheSimulatorTest {
+    private static final int CAPACITY = 200;
+
+    private final Bitmap value = Bitmap.createBitmap(1, 1, Bitmap.Config.ALPHA_8);
+
+    @Test
+    public void wTinyLfuBeatsLruOnGalleryTrace() {
+        // 300 bitmaps on every screen, while flinging through galleries of 2000 new images
+        List<String> trace = MemoryCacheSimulator.galleryTrace(300, 2000, 1, 10, 42);
+        long maxSize = MemoryCacheSimulator.maxSize(trace, CAPACITY, value);
+
+        double lru = MemoryCacheSimulator.hitRate(new BitmapMemoryCache(maxSize), trace, value);
+        double wTinyLfu = MemoryCacheSimulator.hitRate(
+                new WTinyLfuMemoryCache(maxSize, BitmapMemoryCache.UNLIMITED_ENTRIES, CAPACITY * 4), trace, value);
+
+        assertTrue(MemoryCacheSimulator.compare(trace, CAPACITY, value), wTinyLfu > lru + 0.1);
+    }
+
+    @Test
+    public void galleryTraceIsReproducible() {
+        assertEquals(MemoryCacheSimulator.galleryTrace(30, 100, 2, 3, 7),
+                MemoryCacheSimulator.galleryTrace(30, 100, 2, 3, 7));
+        assertEquals(3 * 100 * (1 + 2), MemoryCacheSimulator.galleryTrace(30, 100, 2, 3, 7).size());
+    }
+
+    @Test
+    public void cacheHoldsExactlyCapacityEntries() {
+        List<String> trace = MemoryCacheSimulator.galleryTrace(1, CAPACITY * 2, 0, 1, 1);
+        BitmapMemoryCache cache = new BitmapMemoryCache(MemoryCacheSimulator.maxSize(trace, CAPACITY, value));
+
+        MemoryCacheSimulator.hitRate(cache, trace, value);
+
+        assertEquals(CAPACITY, cache.entryCount());
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2016 Isaac R.F.
+ * http://isaacrf.com/works/epicbitmaprenderer
+ * https://github.com/isaacrf/EpicBitmapRenderer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.isaacrf.epicbitmaprenderer.utils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Benchmarks journal growth and read latency of a read-heavy workload, journaling every read versus persisting
+ * recency with checkpoints ({@link DiskLruCache#setRecencyCheckpointing(boolean)}).
+ */
+public class RecencyCheckpointBenchmarkTest {
+    private static final int ENTRIES = 500;
+    private static final int READS = 50000;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void checkpointsKeepReadsOffTheJournal() throws IOException {
+        Result perRead = run(false);
+        Result checkpoints = run(true);
+
+        System.out.println(String.format(Locale.US,
+                "%d reads over %d entries%n  per-read records: %d bytes journaled, %d rebuilds, %.1f us/get%n"
+                        + "  checkpoints:      %d bytes journaled, %d rebuilds, %.1f us/get",
+                READS, ENTRIES, perRead.journalBytes, perRead.rebuilds, perRead.nanosPerGet / 1000.0,
+                checkpoints.journalBytes, checkpoints.rebuilds, checkpoints.nanosPerGet / 1000.0));
+
+        assertTrue(perRead.rebuilds > 0);
+        assertEquals(0, checkpoints.rebuilds);
+        // One checkpoint holds every key read once, instead of one record per read
+        assertTrue(checkpoints.journalBytes * 10 < perRead.journalBytes);
+    }
+
+    private Result run(boolean recencyCheckpointing) throws IOException {
+        File directory = temporaryFolder.newFolder();
+        File journalFile = new File(directory, DiskLruCache.JOURNAL_FILE);
+        DiskLruCache cache = DiskLruCache.open(directory, 1, 1, Long.MAX_VALUE);
+        try {
+            cache.setRecencyCheckpointing(recencyCheckpointing);
+            for (int i = 0; i < ENTRIES; i++) {
+                DiskLruCache.Editor editor = cache.edit("k" + i);
+                editor.set(0, "value" + i);
+                editor.commit();
+            }
+
+            //Journal growth, following journal length after every read. Length dropping means it was rebuilt.
+            Random random = new Random(1);
+            Result result = new Result();
+            long length = journalFile.length();
+            for (int i = 0; i < READS; i++) {
+                read(cache, "k" + random.nextInt(ENTRIES));
+                long newLength = journalFile.length();
+                if (newLength < length) {
+                    result.rebuilds++;
+                    result.journalBytes += newLength;
+                } else {
+                    result.journalBytes += newLength - length;
+                }
+                length = newLength;
+            }
+            cache.flush();
+            result.journalBytes += Math.max(0, journalFile.length() - length);
+
+            //Read latency, on a second pass not slowed down by measuring the journal
+            long start = System.nanoTime();
+            for (int i = 0; i < READS; i++) {
+                read(cache, "k" + random.nextInt(ENTRIES));
+            }
+            result.nanosPerGet = (System.nanoTime() - start) / READS;
+            return result;
+        } finally {
+            cache.close();
+        }
+    }
+
+    private static void read(DiskLruCache cache, String key) throws IOException {
+        DiskLruCache.Snapshot snapshot = cache.get(key);
+        assertNotNull(key, snapshot);
+        snapshot.close();
+    }
+
+    private static class Result {
+        private long journalBytes;
+        private int rebuilds;
+        private long nanosPerGet;
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2016 Isaac R.F.
+ * http://isaacrf.com/works/epicbitmaprenderer
+ * https://github.com/isaacrf/EpicBitmapRenderer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.isaacrf.epicbitmaprenderer.utils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import static com.isaacrf.epicbitmaprenderer.utils.DiskCaches.awaitBackgroundWork;
+import static com.isaacrf.epicbitmaprenderer.utils.DiskCaches.put;
+import static com.isaacrf.epicbitmaprenderer.utils.DiskCaches.read;
+import static com.isaacrf.epicbitmaprenderer.utils.DiskCaches.value;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link DiskLruCache} values stored in {@link SegmentStore} segments: reads through the journal index,
+ * sealing, compaction and recovery after reopening.
+ */
+public class SegmentStoreTest {
+    // Five values fit in a segment
+    private static final int VALUE_SIZE = 200 * 1024;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void readsValuesBackThroughIndexAfterReopen() throws IOException {
+        File directory = temporaryFolder.newFolder();
+        DiskLruCache cache = open(directory);
+        for (int i = 0; i < 12; i++) {
+            put(cache, key(i), value(i, VALUE_SIZE));
+        }
+
+        // Two sealed segments and the active one, no file per value
+        assertEquals(3, cache.segmentCount());
+        assertEquals(3, segmentsDirectory(directory).list().length);
+        assertFalse(new File(directory, key(0) + ".0").exists());
+        cache.close();
+
+        cache = open(directory);
+        assertEquals(3, cache.segmentCount());
+        assertEquals(12L * VALUE_SIZE, cache.size());
+        for (int i = 0; i < 12; i++) {
+            assertEquals(value(i, VALUE_SIZE), read(cache, key(i)));
+        }
+        cache.close();
+    }
+
+    @Test
+    public void replacedValuesAreReadFromTheirNewLocation() throws IOException {
+        File directory = temporaryFolder.newFolder();
+        DiskLruCache cache = open(directory);
+        put(cache, key(0), value(0, VALUE_SIZE));
+        put(cache, key(0), value(1, VALUE_SIZE));
+
+        assertEquals(value(1, VALUE_SIZE), read(cache, key(0)));
+        assertEquals(VALUE_SIZE, cache.segmentGarbageBytes());
+        cache.close();
+
+        cache = open(directory);
+        assertEquals(value(1, VALUE_SIZE), read(cache, key(0)));
+        assertEquals(VALUE_SIZE, cache.size());
+        cache.close();
+    }
+
+    @Test
+    public void compactionKeepsLiveValuesAcrossReopen() throws IOException {
+        File directory = temporaryFolder.newFolder();
+        DiskLruCache cache = open(directory);
+        for (int i = 0; i < 15; i++) {
+            put(cache, key(i), value(i, VALUE_SIZE));
+        }
+
+        // First segment left with two live values out of five
+        for (int i = 0; i < 3; i++) {
+            assertTrue(cache.remove(key(i)));
+        }
+        awaitBackgroundWork(cache);
+
+        assertEquals(1, cache.segmentCompactionCount());
+        assertFalse(new File(segmentsDirectory(directory), "0").exists());
+        for (int i = 3; i < 15; i++) {
+            assertEquals(value(i, VALUE_SIZE), read(cache, key(i)));
+        }
+        cache.close();
+
+        cache = open(directory);
+        assertEquals(12L * VALUE_SIZE, cache.size());
+        for (int i = 0; i < 15; i++) {
+            assertEquals(i < 3 ? null : value(i, VALUE_SIZE), read(cache, key(i)));
+        }
+        cache.close();
+    }
+
+    @Test
+    public void emptiedSegmentLostBeforeItsRemovalsIsReconciledOnOpen() throws IOException {
+        File directory = temporaryFolder.newFolder();
+        DiskLruCache cache = open(directory);
+        for (int i = 0; i < 5; i++) {
+            put(cache, key(i), value(i, VALUE_SIZE));
+        }
+        cache.close();
+
+        // Reopened, the segment is sealed and deleted as soon as its last value is removed
+        cache = open(directory);
+        byte[] journalBeforeRemovals = readFile(new File(directory, DiskLruCache.JOURNAL_FILE));
+        for (int i = 0; i < 5; i++) {
+            assertTrue(cache.remove(key(i)));
+        }
+        assertFalse(new File(segmentsDirectory(directory), "0").exists());
+        cache.close();
+
+        // Crash lost the REMOVE records, journal still refers to the deleted segment
+        writeFile(new File(directory, DiskLruCache.JOURNAL_FILE), journalBeforeRemovals);
+        cache = open(directory);
+        assertEquals(0, cache.size());
+        assertNull(read(cache, key(0)));
+
+        // The lost segment id is not reused while the journal may refer to it
+        put(cache, key(5), value(5, VALUE_SIZE));
+        assertTrue(new File(segmentsDirectory(directory), "1").exists());
+        cache.close();
+
+        cache = open(directory);
+        assertEquals(VALUE_SIZE, cache.size());
+        assertNull(read(cache, key(0)));
+        assertEquals(value(5, VALUE_SIZE), read(cache, key(5)));
+        cache.close();
+    }
+
+    private static DiskLruCache open(File directory) throws IOException {
+        DiskLruCache cache = DiskLruCache.open(directory, 1, 1, Long.MAX_VALUE);
+        cache.setSegmentStorage(VALUE_SIZE);
+        return cache;
+    }
+
+    private static File segmentsDirectory(File directory) {
+        return new File(directory, SegmentStore.SEGMENTS_DIRECTORY);
+    }
+
+    private static String key(int index) {
+        return "key" + index;
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] content = new byte[(int) file.length()];
+            int read = 0;
+            while (read < content.length) {
+                read += in.read(content, read, content.length - read);
+            }
+            return content;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void writeFile(File file, byte[] content) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2016 Isaac R.F.
+ * http://isaacrf.com/works/epicbitmaprenderer
+ * https://github.com/isaacrf/EpicBitmapRenderer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.isaacrf.epicbitmaprenderer.utils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.isaacrf.epicbitmaprenderer.utils.DiskCaches.awaitBackgroundWork;
+import static com.isaacrf.epicbitmaprenderer.utils.DiskCaches.put;
+import static com.isaacrf.epicbitmaprenderer.utils.DiskCaches.read;
+import static com.isaacrf.epicbitmaprenderer.utils.DiskCaches.value;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link DiskLruCache} entries expiry, stored as an "@ms" token at the end of CLEAN journal records.
+ */
+public class TimeToLiveTest {
+    private static final int VALUE_SIZE = 100;
+    private static final long HOUR = 60 * 60 * 1000L;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void expiryIsWrittenAndParsedAsJournalToken() throws IOException {
+        File directory = temporaryFolder.newFolder();
+        long expiresAt = System.currentTimeMillis() + HOUR;
+        DiskLruCache cache = DiskLruCache.open(directory, 1, 1, Long.MAX_VALUE);
+        DiskLruCache.Editor editor = cache.edit("expiring");
+        editor.setExpiresAt(expiresAt);
+        editor.set(0, value(0, VALUE_SIZE));
+        editor.commit();
+        put(cache, "lasting", value(1, VALUE_SIZE));
+        cache.close();
+
+        List<String> lines = journalLines(directory);
+        assertTrue(lines.contains("CLEAN expiring " + VALUE_SIZE + " " + DiskLruCache.EXPIRY_PREFIX + expiresAt));
+        assertTrue(lines.contains("CLEAN lasting " + VALUE_SIZE));
+
+        cache = DiskLruCache.open(directory, 1, 1, Long.MAX_VALUE);
+        assertFalse(cache.isExpired("expiring"));
+        assertEquals(value(0, VALUE_SIZE), read(cache, "expiring"));
+        assertEquals(value(1, VALUE_SIZE), read(cache, "lasting"));
+        cache.close();
+    }
+
+    @Test
+    public void invalidExpiryTokenIsCorruptJournal() throws IOException {
+        File directory = temporaryFolder.newFolder();
+        DiskLruCache cache = DiskLruCache.open(directory, 1, 1, Long.MAX_VALUE);
+        put(cache, "key", value(0, VALUE_SIZE));
+        cache.close();
+        appendJournal(directory, "CLEAN key " + VALUE_SIZE + " " + DiskLruCache.EXPIRY_PREFIX + "soon\n");
+
+        cache = DiskLruCache.open(directory, 1, 1, Long.MAX_VALUE);
+        assertNull(read(cache, "key"));
+        assertEquals(0, cache.size());
+        cache.close();
+    }
+
+    @Test
+    public void expiredEntriesAreMissedOnRead() throws IOException {
+        DiskLruCache cache = DiskLruCache.open(temporaryFolder.newFolder(), 1, 1, Long.MAX_VALUE);
+        put(cache, "key", value(0, VALUE_SIZE));
+        assertTrue(cache.setExpiresAt("key", System.currentTimeMillis() - 1));
+
+        assertTrue(cache.isExpired("key"));
+        assertNull(read(cache, "key"));
+        assertEquals(1, cache.expiredMissCount());
+
+        // Storing it again drops the expiry, as there is no default time to live
+        put(cache, "key", value(1, VALUE_SIZE));
+        assertFalse(cache.isExpired("key"));
+        assertEquals(value(1, VALUE_SIZE), read(cache, "key"));
+        cache.close();
+    }
+
+    @Test
+    public void defaultTimeToLiveAppliesToEntriesCommittedAfterwards() throws IOException {
+        DiskLruCache cache = DiskLruCache.open(temporaryFolder.newFolder(), 1, 1, Long.MAX_VALUE);
+        put(cache, "before", value(0, VALUE_SIZE));
+        cache.setDefaultTimeToLive(HOUR);
+        long committedAt = System.currentTimeMillis();
+        put(cache, "after", value(1, VALUE_SIZE));
+        cache.close();
+
+        long expiresAt = 0;
+        for (String line : journalLines(cache.getDirectory())) {
+            if (line.startsWith("CLEAN before")) {
+                assertFalse(line, line.contains(DiskLruCache.EXPIRY_PREFIX));
+            } else if (line.startsWith("CLEAN after")) {
+                expiresAt = Long.parseLong(line.substring(line.indexOf(DiskLruCache.EXPIRY_PREFIX) + 1));
+            }
+        }
+        assertTrue(expiresAt >= committedAt + HOUR);
+        assertTrue(expiresAt <= System.currentTimeMillis() + HOUR);
+    }
+
+    @Test
+    public void expiryIsKeptAcrossJournalRebuild() throws IOException {
+        File directory = temporaryFolder.newFolder();
+        DiskLruCache cache = DiskLruCache.open(directory, 1, 1, Long.MAX_VALUE);
+        long expiresAt = System.currentTimeMillis() + HOUR;
+        for (int i = 0; i < 3; i++) {
+            put(cache, "key" + i, value(i, VALUE_SIZE));
+        }
+        assertTrue(cache.setExpiresAt("key0", expiresAt));
+        assertTrue(cache.setExpiresAt("key1", System.currentTimeMillis() - 1));
+
+        assertTrue(cache.compactIfNeeded());
+        awaitBackgroundWork(cache);
+        assertEquals(1, cache.compactionCount());
+        assertTrue(journalLines(directory).contains("CLEAN key0 " + VALUE_SIZE + " "
+                + DiskLruCache.EXPIRY_PREFIX + expiresAt));
+        cache.close();
+
+        cache = DiskLruCache.open(directory, 1, 1, Long.MAX_VALUE);
+        assertFalse(cache.isExpired("key0"));
+        assertEquals(value(0, VALUE_SIZE), read(cache, "key0"));
+        assertTrue(cache.isExpired("key1"));
+        assertNull(read(cache, "key1"));
+        assertFalse(cache.isExpired("key2"));
+        assertEquals(value(2, VALUE_SIZE), read(cache, "key2"));
+        cache.close();
+    }
+
+    @Test
+    public void expiredEntriesAreEvictedBeforeLeastRecentlyUsedOnes() throws IOException {
+        DiskLruCache cache = DiskLruCache.open(temporaryFolder.newFolder(), 1, 1, 10 * VALUE_SIZE);
+        for (int i = 0; i < 10; i++) {
+            put(cache, "key" + i, value(i, VALUE_SIZE));
+        }
+        // Most recently used entry, but expired
+        assertTrue(cache.setExpiresAt("key9", System.currentTimeMillis() - 1));
+
+        put(cache, "key10", value(10, VALUE_SIZE));
+        awaitBackgroundWork(cache);
+
+        assertEquals(1, cache.evictionCount());
+        assertEquals(1, cache.expiredEvictionCount());
+        assertEquals(value(0, VALUE_SIZE), read(cache, "key0"));
+        assertNull(read(cache, "key9"));
+        assertEquals(value(10, VALUE_SIZE), read(cache, "key10"));
+        cache.close();
+    }
+
+    private static List<String> journalLines(File directory) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new FileReader(new File(directory, DiskLruCache.JOURNAL_FILE)));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+            return lines;
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static void appendJournal(File directory, String record) throws IOException {
+        Writer writer = new FileWriter(new File(directory, DiskLruCache.JOURNAL_FILE), true);
+        try {
+            writer.write(record);
+        } finally {
+            writer.close();
+        }
+    }
+}
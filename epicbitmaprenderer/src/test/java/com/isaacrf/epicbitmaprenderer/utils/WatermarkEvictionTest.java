@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2016 Isaac R.F.
+ * http://isaacrf.com/works/epicbitmaprenderer
+ * https://github.com/isaacrf/EpicBitmapRenderer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.isaacrf.epicbitmaprenderer.utils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.isaacrf.epicbitmaprenderer.utils.DiskCaches.awaitBackgroundWork;
+import static com.isaacrf.epicbitmaprenderer.utils.DiskCaches.put;
+import static com.isaacrf.epicbitmaprenderer.utils.DiskCaches.read;
+import static com.isaacrf.epicbitmaprenderer.utils.DiskCaches.value;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests {@link DiskLruCache} background eviction between the high and low watermarks.
+ */
+public class WatermarkEvictionTest {
+    private static final int VALUE_SIZE = 100;
+    private static final int MAX_SIZE = 10 * VALUE_SIZE;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void evictsDownToMaxSizeByDefault() throws IOException {
+        DiskLruCache cache = DiskLruCache.open(temporaryFolder.newFolder(), 1, 1, MAX_SIZE);
+        putEntries(cache, 0, 11);
+        awaitBackgroundWork(cache);
+
+        assertEquals(1, cache.evictionCount());
+        assertEquals(MAX_SIZE, cache.size());
+        assertNull(read(cache, key(0)));
+        cache.close();
+    }
+
+    @Test
+    public void evictsDownToLowWatermarkInOneBatch() throws IOException {
+        DiskLruCache cache = DiskLruCache.open(temporaryFolder.newFolder(), 1, 1, MAX_SIZE);
+        cache.setEvictionWatermarks(0.9f, 0.5f);
+        putEntries(cache, 0, 9);
+        awaitBackgroundWork(cache);
+        assertEquals(0, cache.evictionBatchCount());
+
+        // Passing the high watermark evicts least recently used entries until the low one is reached
+        read(cache, key(0));
+        putEntries(cache, 9, 10);
+        awaitBackgroundWork(cache);
+
+        assertEquals(1, cache.evictionBatchCount());
+        assertEquals(5, cache.evictionCount());
+        assertEquals(5 * VALUE_SIZE, cache.size());
+        assertEquals(value(0, VALUE_SIZE), read(cache, key(0)));
+        for (int i = 1; i <= 5; i++) {
+            assertNull(read(cache, key(i)));
+        }
+        for (int i = 6; i <= 9; i++) {
+            assertEquals(value(i, VALUE_SIZE), read(cache, key(i)));
+        }
+        cache.close();
+    }
+
+    @Test
+    public void entriesBeingEditedAreNotEvicted() throws IOException {
+        DiskLruCache cache = DiskLruCache.open(temporaryFolder.newFolder(), 1, 1, MAX_SIZE);
+        cache.setEvictionWatermarks(0.9f, 0.5f);
+        putEntries(cache, 0, 9);
+        DiskLruCache.Editor editor = cache.edit(key(0));
+        assertNotNull(editor);
+
+        putEntries(cache, 9, 10);
+        awaitBackgroundWork(cache);
+        editor.abort();
+
+        assertEquals(value(0, VALUE_SIZE), read(cache, key(0)));
+        assertNull(read(cache, key(5)));
+        assertEquals(value(6, VALUE_SIZE), read(cache, key(6)));
+        cache.close();
+    }
+
+    @Test
+    public void editOfEvictedKeyWaitsForItsFilesToBeDeleted() throws Exception {
+        File directory = temporaryFolder.newFolder();
+        final DiskLruCache cache = DiskLruCache.open(directory, 1, 1, MAX_SIZE);
+        putEntries(cache, 0, 10);
+
+        // Store the evicted key again while the evictor is about to delete its files
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    put(cache, key(0), value(100, VALUE_SIZE));
+                } catch (Throwable e) {
+                    failure.set(e);
+                }
+            }
+        });
+        cache.evictionListener = new Runnable() {
+            @Override
+            public void run() {
+                writer.start();
+                while (writer.getState() != Thread.State.WAITING && writer.getState() != Thread.State.TERMINATED) {
+                    Thread.yield();
+                }
+            }
+        };
+        putEntries(cache, 10, 11);
+        awaitBackgroundWork(cache);
+        cache.evictionListener = null;
+        writer.join();
+
+        assertNull(failure.get());
+        assertEquals(value(100, VALUE_SIZE), read(cache, key(0)));
+        cache.close();
+
+        DiskLruCache reopened = DiskLruCache.open(directory, 1, 1, MAX_SIZE);
+        assertEquals(value(100, VALUE_SIZE), read(reopened, key(0)));
+        reopened.close();
+    }
+
+    private static void putEntries(DiskLruCache cache, int from, int to) throws IOException {
+        for (int i = from; i < to; i++) {
+            put(cache, key(i), value(i, VALUE_SIZE));
+        }
+    }
+
+    private static String key(int index) {
+        return "key" + index;
+    }
+}